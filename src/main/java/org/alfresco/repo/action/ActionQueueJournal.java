@@ -0,0 +1,568 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.action;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.service.cmr.action.Action;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A local append-only journal of the actions waiting in an asynchronous action queue.
+ * <p>
+ * Each queued action is appended to the current segment file and a completion marker is
+ * appended once it has run.  Segments are rotated after a fixed number of records and deleted,
+ * oldest first, once every action in them has completed.  The actions still outstanding when the
+ * server stops are {@link #recover() recovered} on the next start, so an action is run <i>at least
+ * once</i>.
+ * <p>
+ * The journal remembers where each action was written so that the queue only needs to keep a
+ * bounded number of actions in memory and can {@link #read(Entry) read} the rest back when
+ * they are due to run.
+ *
+ * @since 6.1
+ */
+class ActionQueueJournal
+{
+    private static final String SEGMENT_PREFIX = "actions-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte RECORD_ACTION = 1;
+    private static final byte RECORD_DONE = 2;
+
+    private static Log logger = LogFactory.getLog(ActionQueueJournal.class);
+
+    private final File dir;
+    private final int segmentSize;
+    private final boolean syncOnWrite;
+
+    /** All segments with outstanding actions, plus the current segment, by segment number */
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private Segment currentSegment;
+    private long nextSegmentNumber;
+    private long nextId;
+    private boolean closed;
+
+    /**
+     * @param dir                   the directory holding the journal segments
+     * @param segmentSize           the number of records written to a segment before it is rotated
+     * @param syncOnWrite           <tt>true</tt> to force each record to disk as it is written
+     */
+    ActionQueueJournal(File dir, int segmentSize, boolean syncOnWrite)
+    {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.syncOnWrite = syncOnWrite;
+        if (!dir.isDirectory() && !dir.mkdirs())
+        {
+            throw new AlfrescoRuntimeException("Unable to create asynchronous action journal directory: " + dir);
+        }
+    }
+
+    /**
+     * Read back the actions left outstanding by a previous run, in the order they were queued.
+     * Must be called before anything is appended.
+     *
+     * @param maxLoaded             the number of recovered actions to keep in memory; the rest
+     *                              are read back from the journal when needed
+     * @return                      the outstanding actions
+     */
+    synchronized List<Entry> recover(int maxLoaded)
+    {
+        File[] files = dir.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null || files.length == 0)
+        {
+            return new ArrayList<Entry>(0);
+        }
+        Arrays.sort(files);
+
+        Map<Long, Entry> outstanding = new LinkedHashMap<Long, Entry>();
+        for (File file : files)
+        {
+            long segmentNumber = parseSegmentNumber(file);
+            Segment segment = new Segment(file, segmentNumber);
+            segments.put(segmentNumber, segment);
+            nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber + 1);
+            readSegment(segment, outstanding);
+        }
+
+        int loaded = 0;
+        for (Entry entry : outstanding.values())
+        {
+            entry.segment.outstanding.add(entry.id);
+            if (loaded < maxLoaded)
+            {
+                loaded++;
+            }
+            else
+            {
+                entry.action = null;
+            }
+        }
+        // Forget segments that have nothing left to run
+        deleteCompletedSegments();
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Recovered " + outstanding.size() + " queued actions from " + files.length + " journal segments in " + dir);
+        }
+        return new ArrayList<Entry>(outstanding.values());
+    }
+
+    private void readSegment(Segment segment, Map<Long, Entry> outstanding)
+    {
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+            long offset = 0L;
+            while (true)
+            {
+                byte type;
+                long id;
+                byte[] record = null;
+                long recordOffset;
+                try
+                {
+                    type = in.readByte();
+                    id = in.readLong();
+                    recordOffset = offset + 9;
+                    if (type == RECORD_ACTION)
+                    {
+                        record = new byte[in.readInt()];
+                        in.readFully(record);
+                        offset = recordOffset + 4 + record.length;
+                    }
+                    else
+                    {
+                        offset = recordOffset;
+                    }
+                }
+                catch (EOFException e)
+                {
+                    // The server stopped part way through a record
+                    break;
+                }
+                segment.records++;
+                nextId = Math.max(nextId, id + 1);
+                if (type == RECORD_DONE)
+                {
+                    outstanding.remove(id);
+                    continue;
+                }
+                try
+                {
+                    QueuedAction action = deserialize(record);
+                    outstanding.put(id, new Entry(id, segment, recordOffset, action));
+                }
+                catch (Exception e)
+                {
+                    logger.error("Skipping unreadable action in journal segment: " + segment.file, e);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to read asynchronous action journal segment: " + segment.file, e);
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try { in.close(); } catch (IOException e) {}
+            }
+        }
+    }
+
+    /**
+     * Append a queued action
+     *
+     * @return                      the journal entry, holding the action
+     */
+    synchronized Entry append(QueuedAction action) throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Asynchronous action journal has been closed: " + dir);
+        }
+        byte[] record = serialize(action);
+        Segment segment = getCurrentSegment();
+        long id = nextId++;
+        segment.out.writeByte(RECORD_ACTION);
+        segment.out.writeLong(id);
+        long recordOffset = segment.out.size();
+        segment.out.writeInt(record.length);
+        segment.out.write(record);
+        flush(segment);
+        segment.records++;
+        segment.outstanding.add(id);
+        return new Entry(id, segment, recordOffset, action);
+    }
+
+    /**
+     * Record that an action has run (or has been dropped) and delete any segments that no longer
+     * hold outstanding actions
+     */
+    synchronized void complete(Entry entry)
+    {
+        if (closed)
+        {
+            // The action will run again after a restart
+            return;
+        }
+        try
+        {
+            Segment segment = getCurrentSegment();
+            segment.out.writeByte(RECORD_DONE);
+            segment.out.writeLong(entry.id);
+            flush(segment);
+            segment.records++;
+        }
+        catch (IOException e)
+        {
+            // The action will run again after a restart
+            logger.warn("Failed to record completion of queued action " + entry.id + " in " + dir, e);
+        }
+        entry.segment.outstanding.remove(entry.id);
+        deleteCompletedSegments();
+    }
+
+    /**
+     * Read an action that is no longer held in memory back from the journal
+     */
+    QueuedAction read(Entry entry) throws IOException
+    {
+        if (entry.action != null)
+        {
+            return entry.action;
+        }
+        RandomAccessFile file = new RandomAccessFile(entry.segment.file, "r");
+        try
+        {
+            file.seek(entry.offset);
+            byte[] record = new byte[file.readInt()];
+            file.readFully(record);
+            return deserialize(record);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException("Unable to read queued action " + entry.id + " from " + entry.segment.file, e);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Close the current segment.  Outstanding actions stay in the journal.
+     */
+    synchronized void close()
+    {
+        closed = true;
+        if (currentSegment != null)
+        {
+            currentSegment.close();
+            currentSegment = null;
+        }
+    }
+
+    /**
+     * @return                      the number of segment files in use
+     */
+    synchronized int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+    private Segment getCurrentSegment() throws IOException
+    {
+        if (currentSegment != null && currentSegment.records >= segmentSize)
+        {
+            currentSegment.close();
+            currentSegment = null;
+        }
+        if (currentSegment == null)
+        {
+            long segmentNumber = nextSegmentNumber++;
+            File file = new File(dir, String.format("%s%019d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX));
+            currentSegment = new Segment(file, segmentNumber);
+            currentSegment.open();
+            segments.put(segmentNumber, currentSegment);
+        }
+        return currentSegment;
+    }
+
+    private void flush(Segment segment) throws IOException
+    {
+        segment.out.flush();
+        if (syncOnWrite)
+        {
+            segment.fileOut.getFD().sync();
+        }
+    }
+
+    /**
+     * Delete segments, oldest first, that are closed and have no outstanding actions.  Newer
+     * segments are kept even when complete as they may hold the completion markers of actions
+     * in older segments.
+     */
+    private void deleteCompletedSegments()
+    {
+        while (!segments.isEmpty())
+        {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == currentSegment || !oldest.outstanding.isEmpty())
+            {
+                break;
+            }
+            segments.pollFirstEntry();
+            if (!oldest.file.delete() && oldest.file.exists())
+            {
+                logger.warn("Failed to delete completed asynchronous action journal segment: " + oldest.file);
+            }
+        }
+    }
+
+    private static long parseSegmentNumber(File file)
+    {
+        String name = file.getName();
+        String number = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+        try
+        {
+            return Long.parseLong(number);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new AlfrescoRuntimeException("Unexpected asynchronous action journal segment: " + file);
+        }
+    }
+
+    private static byte[] serialize(QueuedAction action) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(action);
+        oos.close();
+        return bytes.toByteArray();
+    }
+
+    private static QueuedAction deserialize(byte[] record) throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(record));
+        try
+        {
+            return (QueuedAction) ois.readObject();
+        }
+        finally
+        {
+            ois.close();
+        }
+    }
+
+    /**
+     * An action waiting to be run, as written to the journal
+     */
+    static class QueuedAction implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Action action;
+        private final NodeRef actionedUponNodeRef;
+        private final boolean checkConditions;
+        private final HashSet<String> actionChain;
+        private final long queuedTime;
+
+        QueuedAction(Action action, NodeRef actionedUponNodeRef, boolean checkConditions, Set<String> actionChain)
+        {
+            this.action = action;
+            this.actionedUponNodeRef = actionedUponNodeRef;
+            this.checkConditions = checkConditions;
+            this.actionChain = (actionChain == null ? null : new HashSet<String>(actionChain));
+            this.queuedTime = System.currentTimeMillis();
+        }
+
+        public Action getAction()
+        {
+            return action;
+        }
+
+        public NodeRef getActionedUponNodeRef()
+        {
+            return actionedUponNodeRef;
+        }
+
+        public boolean getCheckConditions()
+        {
+            return checkConditions;
+        }
+
+        public Set<String> getActionChain()
+        {
+            return actionChain;
+        }
+
+        public long getQueuedTime()
+        {
+            return queuedTime;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "QueuedAction [action=" + action + ", actionedUponNodeRef=" + actionedUponNodeRef + "]";
+        }
+    }
+
+    /**
+     * The position of a queued action in the journal, together with the action itself while
+     * it is held in memory
+     */
+    static class Entry
+    {
+        private final long id;
+        private final Segment segment;
+        private final long offset;
+        private final String actionDefinitionName;
+        private final long queuedTime;
+        private volatile QueuedAction action;
+
+        private Entry(long id, Segment segment, long offset, QueuedAction action)
+        {
+            this.id = id;
+            this.segment = segment;
+            this.offset = offset;
+            this.actionDefinitionName = action.getAction().getActionDefinitionName();
+            this.queuedTime = action.getQueuedTime();
+            this.action = action;
+        }
+
+        long getId()
+        {
+            return id;
+        }
+
+        String getActionDefinitionName()
+        {
+            return actionDefinitionName;
+        }
+
+        long getQueuedTime()
+        {
+            return queuedTime;
+        }
+
+        /**
+         * @return                  the action, or <tt>null</tt> if it must be {@link ActionQueueJournal#read(Entry) read}
+         *                          back from the journal
+         */
+        QueuedAction getAction()
+        {
+            return action;
+        }
+
+        /**
+         * Stop holding the action in memory
+         */
+        void release()
+        {
+            action = null;
+        }
+    }
+
+    /**
+     * A journal file and the IDs of the actions in it that have not yet completed
+     */
+    private static class Segment
+    {
+        private final File file;
+        private final long number;
+        private final Set<Long> outstanding = new HashSet<Long>();
+        private int records;
+        private FileOutputStream fileOut;
+        private DataOutputStream out;
+
+        private Segment(File file, long number)
+        {
+            this.file = file;
+            this.number = number;
+        }
+
+        private void open() throws IOException
+        {
+            fileOut = new FileOutputStream(file);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        }
+
+        private void close()
+        {
+            if (out != null)
+            {
+                try { out.close(); } catch (IOException e) {}
+                out = null;
+                fileOut = null;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Segment [number=" + number + ", records=" + records + ", outstanding=" + outstanding.size() + "]";
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.action;
+
+/**
+ * Responsible for accumulating and providing statistics on an asynchronous action queue: how many
+ * actions are waiting and how long they wait before they start running.
+ *
+ * @since 6.1
+ */
+public class ActionQueueStatistics
+{
+    private String queueId;
+    
+    long queuedCount = 0;
+    long startedCount = 0;
+    long droppedCount = 0;
+    long totalWaitTime = 0;
+    long maxWaitTime = 0;
+    
+    /**
+     * @param queueId The ID of the queue this object will provide statistics for.
+     */
+    public ActionQueueStatistics(String queueId)
+    {
+        this.queueId = queueId;
+    }
+
+    /**
+     * Record an action being placed on the queue.
+     */
+    public synchronized void actionQueued()
+    {
+        queuedCount = queuedCount + 1;
+    }
+    
+    /**
+     * Record an action leaving the queue to run.
+     * 
+     * @param waitTime The time (ms) the action spent on the queue
+     */
+    public synchronized void actionStarted(long waitTime)
+    {
+        startedCount = startedCount + 1;
+        totalWaitTime = totalWaitTime + waitTime;
+        maxWaitTime = Math.max(maxWaitTime, waitTime);
+    }
+    
+    /**
+     * Record an action leaving the queue without running, as an equivalent action was already queued.
+     */
+    public synchronized void actionDropped()
+    {
+        droppedCount = droppedCount + 1;
+    }
+    
+    /**
+     * @return The ID of the queue this object has statistics for
+     */
+    public String getQueueId()
+    {
+        return queueId;
+    }
+    
+    /**
+     * @return The number of actions waiting on the queue
+     */
+    public synchronized long getDepth()
+    {
+        return Math.max(0, queuedCount - startedCount - droppedCount);
+    }
+    
+    /**
+     * @return The number of actions placed on the queue
+     */
+    public long getQueuedCount()
+    {
+        return queuedCount;
+    }
+    
+    /**
+     * @return The number of actions that have left the queue to run
+     */
+    public long getStartedCount()
+    {
+        return startedCount;
+    }
+    
+    /**
+     * @return The number of queued actions dropped as equivalent to another queued action
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount;
+    }
+    
+    /**
+     * @return The average time (ms) an action waited on the queue
+     */
+    public synchronized long getAverageWaitTime()
+    {
+        return startedCount == 0 ? 0 : totalWaitTime / startedCount;
+    }
+    
+    /**
+     * @return The longest time (ms) an action waited on the queue
+     */
+    public long getMaxWaitTime()
+    {
+        return maxWaitTime;
+    }
+}
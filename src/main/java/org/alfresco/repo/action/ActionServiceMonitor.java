@@ -42,6 +42,7 @@ public class ActionServiceMonitor
 {
     private ConcurrentHashMap<UUID, RunningAction> runningActions = new ConcurrentHashMap<UUID, RunningAction>();
     private ConcurrentHashMap<String, ActionStatistics> actionStatistics = new ConcurrentHashMap<String, ActionStatistics>();
+    private ConcurrentHashMap<String, ActionQueueStatistics> queueStatistics = new ConcurrentHashMap<String, ActionQueueStatistics>();
     
     /**
      * Called by the {@link ActionServiceImpl} when an action is started.
@@ -86,6 +87,48 @@ public class ActionServiceMonitor
         actionStats.addAction(action);        
     }
 
+    /**
+     * Called by an asynchronous action queue when an action is placed on the queue.
+     * 
+     * @param queueId The ID of the queue
+     */
+    public void actionQueued(String queueId)
+    {
+        getQueueStatistics(queueId).actionQueued();
+    }
+    
+    /**
+     * Called by an asynchronous action queue when a queued action starts running.
+     * 
+     * @param queueId The ID of the queue
+     * @param waitTime The time (ms) the action spent on the queue
+     */
+    public void queuedActionStarted(String queueId, long waitTime)
+    {
+        getQueueStatistics(queueId).actionStarted(waitTime);
+    }
+    
+    /**
+     * Called by an asynchronous action queue when a queued action is dropped without running.
+     * 
+     * @param queueId The ID of the queue
+     */
+    public void queuedActionDropped(String queueId)
+    {
+        getQueueStatistics(queueId).actionDropped();
+    }
+    
+    private ActionQueueStatistics getQueueStatistics(String queueId)
+    {
+        ActionQueueStatistics queueStats = queueStatistics.get(queueId);
+        if (queueStats == null)
+        {
+            queueStatistics.putIfAbsent(queueId, new ActionQueueStatistics(queueId));
+            queueStats = queueStatistics.get(queueId);
+        }
+        return queueStats;
+    }
+
     /**
      * @return The list of currently running actions.
      */
@@ -109,4 +152,14 @@ public class ActionServiceMonitor
     {
         return Collections.unmodifiableList(new ArrayList<ActionStatistics>(actionStatistics.values()));
     }
+    
+    /**
+     * @return a list of the statistics of each asynchronous action queue.
+     * 
+     * @since 6.1
+     */
+    public List<ActionQueueStatistics> getActionQueueStatistics()
+    {
+        return Collections.unmodifiableList(new ArrayList<ActionQueueStatistics>(queueStatistics.values()));
+    }
 }
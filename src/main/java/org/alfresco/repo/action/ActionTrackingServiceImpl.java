@@ -29,10 +29,18 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.alfresco.repo.cache.DefaultSimpleCache;
 import org.alfresco.repo.cache.SimpleCache;
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
@@ -48,12 +56,19 @@ import org.alfresco.service.cmr.action.ExecutionSummary;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.TraceableThreadFactory;
 import org.alfresco.util.transaction.TransactionListenerAdapter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * Action execution tracking service implementation
+ * <p>
+ * How closely an action is tracked depends on the {@link TrackingLevel} configured for its
+ * action definition.  By default all actions are tracked in the cluster-wide cache and have
+ * their status saved against their persisted node, if they have one.  High rate actions can be
+ * tracked on this server only, or not at all.  Saved status updates can be written in batches
+ * rather than in a new transaction for each action.
  * 
  * @author Nick Burch
  */
@@ -64,7 +79,30 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
      */
     private static Log logger = LogFactory.getLog(ActionTrackingServiceImpl.class);
 
+    /**
+     * How closely the execution of an action is tracked
+     * 
+     * @since 6.1
+     */
+    public static enum TrackingLevel
+    {
+        /** Not tracked: the action cannot be listed or cancelled */
+        NONE,
+        /** Tracked on the server running the action only */
+        LOCAL,
+        /** Tracked in the cluster-wide cache */
+        CLUSTER,
+        /** Tracked in the cluster-wide cache, with the status saved against the persisted action */
+        PERSISTED
+    }
+
     private SimpleCache<String, ExecutionDetails> executingActionsCache;
+    private SimpleCache<String, ExecutionDetails> localExecutingActionsCache =
+            new DefaultSimpleCache<String, ExecutionDetails>(10000, "localExecutingActionsCache");
+    private TrackingLevel defaultTrackingLevel = TrackingLevel.PERSISTED;
+    private Map<String, TrackingLevel> trackingLevels = Collections.emptyMap();
+    private int statusUpdateBatchSize = 1;
+    private long statusUpdateMaxDelayMs = 1000L;
     private NodeService nodeService;
     private TransactionService transactionService;
     private RuntimeActionService runtimeActionService;
@@ -78,6 +116,11 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
     /** How we separate bits of the cache key */
     private static final char cacheKeyPartSeparator = '=';
 
+    /** Saved status updates waiting to be written in a batch */
+    private final ConcurrentLinkedQueue<StatusUpdate> pendingStatusUpdates = new ConcurrentLinkedQueue<StatusUpdate>();
+    private final AtomicInteger pendingStatusUpdateCount = new AtomicInteger();
+    private volatile Thread statusUpdateThread;
+
     /**
      * Set the transaction service
      * 
@@ -117,6 +160,164 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
         this.executingActionsCache = executingActionsCache;
     }
 
+    /**
+     * Sets the cache used to store details of actions tracked on this server only.
+     * Defaults to an in-memory cache holding up to 10000 actions.
+     * 
+     * @since 6.1
+     */
+    public void setLocalExecutingActionsCache(SimpleCache<String, ExecutionDetails> localExecutingActionsCache)
+    {
+        this.localExecutingActionsCache = localExecutingActionsCache;
+    }
+
+    /**
+     * @param defaultTrackingLevel      the {@link TrackingLevel} name used for actions without their own
+     *                                  level (default: <b>persisted</b>)
+     * 
+     * @since 6.1
+     */
+    public void setDefaultTrackingLevel(String defaultTrackingLevel)
+    {
+        this.defaultTrackingLevel = parseTrackingLevel(defaultTrackingLevel);
+    }
+
+    /**
+     * @param trackingLevels            {@link TrackingLevel} names keyed by action definition name
+     * 
+     * @since 6.1
+     */
+    public void setTrackingLevels(Map<String, String> trackingLevels)
+    {
+        Map<String, TrackingLevel> levels = new HashMap<String, TrackingLevel>(trackingLevels.size() * 2);
+        for (Map.Entry<String, String> entry : trackingLevels.entrySet())
+        {
+            levels.put(entry.getKey(), parseTrackingLevel(entry.getValue()));
+        }
+        this.trackingLevels = levels;
+    }
+
+    /**
+     * @param statusUpdateBatchSize     the number of saved status updates to write in one transaction.
+     *                                  With the default of <b>1</b> each update is written as soon as
+     *                                  the action's transaction has finished.
+     * 
+     * @since 6.1
+     */
+    public void setStatusUpdateBatchSize(int statusUpdateBatchSize)
+    {
+        this.statusUpdateBatchSize = statusUpdateBatchSize;
+    }
+
+    /**
+     * @param statusUpdateMaxDelayMs    the longest time (ms) a saved status update waits for its batch
+     *                                  to fill up
+     * 
+     * @since 6.1
+     */
+    public void setStatusUpdateMaxDelayMs(long statusUpdateMaxDelayMs)
+    {
+        this.statusUpdateMaxDelayMs = statusUpdateMaxDelayMs;
+    }
+
+    private static TrackingLevel parseTrackingLevel(String trackingLevel)
+    {
+        return TrackingLevel.valueOf(trackingLevel.trim().toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Starts writing batched status updates in the background, if they are batched
+     * 
+     * @since 6.1
+     */
+    public void init()
+    {
+        if (statusUpdateBatchSize > 1)
+        {
+            TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+            threadFactory.setThreadDaemon(true);
+            threadFactory.setNamePrefix("ActionStatusUpdater");
+            statusUpdateThread = threadFactory.newThread(new StatusUpdateRunnable());
+            statusUpdateThread.start();
+        }
+    }
+
+    /**
+     * Writes any status updates still waiting
+     * 
+     * @since 6.1
+     */
+    public void destroy()
+    {
+        Thread thread = statusUpdateThread;
+        statusUpdateThread = null;
+        if (thread != null)
+        {
+            thread.interrupt();
+        }
+        flushStatusUpdates();
+    }
+
+    /**
+     * @param actionDefinitionName      the name of an action definition
+     * @return                          how closely actions of that type are tracked
+     * 
+     * @since 6.1
+     */
+    public TrackingLevel getTrackingLevel(String actionDefinitionName)
+    {
+        TrackingLevel level = trackingLevels.get(actionDefinitionName);
+        return (level == null ? defaultTrackingLevel : level);
+    }
+
+    /**
+     * @return                          the number of saved status updates waiting to be written
+     * 
+     * @since 6.1
+     */
+    public int getPendingStatusUpdateCount()
+    {
+        return pendingStatusUpdateCount.get();
+    }
+
+    /**
+     * @return                          the cache tracking actions of the given type, or <tt>null</tt>
+     *                                  if they are not tracked
+     */
+    private SimpleCache<String, ExecutionDetails> getCache(String actionDefinitionName)
+    {
+        switch (getTrackingLevel(actionDefinitionName))
+        {
+            case NONE:
+                return null;
+            case LOCAL:
+                return localExecutingActionsCache;
+            default:
+                return executingActionsCache;
+        }
+    }
+
+    private SimpleCache<String, ExecutionDetails> getCacheForKey(String key)
+    {
+        int separator = key.indexOf(cacheKeyPartSeparator);
+        return getCache(separator < 0 ? key : key.substring(0, separator));
+    }
+
+    /**
+     * @return                          the keys of all tracked actions, cluster-wide and local
+     */
+    private Collection<String> getExecutingActionKeys()
+    {
+        Collection<String> localKeys = localExecutingActionsCache.getKeys();
+        if (localKeys.isEmpty())
+        {
+            return executingActionsCache.getKeys();
+        }
+        List<String> keys = new ArrayList<String>(executingActionsCache.getKeys());
+        keys.addAll(localKeys);
+        return keys;
+    }
+
     /** Used by unit tests only */
     protected void resetNextExecutionId()
     {
@@ -169,65 +370,33 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
         action.setExecutionFailureMessage(null);
         
         // Do we need to update the persisted details?
-        if (action.getNodeRef() != null && nodeService.exists(action.getNodeRef()))
+        TrackingLevel level = getTrackingLevel(action.getActionDefinitionName());
+        if (level == TrackingLevel.PERSISTED && action.getNodeRef() != null && nodeService.exists(action.getNodeRef()))
         {
            // Make sure we re-fetch the latest action details and save
            //  this version back into the repository
            // (That way, if someone has a reference to the
            // action and plays with it, we still save the
            // correct information)
-           final Date startedAt = action.getExecutionStartDate();
-           final Date endedAt = action.getExecutionEndDate();
-           final NodeRef actionNode = action.getNodeRef();
+           final StatusUpdate update = new StatusUpdate(
+                   action.getNodeRef(), ActionStatus.Completed, null,
+                   action.getExecutionStartDate(), action.getExecutionEndDate());
            
            AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
            {
                public void afterCommit()
                {
-                  transactionService.getRetryingTransactionHelper().doInTransaction(
-                      new RetryingTransactionCallback<Object>()
-                      {
-                         public Object execute() throws Throwable
-                         {
-                           // Update the action as the system user
-                          return AuthenticationUtil.runAs(new RunAsWork<Action>() 
-                             {
-                                public Action doWork() throws Exception
-                                {
-                                   // Ensure the action persisted node still exists, and wasn't deleted
-                                   //  between when it loaded running and now
-                                   if( !nodeService.exists(actionNode) )
-                                   {
-                                       // Persisted node has gone, nothing to update
-                                       return null;
-                                   }
-                                    
-                                   // Grab the latest version of the action
-                                   ActionImpl action = (ActionImpl) runtimeActionService
-                                   .createAction(actionNode);
-
-                                   // Update it
-                                   action.setExecutionStatus(ActionStatus.Completed);
-                                   action.setExecutionFailureMessage(null);
-                                   action.setExecutionStartDate(startedAt);
-                                   action.setExecutionEndDate(endedAt);
-                                   runtimeActionService.saveActionImpl(actionNode, action);
-
-                                   // All done
-                                   return action;
-                                }
-                             }, AuthenticationUtil.SYSTEM_USER_NAME
-                          );
-                         }
-                      }, false, true
-                  );
+                  submitStatusUpdate(update);
                }
            });
         }
 
         // Remove it from the cache, as it's finished
-        String key = generateCacheKey(action);
-        executingActionsCache.remove(key);
+        SimpleCache<String, ExecutionDetails> cache = getCache(action.getActionDefinitionName());
+        if (cache != null)
+        {
+            cache.remove(generateCacheKey(action));
+        }
     }
 
     public void recordActionExecuting(Action action)
@@ -255,6 +424,13 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
         action.setExecutionStartDate(new Date());
         action.setExecutionStatus(ActionStatus.Running);
 
+        SimpleCache<String, ExecutionDetails> cache = getCache(action.getActionDefinitionName());
+        if (cache == null)
+        {
+            // Not tracked
+            return;
+        }
+
         // If it's a synchronous execution, put it into the cache
         if (previousStatus != ActionStatus.Pending)
         {
@@ -264,7 +440,7 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
         {
             // If it's async, update the existing cache entry
             String key = generateCacheKey(action);
-            ExecutionDetails details = executingActionsCache.get(key);
+            ExecutionDetails details = cache.get(key);
 
             // Check it's really there, warn + fix if not
             if (details == null)
@@ -276,7 +452,7 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
 
             // Update and save into the cache
             details = buildExecutionDetails(action);
-            executingActionsCache.put(key, details);
+            cache.put(key, details);
         }
     }
 
@@ -287,6 +463,13 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
      */
     private void placeActionInCache(ActionImpl action, NodeRef actionedUponNodeRef)
     {
+        SimpleCache<String, ExecutionDetails> cache = getCache(action.getActionDefinitionName());
+        if (cache == null)
+        {
+            // Not tracked
+            return;
+        }
+
         // Assign it a (unique) execution ID
         // (Keep checking to see if the key is used as we
         // increase nextExecutionId until it isn't)
@@ -299,7 +482,7 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
             key = generateCacheKey(action);
 
             // Is it ok?
-            if (executingActionsCache.get(key) == null)
+            if (cache.get(key) == null)
             {
                 assigned = true;
             }
@@ -320,7 +503,7 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
 
         // Put it into the cache
         ExecutionDetails details = buildExecutionDetails(action, actionedUponNodeRef);
-        executingActionsCache.put(key, details);
+        cache.put(key, details);
 
         if (logger.isDebugEnabled() == true)
         {
@@ -372,21 +555,33 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
         }
 
         // Remove it from the cache, as it's no longer running
-        String key = generateCacheKey(action);
-        executingActionsCache.remove(key);
+        SimpleCache<String, ExecutionDetails> cache = getCache(action.getActionDefinitionName());
+        if (cache != null)
+        {
+            cache.remove(generateCacheKey(action));
+        }
 
         // Do we need to update the persisted details?
-        if (action.getNodeRef() != null)
+        TrackingLevel level = getTrackingLevel(action.getActionDefinitionName());
+        if (level == TrackingLevel.PERSISTED && action.getNodeRef() != null)
         {
             // Take a local copy of the details
             // (That way, if someone has a reference to the
             // action and plays with it, we still save the
             // correct information)
-            final String actionId = action.getId();
-            final Date startedAt = action.getExecutionStartDate();
-            final Date endedAt = action.getExecutionEndDate();
-            final String message = action.getExecutionFailureMessage();
-            final NodeRef actionNode = action.getNodeRef();
+            final StatusUpdate update;
+            if (exception instanceof ActionCancelledException)
+            {
+                update = new StatusUpdate(
+                        action.getNodeRef(), ActionStatus.Cancelled, null,
+                        action.getExecutionStartDate(), action.getExecutionEndDate());
+            }
+            else
+            {
+                update = new StatusUpdate(
+                        action.getNodeRef(), ActionStatus.Failed, exception.getMessage(),
+                        action.getExecutionStartDate(), action.getExecutionEndDate());
+            }
 
             // Have the details updated on the action as soon
             // as the transaction has finished rolling back
@@ -394,49 +589,7 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
             {
                 public void afterRollback()
                 {
-                    transactionService.getRetryingTransactionHelper().doInTransaction(
-                            new RetryingTransactionCallback<Object>()
-                            {
-                                public Object execute() throws Throwable
-                                {
-                                    // Update the action as the system user
-                                    return AuthenticationUtil.runAs(new RunAsWork<Action>()
-                                    {
-                                        public Action doWork() throws Exception
-                                        {
-                                            // Grab the latest version of the
-                                            // action
-                                            ActionImpl action = (ActionImpl) runtimeActionService
-                                                    .createAction(actionNode);
-
-                                            // Update it
-                                            if (exception instanceof ActionCancelledException)
-                                            {
-                                                action.setExecutionStatus(ActionStatus.Cancelled);
-                                                action.setExecutionFailureMessage(null);
-                                            }
-                                            else
-                                            {
-                                                action.setExecutionStatus(ActionStatus.Failed);
-                                                action.setExecutionFailureMessage(exception.getMessage());
-                                            }
-                                            action.setExecutionStartDate(startedAt);
-                                            action.setExecutionEndDate(endedAt);
-                                            runtimeActionService.saveActionImpl(actionNode, action);
-
-                                            if (logger.isDebugEnabled() == true)
-                                            {
-                                                logger.debug("Recorded failure of action "
-                                                        + actionId + ", node " + actionNode
-                                                        + " due to " + message);
-                                            }
-
-                                            // All done
-                                            return action;
-                                        }
-                                    }, AuthenticationUtil.SYSTEM_USER_NAME);
-                                }
-                            }, false, true);
+                    submitStatusUpdate(update);
                 }
             });
         }
@@ -448,6 +601,12 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
         // status executing, then put it back into the
         // cache and warn
         // (Probably means the cache is too small)
+        SimpleCache<String, ExecutionDetails> cache = getCache(action.getActionDefinitionName());
+        if (cache == null)
+        {
+            // Not tracked, so cannot be cancelled
+            return false;
+        }
         String key = generateCacheKey(action);
         ExecutionDetails details = getExecutionDetails(buildExecutionSummary(key));
         if (details == null)
@@ -464,7 +623,7 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
 
             // Re-save into the cache, so it's there for
             // next time
-            executingActionsCache.put(key, details);
+            cache.put(key, details);
         }
 
         // Check the cached details, and see if cancellation
@@ -490,7 +649,8 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
         }
         
         // See if the action is in the cache
-        ExecutionDetails details = executingActionsCache.get(actionKey);
+        SimpleCache<String, ExecutionDetails> cache = getCacheForKey(actionKey);
+        ExecutionDetails details = (cache == null ? null : cache.get(actionKey));
 
         if (details == null)
         {
@@ -506,12 +666,12 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
         );
 
         // Save the flag to the cache
-        executingActionsCache.put(actionKey, details);
+        cache.put(actionKey, details);
     }
 
     public List<ExecutionSummary> getAllExecutingActions()
     {
-        Collection<String> actions = executingActionsCache.getKeys();
+        Collection<String> actions = getExecutingActionKeys();
         List<ExecutionSummary> details = new ArrayList<ExecutionSummary>(actions.size());
         for (String key : actions)
         {
@@ -522,7 +682,7 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
 
     public List<ExecutionSummary> getExecutingActions(Action action)
     {
-        Collection<String> actions = executingActionsCache.getKeys();
+        Collection<String> actions = getExecutingActionKeys();
         List<ExecutionSummary> details = new ArrayList<ExecutionSummary>();
         String match = action.getActionDefinitionName() + cacheKeyPartSeparator + action.getId()
                 + cacheKeyPartSeparator;
@@ -538,7 +698,7 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
 
     public List<ExecutionSummary> getExecutingActions(String type)
     {
-        Collection<String> actions = executingActionsCache.getKeys();
+        Collection<String> actions = getExecutingActionKeys();
         List<ExecutionSummary> details = new ArrayList<ExecutionSummary>();
         String match = type + cacheKeyPartSeparator;
         for (String key : actions)
@@ -572,7 +732,9 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
 
     public ExecutionDetails getExecutionDetails(ExecutionSummary executionSummary)
     {
-        ExecutionDetails details = executingActionsCache.get(generateCacheKey(executionSummary));
+        String key = generateCacheKey(executionSummary);
+        SimpleCache<String, ExecutionDetails> cache = getCacheForKey(key);
+        ExecutionDetails details = (cache == null ? null : cache.get(key));
         if (details != null)
         {
             details.setExecutionSummary(executionSummary);
@@ -580,6 +742,177 @@ public class ActionTrackingServiceImpl implements ActionTrackingService
         return details;
     }
 
+    /**
+     * Write a saved status update, either straight away or as part of a batch
+     */
+    /*package*/ void submitStatusUpdate(StatusUpdate update)
+    {
+        if (statusUpdateBatchSize <= 1)
+        {
+            writeStatusUpdates(Collections.singletonList(update));
+            return;
+        }
+        pendingStatusUpdates.add(update);
+        if (pendingStatusUpdateCount.incrementAndGet() >= statusUpdateBatchSize)
+        {
+            flushStatusUpdates();
+        }
+    }
+
+    /**
+     * Write all the waiting status updates, a batch per transaction.  Only the latest update
+     * for each action in a batch is written.  If a batch fails, its updates are written again
+     * one per transaction so that only the failing update is lost.
+     * 
+     * @since 6.1
+     */
+    public void flushStatusUpdates()
+    {
+        int batchSize = Math.max(statusUpdateBatchSize, 1);
+        while (true)
+        {
+            Map<NodeRef, StatusUpdate> batch = new LinkedHashMap<NodeRef, StatusUpdate>(batchSize * 2);
+            for (int i = 0; i < batchSize; i++)
+            {
+                StatusUpdate update = pendingStatusUpdates.poll();
+                if (update == null)
+                {
+                    break;
+                }
+                pendingStatusUpdateCount.decrementAndGet();
+                batch.put(update.actionNode, update);
+            }
+            if (batch.isEmpty())
+            {
+                return;
+            }
+            try
+            {
+                writeStatusUpdates(batch.values());
+            }
+            catch (Throwable e)
+            {
+                if (batch.size() == 1)
+                {
+                    logger.error("Failed to record the status of action " + batch.keySet(), e);
+                    continue;
+                }
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Failed to record the status of " + batch.size() + " actions together; recording them individually", e);
+                }
+                for (StatusUpdate update : batch.values())
+                {
+                    try
+                    {
+                        writeStatusUpdates(Collections.singletonList(update));
+                    }
+                    catch (Throwable ee)
+                    {
+                        logger.error("Failed to record the status of action " + update.actionNode, ee);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the status of persisted actions in a new transaction, as the system user
+     */
+    private void writeStatusUpdates(final Collection<StatusUpdate> updates)
+    {
+        transactionService.getRetryingTransactionHelper().doInTransaction(
+                new RetryingTransactionCallback<Void>()
+                {
+                    public Void execute() throws Throwable
+                    {
+                        return AuthenticationUtil.runAs(new RunAsWork<Void>()
+                        {
+                            public Void doWork() throws Exception
+                            {
+                                for (StatusUpdate update : updates)
+                                {
+                                    update.apply();
+                                }
+                                return null;
+                            }
+                        }, AuthenticationUtil.SYSTEM_USER_NAME);
+                    }
+                }, false, true);
+    }
+
+    /**
+     * The final status of an action, to be saved against its persisted node
+     */
+    /*package*/ class StatusUpdate
+    {
+        private final NodeRef actionNode;
+        private final ActionStatus status;
+        private final String failureMessage;
+        private final Date startedAt;
+        private final Date endedAt;
+
+        /*package*/ StatusUpdate(NodeRef actionNode, ActionStatus status, String failureMessage, Date startedAt, Date endedAt)
+        {
+            this.actionNode = actionNode;
+            this.status = status;
+            this.failureMessage = failureMessage;
+            this.startedAt = startedAt;
+            this.endedAt = endedAt;
+        }
+
+        private void apply()
+        {
+            // Ensure the action persisted node still exists, and wasn't deleted
+            //  between when it loaded running and now
+            if (!nodeService.exists(actionNode))
+            {
+                // Persisted node has gone, nothing to update
+                return;
+            }
+
+            // Grab the latest version of the action
+            ActionImpl action = (ActionImpl) runtimeActionService.createAction(actionNode);
+
+            // Update it
+            action.setExecutionStatus(status);
+            action.setExecutionFailureMessage(failureMessage);
+            action.setExecutionStartDate(startedAt);
+            action.setExecutionEndDate(endedAt);
+            runtimeActionService.saveActionImpl(actionNode, action);
+
+            if (logger.isDebugEnabled() == true)
+            {
+                logger.debug("Recorded " + status + " status of action node " + actionNode
+                        + (failureMessage == null ? "" : " due to " + failureMessage));
+            }
+        }
+    }
+
+    /**
+     * Writes batched status updates that have waited long enough
+     */
+    private class StatusUpdateRunnable implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            while (statusUpdateThread == Thread.currentThread())
+            {
+                try
+                {
+                    Thread.sleep(statusUpdateMaxDelayMs);
+                }
+                catch (InterruptedException e)
+                {
+                    // Stopping
+                    return;
+                }
+                flushStatusUpdates();
+            }
+        }
+    }
+
     /**
      * Generates the cache key for the specified action.
      */
@@ -25,17 +25,26 @@
  */
 package org.alfresco.repo.action;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.error.StackTraceUtil;
+import org.alfresco.repo.action.ActionQueueJournal.QueuedAction;
 import org.alfresco.repo.action.AsynchronousActionExecutionQueuePolicies.OnAsyncActionExecute;
+import org.alfresco.repo.lock.JobLockService;
 import org.alfresco.repo.policy.ClassPolicyDelegate;
 import org.alfresco.repo.policy.PolicyComponent;
 import org.alfresco.repo.rule.RuleServiceImpl;
@@ -46,18 +55,33 @@ import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
 import org.alfresco.service.cmr.action.Action;
 import org.alfresco.service.cmr.action.ActionServiceException;
+import org.alfresco.service.cmr.attributes.AttributeService;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.PropertyCheck;
 import org.alfresco.util.transaction.TransactionListenerAdapter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.extensions.surf.util.AbstractLifecycleBean;
 
 /**
  * The asynchronous action execution queue implementation
+ * <p>
+ * By default actions are handed straight to the thread pool.  A <i>persistent</i> queue first
+ * writes each action to a local {@link ActionQueueJournal journal}, so that actions still queued
+ * when the server stops are run after it restarts, and only hands actions to the thread pool as
+ * threads become free.  Waiting actions are taken highest {@link #setActionPriorities(Map) priority}
+ * first, the number of actions of a given definition running at once can be
+ * {@link #setActionConcurrencyLimits(Map) limited} and only a bounded number of waiting actions
+ * are held in memory; the rest are read back from the journal when they are due to run.
+ * <p>
+ * A <i>distributed</i> queue stores actions in the database and lets any member of the cluster
+ * claim and run them; see {@link ClusteredActionQueue}.
  * 
  * @author Roy Wetherall
  */
-public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionExecutionQueue
+public class AsynchronousActionExecutionQueueImpl extends AbstractLifecycleBean implements AsynchronousActionExecutionQueue
 {
     private static Log logger = LogFactory.getLog(AsynchronousActionExecutionQueueImpl.class);
     
@@ -69,6 +93,37 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
     private Map<String, AbstractAsynchronousActionFilter>
             actionFilters = new ConcurrentHashMap<String, AbstractAsynchronousActionFilter>();
     private String id;
+    private ActionServiceMonitor actionServiceMonitor;
+    
+    /** Persistent queue configuration */
+    private boolean persistent;
+    private String journalDirectory;
+    private int journalSegmentSize;
+    private boolean journalSyncOnWrite;
+    private int maxInMemory;
+    private int maxInFlight;
+    private Map<String, Integer> actionPriorities;
+    private Map<String, Integer> actionConcurrencyLimits;
+    
+    private ActionQueueJournal journal;
+    /** Actions waiting for a thread, highest priority first */
+    private final PriorityQueue<PendingAction> pendingActions = new PriorityQueue<PendingAction>();
+    /** The number of actions of each definition handed to the thread pool (guarded by {@link #pendingActions}) */
+    private final Map<String, Integer> runningActionCounts = new HashMap<String, Integer>();
+    /** The number of actions handed to the thread pool (guarded by {@link #pendingActions}) */
+    private int inFlightCount;
+    /** The number of waiting or running actions held in memory (guarded by {@link #pendingActions}) */
+    private int inMemoryCount;
+    private volatile boolean dispatching;
+    
+    /** Distributed queue configuration */
+    private boolean distributed;
+    private AttributeService attributeService;
+    private JobLockService jobLockService;
+    private long clusterPollIntervalMs;
+    private long clusterLeaseMs;
+    
+    private ClusteredActionQueue clusteredQueue;
 
     /**
      * We keep a record of ongoing asynchronous actions (this includes those being executed and
@@ -82,13 +137,34 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
 
     /**
      * Default constructor
+     * <ul>
+     *   <li><b>persistent: false</b></li>
+     *   <li><b>journalSegmentSize: 1000</b></li>
+     *   <li><b>journalSyncOnWrite: false</b></li>
+     *   <li><b>maxInMemory: 1000</b></li>
+     *   <li><b>maxInFlight: 0</b> (the maximum size of the thread pool)</li>
+     *   <li><b>distributed: false</b></li>
+     *   <li><b>clusterPollIntervalMs: 2000</b></li>
+     *   <li><b>clusterLeaseMs: 60000</b></li>
+     * </ul>
      */
     public AsynchronousActionExecutionQueueImpl()
     {
+        this.persistent = false;
+        this.journalSegmentSize = 1000;
+        this.journalSyncOnWrite = false;
+        this.maxInMemory = 1000;
+        this.maxInFlight = 0;
+        this.actionPriorities = Collections.emptyMap();
+        this.actionConcurrencyLimits = Collections.emptyMap();
+        this.distributed = false;
+        this.clusterPollIntervalMs = 2000L;
+        this.clusterLeaseMs = 60000L;
     }
     
     /**
-     * Init method.  Registers the policies.
+     * Init method.  Registers the policies and reads back any actions left queued in the journal
+     * or prepares the cluster queue.
      */
     public void init()
     {
@@ -97,6 +173,78 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
         
         // Register the policies
         onAsyncActionExecuteDelegate = policyComponent.registerClassPolicy(OnAsyncActionExecute.class);
+        
+        if (distributed)
+        {
+            if (persistent)
+            {
+                throw new AlfrescoRuntimeException("An asynchronous action queue cannot be both persistent and distributed: " + id);
+            }
+            PropertyCheck.mandatory(this, "attributeService", attributeService);
+            PropertyCheck.mandatory(this, "jobLockService", jobLockService);
+            ClusteredActionQueue.ActionRunner actionRunner = new ClusteredActionQueue.ActionRunner()
+            {
+                @Override
+                public void run(QueuedAction queuedAction)
+                {
+                    ongoingActions.add(new OngoingAsyncAction(queuedAction.getActionedUponNodeRef(), queuedAction.getAction()));
+                    new ActionExecutionWrapper(
+                            actionServiceImpl,
+                            queuedAction.getAction(),
+                            queuedAction.getActionedUponNodeRef(),
+                            queuedAction.getCheckConditions(),
+                            queuedAction.getActionChain(),
+                            null,
+                            queuedAction.getQueuedTime()).run();
+                }
+            };
+            int capacity = (maxInFlight > 0 ? maxInFlight : threadPoolExecutor.getMaximumPoolSize());
+            clusteredQueue = new ClusteredActionQueue(
+                    id, transactionService, attributeService, jobLockService, threadPoolExecutor, actionRunner,
+                    capacity, clusterPollIntervalMs, clusterLeaseMs);
+        }
+        else if (persistent)
+        {
+            PropertyCheck.mandatory(this, "journalDirectory", journalDirectory);
+            journal = new ActionQueueJournal(new File(journalDirectory), journalSegmentSize, journalSyncOnWrite);
+            // The recovered actions wait until the repository has started
+            for (ActionQueueJournal.Entry entry : journal.recover(maxInMemory))
+            {
+                queueJournalEntry(entry, actionServiceImpl, null);
+            }
+        }
+    }
+    
+    /**
+     * Start handing queued actions to the thread pool
+     */
+    @Override
+    protected void onBootstrap(ApplicationEvent event)
+    {
+        dispatching = true;
+        dispatchQueuedActions();
+        if (clusteredQueue != null)
+        {
+            clusteredQueue.start();
+        }
+    }
+    
+    /**
+     * Stop handing queued actions to the thread pool.  Actions still waiting stay in the journal
+     * or are left for the other members of the cluster.
+     */
+    @Override
+    protected void onShutdown(ApplicationEvent event)
+    {
+        dispatching = false;
+        if (journal != null)
+        {
+            journal.close();
+        }
+        if (clusteredQueue != null)
+        {
+            clusteredQueue.stop();
+        }
     }
     
     /**
@@ -154,6 +302,183 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
         this.policyComponent = policyComponent;
     }
     
+    /**
+     * Set the monitor that records the depth of, and time spent waiting on, this queue
+     * 
+     * @param actionServiceMonitor  the action service monitor (optional)
+     * 
+     * @since 6.1
+     */
+    public void setActionServiceMonitor(ActionServiceMonitor actionServiceMonitor)
+    {
+        this.actionServiceMonitor = actionServiceMonitor;
+    }
+    
+    /**
+     * @param persistent            <tt>true</tt> to keep queued actions in a journal so that they
+     *                              survive a restart
+     * 
+     * @since 6.1
+     */
+    public void setPersistent(boolean persistent)
+    {
+        this.persistent = persistent;
+    }
+    
+    /**
+     * @param journalDirectory      the directory holding the journal of a persistent queue
+     * 
+     * @since 6.1
+     */
+    public void setJournalDirectory(String journalDirectory)
+    {
+        this.journalDirectory = journalDirectory;
+    }
+    
+    /**
+     * @param journalSegmentSize    the number of records written to a journal file before a new
+     *                              file is started
+     * 
+     * @since 6.1
+     */
+    public void setJournalSegmentSize(int journalSegmentSize)
+    {
+        this.journalSegmentSize = journalSegmentSize;
+    }
+    
+    /**
+     * @param journalSyncOnWrite    <tt>true</tt> to force each journal record to disk
+     * 
+     * @since 6.1
+     */
+    public void setJournalSyncOnWrite(boolean journalSyncOnWrite)
+    {
+        this.journalSyncOnWrite = journalSyncOnWrite;
+    }
+    
+    /**
+     * @param maxInMemory           the number of queued actions of a persistent queue held in memory;
+     *                              the rest are read back from the journal when they are due to run
+     * 
+     * @since 6.1
+     */
+    public void setMaxInMemory(int maxInMemory)
+    {
+        this.maxInMemory = maxInMemory;
+    }
+    
+    /**
+     * @param maxInFlight           the number of actions a persistent queue hands to the thread pool
+     *                              at once, or zero to use the maximum size of the thread pool
+     * 
+     * @since 6.1
+     */
+    public void setMaxInFlight(int maxInFlight)
+    {
+        this.maxInFlight = maxInFlight;
+    }
+    
+    /**
+     * @param actionPriorities      the priority of actions by action definition name.  A persistent
+     *                              queue runs higher priority actions first; the default is zero.
+     * 
+     * @since 6.1
+     */
+    public void setActionPriorities(Map<String, Integer> actionPriorities)
+    {
+        this.actionPriorities = actionPriorities;
+    }
+    
+    /**
+     * @param actionConcurrencyLimits   the number of actions of each action definition that a
+     *                                  persistent queue runs at once.  Definitions not listed
+     *                                  are not limited.
+     * 
+     * @since 6.1
+     */
+    public void setActionConcurrencyLimits(Map<String, Integer> actionConcurrencyLimits)
+    {
+        this.actionConcurrencyLimits = actionConcurrencyLimits;
+    }
+    
+    /**
+     * @param distributed           <tt>true</tt> to share queued actions between the members of the cluster
+     * 
+     * @since 6.1
+     */
+    public void setDistributed(boolean distributed)
+    {
+        this.distributed = distributed;
+    }
+    
+    /**
+     * @param attributeService      the service storing the actions of a distributed queue
+     * 
+     * @since 6.1
+     */
+    public void setAttributeService(AttributeService attributeService)
+    {
+        this.attributeService = attributeService;
+    }
+    
+    /**
+     * @param jobLockService        the service providing the claims on the actions of a distributed queue
+     * 
+     * @since 6.1
+     */
+    public void setJobLockService(JobLockService jobLockService)
+    {
+        this.jobLockService = jobLockService;
+    }
+    
+    /**
+     * @param clusterPollIntervalMs the time (ms) between looking for actions on a distributed queue
+     * 
+     * @since 6.1
+     */
+    public void setClusterPollIntervalMs(long clusterPollIntervalMs)
+    {
+        this.clusterPollIntervalMs = clusterPollIntervalMs;
+    }
+    
+    /**
+     * @param clusterLeaseMs        the time (ms) a member's claim on an action of a distributed queue
+     *                              lasts unless it is refreshed.  Actions claimed by a member that
+     *                              stops are run by another member once the claim has expired.
+     * 
+     * @since 6.1
+     */
+    public void setClusterLeaseMs(long clusterLeaseMs)
+    {
+        this.clusterLeaseMs = clusterLeaseMs;
+    }
+    
+    /**
+     * @return                      the number of actions waiting for a thread on a persistent queue
+     * 
+     * @since 6.1
+     */
+    public int getQueuedActionCount()
+    {
+        synchronized (pendingActions)
+        {
+            return pendingActions.size();
+        }
+    }
+    
+    /**
+     * @return                      the number of actions a persistent queue has handed to the thread pool
+     * 
+     * @since 6.1
+     */
+    public int getInFlightActionCount()
+    {
+        synchronized (pendingActions)
+        {
+            return inFlightCount;
+        }
+    }
+    
     private void invokeOnAsyncActionExecutePolicy(Action action, NodeRef actionedUponNodeRef)
     {
         // Execute the policy, passing it all details, firing as a general action case
@@ -233,39 +558,8 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
                 executedRules);
         
         // Consider whether this action should be filtered out by one of the registered filters.
-        boolean newActionShouldBeFilteredOut = false;
         OngoingAsyncAction nodeBeingNewlyActioned = new OngoingAsyncAction(actionedUponNodeRef, action);
-        
-        for (Entry<String, AbstractAsynchronousActionFilter> entry : actionFilters.entrySet())
-        {
-            AbstractAsynchronousActionFilter comparator = entry.getValue();
-            String actionDefinitionName = comparator.getActionDefinitionName();
-            
-            if (actionDefinitionName.equals(action.getActionDefinitionName()) == false)
-            {
-                // We're only interested in registered actions with the same name as this one.
-                continue;
-            }
-            else
-            {
-                // Now we've found a registered action that matches the current one.
-                // So we'll go through the actions that are ongoing and consider them for matches with this one.
-                // Need to synchronize to prevent changes to ongoingActions whilst iterating. Assume that ongoingActions
-                // is not going to be too big and the loop will execute quite quickly, so that the synchronization 
-                // will not impact concurrency too much.
-                synchronized(this.ongoingActions)
-                {
-                    for (OngoingAsyncAction ongoingAction : this.ongoingActions)
-                    {
-                        if (comparator.compare(ongoingAction, nodeBeingNewlyActioned) == 0)
-                        {
-                            newActionShouldBeFilteredOut = true;
-                            break;
-                        }
-                    }
-                }
-            }
-        }
+        boolean newActionShouldBeFilteredOut = isEquivalentActionOngoing(nodeBeingNewlyActioned);
         if (newActionShouldBeFilteredOut)
         {
             if (logger.isDebugEnabled())
@@ -285,9 +579,24 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
                 logger.debug(msg.toString());
             }
             
-            // Queue it and do it.
-            ongoingActions.add(nodeBeingNewlyActioned);
-            threadPoolExecutor.execute(runnable);
+            if (clusteredQueue != null)
+            {
+                // Store it for any member of the cluster to run
+                queueClusteredAction(action, actionedUponNodeRef, checkConditions, actionChain, nodeBeingNewlyActioned, runnable);
+            }
+            else if (journal != null)
+            {
+                // Queue it in the journal and run it once a thread is free
+                queuePersistentAction(actionService, action, actionedUponNodeRef, checkConditions, actionChain,
+                        executedRules, nodeBeingNewlyActioned, runnable);
+            }
+            else
+            {
+                // Queue it and do it.
+                ongoingActions.add(nodeBeingNewlyActioned);
+                recordActionQueued();
+                threadPoolExecutor.execute(runnable);
+            }
         }
 
         // Done
@@ -308,6 +617,47 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
         }
     }
     
+    /**
+     * Consider whether an action is equivalent to one that is already queued or running,
+     * according to the registered filters.
+     */
+    private boolean isEquivalentActionOngoing(OngoingAsyncAction nodeBeingNewlyActioned)
+    {
+        boolean newActionShouldBeFilteredOut = false;
+        Action action = nodeBeingNewlyActioned.getAction();
+        for (Entry<String, AbstractAsynchronousActionFilter> entry : actionFilters.entrySet())
+        {
+            AbstractAsynchronousActionFilter comparator = entry.getValue();
+            String actionDefinitionName = comparator.getActionDefinitionName();
+            
+            if (actionDefinitionName.equals(action.getActionDefinitionName()) == false)
+            {
+                // We're only interested in registered actions with the same name as this one.
+                continue;
+            }
+            else
+            {
+                // Now we've found a registered action that matches the current one.
+                // So we'll go through the actions that are ongoing and consider them for matches with this one.
+                // Need to synchronize to prevent changes to ongoingActions whilst iterating. Assume that ongoingActions
+                // is not going to be too big and the loop will execute quite quickly, so that the synchronization 
+                // will not impact concurrency too much.
+                synchronized(this.ongoingActions)
+                {
+                    for (OngoingAsyncAction ongoingAction : this.ongoingActions)
+                    {
+                        if (comparator.compare(ongoingAction, nodeBeingNewlyActioned) == 0)
+                        {
+                            newActionShouldBeFilteredOut = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return newActionShouldBeFilteredOut;
+    }
+    
     private void handleAsyncActionIsCompleted(NodeRef n, Action action) {
         if (logger.isDebugEnabled())
         {
@@ -319,6 +669,257 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
         ongoingActions.remove(ongoing);
     }
     
+    private void recordActionQueued()
+    {
+        if (actionServiceMonitor != null)
+        {
+            actionServiceMonitor.actionQueued(id);
+        }
+    }
+    
+    /**
+     * Store an action for any member of the cluster to claim.  If it cannot be stored, the action
+     * is handed straight to the local thread pool.
+     */
+    private void queueClusteredAction(Action action, NodeRef actionedUponNodeRef, boolean checkConditions,
+            Set<String> actionChain, OngoingAsyncAction nodeBeingNewlyActioned, Runnable runnable)
+    {
+        recordActionQueued();
+        try
+        {
+            clusteredQueue.offer(new QueuedAction(action, actionedUponNodeRef, checkConditions, actionChain));
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Failed to store action on the cluster queue; running it here: " + action, e);
+            ongoingActions.add(nodeBeingNewlyActioned);
+            threadPoolExecutor.execute(runnable);
+        }
+    }
+    
+    /**
+     * Write an action to the journal and queue it.  If the journal cannot be written, the action
+     * is handed straight to the thread pool as for a queue that is not persistent.
+     */
+    private void queuePersistentAction(RuntimeActionService actionService, Action action, NodeRef actionedUponNodeRef,
+            boolean checkConditions, Set<String> actionChain, Set<RuleServiceImpl.ExecutedRuleData> executedRules,
+            OngoingAsyncAction nodeBeingNewlyActioned, Runnable runnable)
+    {
+        ActionQueueJournal.Entry entry;
+        try
+        {
+            entry = journal.append(new QueuedAction(action, actionedUponNodeRef, checkConditions, actionChain));
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to write action to the journal; it will not survive a restart: " + action, e);
+            ongoingActions.add(nodeBeingNewlyActioned);
+            recordActionQueued();
+            threadPoolExecutor.execute(runnable);
+            return;
+        }
+        queueJournalEntry(entry, actionService, executedRules);
+        dispatchQueuedActions();
+    }
+    
+    /**
+     * Queue an action held in the journal, keeping it in memory only while there is room
+     */
+    private void queueJournalEntry(ActionQueueJournal.Entry entry, RuntimeActionService actionService,
+            Set<RuleServiceImpl.ExecutedRuleData> executedRules)
+    {
+        Integer priority = actionPriorities.get(entry.getActionDefinitionName());
+        PendingAction pending = new PendingAction(entry, actionService, executedRules, priority == null ? 0 : priority);
+        synchronized (pendingActions)
+        {
+            QueuedAction queuedAction = entry.getAction();
+            if (queuedAction != null && inMemoryCount < maxInMemory)
+            {
+                // Equivalent actions are filtered against it until it completes
+                pending.ongoing = new OngoingAsyncAction(queuedAction.getActionedUponNodeRef(), queuedAction.getAction());
+                ongoingActions.add(pending.ongoing);
+                inMemoryCount++;
+            }
+            else
+            {
+                // It is filtered against equivalent actions when it is read back
+                entry.release();
+            }
+            pendingActions.add(pending);
+        }
+        recordActionQueued();
+    }
+    
+    /**
+     * Hand waiting actions to the thread pool, highest priority first, while there are free threads
+     * and the action definition's concurrency limit allows
+     */
+    private void dispatchQueuedActions()
+    {
+        if (!dispatching)
+        {
+            return;
+        }
+        int maxActions = (maxInFlight > 0 ? maxInFlight : threadPoolExecutor.getMaximumPoolSize());
+        List<PendingAction> dispatched = new ArrayList<PendingAction>();
+        synchronized (pendingActions)
+        {
+            List<PendingAction> limited = new ArrayList<PendingAction>();
+            while (inFlightCount < maxActions && !pendingActions.isEmpty())
+            {
+                PendingAction pending = pendingActions.poll();
+                String actionDefinitionName = pending.entry.getActionDefinitionName();
+                Integer limit = actionConcurrencyLimits.get(actionDefinitionName);
+                Integer running = runningActionCounts.get(actionDefinitionName);
+                int runningCount = (running == null ? 0 : running);
+                if (limit != null && runningCount >= limit)
+                {
+                    limited.add(pending);
+                    continue;
+                }
+                runningActionCounts.put(actionDefinitionName, runningCount + 1);
+                inFlightCount++;
+                dispatched.add(pending);
+            }
+            pendingActions.addAll(limited);
+        }
+        for (PendingAction pending : dispatched)
+        {
+            try
+            {
+                threadPoolExecutor.execute(new QueuedActionRunner(pending));
+            }
+            catch (RejectedExecutionException e)
+            {
+                logger.warn("Thread pool rejected queued action; it will be retried: " + pending.entry.getId());
+                synchronized (pendingActions)
+                {
+                    releaseSlot(pending);
+                    pendingActions.add(pending);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Give back the thread taken by an action (call while holding the lock on {@link #pendingActions})
+     */
+    private void releaseSlot(PendingAction pending)
+    {
+        String actionDefinitionName = pending.entry.getActionDefinitionName();
+        Integer running = runningActionCounts.get(actionDefinitionName);
+        if (running == null || running <= 1)
+        {
+            runningActionCounts.remove(actionDefinitionName);
+        }
+        else
+        {
+            runningActionCounts.put(actionDefinitionName, running - 1);
+        }
+        inFlightCount--;
+    }
+    
+    /**
+     * An action in the journal waiting for a thread
+     */
+    private static class PendingAction implements Comparable<PendingAction>
+    {
+        private final ActionQueueJournal.Entry entry;
+        private final RuntimeActionService actionService;
+        private final Set<RuleServiceImpl.ExecutedRuleData> executedRules;
+        private final int priority;
+        /** Set while the action is held in memory */
+        private OngoingAsyncAction ongoing;
+        
+        private PendingAction(ActionQueueJournal.Entry entry, RuntimeActionService actionService,
+                Set<RuleServiceImpl.ExecutedRuleData> executedRules, int priority)
+        {
+            this.entry = entry;
+            this.actionService = actionService;
+            this.executedRules = executedRules;
+            this.priority = priority;
+        }
+        
+        /**
+         * Highest priority first, then in the order queued
+         */
+        @Override
+        public int compareTo(PendingAction that)
+        {
+            if (this.priority != that.priority)
+            {
+                return (this.priority > that.priority) ? -1 : 1;
+            }
+            return (this.entry.getId() < that.entry.getId()) ? -1 : (this.entry.getId() == that.entry.getId() ? 0 : 1);
+        }
+    }
+    
+    /**
+     * Runs an action from the journal and then records that it has completed
+     */
+    private class QueuedActionRunner implements Runnable
+    {
+        private final PendingAction pending;
+        
+        private QueuedActionRunner(PendingAction pending)
+        {
+            this.pending = pending;
+        }
+        
+        @Override
+        public void run()
+        {
+            try
+            {
+                QueuedAction queuedAction = journal.read(pending.entry);
+                if (pending.ongoing == null)
+                {
+                    // Read back from the journal, so not yet compared with equivalent actions
+                    OngoingAsyncAction ongoing = new OngoingAsyncAction(queuedAction.getActionedUponNodeRef(), queuedAction.getAction());
+                    if (isEquivalentActionOngoing(ongoing))
+                    {
+                        if (logger.isDebugEnabled())
+                        {
+                            logger.debug("Dropping queued action " + queuedAction.getAction() + " as equivalent is ongoing.");
+                        }
+                        if (actionServiceMonitor != null)
+                        {
+                            actionServiceMonitor.queuedActionDropped(id);
+                        }
+                        return;
+                    }
+                    ongoingActions.add(ongoing);
+                }
+                new ActionExecutionWrapper(
+                        pending.actionService,
+                        queuedAction.getAction(),
+                        queuedAction.getActionedUponNodeRef(),
+                        queuedAction.getCheckConditions(),
+                        queuedAction.getActionChain(),
+                        pending.executedRules,
+                        pending.entry.getQueuedTime()).run();
+            }
+            catch (IOException e)
+            {
+                logger.error("Discarding queued action that cannot be read from the journal: " + pending.entry.getId(), e);
+            }
+            finally
+            {
+                journal.complete(pending.entry);
+                synchronized (pendingActions)
+                {
+                    releaseSlot(pending);
+                    if (pending.ongoing != null)
+                    {
+                        inMemoryCount--;
+                    }
+                }
+                pending.entry.release();
+                dispatchQueuedActions();
+            }
+        }
+    }
+    
     /**
      * Transaction listener used to invoke callback policies
      */
@@ -362,6 +963,7 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
         private boolean checkConditions;
         private Set<String> actionChain;
         private Set<RuleServiceImpl.ExecutedRuleData> executedRules;
+        private long queuedTime;
 
         /**
          * @param actionService                     the action service
@@ -385,6 +987,25 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
             this.checkConditions = checkConditions;
             this.actionChain = actionChain;
             this.executedRules = executedRules;
+            this.queuedTime = System.currentTimeMillis();
+        }
+
+        /**
+         * @param queuedTime                        the time the action was first queued
+         * 
+         * @since 6.1
+         */
+        public ActionExecutionWrapper(
+                RuntimeActionService actionService,
+                Action action,
+                NodeRef actionedUponNodeRef,
+                boolean checkConditions,
+                Set<String> actionChain,
+                Set<RuleServiceImpl.ExecutedRuleData> executedRules,
+                long queuedTime)
+        {
+            this(actionService, action, actionedUponNodeRef, checkConditions, actionChain, executedRules);
+            this.queuedTime = queuedTime;
         }
 
         /**
@@ -394,6 +1015,10 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
          */
         public void run()
         {
+            if (actionServiceMonitor != null)
+            {
+                actionServiceMonitor.queuedActionStarted(id, Math.max(0L, System.currentTimeMillis() - queuedTime));
+            }
             try
             {
                 // Get the run as user name
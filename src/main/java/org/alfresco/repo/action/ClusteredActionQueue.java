@@ -0,0 +1,623 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.action;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.action.ActionQueueJournal.QueuedAction;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.JobLockService.JobLockRefreshCallback;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.attributes.AttributeService.AttributeQueryCallback;
+import org.alfresco.service.cmr.attributes.DuplicateAttributeException;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.GUID;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An asynchronous action queue shared by all members of a cluster.
+ * <p>
+ * Queued actions are stored in the database, using the {@link AttributeService}, and any member
+ * may claim and run them.  A member claims an action by taking a {@link JobLockService job lock}
+ * from a fixed pool of {@link #LOCK_SLOTS} locks per queue, chosen by the action's entry, so that
+ * the lock tables do not grow with the number of actions run.  The lock acts as a lease: it is
+ * refreshed while the action runs and, should the member stop, expires so that another member
+ * can claim the action again.  Actions are therefore run <i>at least once</i>.  Actions sharing a
+ * lock are run one after the other.
+ * <p>
+ * Each poll reads the members and the oldest {@link #SCAN_WINDOW} waiting actions in one read-only
+ * transaction.  A member only writes its own heartbeat once per poll interval.
+ * <p>
+ * Each waiting action is keyed by a small number that is reused once the action completes, so that
+ * the keys stored in the <tt>alf_prop_*</tt> tables do not grow with the number of actions run.  The
+ * numbers are picked at random, from a range that doubles while the numbers picked are in use.  The
+ * stored action itself is a new value each time, which is left unused once the action completes and
+ * is only removed by the {@link org.alfresco.repo.attributes.PropTablesCleaner}.  A busy queue needs
+ * the cleaner to run often, preferably incrementally (<tt>attributes.propcleaner.incremental</tt>).
+ * <p>
+ * Each member only claims as many actions as it has free threads and no more than its fair share
+ * of the waiting actions, divided between the members that have polled the queue recently.  A busy
+ * member claims nothing, leaving the actions it queues to idle members.
+ *
+ * @since 6.1
+ */
+class ClusteredActionQueue
+{
+    /** Attribute keys: the actions waiting, by queue and item ID, and the actions themselves */
+    static final String KEY_QUEUE = ".ClusteredActionQueue";
+    static final String KEY_ACTIONS = ".ClusteredActionQueue.actions";
+    static final String KEY_MEMBERS = ".ClusteredActionQueue.members";
+    /** The number of job locks used to claim actions; a prime, so that IDs handed out in steps use every lock */
+    static final int LOCK_SLOTS = 257;
+    /** The maximum number of waiting actions read by each poll */
+    static final int SCAN_WINDOW = 500;
+    /** The range of the first item ID picked for an action, doubled for each ID found to be in use */
+    static final int MIN_ITEM_IDS = 1024;
+    /** The number of item IDs tried before giving up on storing an action */
+    private static final int MAX_ITEM_ID_ATTEMPTS = 24;
+
+    private static Log logger = LogFactory.getLog(ClusteredActionQueue.class);
+
+    /**
+     * Runs a claimed action
+     */
+    interface ActionRunner
+    {
+        void run(QueuedAction queuedAction);
+    }
+
+    private final String queueId;
+    private final TransactionService transactionService;
+    private final AttributeService attributeService;
+    private final JobLockService jobLockService;
+    private final Executor executor;
+    private final ActionRunner actionRunner;
+    private final int capacity;
+    private final long pollIntervalMs;
+    private final long leaseMs;
+    private final String memberId;
+
+    /** The items claimed by this member and not yet completed */
+    private final Set<Long> claimedItemIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    /** The lock slots held by this member */
+    private final Set<Integer> claimedSlots = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    /** The time this member last recorded that it is active */
+    private long lastHeartbeatMs;
+    private final Object pollLock = new Object();
+    private volatile boolean running;
+    private volatile boolean stopped;
+    private Thread pollThread;
+
+    private final AtomicLong claimedActions = new AtomicLong();
+    private final AtomicLong completedActions = new AtomicLong();
+    private final AtomicLong lostLeases = new AtomicLong();
+
+    /**
+     * @param queueId               the ID of the asynchronous action queue
+     * @param capacity              the number of claimed actions this member runs at once
+     * @param pollIntervalMs        the time (ms) between looking for waiting actions
+     * @param leaseMs               the time (ms) a claim lasts unless it is refreshed
+     */
+    ClusteredActionQueue(
+            String queueId,
+            TransactionService transactionService,
+            AttributeService attributeService,
+            JobLockService jobLockService,
+            Executor executor,
+            ActionRunner actionRunner,
+            int capacity,
+            long pollIntervalMs,
+            long leaseMs)
+    {
+        this.queueId = queueId;
+        this.transactionService = transactionService;
+        this.attributeService = attributeService;
+        this.jobLockService = jobLockService;
+        this.executor = executor;
+        this.actionRunner = actionRunner;
+        this.capacity = capacity;
+        this.pollIntervalMs = pollIntervalMs;
+        this.leaseMs = leaseMs;
+        this.memberId = GUID.generate();
+    }
+
+    /**
+     * Start looking for waiting actions
+     */
+    void start()
+    {
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("ClusteredActionQueue");
+        pollThread = threadFactory.newThread(new PollRunnable());
+        running = true;
+        pollThread.start();
+    }
+
+    /**
+     * Stop claiming actions.  Actions already claimed run to completion; unclaimed actions
+     * are left for the other members.
+     */
+    void stop()
+    {
+        running = false;
+        stopped = true;
+        if (pollThread != null)
+        {
+            pollThread.interrupt();
+            pollThread = null;
+        }
+        try
+        {
+            doInTransaction(new RetryingTransactionCallback<Void>()
+            {
+                public Void execute() throws Throwable
+                {
+                    attributeService.removeAttribute(KEY_MEMBERS, queueId, memberId);
+                    return null;
+                }
+            }, false);
+        }
+        catch (Throwable e)
+        {
+            logger.warn("Failed to remove cluster queue membership for " + memberId, e);
+        }
+    }
+
+    /**
+     * Store an action for any member to run
+     */
+    void offer(final QueuedAction queuedAction)
+    {
+        doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                long itemIds = MIN_ITEM_IDS;
+                for (int i = 0; i < MAX_ITEM_ID_ATTEMPTS; i++, itemIds *= 2)
+                {
+                    Long itemId = Long.valueOf(ThreadLocalRandom.current().nextLong(itemIds));
+                    try
+                    {
+                        // The queue entry claims the item ID; the order of the entries is the queue order
+                        attributeService.createAttribute(null, KEY_QUEUE, queueId, itemId);
+                    }
+                    catch (DuplicateAttributeException e)
+                    {
+                        // In use by another waiting action
+                        continue;
+                    }
+                    attributeService.setAttribute(queuedAction, KEY_ACTIONS, queueId, itemId);
+                    return null;
+                }
+                throw new AlfrescoRuntimeException("No free item ID to queue an action on cluster queue '" + queueId + "'");
+            }
+        }, false);
+    }
+
+    /**
+     * Record this member as active, then claim and start as many waiting actions as there are
+     * free threads, up to this member's fair share
+     *
+     * @return                      the number of actions claimed
+     */
+    int poll()
+    {
+        final long now = System.currentTimeMillis();
+        final boolean scan = capacity - claimedItemIds.size() > 0;
+        final List<String> deadMemberIds = new ArrayList<String>();
+        final int[] members = new int[] {1};
+        final Map<Long, Long> waitingItems = new LinkedHashMap<Long, Long>();
+        doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                deadMemberIds.clear();
+                waitingItems.clear();
+                members[0] = countMembers(now, deadMemberIds);
+                if (scan)
+                {
+                    // Find the oldest waiting actions
+                    attributeService.getAttributesInCreationOrder(new AttributeQueryCallback()
+                    {
+                        @Override
+                        public boolean handleAttribute(Long id, Serializable value, Serializable[] keys)
+                        {
+                            waitingItems.put((Long) keys[2], id);
+                            return waitingItems.size() < SCAN_WINDOW;
+                        }
+                    }, KEY_QUEUE, queueId);
+                }
+                return null;
+            }
+        }, true);
+        if (now - lastHeartbeatMs >= pollIntervalMs || !deadMemberIds.isEmpty())
+        {
+            heartbeat(now, deadMemberIds);
+            lastHeartbeatMs = now;
+        }
+        int free = capacity - claimedItemIds.size();
+        int waiting = waitingItems.size();
+        waitingItems.keySet().removeAll(claimedItemIds);
+        if (free <= 0 || waitingItems.isEmpty())
+        {
+            return 0;
+        }
+
+        int fairShare = (waiting + members[0] - 1) / members[0];
+        int toClaim = Math.min(free, fairShare);
+        int claimed = 0;
+        for (Map.Entry<Long, Long> entry : waitingItems.entrySet())
+        {
+            if (claimed >= toClaim || stopped)
+            {
+                break;
+            }
+            int slot = getLockSlot(entry.getValue());
+            if (claimedSlots.contains(slot))
+            {
+                // Wait for the action holding the lock to complete
+                continue;
+            }
+            if (claim(entry.getKey(), entry.getValue(), slot))
+            {
+                claimed++;
+            }
+        }
+        if (logger.isDebugEnabled() && claimed > 0)
+        {
+            logger.debug(
+                    "Claimed " + claimed + " of " + waiting + " waiting actions on queue '" + queueId +
+                    "' (" + members[0] + " members, " + free + " free threads)");
+        }
+        return claimed;
+    }
+
+    /**
+     * Count the members that have polled recently, including this one
+     *
+     * @param deadMemberIds         filled with the members that have not polled for a long time
+     */
+    private int countMembers(final long now, final List<String> deadMemberIds)
+    {
+        final long expired = now - 3 * pollIntervalMs;
+        final int[] members = new int[] {1};
+        attributeService.getAttributes(new AttributeQueryCallback()
+        {
+            @Override
+            public boolean handleAttribute(Long id, Serializable value, Serializable[] keys)
+            {
+                String otherMemberId = (String) keys[2];
+                if (memberId.equals(otherMemberId))
+                {
+                    return true;
+                }
+                long lastSeen = (value instanceof Long) ? (Long) value : 0L;
+                if (lastSeen >= expired)
+                {
+                    members[0]++;
+                }
+                else if (lastSeen < now - 10 * pollIntervalMs)
+                {
+                    deadMemberIds.add(otherMemberId);
+                }
+                return true;
+            }
+        }, KEY_MEMBERS, queueId);
+        return members[0];
+    }
+
+    /**
+     * Record that this member is polling, which is only necessary once per poll interval, and
+     * remove the members that have stopped
+     */
+    private void heartbeat(final long now, final List<String> deadMemberIds)
+    {
+        doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                attributeService.setAttribute(now, KEY_MEMBERS, queueId, memberId);
+                for (String deadMemberId : deadMemberIds)
+                {
+                    attributeService.removeAttribute(KEY_MEMBERS, queueId, deadMemberId);
+                }
+                return null;
+            }
+        }, false);
+    }
+
+    /**
+     * @param queueEntryId          the ID of the action's queue entry, which never changes
+     * @return                      the lock slot used to claim an action, the same on every member
+     */
+    private static int getLockSlot(Long queueEntryId)
+    {
+        return (int) (queueEntryId.longValue() % LOCK_SLOTS);
+    }
+
+    /**
+     * Take the lease on an action and hand it to the executor
+     *
+     * @param queueEntryId          the ID of the action's queue entry when the queue was read
+     * @return                      <tt>true</tt> if the action was claimed
+     */
+    private boolean claim(final Long itemId, final Long queueEntryId, final int slot)
+    {
+        final QName lockQName = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI, "ClusteredActionQueue." + queueId + "." + slot);
+        final String lockToken;
+        claimedSlots.add(slot);
+        claimedItemIds.add(itemId);
+        try
+        {
+            lockToken = jobLockService.getLock(lockQName, leaseMs, new JobLockRefreshCallback()
+            {
+                @Override
+                public boolean isActive()
+                {
+                    return claimedItemIds.contains(itemId);
+                }
+
+                @Override
+                public void lockReleased()
+                {
+                    if (claimedItemIds.contains(itemId))
+                    {
+                        lostLeases.incrementAndGet();
+                        logger.warn("Lost the lease on queued action " + itemId + "; another member may run it too");
+                    }
+                }
+            });
+        }
+        catch (LockAcquisitionException e)
+        {
+            // Another member has it, or another action using the same lock
+            claimedItemIds.remove(itemId);
+            claimedSlots.remove(slot);
+            return false;
+        }
+
+        QueuedAction queuedAction = null;
+        try
+        {
+            queuedAction = doInTransaction(new RetryingTransactionCallback<QueuedAction>()
+            {
+                public QueuedAction execute() throws Throwable
+                {
+                    // The item ID may have been reused by an action queued since the queue was read
+                    final boolean[] waiting = new boolean[] {false};
+                    attributeService.getAttributes(new AttributeQueryCallback()
+                    {
+                        @Override
+                        public boolean handleAttribute(Long id, Serializable value, Serializable[] keys)
+                        {
+                            waiting[0] = queueEntryId.equals(id);
+                            return false;
+                        }
+                    }, KEY_QUEUE, queueId, itemId);
+                    return waiting[0] ? (QueuedAction) attributeService.getAttribute(KEY_ACTIONS, queueId, itemId) : null;
+                }
+            }, true);
+        }
+        catch (Throwable e)
+        {
+            logger.error("Unable to read queued action " + itemId + "; it will be retried once the lease expires", e);
+            claimedItemIds.remove(itemId);
+            claimedSlots.remove(slot);
+            return false;
+        }
+        if (queuedAction == null)
+        {
+            // Completed by another member since the queue was read
+            release(itemId, slot, lockQName, lockToken);
+            return false;
+        }
+
+        claimedActions.incrementAndGet();
+        try
+        {
+            executor.execute(new ClaimedActionRunner(itemId, slot, lockQName, lockToken, queuedAction));
+        }
+        catch (RejectedExecutionException e)
+        {
+            release(itemId, slot, lockQName, lockToken);
+            return false;
+        }
+        return true;
+    }
+
+    private void release(Long itemId, int slot, QName lockQName, String lockToken)
+    {
+        claimedItemIds.remove(itemId);
+        try
+        {
+            jobLockService.releaseLock(lockToken, lockQName);
+        }
+        catch (LockAcquisitionException e)
+        {
+            // The lease had already expired
+        }
+        claimedSlots.remove(slot);
+    }
+
+    private void complete(final Long itemId)
+    {
+        doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                attributeService.removeAttribute(KEY_QUEUE, queueId, itemId);
+                attributeService.removeAttribute(KEY_ACTIONS, queueId, itemId);
+                return null;
+            }
+        }, false);
+        completedActions.incrementAndGet();
+    }
+
+    private <R> R doInTransaction(RetryingTransactionCallback<R> callback, boolean readOnly)
+    {
+        return transactionService.getRetryingTransactionHelper().doInTransaction(callback, readOnly, true);
+    }
+
+    /**
+     * @return                      the number of actions claimed by this member
+     */
+    long getClaimedActions()
+    {
+        return claimedActions.get();
+    }
+
+    /**
+     * @return                      the number of claimed actions this member has completed
+     */
+    long getCompletedActions()
+    {
+        return completedActions.get();
+    }
+
+    /**
+     * @return                      the number of claims that expired while the action was running
+     */
+    long getLostLeases()
+    {
+        return lostLeases.get();
+    }
+
+    /**
+     * @return                      the number of actions claimed by this member and still running
+     */
+    int getRunningActions()
+    {
+        return claimedItemIds.size();
+    }
+
+    /**
+     * Runs a claimed action, then removes it from the queue and gives up the lease
+     */
+    private class ClaimedActionRunner implements Runnable
+    {
+        private final Long itemId;
+        private final int slot;
+        private final QName lockQName;
+        private final String lockToken;
+        private final QueuedAction queuedAction;
+
+        private ClaimedActionRunner(Long itemId, int slot, QName lockQName, String lockToken, QueuedAction queuedAction)
+        {
+            this.itemId = itemId;
+            this.slot = slot;
+            this.lockQName = lockQName;
+            this.lockToken = lockToken;
+            this.queuedAction = queuedAction;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                try
+                {
+                    actionRunner.run(queuedAction);
+                }
+                catch (Throwable e)
+                {
+                    // Failed actions are not run again, as for the local queue
+                    logger.error("Failed to run queued action " + itemId + ": " + queuedAction, e);
+                }
+                complete(itemId);
+            }
+            catch (Throwable e)
+            {
+                logger.error("Failed to remove queued action " + itemId + "; it will run again", e);
+            }
+            finally
+            {
+                release(itemId, slot, lockQName, lockToken);
+                synchronized (pollLock)
+                {
+                    pollLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Polls the queue at intervals, or sooner when an action claimed here completes
+     */
+    private class PollRunnable implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            while (running)
+            {
+                try
+                {
+                    poll();
+                    synchronized (pollLock)
+                    {
+                        pollLock.wait(pollIntervalMs);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    // Stopping
+                }
+                catch (Throwable e)
+                {
+                    logger.error("Unexpected error polling clustered action queue '" + queueId + "'", e);
+                    try
+                    {
+                        Thread.sleep(pollIntervalMs);
+                    }
+                    catch (InterruptedException ee)
+                    {
+                        // Stopping
+                    }
+                }
+            }
+        }
+    }
+}
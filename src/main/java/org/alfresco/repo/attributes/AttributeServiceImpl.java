@@ -128,17 +128,33 @@ public class AttributeServiceImpl implements AttributeService
     /**
      * {@inheritDoc}
      */
-    public void getAttributes(final AttributeQueryCallback callback, Serializable ... keys)
+    public void getAttributes(AttributeQueryCallback callback, Serializable ... keys)
     {
-        PropertyUniqueContextCallback propertyUniqueContextCallback = new PropertyUniqueContextCallback()
+        propertyValueDAO.getPropertyUniqueContext(getPropertyUniqueContextCallback(callback), keys);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public void getAttributesInCreationOrder(AttributeQueryCallback callback, Serializable ... keys)
+    {
+        propertyValueDAO.getPropertyUniqueContextInCreationOrder(getPropertyUniqueContextCallback(callback), keys);
+    }
+    
+    /**
+     * @return                      a callback converting unique contexts to attributes for the given callback
+     */
+    private PropertyUniqueContextCallback getPropertyUniqueContextCallback(final AttributeQueryCallback callback)
+    {
+        return new PropertyUniqueContextCallback()
         {
             private boolean more = true;
-            public void handle(Long id, Long valueId, Serializable[] resultKeyIds)
+            public boolean handle(Long id, Long valueId, Serializable[] resultKeyIds)
             {
                 if (!more)
                 {
                     // The callback has terminated fetching
-                    return;
+                    return false;
                 }
                 
                 Serializable value = null;
@@ -167,10 +183,9 @@ public class AttributeServiceImpl implements AttributeService
                             "   Keys:   " + Arrays.asList(resultsKeyValues) + "\n" +
                             "   Value: " + value);
                 }
+                return more;
             }
         };
-        propertyValueDAO.getPropertyUniqueContext(propertyUniqueContextCallback, keys);
-        // Done
     }
     
     /**
@@ -25,24 +25,48 @@
  */
 package org.alfresco.repo.attributes;
 
+import java.io.Serializable;
+import java.util.List;
+
 import org.alfresco.repo.domain.propval.PropertyValueDAO;
 import org.alfresco.repo.lock.JobLockService;
 import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.attributes.AttributeService;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
 import org.alfresco.util.PropertyCheck;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * Cleaner of unused values from the alf_prop_xxx tables.
+ * <p>
+ * By default the tables are cleaned in one go by a script.  In incremental mode the properties
+ * and then the values are checked in small ranges of IDs.  The unused rows found in a range
+ * are locked and checked again in a second transaction before they are deleted, so rows that
+ * gain a reference in the meantime are kept.  The position reached is saved with each range, so a run that stops early, whether through
+ * {@link #setMaxRunTimeMs(long) lack of time} or failure, is resumed by the next run.
  *
  * @author alex.mukha
  */
 public class PropTablesCleaner
 {
+    private static final String ATTR_KEY_CLEANER = ".PropTablesCleaner";
+    private static final String ATTR_KEY_PHASE = "phase";
+    private static final String PHASE_PROPERTIES = "properties";
+    private static final String PHASE_VALUES = "values";
+    
     private PropertyValueDAO propertyValueDAO;
     private JobLockService jobLockService;
+    private TransactionService transactionService;
+    private AttributeService attributeService;
+    private boolean incremental;
+    private int batchSize = 1000;
+    private long batchPauseMs = 0L;
+    private long maxRunTimeMs = 0L;
 
     /* 1 minute */
     private static final long LOCK_TTL = 360000L;
@@ -60,10 +84,70 @@ public class PropTablesCleaner
         this.jobLockService = jobLockService;
     }
 
+    /**
+     * @param transactionService        used for the transactions of incremental cleanup
+     */
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    /**
+     * @param attributeService          used to record the progress of incremental cleanup
+     */
+    public void setAttributeService(AttributeService attributeService)
+    {
+        this.attributeService = attributeService;
+    }
+
+    /**
+     * @param incremental               <tt>true</tt> to clean up in small batches that can be
+     *                                  run while the system is in use (default: <tt>false</tt>)
+     */
+    public void setIncremental(boolean incremental)
+    {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @param batchSize                 the number of IDs checked per transaction (default: 1000)
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param batchPauseMs              the time to pause between batches to limit the load on the
+     *                                  database (default: 0)
+     */
+    public void setBatchPauseMs(long batchPauseMs)
+    {
+        this.batchPauseMs = batchPauseMs;
+    }
+
+    /**
+     * @param maxRunTimeMs              the time after which an incremental run stops, to be resumed
+     *                                  by the next run, or 0 to finish a full pass (default: 0)
+     */
+    public void setMaxRunTimeMs(long maxRunTimeMs)
+    {
+        this.maxRunTimeMs = maxRunTimeMs;
+    }
+
     public void checkProperties()
     {
         PropertyCheck.mandatory(this, "jobLockService", jobLockService);
         PropertyCheck.mandatory(this, "propertyValueDAO", propertyValueDAO);
+        if (incremental)
+        {
+            PropertyCheck.mandatory(this, "transactionService", transactionService);
+            PropertyCheck.mandatory(this, "attributeService", attributeService);
+            if (batchSize < 1)
+            {
+                throw new IllegalArgumentException("'batchSize' must be at least 1");
+            }
+        }
     }
 
     /**
@@ -79,7 +163,14 @@ public class PropTablesCleaner
         {
             // Get a lock
             lockToken = jobLockService.getLock(LOCK_QNAME, LOCK_TTL);
-            propertyValueDAO.cleanupUnusedValues();
+            if (incremental)
+            {
+                executeIncremental(lockToken);
+            }
+            else
+            {
+                propertyValueDAO.cleanupUnusedValues();
+            }
         }
         catch (LockAcquisitionException e)
         {
@@ -103,4 +194,144 @@ public class PropTablesCleaner
             }
         }
     }
+    
+    /**
+     * Clean up unused properties and then unused values in ranges of IDs, resuming from the
+     * position saved by the previous run.  Each range is cleaned and the new position saved
+     * in one transaction.
+     */
+    private void executeIncremental(String lockToken)
+    {
+        final RetryingTransactionHelper txnHelper = transactionService.getRetryingTransactionHelper();
+        long startTime = System.currentTimeMillis();
+        long idsScanned = 0L;
+        long rowsDeleted = 0L;
+        int phasesCompleted = 0;
+        
+        RetryingTransactionCallback<Serializable[]> loadStateCallback = new RetryingTransactionCallback<Serializable[]>()
+        {
+            @Override
+            public Serializable[] execute() throws Throwable
+            {
+                Serializable phase = attributeService.getAttribute(ATTR_KEY_CLEANER, ATTR_KEY_PHASE);
+                if (!PHASE_VALUES.equals(phase))
+                {
+                    phase = PHASE_PROPERTIES;
+                }
+                Serializable cursor = attributeService.getAttribute(ATTR_KEY_CLEANER, phase);
+                return new Serializable[] {phase, cursor};
+            }
+        };
+        Serializable[] state = txnHelper.doInTransaction(loadStateCallback, true, true);
+        String phase = (String) state[0];
+        long cursor = (state[1] instanceof Long) ? (Long) state[1] : 0L;
+        Long maxId = null;
+        
+        while (phasesCompleted < 2)
+        {
+            if (maxRunTimeMs > 0L && System.currentTimeMillis() - startTime >= maxRunTimeMs)
+            {
+                break;
+            }
+            final boolean properties = PHASE_PROPERTIES.equals(phase);
+            if (maxId == null)
+            {
+                // Only IDs that exist at the start of the phase are checked
+                maxId = txnHelper.doInTransaction(new RetryingTransactionCallback<Long>()
+                {
+                    @Override
+                    public Long execute() throws Throwable
+                    {
+                        Long id = properties ? propertyValueDAO.getMaxPropertyRootId() : propertyValueDAO.getMaxPropertyValueId();
+                        return (id == null) ? -1L : id;
+                    }
+                }, true, true);
+            }
+            if (cursor > maxId)
+            {
+                // Move on to the other table
+                phase = properties ? PHASE_VALUES : PHASE_PROPERTIES;
+                cursor = 0L;
+                maxId = null;
+                phasesCompleted++;
+                saveState(txnHelper, phase, cursor);
+                continue;
+            }
+            
+            final String batchPhase = phase;
+            final long batchMinId = cursor;
+            final long batchMaxId = Math.min(cursor + batchSize - 1, maxId);
+            // The candidates are found in their own transaction so that the check made after locking
+            // them does not share a snapshot with the search, whatever the isolation level
+            RetryingTransactionCallback<List<Long>> findCallback = new RetryingTransactionCallback<List<Long>>()
+            {
+                @Override
+                public List<Long> execute() throws Throwable
+                {
+                    return properties ?
+                            propertyValueDAO.getUnusedPropertyRootIds(batchMinId, batchMaxId) :
+                            propertyValueDAO.getUnusedPropertyValueIds(batchMinId, batchMaxId);
+                }
+            };
+            final List<Long> candidateIds = txnHelper.doInTransaction(findCallback, true, true);
+            RetryingTransactionCallback<Integer> cleanCallback = new RetryingTransactionCallback<Integer>()
+            {
+                @Override
+                public Integer execute() throws Throwable
+                {
+                    int deleted = 0;
+                    if (!candidateIds.isEmpty())
+                    {
+                        deleted = properties ?
+                                propertyValueDAO.cleanupUnusedProperties(candidateIds) :
+                                propertyValueDAO.cleanupUnusedPropertyValues(candidateIds);
+                    }
+                    attributeService.setAttribute(batchMaxId + 1, ATTR_KEY_CLEANER, batchPhase);
+                    return deleted;
+                }
+            };
+            rowsDeleted += txnHelper.doInTransaction(cleanCallback, false, true);
+            idsScanned += batchMaxId - batchMinId + 1;
+            cursor = batchMaxId + 1;
+            
+            // Keep the lock for as long as there is work being done
+            jobLockService.refreshLock(lockToken, LOCK_QNAME, LOCK_TTL);
+            
+            if (batchPauseMs > 0L)
+            {
+                try
+                {
+                    Thread.sleep(batchPauseMs);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        
+        if (logger.isInfoEnabled())
+        {
+            long elapsedMs = Math.max(1L, System.currentTimeMillis() - startTime);
+            logger.info(
+                    "Prop tables cleaning " + (phasesCompleted < 2 ? "paused in '" + phase + "' at ID " + cursor : "completed") + ": " +
+                    idsScanned + " IDs scanned, " + rowsDeleted + " rows deleted in " + elapsedMs + "ms (" +
+                    (idsScanned * 1000L / elapsedMs) + " IDs/s, " + (rowsDeleted * 1000L / elapsedMs) + " rows/s)");
+        }
+    }
+    
+    private void saveState(RetryingTransactionHelper txnHelper, final String phase, final long cursor)
+    {
+        txnHelper.doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            @Override
+            public Void execute() throws Throwable
+            {
+                attributeService.setAttribute(phase, ATTR_KEY_CLEANER, ATTR_KEY_PHASE);
+                attributeService.setAttribute(cursor, ATTR_KEY_CLEANER, phase);
+                return null;
+            }
+        }, false, true);
+    }
 }
@@ -0,0 +1,846 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.audit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.domain.audit.AuditDAO;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.repo.transaction.TransactionalResourceHelper;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.PropertyCheck;
+import org.alfresco.util.TraceableThreadFactory;
+import org.alfresco.util.transaction.TransactionListenerAdapter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes audit entries to the database in the background.
+ * <p>
+ * Entries recorded in a transaction are held against that transaction and, once it has committed,
+ * appended to a local write-ahead log.  A background thread rotates the log into segments and
+ * writes each segment to the database in batches, several entries per transaction, before deleting
+ * it.  Segments left behind by a shutdown or a crash are replayed when the writer starts, so an
+ * entry is written <i>at least once</i>; an entry may be written twice if the server stops between
+ * a batch committing and its segment being deleted.
+ * <p>
+ * The number of entries waiting to be written is bounded; entries committed while the queue is
+ * full are dropped and counted rather than slowing down the caller.
+ *
+ * @since 6.1
+ */
+public class AsyncAuditWriter extends TransactionListenerAdapter implements AsyncAuditWriterMBean
+{
+    private static final String KEY_PENDING_ENTRIES = "AsyncAuditWriter.pendingEntries";
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private static Log logger = LogFactory.getLog(AsyncAuditWriter.class);
+
+    private TransactionService transactionService;
+    private AuditDAO auditDAO;
+    private boolean enabled;
+    private String walDirectory;
+    private int batchSize;
+    private long flushIntervalMs;
+    private int maxQueuedEntries;
+    private int maxRetries;
+    private boolean syncOnWrite;
+
+    private File walDir;
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    /** Closed segments waiting to be written, oldest first (guarded by {@link #lock}) */
+    private final Deque<Segment> pendingSegments = new ArrayDeque<Segment>();
+    /** The segment currently being appended to (guarded by {@link #lock}) */
+    private Segment currentSegment;
+    /** Entries buffered but not yet written (guarded by {@link #lock}) */
+    private int queuedEntries;
+    private long segmentSequence;
+    private volatile boolean running;
+    private Thread writerThread;
+
+    private final AtomicLong writtenEntries = new AtomicLong();
+    private final AtomicLong droppedEntries = new AtomicLong();
+    private final AtomicLong failedEntries = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * Defaults:
+     * <ul>
+     *   <li><b>enabled: false</b></li>
+     *   <li><b>batchSize: 200</b></li>
+     *   <li><b>flushIntervalMs: 1000</b></li>
+     *   <li><b>maxQueuedEntries: 100000</b></li>
+     *   <li><b>maxRetries: 3</b></li>
+     *   <li><b>syncOnWrite: false</b></li>
+     * </ul>
+     */
+    public AsyncAuditWriter()
+    {
+        this.enabled = false;
+        this.batchSize = 200;
+        this.flushIntervalMs = 1000L;
+        this.maxQueuedEntries = 100000;
+        this.maxRetries = 3;
+        this.syncOnWrite = false;
+    }
+
+    /**
+     * @param transactionService    the service used to start the write transactions
+     */
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    /**
+     * @param auditDAO              the DAO used to persist the audit entries
+     */
+    public void setAuditDAO(AuditDAO auditDAO)
+    {
+        this.auditDAO = auditDAO;
+    }
+
+    /**
+     * @param enabled               <tt>true</tt> to write audit entries asynchronously
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param walDirectory          the directory holding the write-ahead log segments
+     */
+    public void setWalDirectory(String walDirectory)
+    {
+        this.walDirectory = walDirectory;
+    }
+
+    /**
+     * @param batchSize             the number of entries written per database transaction
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param flushIntervalMs       the maximum time (ms) committed entries wait before being written
+     */
+    public void setFlushIntervalMs(long flushIntervalMs)
+    {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /**
+     * @param maxQueuedEntries      the maximum number of entries waiting to be written before
+     *                              further entries are dropped
+     */
+    public void setMaxQueuedEntries(int maxQueuedEntries)
+    {
+        this.maxQueuedEntries = maxQueuedEntries;
+    }
+
+    /**
+     * @param maxRetries            the number of times a failing batch is retried before its
+     *                              entries are written one at a time
+     */
+    public void setMaxRetries(int maxRetries)
+    {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @param syncOnWrite           <tt>true</tt> to force each append to the write-ahead log to disk
+     */
+    public void setSyncOnWrite(boolean syncOnWrite)
+    {
+        this.syncOnWrite = syncOnWrite;
+    }
+
+    /**
+     * Check properties, replay any segments left behind and start the writer thread
+     */
+    public void init()
+    {
+        PropertyCheck.mandatory(this, "transactionService", transactionService);
+        PropertyCheck.mandatory(this, "auditDAO", auditDAO);
+        if (!enabled)
+        {
+            return;
+        }
+        PropertyCheck.mandatory(this, "walDirectory", walDirectory);
+        if (batchSize < 1)
+        {
+            throw new AlfrescoRuntimeException("'batchSize' must be at least 1");
+        }
+        walDir = new File(walDirectory);
+        if (!walDir.isDirectory() && !walDir.mkdirs())
+        {
+            throw new AlfrescoRuntimeException("Unable to create audit write-ahead log directory: " + walDir);
+        }
+        recoverSegments();
+
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("AsyncAuditWriter");
+        writerThread = threadFactory.newThread(new WriterRunnable());
+        running = true;
+        writerThread.start();
+    }
+
+    /**
+     * Stop the writer thread and write whatever is still buffered.  Anything that cannot be
+     * written stays in the write-ahead log and is replayed on the next start.
+     */
+    public void destroy()
+    {
+        running = false;
+        if (writerThread != null)
+        {
+            writerThread.interrupt();
+            try
+            {
+                writerThread.join(flushIntervalMs);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            writerThread = null;
+        }
+        if (walDir != null)
+        {
+            flush();
+        }
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Queue an audit entry for writing once the current transaction has committed.
+     * Nothing is recorded if the transaction rolls back.
+     *
+     * @param applicationId         the ID of the audit application
+     * @param time                  the time of the entry
+     * @param username              the user that generated the entry
+     * @param values                the audited values
+     */
+    public void queueAuditEntry(Long applicationId, long time, String username, Map<String, Serializable> values)
+    {
+        List<QueuedAuditEntry> entries = TransactionalResourceHelper.getList(KEY_PENDING_ENTRIES);
+        entries.add(new QueuedAuditEntry(applicationId, time, username, values));
+        AlfrescoTransactionSupport.bindListener(this);
+    }
+
+    /**
+     * Append the entries recorded in the transaction to the write-ahead log
+     */
+    @Override
+    public void afterCommit()
+    {
+        List<QueuedAuditEntry> entries = TransactionalResourceHelper.getList(KEY_PENDING_ENTRIES);
+        if (!entries.isEmpty())
+        {
+            append(new ArrayList<QueuedAuditEntry>(entries));
+            entries.clear();
+        }
+    }
+
+    /**
+     * Append committed entries to the current write-ahead log segment, dropping them if the
+     * queue is full or they cannot be stored
+     */
+    void append(List<QueuedAuditEntry> entries)
+    {
+        List<QueuedAuditEntry> accepted = new ArrayList<QueuedAuditEntry>(entries.size());
+        List<byte[]> records = new ArrayList<byte[]>(entries.size());
+        for (QueuedAuditEntry entry : entries)
+        {
+            try
+            {
+                records.add(serialize(entry));
+                accepted.add(entry);
+            }
+            catch (IOException e)
+            {
+                droppedEntries.incrementAndGet();
+                logger.error("Dropping audit entry that cannot be serialized: " + entry, e);
+            }
+        }
+        if (accepted.isEmpty())
+        {
+            return;
+        }
+        synchronized (lock)
+        {
+            if (queuedEntries + accepted.size() > maxQueuedEntries)
+            {
+                droppedEntries.addAndGet(accepted.size());
+                if (logger.isWarnEnabled())
+                {
+                    logger.warn(
+                            "Audit write queue is full (" + queuedEntries + " entries); dropped " +
+                            accepted.size() + " entries (" + droppedEntries.get() + " in total)");
+                }
+                return;
+            }
+            try
+            {
+                if (currentSegment == null)
+                {
+                    currentSegment = Segment.create(nextSegmentFile());
+                }
+                currentSegment.append(accepted, records, syncOnWrite);
+            }
+            catch (IOException e)
+            {
+                droppedEntries.addAndGet(accepted.size());
+                logger.error("Failed to append " + accepted.size() + " entries to the audit write-ahead log", e);
+                closeCurrentSegment();
+                return;
+            }
+            queuedEntries += accepted.size();
+            if (currentSegment.size() >= batchSize)
+            {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Rotate the current segment and write all pending segments to the database.  Stops at the
+     * first batch that cannot be written; it is retried on the next flush.
+     */
+    public void flush()
+    {
+        synchronized (flushLock)
+        {
+            synchronized (lock)
+            {
+                closeCurrentSegment();
+            }
+            while (true)
+            {
+                Segment segment;
+                synchronized (lock)
+                {
+                    segment = pendingSegments.peek();
+                }
+                if (segment == null || !writeSegment(segment))
+                {
+                    break;
+                }
+                synchronized (lock)
+                {
+                    pendingSegments.poll();
+                }
+                if (!segment.getFile().delete() && segment.getFile().exists())
+                {
+                    logger.warn("Failed to delete written audit write-ahead log segment: " + segment.getFile());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return                      <tt>true</tt> if the segment has been completely written
+     */
+    private boolean writeSegment(Segment segment)
+    {
+        List<QueuedAuditEntry> entries = segment.getEntries();
+        while (segment.getWritten() < entries.size())
+        {
+            int start = segment.getWritten();
+            List<QueuedAuditEntry> batch = entries.subList(start, Math.min(start + batchSize, entries.size()));
+            int written;
+            if (writeBatch(batch))
+            {
+                written = batch.size();
+                batches.incrementAndGet();
+                segment.resetFailures();
+            }
+            else if (segment.incrementFailures() < maxRetries)
+            {
+                return false;
+            }
+            else
+            {
+                written = writeIndividually(batch);
+                segment.resetFailures();
+                if (written == 0)
+                {
+                    // Nothing can be written at all; assume the database is unavailable
+                    return false;
+                }
+                failedEntries.addAndGet(batch.size() - written);
+                logger.error("Discarded " + (batch.size() - written) + " audit entries that cannot be written");
+            }
+            writtenEntries.addAndGet(written);
+            synchronized (lock)
+            {
+                queuedEntries -= batch.size();
+                segment.setWritten(start + batch.size());
+            }
+        }
+        return true;
+    }
+
+    private boolean writeBatch(final List<QueuedAuditEntry> batch)
+    {
+        RetryingTransactionCallback<Void> callback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                for (QueuedAuditEntry entry : batch)
+                {
+                    auditDAO.createAuditEntry(entry.getApplicationId(), entry.getTime(), entry.getUsername(), entry.getValues());
+                }
+                return null;
+            }
+        };
+        try
+        {
+            RetryingTransactionHelper txnHelper = transactionService.getRetryingTransactionHelper();
+            txnHelper.setForceWritable(true);
+            txnHelper.doInTransaction(callback, false, true);
+            return true;
+        }
+        catch (Throwable e)
+        {
+            logger.warn("Failed to write batch of " + batch.size() + " audit entries", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return                      the number of entries written
+     */
+    private int writeIndividually(List<QueuedAuditEntry> batch)
+    {
+        int written = 0;
+        for (QueuedAuditEntry entry : batch)
+        {
+            if (writeBatch(Collections.singletonList(entry)))
+            {
+                written++;
+            }
+            else
+            {
+                logger.warn("Failed to write audit entry: " + entry);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Close the current segment and queue it for writing (call while holding the lock)
+     */
+    private void closeCurrentSegment()
+    {
+        if (currentSegment == null)
+        {
+            return;
+        }
+        currentSegment.close();
+        if (currentSegment.size() > 0)
+        {
+            pendingSegments.add(currentSegment);
+        }
+        else if (!currentSegment.getFile().delete())
+        {
+            logger.warn("Failed to delete empty audit write-ahead log segment: " + currentSegment.getFile());
+        }
+        currentSegment = null;
+    }
+
+    private File nextSegmentFile()
+    {
+        String name = String.format("%s%013d-%09d%s", SEGMENT_PREFIX, System.currentTimeMillis(), segmentSequence++, SEGMENT_SUFFIX);
+        return new File(walDir, name);
+    }
+
+    /**
+     * Load segments left behind by a previous run, oldest first
+     */
+    private void recoverSegments()
+    {
+        File[] files = walDir.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null || files.length == 0)
+        {
+            return;
+        }
+        Arrays.sort(files);
+        int recovered = 0;
+        synchronized (lock)
+        {
+            for (File file : files)
+            {
+                Segment segment = Segment.load(file);
+                if (segment.size() == 0)
+                {
+                    file.delete();
+                    continue;
+                }
+                pendingSegments.add(segment);
+                queuedEntries += segment.size();
+                recovered += segment.size();
+            }
+        }
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Recovered " + recovered + " audit entries from " + files.length + " write-ahead log segments in " + walDir);
+        }
+    }
+
+    @Override
+    public int getQueuedEntries()
+    {
+        synchronized (lock)
+        {
+            return queuedEntries;
+        }
+    }
+
+    @Override
+    public int getPendingSegments()
+    {
+        synchronized (lock)
+        {
+            return pendingSegments.size() + (currentSegment == null ? 0 : 1);
+        }
+    }
+
+    @Override
+    public long getLagMs()
+    {
+        synchronized (lock)
+        {
+            Segment oldest = pendingSegments.isEmpty() ? currentSegment : pendingSegments.peek();
+            if (oldest == null || oldest.getWritten() >= oldest.size())
+            {
+                return 0L;
+            }
+            long queuedTime = oldest.getEntries().get(oldest.getWritten()).getQueuedTime();
+            return Math.max(0L, System.currentTimeMillis() - queuedTime);
+        }
+    }
+
+    @Override
+    public long getWrittenEntries()
+    {
+        return writtenEntries.get();
+    }
+
+    @Override
+    public long getDroppedEntries()
+    {
+        return droppedEntries.get();
+    }
+
+    @Override
+    public long getFailedEntries()
+    {
+        return failedEntries.get();
+    }
+
+    @Override
+    public long getBatches()
+    {
+        return batches.get();
+    }
+
+    private static byte[] serialize(QueuedAuditEntry entry) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(entry);
+        oos.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * An audit entry waiting to be written
+     */
+    static class QueuedAuditEntry implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Long applicationId;
+        private final long time;
+        private final String username;
+        private final HashMap<String, Serializable> values;
+        private final long queuedTime;
+
+        QueuedAuditEntry(Long applicationId, long time, String username, Map<String, Serializable> values)
+        {
+            this.applicationId = applicationId;
+            this.time = time;
+            this.username = username;
+            this.values = new HashMap<String, Serializable>(values);
+            this.queuedTime = System.currentTimeMillis();
+        }
+
+        public Long getApplicationId()
+        {
+            return applicationId;
+        }
+
+        public long getTime()
+        {
+            return time;
+        }
+
+        public String getUsername()
+        {
+            return username;
+        }
+
+        public Map<String, Serializable> getValues()
+        {
+            return values;
+        }
+
+        public long getQueuedTime()
+        {
+            return queuedTime;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "QueuedAuditEntry [applicationId=" + applicationId + ", time=" + time + ", username=" + username + ", values=" + values + "]";
+        }
+    }
+
+    /**
+     * A write-ahead log file holding length-prefixed serialized entries, together with the
+     * entries themselves and how many of them have been written to the database
+     */
+    private static class Segment
+    {
+        private final File file;
+        private final List<QueuedAuditEntry> entries;
+        private FileOutputStream fileOut;
+        private DataOutputStream out;
+        private volatile int written;
+        private int failures;
+
+        private Segment(File file, List<QueuedAuditEntry> entries)
+        {
+            this.file = file;
+            this.entries = entries;
+        }
+
+        private static Segment create(File file) throws IOException
+        {
+            Segment segment = new Segment(file, new ArrayList<QueuedAuditEntry>());
+            segment.fileOut = new FileOutputStream(file);
+            segment.out = new DataOutputStream(new BufferedOutputStream(segment.fileOut));
+            return segment;
+        }
+
+        /**
+         * Read back a segment.  A truncated last record (the server stopped mid-append) is ignored
+         * and records that can no longer be deserialized are skipped.
+         */
+        private static Segment load(File file)
+        {
+            List<QueuedAuditEntry> entries = new ArrayList<QueuedAuditEntry>();
+            DataInputStream in = null;
+            try
+            {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                while (true)
+                {
+                    byte[] record;
+                    try
+                    {
+                        record = new byte[in.readInt()];
+                        in.readFully(record);
+                    }
+                    catch (EOFException e)
+                    {
+                        break;
+                    }
+                    try
+                    {
+                        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(record));
+                        entries.add((QueuedAuditEntry) ois.readObject());
+                    }
+                    catch (Exception e)
+                    {
+                        logger.error("Skipping unreadable audit entry in write-ahead log segment: " + file, e);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                logger.error("Failed to read audit write-ahead log segment: " + file, e);
+            }
+            finally
+            {
+                if (in != null)
+                {
+                    try { in.close(); } catch (IOException e) {}
+                }
+            }
+            return new Segment(file, entries);
+        }
+
+        private void append(List<QueuedAuditEntry> newEntries, List<byte[]> records, boolean sync) throws IOException
+        {
+            for (byte[] record : records)
+            {
+                out.writeInt(record.length);
+                out.write(record);
+            }
+            out.flush();
+            if (sync)
+            {
+                fileOut.getFD().sync();
+            }
+            entries.addAll(newEntries);
+        }
+
+        private void close()
+        {
+            if (out != null)
+            {
+                try { out.close(); } catch (IOException e) {}
+                out = null;
+                fileOut = null;
+            }
+        }
+
+        private File getFile()
+        {
+            return file;
+        }
+
+        private List<QueuedAuditEntry> getEntries()
+        {
+            return entries;
+        }
+
+        private int size()
+        {
+            return entries.size();
+        }
+
+        private int getWritten()
+        {
+            return written;
+        }
+
+        private void setWritten(int written)
+        {
+            this.written = written;
+        }
+
+        private int incrementFailures()
+        {
+            return ++failures;
+        }
+
+        private void resetFailures()
+        {
+            failures = 0;
+        }
+    }
+
+    /**
+     * Writes buffered entries whenever a batch is full or the flush interval has passed
+     */
+    private class WriterRunnable implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            while (running)
+            {
+                try
+                {
+                    synchronized (lock)
+                    {
+                        if (currentSegment == null || currentSegment.size() < batchSize)
+                        {
+                            lock.wait(flushIntervalMs);
+                        }
+                    }
+                    flush();
+                }
+                catch (InterruptedException e)
+                {
+                    // Shutting down
+                }
+                catch (Throwable e)
+                {
+                    logger.error("Unexpected error in asynchronous audit writer", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.audit;
+
+/**
+ * Management interface for the {@link AsyncAuditWriter}.
+ *
+ * @since 6.1
+ */
+public interface AsyncAuditWriterMBean
+{
+    /**
+     * @return          <tt>true</tt> if audit entries are written asynchronously
+     */
+    public boolean isEnabled();
+
+    /**
+     * @return          the number of committed audit entries waiting to be written to the database
+     */
+    public int getQueuedEntries();
+
+    /**
+     * @return          the number of write-ahead segments waiting to be written to the database
+     */
+    public int getPendingSegments();
+
+    /**
+     * @return          the age (ms) of the oldest audit entry not yet written to the database
+     */
+    public long getLagMs();
+
+    /**
+     * @return          the number of audit entries written to the database
+     */
+    public long getWrittenEntries();
+
+    /**
+     * @return          the number of audit entries discarded because the queue was full
+     *                  or the entry could not be buffered
+     */
+    public long getDroppedEntries();
+
+    /**
+     * @return          the number of audit entries discarded because they could not be written
+     */
+    public long getFailedEntries();
+
+    /**
+     * @return          the number of batches written to the database
+     */
+    public long getBatches();
+}
@@ -32,6 +32,8 @@ import java.util.Map;
 import org.alfresco.repo.audit.model.AuditApplication;
 import org.alfresco.repo.audit.model.AuditModelRegistry;
 import org.alfresco.repo.audit.model._3.AuditPath;
+import org.alfresco.service.cmr.audit.AuditAggregate;
+import org.alfresco.service.cmr.audit.AuditAggregationParameters;
 import org.alfresco.service.cmr.audit.AuditQueryParameters;
 import org.alfresco.service.cmr.audit.AuditService.AuditQueryCallback;
 
@@ -251,4 +253,18 @@ public interface AuditComponent
      * @since 3.2
      */
     void auditQuery(AuditQueryCallback callback, AuditQueryParameters parameters, int maxResults);
+    
+    /**
+     * Count audit entries using the given parameters and grouping
+     * 
+     * @param parameters        the parameters for the query (may not be <tt>null</tt>)
+     * @param aggregation       the grouping to apply (may not be <tt>null</tt>)
+     * @param maxResults        the maximum number of groups to retrieve (must be greater than 0)
+     * @return                  Returns the counts per group, largest first
+     * 
+     * @throws IllegalArgumentException if maxResults less or equal to zero
+     * 
+     * @since 6.1
+     */
+    List<AuditAggregate> auditAggregate(AuditQueryParameters parameters, AuditAggregationParameters aggregation, int maxResults);
 }
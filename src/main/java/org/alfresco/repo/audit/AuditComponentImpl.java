@@ -43,6 +43,7 @@ import org.alfresco.repo.audit.generator.DataGenerator;
 import org.alfresco.repo.audit.model.AuditApplication;
 import org.alfresco.repo.audit.model.AuditModelRegistry;
 import org.alfresco.repo.audit.model.AuditModelRegistryImpl;
+import org.alfresco.repo.audit.model.AuditPathTrie;
 import org.alfresco.repo.audit.model.AuditApplication.DataExtractorDefinition;
 import org.alfresco.repo.domain.audit.AuditDAO;
 import org.alfresco.repo.domain.propval.PropertyValueDAO;
@@ -53,6 +54,8 @@ import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
 import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
 import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.audit.AuditAggregate;
+import org.alfresco.service.cmr.audit.AuditAggregationParameters;
 import org.alfresco.service.cmr.audit.AuditQueryParameters;
 import org.alfresco.service.cmr.audit.AuditService.AuditQueryCallback;
 import org.alfresco.service.cmr.repository.MLText;
@@ -86,6 +89,7 @@ public class AuditComponentImpl implements AuditComponent
     private TransactionService transactionService;
     private AuditFilter auditFilter;
     private UserAuditFilter userAuditFilter;
+    private AsyncAuditWriter asyncAuditWriter;
     
     /**
      * Default constructor
@@ -142,6 +146,21 @@ public class AuditComponentImpl implements AuditComponent
         this.userAuditFilter = userAuditFilter;
     }
 
+    /**
+     * Set the writer used to persist audit entries after the transaction has committed.
+     * If the writer is not enabled, entries are persisted in the recording transaction.
+     * @since 6.1
+     */
+    public void setAsyncAuditWriter(AsyncAuditWriter asyncAuditWriter)
+    {
+        this.asyncAuditWriter = asyncAuditWriter;
+    }
+
+    private boolean isAsyncWriteEnabled()
+    {
+        return asyncAuditWriter != null && asyncAuditWriter.isEnabled();
+    }
+
     /**
      * {@inheritDoc}
      * @since 3.2
@@ -583,19 +602,28 @@ public class AuditComponentImpl implements AuditComponent
         
         // We have something to record.  Start a transaction, if necessary
         TxnReadState txnState = AlfrescoTransactionSupport.getTransactionReadState();
+        RetryingTransactionCallback<Map<String, Serializable>> callback =
+                new RetryingTransactionCallback<Map<String,Serializable>>()
+        {
+            public Map<String, Serializable> execute() throws Throwable
+            {
+                return recordAuditValuesImpl(mappedValues);
+            }
+        };
+        if (isAsyncWriteEnabled())
+        {
+            // Entries are written after commit, so any transaction will do for gathering the data
+            if (txnState == TxnReadState.TXN_NONE)
+            {
+                return transactionService.getRetryingTransactionHelper().doInTransaction(callback, true, true);
+            }
+            return recordAuditValuesImpl(mappedValues);
+        }
         switch (txnState)
         {
         case TXN_NONE:
         case TXN_READ_ONLY:
             // New transaction
-            RetryingTransactionCallback<Map<String, Serializable>> callback =
-                    new RetryingTransactionCallback<Map<String,Serializable>>()
-            {
-                public Map<String, Serializable> execute() throws Throwable
-                {
-                    return recordAuditValuesImpl(mappedValues);
-                }
-            };
             RetryingTransactionHelper txnHelper = transactionService.getRetryingTransactionHelper();
             txnHelper.setForceWritable(true);
             return txnHelper.doInTransaction(callback, false, true);
@@ -699,13 +727,14 @@ public class AuditComponentImpl implements AuditComponent
 
         Set<String> generatorKeys = values.keySet();
         // Eliminate any paths that have been disabled
-        Iterator<String> generatorKeysIterator = generatorKeys.iterator();
-        while(generatorKeysIterator.hasNext())
+        if (!disabledPaths.isEmpty())
         {
-            String generatorKey = generatorKeysIterator.next();
-            for (String disabledPath : disabledPaths)
+            AuditPathTrie<String> disabledPathTrie = application.getDisabledPathTrie(disabledPaths);
+            Iterator<String> generatorKeysIterator = generatorKeys.iterator();
+            while(generatorKeysIterator.hasNext())
             {
-                if (generatorKey.startsWith(disabledPath))
+                String generatorKey = generatorKeysIterator.next();
+                if (disabledPathTrie.containsPrefixOf(generatorKey))
                 {
                     // The pathed value is excluded
                     generatorKeysIterator.remove();
@@ -754,7 +783,15 @@ public class AuditComponentImpl implements AuditComponent
             boolean justGatherPreCallData = application.isApplicationJustGeneratingPreCallData();
             if (!justGatherPreCallData)
             {
-                entryId = auditDAO.createAuditEntry(applicationId, time, username, auditData);
+                if (isAsyncWriteEnabled())
+                {
+                    // Written once the transaction has committed
+                    asyncAuditWriter.queueAuditEntry(applicationId, time, username, auditData);
+                }
+                else
+                {
+                    entryId = auditDAO.createAuditEntry(applicationId, time, username, auditData);
+                }
             }
             // Done
             if (logger.isDebugEnabled())
@@ -814,20 +851,14 @@ public class AuditComponentImpl implements AuditComponent
     {
         Map<String, Serializable> newData = new HashMap<String, Serializable>(values.size());
         
-        List<DataExtractorDefinition> extractors = application.getDataExtractors();
+        // Only the extractors triggered by the values need be considered
+        List<DataExtractorDefinition> extractors = application.getDataExtractors(values.keySet());
         for (DataExtractorDefinition extractorDef : extractors)
         {
             DataExtractor extractor = extractorDef.getDataExtractor();
-            String triggerPath = extractorDef.getDataTrigger();
             String sourcePath = extractorDef.getDataSource();
             String targetPath = extractorDef.getDataTarget();
             
-            // Check if it is triggered
-            if (!values.containsKey(triggerPath))
-            {
-                continue;               // It is not triggered
-            }
-            
             // We observe the key, not the actual value
             if (!values.containsKey(sourcePath))
             {
@@ -930,4 +961,23 @@ public class AuditComponentImpl implements AuditComponent
         
         auditDAO.findAuditEntries(callback, parameters, maxResults);
     }
+
+    /**
+     * {@inheritDoc}
+     * @since 6.1
+     */
+    @Override
+    public List<AuditAggregate> auditAggregate(AuditQueryParameters parameters, AuditAggregationParameters aggregation, int maxResults)
+    {
+        ParameterCheck.mandatory("parameters", parameters);
+        ParameterCheck.mandatory("aggregation", aggregation);
+        
+        // Shortcuts
+        if (parameters.isZeroResultQuery())
+        {
+            return Collections.emptyList();
+        }
+        
+        return auditDAO.findAuditAggregates(parameters, aggregation, maxResults);
+    }
 }
@@ -29,6 +29,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import org.alfresco.service.cmr.audit.AuditAggregate;
+import org.alfresco.service.cmr.audit.AuditAggregationParameters;
 import org.alfresco.service.cmr.audit.AuditQueryParameters;
 import org.alfresco.service.cmr.audit.AuditService;
 
@@ -168,4 +170,14 @@ public class AuditServiceImpl implements AuditService
     {
         auditComponent.auditQuery(callback, parameters, maxResults);
     }
+
+    /**
+     * {@inheritDoc}
+     * @since 6.1
+     */
+    @Override
+    public List<AuditAggregate> auditAggregate(AuditQueryParameters parameters, AuditAggregationParameters aggregation, int maxResults)
+    {
+        return auditComponent.auditAggregate(parameters, aggregation, maxResults);
+    }
 }
\ No newline at end of file
@@ -50,6 +50,8 @@ import org.alfresco.repo.node.NodeServicePolicies.OnUpdatePropertiesPolicy;
 import org.alfresco.repo.policy.JavaBehaviour;
 import org.alfresco.repo.policy.PolicyComponent;
 import org.alfresco.repo.policy.PolicyScope;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
 import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
 import org.alfresco.repo.transaction.TransactionListener;
 import org.alfresco.repo.transaction.TransactionListenerAdapter;
@@ -63,6 +65,7 @@ import org.alfresco.service.transaction.TransactionService;
 import org.alfresco.util.PropertyCheck;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 
 /**
@@ -96,6 +99,16 @@ import org.springframework.beans.factory.InitializingBean;
  *    audit.filter.alfresco-access.transaction.path=~/sys:archivedItem;~/ver:;.*
  * </pre>
  * 
+ * Repeated reads of the same node by the same user may be merged into a single READ
+ * entry by setting a coalescing window (ms). The entry is recorded when the window
+ * closes, so its time is when the window closed; it holds the number of reads in
+ * {@code /count} and the time of the first read in {@code /firstTime}. Reads still
+ * held when the repository shuts down are not recorded.
+ * <pre>
+ *    audit.alfresco-access.coalesce.windowMs=60000
+ *    audit.alfresco-access.coalesce.maxPending=10000
+ * </pre>
+ * 
  * Node and Content changes generate the following audit structure. Elements are omitted
  * if not changed by the transaction. The {@code /sub-action/<sequence>} structure holds
  * cut down details of each sub-action, but are only included if the global property
@@ -109,6 +122,8 @@ import org.springframework.beans.factory.InitializingBean;
  *       /type=&lt;prefixType&gt;
  *       /node=&lt;nodeRef&gt;
  *       /user=&lt;user&gt;
+ *       /count=&lt;number of coalesced reads&gt;
+ *       /firstTime=&lt;time of the first coalesced read&gt;
  *       /copy
  *         /from
  *           /node=&lt;nodeRef&gt;
@@ -170,7 +185,7 @@ import org.springframework.beans.factory.InitializingBean;
  * 
  * @author Alan Davis
  */
-public class AccessAuditor implements InitializingBean, 
+public class AccessAuditor implements InitializingBean, DisposableBean,
 
         BeforeDeleteNodePolicy, OnAddAspectPolicy, OnCreateNodePolicy, OnMoveNodePolicy,
         OnRemoveAspectPolicy, OnUpdatePropertiesPolicy,
@@ -189,6 +204,9 @@ public class AccessAuditor implements InitializingBean,
     private static final String ROOT_PATH = "/alfresco-access";
     private static final String TRANSACTION = "transaction";
     private static final String AUDIT_SUB_ACTIONS = "audit.alfresco-access.sub-actions.enabled";
+    private static final String AUDIT_COALESCE_WINDOW = "audit.alfresco-access.coalesce.windowMs";
+    private static final String AUDIT_COALESCE_MAX_PENDING = "audit.alfresco-access.coalesce.maxPending";
+    private static final String ACTION_READ = "READ";
     
     private Properties properties;
     private PolicyComponent policyComponent;
@@ -199,6 +217,9 @@ public class AccessAuditor implements InitializingBean,
 
     private TransactionListener transactionListener = new AccessTransactionListener();
     private boolean auditSubActions = false;
+    private long coalesceWindowMs = 0L;
+    private int coalesceMaxPending = 10000;
+    private AccessEventCoalescer coalescer;
 
     /**
      * Set the properties object holding filter configuration
@@ -208,6 +229,8 @@ public class AccessAuditor implements InitializingBean,
     {
         this.properties = properties;
         auditSubActions = properties.getProperty(AUDIT_SUB_ACTIONS, "false").equalsIgnoreCase("true");
+        coalesceWindowMs = Long.parseLong(properties.getProperty(AUDIT_COALESCE_WINDOW, "0").trim());
+        coalesceMaxPending = Integer.parseInt(properties.getProperty(AUDIT_COALESCE_MAX_PENDING, "10000").trim());
     }
 
     /**
@@ -281,6 +304,26 @@ public class AccessAuditor implements InitializingBean,
         policyComponent.bindClassBehaviour(OnCheckOut.QNAME, ContentModel.TYPE_CONTENT, new JavaBehaviour(this, "onCheckOut"));
         policyComponent.bindClassBehaviour(OnCheckIn.QNAME, ContentModel.TYPE_CONTENT, new JavaBehaviour(this, "onCheckIn"));
         policyComponent.bindClassBehaviour(OnCancelCheckOut.QNAME, ContentModel.TYPE_CONTENT, new JavaBehaviour(this, "onCancelCheckOut"));
+        
+        if (coalesceWindowMs > 0L)
+        {
+            coalescer = new AccessEventCoalescer(coalesceWindowMs, coalesceMaxPending, new CoalescedEventRecorder());
+            coalescer.start();
+        }
+    }
+    
+    /**
+     * Stops coalescing reads, discarding any still held
+     * 
+     * @since 6.1
+     */
+    @Override
+    public void destroy()
+    {
+        if (coalescer != null)
+        {
+            coalescer.shutdown();
+        }
     }
     
     private boolean auditEnabled()
@@ -589,15 +632,45 @@ public class AccessAuditor implements InitializingBean,
             //       does (not sure why).
             
             final Map<NodeRef, NodeChange> changedNodes = TransactionalResourceHelper.getMap(this); 
+            long now = System.currentTimeMillis();
             for (Map.Entry<NodeRef, NodeChange> entry : changedNodes.entrySet())
             {              
                 NodeChange nodeChange = entry.getValue();
                 if (!nodeChange.isTemporaryNode())
                 {
                     Map<String, Serializable> auditMap = nodeChange.getAuditData(false);
+                    if (coalescer != null && ACTION_READ.equals(auditMap.get(NodeChange.ACTION)))
+                    {
+                        String user = (String) auditMap.get(NodeChange.USER);
+                        if (user != null && coalescer.offer(user, entry.getKey(), ACTION_READ, auditMap, now))
+                        {
+                            // Recorded when the coalescing window closes
+                            continue;
+                        }
+                    }
                     recordAuditValues(TRANSACTION, auditMap);
                 }
             }
         }
     }
+    
+    /**
+     * Records coalesced reads as the user that performed them.
+     */
+    private class CoalescedEventRecorder implements AccessEventCoalescer.Recorder
+    {
+        @Override
+        public void record(String user, final Map<String, Serializable> auditMap)
+        {
+            AuthenticationUtil.runAs(new RunAsWork<Void>()
+            {
+                @Override
+                public Void doWork() throws Exception
+                {
+                    recordAuditValues(TRANSACTION, auditMap);
+                    return null;
+                }
+            }, user);
+        }
+    }
 }
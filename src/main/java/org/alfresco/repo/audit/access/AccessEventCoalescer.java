@@ -0,0 +1,245 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.audit.access;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Merges repeated access events for the same user, node and action into a single audit entry.
+ * <p>
+ * The first event for a combination is held for the coalescing window, during which repeats
+ * only increment its {@link #COUNT count}.  When the window closes the held event is recorded
+ * once, with the count.  A client that reads the same document many times in quick succession
+ * (previews, thumbnails, range requests) therefore produces one audit entry rather than one per
+ * read.  Events are only held while fewer than the maximum number are pending; beyond that,
+ * events are not coalesced.
+ * <p>
+ * The time of the audit entry is the time at which it is recorded, up to one window (and check
+ * period) after the first event.  The time of the first event is recorded as {@link #FIRST_TIME}.
+ * Events still held when the coalescer is shut down are discarded.
+ *
+ * @since 6.1
+ */
+/*package*/ class AccessEventCoalescer
+{
+    /** The audit map key holding the number of events merged into an entry */
+    public static final String COUNT = "count";
+    /** The audit map key holding the time of the first event merged into an entry */
+    public static final String FIRST_TIME = "firstTime";
+    
+    private static Log logger = LogFactory.getLog(AccessEventCoalescer.class);
+    
+    /**
+     * Records an audit entry on behalf of the user that triggered it
+     */
+    /*package*/ interface Recorder
+    {
+        void record(String user, Map<String, Serializable> auditMap);
+    }
+    
+    private final long windowMs;
+    private final int maxPending;
+    private final Recorder recorder;
+    /** Held events in the order they arrived, which is also the order in which their windows close */
+    private final LinkedHashMap<String, PendingEvent> pending;
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * @param windowMs          the time (ms) for which repeats of an event are merged into it
+     * @param maxPending        the maximum number of distinct events held at any time
+     * @param recorder          records the merged entries
+     */
+    /*package*/ AccessEventCoalescer(long windowMs, int maxPending, Recorder recorder)
+    {
+        this.windowMs = windowMs;
+        this.maxPending = maxPending;
+        this.recorder = recorder;
+        this.pending = new LinkedHashMap<String, PendingEvent>(Math.min(maxPending, 1024));
+    }
+    
+    /**
+     * Start checking for closed windows in the background
+     */
+    public synchronized void start()
+    {
+        if (scheduler != null)
+        {
+            return;
+        }
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("AccessEventCoalescer");
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long periodMs = Math.max(1L, windowMs / 2L);
+        scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flushExpired(System.currentTimeMillis());
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Stop the background checks and discard all held events.  They are not recorded, as the
+     * components needed to record them may already have been shut down.
+     */
+    public synchronized void shutdown()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        int discarded;
+        synchronized (pending)
+        {
+            discarded = pending.size();
+            pending.clear();
+        }
+        if (discarded > 0)
+        {
+            logger.warn("Discarded " + discarded + " coalesced access audit entries on shutdown");
+        }
+    }
+    
+    /**
+     * Offer an event for coalescing
+     * 
+     * @param user              the user that triggered the event
+     * @param nodeRef           the node accessed
+     * @param action            the derived action
+     * @param auditMap          the values to audit, which are recorded for the first event only
+     * @param now               the current time (ms)
+     * @return                  <tt>true</tt> if the event is held or merged, or <tt>false</tt> if
+     *                          it must be recorded immediately
+     */
+    public boolean offer(String user, NodeRef nodeRef, String action, Map<String, Serializable> auditMap, long now)
+    {
+        String key = user + '|' + action + '|' + nodeRef;
+        synchronized (pending)
+        {
+            PendingEvent event = pending.get(key);
+            if (event != null)
+            {
+                event.count++;
+                return true;
+            }
+            if (pending.size() >= maxPending)
+            {
+                return false;
+            }
+            pending.put(key, new PendingEvent(user, auditMap, now));
+            return true;
+        }
+    }
+    
+    /**
+     * @return                  the number of distinct events being held
+     */
+    public int getPendingCount()
+    {
+        synchronized (pending)
+        {
+            return pending.size();
+        }
+    }
+    
+    /**
+     * Record the events whose coalescing window has closed
+     * 
+     * @param now               the current time (ms)
+     */
+    /*package*/ void flushExpired(long now)
+    {
+        flush(now - windowMs);
+    }
+    
+    private void flush(long cutoff)
+    {
+        List<PendingEvent> expired = new ArrayList<PendingEvent>();
+        synchronized (pending)
+        {
+            Iterator<PendingEvent> iterator = pending.values().iterator();
+            while (iterator.hasNext())
+            {
+                PendingEvent event = iterator.next();
+                if (event.firstTime > cutoff)
+                {
+                    // Later events arrived later still
+                    break;
+                }
+                expired.add(event);
+                iterator.remove();
+            }
+        }
+        // Record outside of the lock, so that events keep being accepted
+        for (PendingEvent event : expired)
+        {
+            event.auditMap.put(COUNT, event.count);
+            event.auditMap.put(FIRST_TIME, new Date(event.firstTime));
+            try
+            {
+                recorder.record(event.user, event.auditMap);
+            }
+            catch (Throwable e)
+            {
+                logger.error("Failed to record coalesced access audit entry: " + event.auditMap, e);
+            }
+        }
+    }
+    
+    private static class PendingEvent
+    {
+        private final String user;
+        private final Map<String, Serializable> auditMap;
+        private final long firstTime;
+        private int count;
+        
+        private PendingEvent(String user, Map<String, Serializable> auditMap, long firstTime)
+        {
+            this.user = user;
+            this.auditMap = auditMap;
+            this.firstTime = firstTime;
+            this.count = 1;
+        }
+    }
+}
@@ -80,8 +80,8 @@ import org.alfresco.service.namespace.QName;
         
         OnCheckOut, OnCheckIn, OnCancelCheckOut
 {
-    private static final String USER = "user";
-    private static final String ACTION = "action";
+    /*package*/ static final String USER = "user";
+    /*package*/ static final String ACTION = "action";
     private static final String SUB_ACTIONS = "sub-actions";
     private static final String NODE = "node";
     private static final String PATH = "path";
@@ -73,8 +73,12 @@ public class AuditApplication
 
     /** Derived expaned map for fast lookup */
     private List<DataExtractorDefinition> dataExtractors = new ArrayList<DataExtractorDefinition>();
+    /** Derived path tree of data extractors keyed by their trigger paths */
+    private AuditPathTrie<DataExtractorDefinition> dataExtractorsByTrigger = new AuditPathTrie<DataExtractorDefinition>();
     /** Derived expaned map for fast lookup */
     private Map<String, Map<String, DataGenerator>> dataGenerators = new HashMap<String, Map<String, DataGenerator>>(11);
+    /** The last set of disabled paths seen, compiled into a path tree */
+    private volatile DisabledPaths disabledPaths = new DisabledPaths(Collections.<String>emptySet());
     
     /**
      * @param application           the application that will be wrapped
@@ -360,6 +364,72 @@ public class AuditApplication
         return extractors;
     }
     
+    /**
+     * Get the data extractors triggered by any of the given paths.
+     * 
+     * @param triggerPaths      the audit paths present in the data being audited
+     * @return                  Returns the data extractors triggered by the paths
+     * 
+     * @since 6.1
+     */
+    public List<DataExtractorDefinition> getDataExtractors(Set<String> triggerPaths)
+    {
+        List<DataExtractorDefinition> extractors = new ArrayList<DataExtractorDefinition>(triggerPaths.size());
+        for (String triggerPath : triggerPaths)
+        {
+            extractors.addAll(dataExtractorsByTrigger.get(triggerPath));
+        }
+        
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                    "Looked up data extractors: \n" +
+                    "   Paths: " + triggerPaths + "\n" +
+                    "   Found: " + extractors);
+        }
+        return extractors;
+    }
+    
+    /**
+     * Get the path tree for a set of disabled paths.  The tree for the most recently used set
+     * is kept, so it is only rebuilt when the disabled paths change.
+     * 
+     * @param paths             the paths disabled for this application
+     * @return                  Returns the disabled paths as a path tree
+     * 
+     * @since 6.1
+     */
+    public AuditPathTrie<String> getDisabledPathTrie(Set<String> paths)
+    {
+        DisabledPaths compiled = disabledPaths;
+        if (!compiled.paths.equals(paths))
+        {
+            compiled = new DisabledPaths(paths);
+            disabledPaths = compiled;
+        }
+        return compiled.trie;
+    }
+    
+    /**
+     * A copy of a set of disabled paths along with the path tree built from it
+     */
+    private static class DisabledPaths
+    {
+        private final Set<String> paths;
+        private final AuditPathTrie<String> trie;
+        
+        private DisabledPaths(Set<String> paths)
+        {
+            this.paths = new HashSet<String>(paths);
+            this.trie = new AuditPathTrie<String>();
+            for (String path : paths)
+            {
+                trie.put(path, path);
+            }
+        }
+    }
+    
     /**
      * Get all data generators applicable to a given path and scope.
      * 
@@ -470,6 +540,7 @@ public class AuditApplication
             // Store the extractor definition
             DataExtractorDefinition extractorDef = new DataExtractorDefinition(dataTrigger, sourcePath, extractorPath, extractor);
             dataExtractors.add(extractorDef);
+            dataExtractorsByTrigger.put(dataTrigger, extractorDef);
         }
 
         // Get the data generators declared for this key
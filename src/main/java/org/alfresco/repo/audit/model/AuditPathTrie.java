@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.audit.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A tree of audit paths keyed by path element, allowing values registered against paths
+ * such as <b>/app-key/x/y</b> to be found by walking the elements of a supplied path.
+ * The cost of a lookup is proportional to the depth of the path being looked up and not
+ * to the number of paths held.
+ * <p>
+ * Instances are built up front and are safe for concurrent reads once fully populated.
+ * 
+ * @param <V>               the type of value held against each path
+ * 
+ * @since 6.1
+ */
+public class AuditPathTrie<V>
+{
+    private final Node<V> root = new Node<V>();
+    private int size;
+    
+    /**
+     * Register a value against a path.  More than one value may be held against the same path.
+     * 
+     * @param path              the audit path in format <b>/app-key/x/y/z</b>
+     * @param value             the value to hold against the path
+     */
+    public void put(String path, V value)
+    {
+        Node<V> parent = null;
+        Node<V> node = root;
+        int start = path.startsWith(AuditApplication.AUDIT_PATH_SEPARATOR) ? 1 : 0;
+        int length = path.length();
+        while (start < length)
+        {
+            int end = getElementEnd(path, start);
+            String element = path.substring(start, end);
+            Node<V> child = node.children.get(element);
+            if (child == null)
+            {
+                child = new Node<V>();
+                node.children.put(element, child);
+            }
+            parent = node;
+            node = child;
+            start = end + 1;
+        }
+        if (node.values.isEmpty() && parent != null)
+        {
+            parent.childrenWithValues++;
+        }
+        node.values.add(value);
+        size++;
+    }
+    
+    /**
+     * Get the values held against an exact path
+     * 
+     * @param path              the audit path in format <b>/app-key/x/y/z</b>
+     * @return                  Returns the values held against the path (never <tt>null</tt>)
+     */
+    public List<V> get(String path)
+    {
+        Node<V> node = root;
+        int start = path.startsWith(AuditApplication.AUDIT_PATH_SEPARATOR) ? 1 : 0;
+        int length = path.length();
+        while (start < length)
+        {
+            int end = getElementEnd(path, start);
+            node = node.children.get(path.substring(start, end));
+            if (node == null)
+            {
+                return Collections.emptyList();
+            }
+            start = end + 1;
+        }
+        return Collections.unmodifiableList(node.values);
+    }
+    
+    /**
+     * Determine if any of the paths holding values is a prefix of the given path.  The check matches
+     * <code>String.startsWith</code> so <b>/app-key/x</b> is a prefix of both <b>/app-key/x/y</b>
+     * and <b>/app-key/xy</b>.
+     * 
+     * @param path              the audit path in format <b>/app-key/x/y/z</b>
+     * @return                  Returns <tt>true</tt> if the path starts with any of the registered paths
+     */
+    public boolean containsPrefixOf(String path)
+    {
+        Node<V> node = root;
+        int start = path.startsWith(AuditApplication.AUDIT_PATH_SEPARATOR) ? 1 : 0;
+        int length = path.length();
+        while (start < length)
+        {
+            int end = getElementEnd(path, start);
+            String element = path.substring(start, end);
+            if (node.childrenWithValues > 0)
+            {
+                // A registered path may end part-way through this element
+                for (Map.Entry<String, Node<V>> entry : node.children.entrySet())
+                {
+                    if (!entry.getValue().values.isEmpty() && element.startsWith(entry.getKey()))
+                    {
+                        return true;
+                    }
+                }
+            }
+            node = node.children.get(element);
+            if (node == null)
+            {
+                return false;
+            }
+            start = end + 1;
+        }
+        return !node.values.isEmpty();
+    }
+    
+    /**
+     * @return                  Returns the number of values held
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    private static int getElementEnd(String path, int start)
+    {
+        int end = path.indexOf(AuditApplication.AUDIT_PATH_SEPARATOR, start);
+        return end < 0 ? path.length() : end;
+    }
+    
+    /**
+     * A single path element with the values held against it
+     */
+    private static class Node<V>
+    {
+        private final Map<String, Node<V>> children = new HashMap<String, Node<V>>(7);
+        private final List<V> values = new ArrayList<V>(1);
+        private int childrenWithValues;
+    }
+}
@@ -29,6 +29,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
@@ -42,6 +43,7 @@ import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
 import org.alfresco.repo.transaction.TransactionListener;
 import org.alfresco.util.EqualsHelper;
 import org.alfresco.util.PropertyCheck;
+import org.alfresco.util.transaction.TransactionListenerAdapter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -75,6 +77,15 @@ import org.springframework.beans.factory.InitializingBean;
  * the shared cache will not have stale data in the event of the transaction-local
  * caches dropping items.  It is therefore important to size the transactional caches
  * correctly.
+ * <p>
+ * When the {@link #setReadOnlyFastPath(boolean) read-only fast path} is enabled, read-only
+ * transactions that only <tt>get</tt> and <tt>put</tt> values do not get any per-transaction
+ * state: values are read straight from the shared cache and values put are written through
+ * immediately, applying the same checks as would have been applied post-commit.  Reads are then
+ * no longer repeatable within the transaction.  The first <tt>remove</tt>, <tt>clear</tt> or lock
+ * operation reverts the transaction to the normal, fully transactional behaviour.  Cache
+ * statistics, if enabled, are gathered for all caches in a single transactional resource and
+ * added to the central statistics when the transaction completes.
  * 
  * @author Derek Hulley
  */
@@ -82,6 +93,7 @@ public class TransactionalCache<K extends Serializable, V extends Object>
         implements LockingCache<K, V>, TransactionListener, InitializingBean
 {
     private static final String RESOURCE_KEY_TXN_DATA = "TransactionalCache.TxnData";
+    private static final String RESOURCE_KEY_FAST_PATH_STATS = "TransactionalCache.FastPathStats";
     
     private Log logger;
     private boolean isDebugEnabled;
@@ -105,6 +117,8 @@ public class TransactionalCache<K extends Serializable, V extends Object>
     /** Enable collection of statistics? */
     private boolean cacheStatsEnabled = false;
     private boolean isTenantAware = true; // true if tenant-aware (default), false if system-wide
+    /** Bypass per-transaction state for read-only transactions? */
+    private boolean readOnlyFastPath = false;
     
     /**
      * Public constructor.
@@ -233,6 +247,19 @@ public class TransactionalCache<K extends Serializable, V extends Object>
         this.cacheStatsEnabled = cacheStatsEnabled;
     }
 
+    /**
+     * Allow read-only transactions to bypass the per-transaction cache state, reading straight
+     * from (and writing straight through to) the shared cache.  This avoids binding transactional
+     * resources and listeners for the many read-only transactions that only look values up.
+     * It has no effect if the shared cache is {@link #setDisableSharedCache(boolean) disabled}.
+     * 
+     * @param readOnlyFastPath      <tt>true</tt> to avoid per-transaction state in read-only transactions
+     */
+    public void setReadOnlyFastPath(boolean readOnlyFastPath)
+    {
+        this.readOnlyFastPath = readOnlyFastPath;
+    }
+
     /**
      * Ensures that all properties have been set
      */
@@ -279,6 +306,48 @@ public class TransactionalCache<K extends Serializable, V extends Object>
         return data;
     }
     
+    /**
+     * To be used in a transaction only.
+     * 
+     * @return              <tt>true</tt> if the shared cache can be used directly because the transaction is
+     *                      read-only and has not needed any transactional state so far
+     */
+    private boolean isReadOnlyFastPath()
+    {
+        return readOnlyFastPath
+                && !disableSharedCache
+                && AlfrescoTransactionSupport.getResource(resourceKeyTxnData) == null
+                && AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_READ_ONLY;
+    }
+    
+    /**
+     * To be used in a transaction only.
+     * 
+     * @return              the statistics for this cache's fast path operations in the current transaction
+     *                      or <tt>null</tt> if statistics are not enabled
+     */
+    private TransactionStats getFastPathStats()
+    {
+        if (!cacheStatsEnabled)
+        {
+            return null;
+        }
+        FastPathStats fastPathStats = (FastPathStats) AlfrescoTransactionSupport.getResource(RESOURCE_KEY_FAST_PATH_STATS);
+        if (fastPathStats == null)
+        {
+            fastPathStats = new FastPathStats();
+            AlfrescoTransactionSupport.bindListener(fastPathStats);
+            AlfrescoTransactionSupport.bindResource(RESOURCE_KEY_FAST_PATH_STATS, fastPathStats);
+        }
+        TransactionStats stats = fastPathStats.statsByCache.get(this);
+        if (stats == null)
+        {
+            stats = new TransactionStats();
+            fastPathStats.statsByCache.put(this, stats);
+        }
+        return stats;
+    }
+    
     /**
      * @see #setDisableSharedCacheReadForTransaction(boolean)
      */
@@ -582,6 +651,19 @@ public class TransactionalCache<K extends Serializable, V extends Object>
         // are we in a transaction?
         if (AlfrescoTransactionSupport.getTransactionId() != null)
         {
+            if (isReadOnlyFastPath())
+            {
+                // No transactional state required
+                V value = TransactionalCache.getSharedCacheValue(sharedCache, key, getFastPathStats());
+                if (isDebugEnabled)
+                {
+                    logger.debug("Read-only transaction - fetching instance direct from shared cache: \n" +
+                            "   cache: " + this + "\n" +
+                            "   key: " + key + "\n" +
+                            "   value: " + value);
+                }
+                return value;
+            }
             TransactionData txnData = getTransactionData();
             if (txnData.isClosed)
             {
@@ -701,6 +783,19 @@ public class TransactionalCache<K extends Serializable, V extends Object>
                         "   value: " + value);
             }
         }
+        else if (isReadOnlyFastPath())
+        {
+            // Nothing can be written by the transaction, so the value can be shared immediately.
+            // The same checks are done as would be done for a new value after the commit.
+            new NewCacheBucket<V>(value).doPostCommit(sharedCache, key, isMutable, allowEqualsChecks, true, getFastPathStats());
+            if (isDebugEnabled)
+            {
+                logger.debug("Read-only transaction - writing item direct to shared cache: \n" +
+                        "   cache: " + this + "\n" +
+                        "   key: " + key + "\n" +
+                        "   value: " + value);
+            }
+        }
         else  // transaction present
         {
             TransactionData txnData = getTransactionData();
@@ -1381,6 +1476,38 @@ public class TransactionalCache<K extends Serializable, V extends Object>
         private TransactionStats stats;
     }
     
+    /**
+     * Statistics for the fast path operations of all caches in a transaction, added to the
+     * central statistics when the transaction completes
+     * 
+     * @since 6.1
+     */
+    private static class FastPathStats extends TransactionListenerAdapter
+    {
+        private final Map<TransactionalCache<?, ?>, TransactionStats> statsByCache = new IdentityHashMap<TransactionalCache<?, ?>, TransactionStats>(7);
+        
+        @Override
+        public void afterCommit()
+        {
+            addStats();
+        }
+        
+        @Override
+        public void afterRollback()
+        {
+            addStats();
+        }
+        
+        private void addStats()
+        {
+            for (Map.Entry<TransactionalCache<?, ?>, TransactionStats> entry : statsByCache.entrySet())
+            {
+                TransactionalCache<?, ?> cache = entry.getKey();
+                cache.cacheStats.add(cache.name, entry.getValue());
+            }
+        }
+    }
+    
     /**
      * Simple LRU based on {@link LinkedHashMap}
      * 
@@ -29,6 +29,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.net.URL;
+import java.sql.Savepoint;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
@@ -36,22 +37,31 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.CRC32;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.repo.content.MimetypeMap;
 import org.alfresco.repo.domain.contentdata.ContentDataDAO;
+import org.alfresco.repo.domain.control.ControlDAO;
 import org.alfresco.repo.domain.propval.PropertyIdSearchRow;
 import org.alfresco.repo.domain.propval.PropertyValueDAO;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionalResourceHelper;
+import org.alfresco.service.cmr.audit.AuditAggregate;
+import org.alfresco.service.cmr.audit.AuditAggregationParameters;
 import org.alfresco.service.cmr.audit.AuditService.AuditQueryCallback;
 import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.service.cmr.repository.ContentService;
 import org.alfresco.service.cmr.repository.ContentWriter;
 import org.alfresco.util.Pair;
+import org.alfresco.util.transaction.TransactionListener;
+import org.alfresco.util.transaction.TransactionListenerAdapter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.BadSqlGrammarException;
 
 /**
  * Abstract helper DAO for <b>alf_audit_XXX</b> tables.
@@ -61,11 +71,20 @@ import org.springframework.dao.DataIntegrityViolationException;
  */
 public abstract class AbstractAuditDAOImpl implements AuditDAO 
 {
+    private static final String KEY_NEW_PARTITIONS = "AbstractAuditDAOImpl.newPartitions";
+    
     protected final Log logger = LogFactory.getLog(this.getClass());
     
     private ContentService contentService;
     private ContentDataDAO contentDataDAO;
     protected PropertyValueDAO propertyValueDAO;
+    private ControlDAO controlDAO;
+    private AuditPartition.Period partitionPeriod;
+    
+    /** Known partitions keyed by table name, loaded on first use */
+    private final Map<String, AuditPartition> partitions = new ConcurrentHashMap<String, AuditPartition>();
+    private volatile boolean partitionsLoaded;
+    private final TransactionListener partitionTxnListener = new PartitionTxnListener();
     
     public void setContentService(ContentService contentService)
     {
@@ -87,6 +106,68 @@ public abstract class AbstractAuditDAOImpl implements AuditDAO
         return this.propertyValueDAO;
     }
     
+    /**
+     * @param controlDAO            the DAO used to protect the creation of audit partitions
+     * 
+     * @since 6.1
+     */
+    public void setControlDAO(ControlDAO controlDAO)
+    {
+        this.controlDAO = controlDAO;
+    }
+    
+    /**
+     * Set the length of time covered by each audit partition.  Partitioning is only used if
+     * the database supports it.
+     * 
+     * @param partitionPeriod       <b>DAY</b>, <b>MONTH</b> or <b>NONE</b> (default) to keep all
+     *                              entries in the main table
+     * 
+     * @since 6.1
+     */
+    public void setPartitionPeriod(String partitionPeriod)
+    {
+        if (partitionPeriod == null || partitionPeriod.trim().length() == 0 || partitionPeriod.trim().equalsIgnoreCase("NONE"))
+        {
+            this.partitionPeriod = null;
+            return;
+        }
+        try
+        {
+            this.partitionPeriod = AuditPartition.Period.valueOf(partitionPeriod.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new AlfrescoRuntimeException("Unknown audit partition period: " + partitionPeriod);
+        }
+        if (!isPartitioningSupported())
+        {
+            logger.warn("Audit partitioning is not supported by the database.  Entries will be kept in the main table.");
+        }
+    }
+    
+    /**
+     * Override to enable the partitioning of audit entries
+     * 
+     * @return                      <tt>true</tt> if the database supports audit partitions
+     * 
+     * @since 6.1
+     */
+    protected boolean isPartitioningSupported()
+    {
+        return false;
+    }
+    
+    /**
+     * @return                      <tt>true</tt> if new audit entries are written to partitions
+     * 
+     * @since 6.1
+     */
+    public boolean isPartitioned()
+    {
+        return partitionPeriod != null && isPartitioningSupported();
+    }
+    
     /*
      * alf_audit_model
      */
@@ -301,7 +382,25 @@ public abstract class AbstractAuditDAOImpl implements AuditDAO
         }
 
         // Create the audit entry
-        AuditEntryEntity entity = createAuditEntry(applicationId, time, usernameId, valuesId);
+        AuditEntryEntity entity;
+        if (isPartitioned())
+        {
+            AuditPartition partition = getOrCreateAuditPartition(applicationId, time);
+            try
+            {
+                entity = createAuditEntry(partition, applicationId, time, usernameId, valuesId);
+            }
+            catch (BadSqlGrammarException e)
+            {
+                // The partition may have been dropped by another server; re-check it when retried
+                partitions.remove(partition.getTableName());
+                throw new ConcurrencyFailureException("Failed to write to audit partition: " + partition, e);
+            }
+        }
+        else
+        {
+            entity = createAuditEntry(applicationId, time, usernameId, valuesId);
+        }
 
         // Done
         if (logger.isDebugEnabled())
@@ -347,8 +446,149 @@ public abstract class AbstractAuditDAOImpl implements AuditDAO
         return deleted;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Partitions lying entirely within the time range are dropped before the remaining
+     * entries are deleted.  Partitions of the current period are never dropped, as other
+     * servers may still be writing to them.  Entries removed along with a partition are not
+     * included in the count.
+     */
+    public int deleteAuditEntries(Long applicationId, Long fromTime, Long toTime)
+    {
+        if (isPartitioned())
+        {
+            dropAuditPartitions(applicationId, fromTime, toTime);
+        }
+        return deleteAuditEntriesImpl(applicationId, fromTime, toTime);
+    }
+
     protected abstract AuditEntryEntity createAuditEntry(Long applicationId, long time, Long usernameId, Long valuesId);
     protected abstract int deleteAuditEntriesImpl(List<Long> auditEntryIds);
+    protected abstract int deleteAuditEntriesImpl(Long applicationId, Long fromTime, Long toTime);
+    
+    /*
+     * alf_audit_entry partitions
+     */
+    
+    /**
+     * Get the partition for an entry, creating it if necessary.  The creation is protected by a
+     * savepoint; failure to create the partition is assumed to be due to a concurrent creation.
+     */
+    private AuditPartition getOrCreateAuditPartition(Long applicationId, long time)
+    {
+        AuditPartition partition = AuditPartition.getPartition(applicationId, time, partitionPeriod);
+        String tableName = partition.getTableName();
+        if (getAuditPartitions().containsKey(tableName))
+        {
+            return partition;
+        }
+        Set<AuditPartition> newPartitions = TransactionalResourceHelper.getSet(KEY_NEW_PARTITIONS);
+        if (newPartitions.contains(partition))
+        {
+            return partition;
+        }
+        Savepoint savepoint = controlDAO.createSavepoint("createAuditPartition");
+        try
+        {
+            createAuditPartition(partition);
+            controlDAO.releaseSavepoint(savepoint);
+        }
+        catch (RuntimeException e)
+        {
+            controlDAO.rollbackToSavepoint(savepoint);
+            throw new ConcurrencyFailureException("Failed to create audit partition: " + partition, e);
+        }
+        // Other transactions can only use the partition once it has been committed
+        newPartitions.add(partition);
+        AlfrescoTransactionSupport.bindListener(partitionTxnListener);
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Created audit partition: " + partition);
+        }
+        return partition;
+    }
+    
+    private Map<String, AuditPartition> getAuditPartitions()
+    {
+        if (!partitionsLoaded)
+        {
+            for (String tableName : getAuditPartitionTableNames())
+            {
+                AuditPartition partition = AuditPartition.parse(tableName);
+                if (partition != null)
+                {
+                    partitions.put(tableName, partition);
+                }
+            }
+            partitionsLoaded = true;
+        }
+        return partitions;
+    }
+    
+    /**
+     * Drop the closed partitions of an application that lie entirely within a time range
+     */
+    private void dropAuditPartitions(Long applicationId, Long fromTime, Long toTime)
+    {
+        long now = System.currentTimeMillis();
+        for (AuditPartition partition : getAuditPartitions().values())
+        {
+            if (applicationId != null && !applicationId.equals(partition.getApplicationId()))
+            {
+                continue;
+            }
+            if (!partition.isWithin(fromTime, toTime) || partition.getToTime() > now)
+            {
+                continue;
+            }
+            dropAuditPartition(partition);
+            // A rolled back drop leaves an unknown partition; its entries are still deleted row by row
+            partitions.remove(partition.getTableName());
+            // Done
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Dropped audit partition: " + partition);
+            }
+        }
+    }
+    
+    /**
+     * Adds partitions created in a transaction to the known partitions once the transaction commits
+     */
+    private class PartitionTxnListener extends TransactionListenerAdapter
+    {
+        @Override
+        public void afterCommit()
+        {
+            Set<AuditPartition> newPartitions = TransactionalResourceHelper.getSet(KEY_NEW_PARTITIONS);
+            for (AuditPartition partition : newPartitions)
+            {
+                partitions.put(partition.getTableName(), partition);
+            }
+        }
+    }
+    
+    /**
+     * @return                      Returns the names of all tables that may be audit partitions
+     */
+    protected abstract List<String> getAuditPartitionTableNames();
+    
+    /**
+     * Create the table for a partition if it does not already exist
+     */
+    protected abstract void createAuditPartition(AuditPartition partition);
+    
+    /**
+     * Drop the table for a partition if it exists
+     */
+    protected abstract void dropAuditPartition(AuditPartition partition);
+    
+    /**
+     * Write an entry directly to a partition
+     */
+    protected abstract AuditEntryEntity createAuditEntry(AuditPartition partition, Long applicationId, long time, Long usernameId, Long valuesId);
     
     /*
      * Searches
@@ -485,4 +725,92 @@ public abstract class AbstractAuditDAOImpl implements AuditDAO
             Long fromTime, Long toTime,
             int maxResults,
             String searchKey, Serializable searchValue);
+
+    public List<AuditAggregate> findAuditAggregates(
+            org.alfresco.service.cmr.audit.AuditQueryParameters parameters,
+            AuditAggregationParameters aggregation,
+            int maxResults)
+    {
+        if (maxResults <= 0)
+        {
+            throw new IllegalArgumentException("maxResults must be greater than 0");
+        }
+        String searchKey = null;
+        Serializable searchValue = null;
+        if (parameters.getSearchKeyValues().size() > 0)
+        {
+            // Only handle one pair for now
+            Pair<String, Serializable> searchKeyValue = parameters.getSearchKeyValues().get(0);
+            searchKey = searchKeyValue.getFirst();
+            searchValue = searchKeyValue.getSecond();
+        }
+        
+        List<AuditAggregateResult> rows = findAuditAggregates(
+                parameters.getApplicationName(),
+                parameters.getUser(),
+                parameters.getFromId(),
+                parameters.getToId(),
+                parameters.getFromTime(),
+                parameters.getToTime(),
+                searchKey,
+                searchValue,
+                aggregation.isGroupByUser(),
+                aggregation.getGroupByKey(),
+                aggregation.getTimeBucketMs(),
+                maxResults);
+        
+        // Resolve the users and values; there are few distinct ones compared to the number of rows
+        List<AuditAggregate> results = new ArrayList<AuditAggregate>(rows.size());
+        for (AuditAggregateResult row : rows)
+        {
+            Pair<Long, Serializable> auditUserPair = null;
+            Long auditUserId = row.getAuditUserId();
+            if (auditUserId != null)
+            {
+                auditUserPair = propertyValueDAO.getPropertyValueById(auditUserId);
+                if (auditUserPair == null)
+                {
+                    // Ignore
+                    if (logger.isDebugEnabled())
+                    {
+                        logger.debug("Audit aggregate not joined to an audit user: " + row);
+                    }
+                    continue;
+                }
+            }
+            Pair<Long, Serializable> groupValuePair = null;
+            Long groupValueId = row.getGroupValueId();
+            if (groupValueId != null)
+            {
+                groupValuePair = propertyValueDAO.getPropertyValueById(groupValueId);
+                if (groupValuePair == null)
+                {
+                    // Ignore
+                    if (logger.isDebugEnabled())
+                    {
+                        logger.debug("Audit aggregate not joined to an audit value: " + row);
+                    }
+                    continue;
+                }
+            }
+            String auditUser = auditUserPair == null ? null : (String) auditUserPair.getSecond();
+            Serializable groupValue = groupValuePair == null ? null : groupValuePair.getSecond();
+            Long timeBucket = row.getTimeBucket() == null
+                    ? null
+                    : row.getTimeBucket() * aggregation.getTimeBucketMs();
+            results.add(new AuditAggregate(auditUser, groupValue, timeBucket, row.getEntryCount()));
+        }
+        return results;
+    }
+    
+    /**
+     * @return                  Returns the counts of entries per group, largest first
+     */
+    protected abstract List<AuditAggregateResult> findAuditAggregates(
+            String applicationName, String user,
+            Long fromId, Long toId,
+            Long fromTime, Long toTime,
+            String searchKey, Serializable searchValue,
+            boolean groupByUser, String groupByKey, Long timeBucketMs,
+            int maxResults);
 }
@@ -0,0 +1,85 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.domain.audit;
+
+/**
+ * Query parameters for counting grouped entries in the <b>alf_audit_entry</b> table.
+ * 
+ * @since 6.1
+ */
+public class AuditAggregateParameters extends AuditQueryParameters
+{
+    private boolean groupByUser;
+    private Long groupKeyId;
+    private Long timeBucketMs;
+    
+    public AuditAggregateParameters()
+    {
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("AuditAggregateParameters")
+          .append("[ query=").append(super.toString())
+          .append(", groupByUser=").append(groupByUser)
+          .append(", groupKeyId=").append(groupKeyId)
+          .append(", timeBucketMs=").append(timeBucketMs)
+          .append("]");
+        return sb.toString();
+    }
+
+    public boolean isGroupByUser()
+    {
+        return groupByUser;
+    }
+
+    public void setGroupByUser(boolean groupByUser)
+    {
+        this.groupByUser = groupByUser;
+    }
+
+    public Long getGroupKeyId()
+    {
+        return groupKeyId;
+    }
+
+    public void setGroupKeyId(Long groupKeyId)
+    {
+        this.groupKeyId = groupKeyId;
+    }
+
+    public Long getTimeBucketMs()
+    {
+        return timeBucketMs;
+    }
+
+    public void setTimeBucketMs(Long timeBucketMs)
+    {
+        this.timeBucketMs = timeBucketMs;
+    }
+}
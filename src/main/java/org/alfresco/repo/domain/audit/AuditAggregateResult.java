@@ -0,0 +1,99 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.domain.audit;
+
+/**
+ * Results bean for grouped counts of <b>alf_audit_entry</b> rows.
+ * 
+ * @since 6.1
+ */
+public class AuditAggregateResult
+{
+    private Long auditUserId;
+    private Long groupValueId;
+    private Long timeBucket;
+    private long entryCount;
+    
+    public AuditAggregateResult()
+    {
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("AuditAggregateResult")
+          .append("[ auditUserId=").append(auditUserId)
+          .append(", groupValueId=").append(groupValueId)
+          .append(", timeBucket=").append(timeBucket)
+          .append(", entryCount=").append(entryCount)
+          .append("]");
+        return sb.toString();
+    }
+
+    public Long getAuditUserId()
+    {
+        return auditUserId;
+    }
+
+    public void setAuditUserId(Long auditUserId)
+    {
+        this.auditUserId = auditUserId;
+    }
+
+    public Long getGroupValueId()
+    {
+        return groupValueId;
+    }
+
+    public void setGroupValueId(Long groupValueId)
+    {
+        this.groupValueId = groupValueId;
+    }
+
+    /**
+     * @return              Returns the index of the time bucket, counted from the epoch
+     */
+    public Long getTimeBucket()
+    {
+        return timeBucket;
+    }
+
+    public void setTimeBucket(Long timeBucket)
+    {
+        this.timeBucket = timeBucket;
+    }
+
+    public long getEntryCount()
+    {
+        return entryCount;
+    }
+
+    public void setEntryCount(long entryCount)
+    {
+        this.entryCount = entryCount;
+    }
+}
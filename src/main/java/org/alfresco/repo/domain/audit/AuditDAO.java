@@ -31,6 +31,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.alfresco.service.cmr.audit.AuditAggregate;
+import org.alfresco.service.cmr.audit.AuditAggregationParameters;
 import org.alfresco.service.cmr.audit.AuditService.AuditQueryCallback;
 import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.util.Pair;
@@ -168,7 +170,8 @@ public interface AuditDAO
      * @param applicationId     an existing audit application ID
      * @param fromTime          the minimum entry time (inclusive, optional)
      * @param toTime            the maximum entry time (exclusive, optional)
-     * @return                  Returns the number of entries deleted
+     * @return                  Returns the number of entries deleted, not counting entries
+     *                          removed along with whole partitions
      * 
      * @since 3.2
      */
@@ -223,4 +226,22 @@ public interface AuditDAO
             AuditQueryCallback callback,
             org.alfresco.service.cmr.audit.AuditQueryParameters parameters,
             int maxResults);
+    
+    /**
+     * Count audit entries using the given parameters, any of which may be null, and grouping
+     * 
+     * @param parameters        the parameters for the query (may not be <tt>null</tt>)
+     * @param aggregation       the grouping to apply (may not be <tt>null</tt>)
+     * @param maxResults        the maximum number of groups to retrieve (must be greater than 0)
+     * @return                  Returns the counts per group, largest first, leaving out groups
+     *                          whose user or value has been removed since
+     * 
+     * @throws IllegalArgumentException if maxResults less or equal to zero
+     * 
+     * @since 6.1
+     */
+    List<AuditAggregate> findAuditAggregates(
+            org.alfresco.service.cmr.audit.AuditQueryParameters parameters,
+            AuditAggregationParameters aggregation,
+            int maxResults);
 }
\ No newline at end of file
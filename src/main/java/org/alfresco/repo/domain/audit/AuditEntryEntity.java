@@ -40,6 +40,7 @@ public class AuditEntryEntity
     private Long auditUserId;
     private long auditTime;
     private Long auditValuesId;
+    private String partitionTableName;
     
     public AuditEntryEntity()
     {
@@ -107,4 +108,19 @@ public class AuditEntryEntity
     {
         this.auditValuesId = auditValuesId;
     }
+
+    /**
+     * @return              the partition table holding the entry or <tt>null</tt> if it is in the main table
+     * 
+     * @since 6.1
+     */
+    public String getPartitionTableName()
+    {
+        return partitionTableName;
+    }
+
+    public void setPartitionTableName(String partitionTableName)
+    {
+        this.partitionTableName = partitionTableName;
+    }
 }
@@ -0,0 +1,244 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.domain.audit;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * A time-bounded partition of the <b>alf_audit_entry</b> table holding the entries of a single
+ * audit application.  Partitions are named after the application and the start of the period
+ * they cover e.g. <b>alf_audit_entry_3_m201801</b> or <b>alf_audit_entry_3_d20180115</b>.
+ * Periods are calculated in UTC.
+ * 
+ * @since 6.1
+ */
+public class AuditPartition
+{
+    public static final String TABLE_PREFIX = "alf_audit_entry_";
+    
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    
+    /**
+     * The length of time covered by a partition
+     */
+    public static enum Period
+    {
+        DAY('d', Calendar.DAY_OF_MONTH),
+        MONTH('m', Calendar.MONTH);
+        
+        private final char code;
+        private final int calendarField;
+        
+        private Period(char code, int calendarField)
+        {
+            this.code = code;
+            this.calendarField = calendarField;
+        }
+    }
+    
+    private final Long applicationId;
+    private final Period period;
+    private final long fromTime;
+    private final long toTime;
+    private final String tableName;
+    
+    private AuditPartition(Long applicationId, Period period, Calendar start)
+    {
+        this.applicationId = applicationId;
+        this.period = period;
+        this.fromTime = start.getTimeInMillis();
+        start.add(period.calendarField, 1);
+        this.toTime = start.getTimeInMillis();
+        this.tableName = buildTableName(applicationId, period, fromTime);
+    }
+    
+    /**
+     * Get the partition that will hold an entry
+     * 
+     * @param applicationId     the ID of the audit application
+     * @param time              the time of the audit entry
+     * @param period            the length of time covered by each partition
+     * @return                  Returns the partition covering the given time
+     */
+    public static AuditPartition getPartition(Long applicationId, long time, Period period)
+    {
+        Calendar start = Calendar.getInstance(UTC);
+        start.setTimeInMillis(time);
+        start.set(Calendar.HOUR_OF_DAY, 0);
+        start.set(Calendar.MINUTE, 0);
+        start.set(Calendar.SECOND, 0);
+        start.set(Calendar.MILLISECOND, 0);
+        if (period == Period.MONTH)
+        {
+            start.set(Calendar.DAY_OF_MONTH, 1);
+        }
+        return new AuditPartition(applicationId, period, start);
+    }
+    
+    /**
+     * Get the partition described by a table name
+     * 
+     * @param tableName         the name of a table
+     * @return                  Returns the partition or <tt>null</tt> if the table is not an audit partition
+     */
+    public static AuditPartition parse(String tableName)
+    {
+        if (tableName == null || !tableName.startsWith(TABLE_PREFIX))
+        {
+            return null;
+        }
+        String suffix = tableName.substring(TABLE_PREFIX.length());
+        int index = suffix.indexOf('_');
+        if (index < 1 || index + 2 >= suffix.length())
+        {
+            return null;
+        }
+        Period period = null;
+        for (Period candidate : Period.values())
+        {
+            if (candidate.code == suffix.charAt(index + 1))
+            {
+                period = candidate;
+            }
+        }
+        String date = suffix.substring(index + 2);
+        if (period == null || date.length() != (period == Period.MONTH ? 6 : 8))
+        {
+            return null;
+        }
+        try
+        {
+            Long applicationId = Long.valueOf(suffix.substring(0, index));
+            Calendar start = Calendar.getInstance(UTC);
+            start.clear();
+            start.set(Calendar.YEAR, Integer.parseInt(date.substring(0, 4)));
+            start.set(Calendar.MONTH, Integer.parseInt(date.substring(4, 6)) - 1);
+            start.set(Calendar.DAY_OF_MONTH, period == Period.MONTH ? 1 : Integer.parseInt(date.substring(6, 8)));
+            AuditPartition partition = new AuditPartition(applicationId, period, start);
+            // Only accept names in their canonical form
+            return partition.getTableName().equals(tableName) ? partition : null;
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+    
+    private static String buildTableName(Long applicationId, Period period, long fromTime)
+    {
+        Calendar start = Calendar.getInstance(UTC);
+        start.setTimeInMillis(fromTime);
+        StringBuilder sb = new StringBuilder(32);
+        sb.append(TABLE_PREFIX).append(applicationId).append('_').append(period.code)
+          .append(String.format("%04d%02d", start.get(Calendar.YEAR), start.get(Calendar.MONTH) + 1));
+        if (period == Period.DAY)
+        {
+            sb.append(String.format("%02d", start.get(Calendar.DAY_OF_MONTH)));
+        }
+        return sb.toString();
+    }
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        else if (obj instanceof AuditPartition)
+        {
+            return tableName.equals(((AuditPartition) obj).tableName);
+        }
+        else
+        {
+            return false;
+        }
+    }
+    
+    @Override
+    public int hashCode()
+    {
+        return tableName.hashCode();
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("AuditPartition")
+          .append("[ tableName=").append(tableName)
+          .append(", applicationId=").append(applicationId)
+          .append(", from=").append(new Date(fromTime))
+          .append(", to=").append(new Date(toTime))
+          .append("]");
+        return sb.toString();
+    }
+    
+    /**
+     * Determine if all entries in the partition fall into a time range
+     * 
+     * @param from              the start of the range (inclusive) or <tt>null</tt> for no lower bound
+     * @param to                the end of the range (exclusive) or <tt>null</tt> for no upper bound
+     * @return                  Returns <tt>true</tt> if the partition lies entirely within the range
+     */
+    public boolean isWithin(Long from, Long to)
+    {
+        return (from == null || fromTime >= from) && (to == null || toTime <= to);
+    }
+    
+    public Long getApplicationId()
+    {
+        return applicationId;
+    }
+    
+    public Period getPeriod()
+    {
+        return period;
+    }
+    
+    /**
+     * @return                  Returns the start of the period (inclusive)
+     */
+    public long getFromTime()
+    {
+        return fromTime;
+    }
+    
+    /**
+     * @return                  Returns the end of the period (exclusive)
+     */
+    public long getToTime()
+    {
+        return toTime;
+    }
+    
+    public String getTableName()
+    {
+        return tableName;
+    }
+}
@@ -27,15 +27,19 @@ package org.alfresco.repo.domain.audit.ibatis;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.alfresco.repo.domain.audit.AbstractAuditDAOImpl;
+import org.alfresco.repo.domain.audit.AuditAggregateParameters;
+import org.alfresco.repo.domain.audit.AuditAggregateResult;
 import org.alfresco.repo.domain.audit.AuditApplicationEntity;
 import org.alfresco.repo.domain.audit.AuditDeleteParameters;
 import org.alfresco.repo.domain.audit.AuditEntryEntity;
 import org.alfresco.repo.domain.audit.AuditModelEntity;
+import org.alfresco.repo.domain.audit.AuditPartition;
 import org.alfresco.repo.domain.audit.AuditQueryParameters;
 import org.alfresco.repo.domain.audit.AuditQueryResult;
 import org.alfresco.repo.domain.propval.PropertyValueDAO.PropertyFinderCallback;
@@ -64,10 +68,20 @@ public class AuditDAOImpl extends AbstractAuditDAOImpl
     private static final String DELETE_ENTRIES_BY_ID = "alfresco.audit.delete_AuditEntriesById";
     private static final String INSERT_ENTRY = "alfresco.audit.insert.insert_AuditEntry";
     
+    private static final String SELECT_PARTITION_TABLE_NAMES = "alfresco.audit.partition.select_AuditEntryPartitionTableNames";
+    private static final String CREATE_PARTITION = "alfresco.audit.partition.create_AuditEntryPartition";
+    private static final String[] CREATE_PARTITION_INDEXES = new String[] {
+            "alfresco.audit.partition.create_AuditEntryPartitionTimeIndex",
+            "alfresco.audit.partition.create_AuditEntryPartitionUserIndex",
+            "alfresco.audit.partition.create_AuditEntryPartitionValuesIndex"};
+    private static final String DROP_PARTITION = "alfresco.audit.partition.drop_AuditEntryPartition";
+    private static final String INSERT_PARTITION_ENTRY = "alfresco.audit.partition.insert_AuditEntryPartition";
+    
     @SuppressWarnings("unused")
     private static final String SELECT_ENTRIES_SIMPLE = "alfresco.audit.select_AuditEntriesSimple";
     private static final String SELECT_ENTRIES_WITH_VALUES = "alfresco.audit.select_AuditEntriesWithValues";
     private static final String SELECT_ENTRIES_WITHOUT_VALUES = "alfresco.audit.select_AuditEntriesWithoutValues";
+    private static final String SELECT_ENTRY_AGGREGATES = "alfresco.audit.select_AuditEntryAggregates";
     
     private SqlSessionTemplate template;
     
@@ -172,7 +186,8 @@ public class AuditDAOImpl extends AbstractAuditDAOImpl
         return updateEntity;
     }
 
-    public int deleteAuditEntries(Long applicationId, Long from, Long to)
+    @Override
+    protected int deleteAuditEntriesImpl(Long applicationId, Long from, Long to)
     {
         AuditDeleteParameters params = new AuditDeleteParameters();
         params.setAuditApplicationId(applicationId);
@@ -210,6 +225,41 @@ public class AuditDAOImpl extends AbstractAuditDAOImpl
         return entity;
     }
 
+    @Override
+    protected List<String> getAuditPartitionTableNames()
+    {
+        return template.selectList(SELECT_PARTITION_TABLE_NAMES);
+    }
+
+    @Override
+    protected void createAuditPartition(AuditPartition partition)
+    {
+        template.update(CREATE_PARTITION, partition);
+        for (String createIndex : CREATE_PARTITION_INDEXES)
+        {
+            template.update(createIndex, partition);
+        }
+    }
+
+    @Override
+    protected void dropAuditPartition(AuditPartition partition)
+    {
+        template.update(DROP_PARTITION, partition);
+    }
+
+    @Override
+    protected AuditEntryEntity createAuditEntry(AuditPartition partition, Long applicationId, long time, Long usernameId, Long valuesId)
+    {
+        AuditEntryEntity entity = new AuditEntryEntity();
+        entity.setPartitionTableName(partition.getTableName());
+        entity.setAuditApplicationId(applicationId);
+        entity.setAuditTime(time);
+        entity.setAuditUserId(usernameId);
+        entity.setAuditValuesId(valuesId);
+        template.insert(INSERT_PARTITION_ENTRY, entity);
+        return entity;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     protected void findAuditEntries(
@@ -222,53 +272,10 @@ public class AuditDAOImpl extends AbstractAuditDAOImpl
             String searchKey, Serializable searchValue)
     {
         AuditQueryParameters params = new AuditQueryParameters();
-        if (appName != null)
-        {
-            // Look up the application's ID (this is unique)
-            Pair<Long, Serializable> appNamePair = propertyValueDAO.getPropertyValue(appName);
-            if (appNamePair == null)
-            {
-                // No such value
-                return;
-            }
-            params.setAuditAppNameId(appNamePair.getFirst());
-        }
-        if (user != null)
+        if (!setQueryParameters(params, appName, user, fromId, toId, fromTime, toTime, searchKey, searchValue))
         {
-            // Look up the application's ID (this is unique)
-            Pair<Long, Serializable> userPair = propertyValueDAO.getPropertyValue(user);
-            if (userPair == null)
-            {
-                // No such value
-                return;
-            }
-            params.setAuditUserId(userPair.getFirst());
-        }
-        params.setAuditFromId(fromId);
-        params.setAuditToId(toId);
-        params.setAuditFromTime(fromTime);
-        params.setAuditToTime(toTime);
-        if (searchKey != null)
-        {
-            // Look up the ID of the search key
-            Pair<Long, Serializable> searchKeyPair = propertyValueDAO.getPropertyValue(searchKey);
-            if (searchKeyPair == null)
-            {
-                // No such value
-                return;
-            }
-            params.setSearchKeyId(searchKeyPair.getFirst());
-        }
-        if (searchValue != null)
-        {
-            // Look up the ID of the search key
-            Pair<Long, Serializable> searchValuePair = propertyValueDAO.getPropertyValue(searchValue);
-            if (searchValuePair == null)
-            {
-                // No such value
-                return;
-            }
-            params.setSearchValueId(searchValuePair.getFirst());
+            // No such value
+            return;
         }
         params.setForward(forward);
         
@@ -325,5 +332,120 @@ public class AuditDAOImpl extends AbstractAuditDAOImpl
             throw new IllegalArgumentException("maxResults must be greater than 0");
         }
     }
+
+    @Override
+    protected List<AuditAggregateResult> findAuditAggregates(
+            String appName, String user,
+            Long fromId, Long toId,
+            Long fromTime, Long toTime,
+            String searchKey, Serializable searchValue,
+            boolean groupByUser, String groupByKey, Long timeBucketMs,
+            int maxResults)
+    {
+        AuditAggregateParameters params = new AuditAggregateParameters();
+        if (!setQueryParameters(params, appName, user, fromId, toId, fromTime, toTime, searchKey, searchValue))
+        {
+            // No such value
+            return Collections.emptyList();
+        }
+        params.setGroupByUser(groupByUser);
+        if (groupByKey != null)
+        {
+            // Look up the ID of the grouping key
+            Pair<Long, Serializable> groupKeyPair = propertyValueDAO.getPropertyValue(groupByKey);
+            if (groupKeyPair == null)
+            {
+                // No entry has the value, so all entries fall into the null group
+                params.setGroupKeyId(-1L);
+            }
+            else
+            {
+                params.setGroupKeyId(groupKeyPair.getFirst());
+            }
+        }
+        params.setTimeBucketMs(timeBucketMs);
+        
+        return template.selectList(SELECT_ENTRY_AGGREGATES, params, new RowBounds(0, maxResults));
+    }
+    
+    /**
+     * Look up the IDs of the values used to restrict a query
+     * 
+     * @return                  Returns <tt>false</tt> if a value does not exist, in which case
+     *                          the query cannot match any entries
+     */
+    private boolean setQueryParameters(
+            AuditQueryParameters params,
+            String appName, String user,
+            Long fromId, Long toId,
+            Long fromTime, Long toTime,
+            String searchKey, Serializable searchValue)
+    {
+        if (appName != null)
+        {
+            // Look up the application's ID (this is unique)
+            Pair<Long, Serializable> appNamePair = propertyValueDAO.getPropertyValue(appName);
+            if (appNamePair == null)
+            {
+                // No such value
+                return false;
+            }
+            params.setAuditAppNameId(appNamePair.getFirst());
+        }
+        if (user != null)
+        {
+            // Look up the application's ID (this is unique)
+            Pair<Long, Serializable> userPair = propertyValueDAO.getPropertyValue(user);
+            if (userPair == null)
+            {
+                // No such value
+                return false;
+            }
+            params.setAuditUserId(userPair.getFirst());
+        }
+        params.setAuditFromId(fromId);
+        params.setAuditToId(toId);
+        params.setAuditFromTime(fromTime);
+        params.setAuditToTime(toTime);
+        if (searchKey != null)
+        {
+            // Look up the ID of the search key
+            Pair<Long, Serializable> searchKeyPair = propertyValueDAO.getPropertyValue(searchKey);
+            if (searchKeyPair == null)
+            {
+                // No such value
+                return false;
+            }
+            params.setSearchKeyId(searchKeyPair.getFirst());
+        }
+        if (searchValue != null)
+        {
+            // Look up the ID of the search key
+            Pair<Long, Serializable> searchValuePair = propertyValueDAO.getPropertyValue(searchValue);
+            if (searchValuePair == null)
+            {
+                // No such value
+                return false;
+            }
+            params.setSearchValueId(searchValuePair.getFirst());
+        }
+        return true;
+    }
+    
+    /**
+     * PostgreSQL-specific DAO that keeps audit entries in partitions when configured to do so.
+     * Partitions inherit from <b>alf_audit_entry</b>, so all queries against the main table
+     * include them and time range queries skip the partitions that cannot match.
+     * 
+     * @since 6.1
+     */
+    public static class PostgreSQL extends AuditDAOImpl
+    {
+        @Override
+        protected boolean isPartitioningSupported()
+        {
+            return true;
+        }
+    }
 }
 
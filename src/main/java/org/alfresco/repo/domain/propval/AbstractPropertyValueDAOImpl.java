@@ -506,6 +506,24 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
     }
 
     public Pair<Long, String> getOrCreatePropertyStringValue(String value)
+    {
+        checkPersistableStringValue(value);
+        Pair<Long, String> entityPair = propertyStringValueCache.getOrCreateByValue(value);
+        if (entityPair == null)
+        {
+            // The cached ID belongs to a value that has been cleaned up
+            propertyStringValueCache.removeByValue(value);
+            entityPair = propertyStringValueCache.getOrCreateByValue(value);
+        }
+        return entityPair;
+    }
+
+    /**
+     * Check that a string value can be stored in <b>alf_prop_string_value</b>
+     * 
+     * @throws IllegalArgumentException     if the value is <tt>null</tt> or too long
+     */
+    protected void checkPersistableStringValue(String value)
     {
         if (value == null)
         {
@@ -519,8 +537,6 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
                     + maxStringLen + " characters.  Increase the string column sizes and set property " +
                     "'system.maximumStringLength' accordingly.");
         }
-        Pair<Long, String> entityPair = propertyStringValueCache.getOrCreateByValue(value);
-        return entityPair;
     }
 
     /**
@@ -605,6 +621,12 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
             throw new IllegalArgumentException("Persisted double values cannot be null");
         }
         Pair<Long, Double> entityPair = propertyDoubleValueCache.getOrCreateByValue(value);
+        if (entityPair == null)
+        {
+            // The cached ID belongs to a value that has been cleaned up
+            propertyDoubleValueCache.removeByValue(value);
+            entityPair = propertyDoubleValueCache.getOrCreateByValue(value);
+        }
         return (Pair<Long, Double>) entityPair;
     }
 
@@ -741,9 +763,136 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
     public Pair<Long, Serializable> getOrCreatePropertyValue(Serializable value)
     {
         Pair<Long, Serializable> entityPair = propertyValueCache.getOrCreateByValue(value);
+        if (entityPair == null)
+        {
+            // The cached ID belongs to a value that has been cleaned up
+            propertyValueCache.removeByValue(value);
+            entityPair = propertyValueCache.getOrCreateByValue(value);
+        }
         return (Pair<Long, Serializable>) entityPair;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Values are looked up in the cache first.  The remaining values are found using set-based
+     * queries and whatever is still missing is created within a single savepoint.  If another
+     * transaction creates any of the same values concurrently, the savepoint is rolled back and
+     * the values are resolved one at a time.
+     */
+    public Map<Serializable, Long> getOrCreatePropertyValues(Collection<Serializable> values)
+    {
+        Map<Serializable, Long> valueIds = new HashMap<Serializable, Long>(values.size() * 2 + 1);
+        Set<Serializable> misses = new HashSet<Serializable>(values.size() * 2 + 1);
+        for (Serializable value : values)
+        {
+            if (valueIds.containsKey(value) || misses.contains(value))
+            {
+                continue;
+            }
+            Serializable valueKey = (value == null) ? null : propertyValueCallback.getValueKey(value);
+            if (valueKey == null)
+            {
+                // Nulls are cached by the lookup cache and pure Serializable values are always created
+                valueIds.put(value, getOrCreatePropertyValue(value).getFirst());
+                continue;
+            }
+            Long id = propertyValueCache.getKey(valueKey);
+            if (id != null && propertyValueCache.getByKey(id) != null)
+            {
+                valueIds.put(value, id);
+            }
+            else
+            {
+                misses.add(value);
+            }
+        }
+        if (misses.isEmpty())
+        {
+            return valueIds;
+        }
+        
+        // Find whatever exists with as few queries as possible
+        for (PropertyValueEntity entity : findPropertyValuesByValues(new ArrayList<Serializable>(misses)))
+        {
+            Pair<Long, Serializable> entityPair = propertyValueCallback.convertEntityToPair(entity);
+            Serializable value = entityPair.getSecond();
+            if (misses.remove(value))
+            {
+                valueIds.put(value, entityPair.getFirst());
+                propertyValueCache.setValue(entityPair.getFirst(), value);
+            }
+        }
+        if (!misses.isEmpty())
+        {
+            createPropertyValues(new ArrayList<Serializable>(misses), valueIds);
+        }
+        
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                    "Resolved " + valueIds.size() + " property values, creating " + misses.size());
+        }
+        return valueIds;
+    }
+
+    /**
+     * Create values known not to exist, falling back to individual resolution if any of them
+     * are created concurrently.  The new values are only cached once the savepoint is released.
+     */
+    private void createPropertyValues(List<Serializable> values, Map<Serializable, Long> valueIds)
+    {
+        // Make sure that the value classes exist outside of the savepoint; they are cached
+        for (Serializable value : values)
+        {
+            getOrCreatePropertyClass(value.getClass());
+        }
+        List<PropertyValueEntity> entities;
+        Savepoint savepoint = (controlDAO == null) ? null : controlDAO.createSavepoint("getOrCreatePropertyValues");
+        try
+        {
+            entities = createPropertyValues(values);
+            if (savepoint != null)
+            {
+                controlDAO.releaseSavepoint(savepoint);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            if (savepoint == null)
+            {
+                throw e;
+            }
+            controlDAO.rollbackToSavepoint(savepoint);
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Bulk creation of " + values.size() + " property values failed; resolving individually", e);
+            }
+            for (Serializable value : values)
+            {
+                valueIds.put(value, getOrCreatePropertyValue(value).getFirst());
+            }
+            return;
+        }
+        for (int i = 0; i < values.size(); i++)
+        {
+            Serializable value = values.get(i);
+            Long id = entities.get(i).getId();
+            valueIds.put(value, id);
+            propertyValueCache.setValue(id, value);
+        }
+    }
+
+    /**
+     * Resolve the ID of a value that has been resolved in bulk, if possible
+     */
+    private Long getPropertyValueId(Serializable value, Map<Serializable, Long> valueIds)
+    {
+        Long id = valueIds.get(value);
+        return (id != null) ? id : getOrCreatePropertyValue(value).getFirst();
+    }
+
     /**
      * Callback for <b>alf_prop_value</b> DAO.
      */
@@ -829,6 +978,41 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
     protected abstract PropertyValueEntity findPropertyValueByValue(Serializable value);
     protected abstract PropertyValueEntity createPropertyValue(Serializable value);
 
+    /**
+     * Find the entities for several values.  Implementations should override this to use
+     * set-based queries; values that cannot be found need not be represented in the results.
+     * 
+     * @param values            the non-<tt>null</tt> values to find
+     * @return                  the entities found, in any order
+     * 
+     * @since 6.1
+     */
+    protected List<PropertyValueEntity> findPropertyValuesByValues(List<Serializable> values)
+    {
+        List<PropertyValueEntity> entities = new ArrayList<PropertyValueEntity>(values.size());
+        for (Serializable value : values)
+        {
+            PropertyValueEntity entity = findPropertyValueByValue(value);
+            if (entity != null)
+            {
+                entities.add(entity);
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Create entities for several values that do not exist yet.  The values are created within a
+     * savepoint that is rolled back if any of them already exists, so nothing created here may be
+     * cached: the underlying value tables are written to directly.
+     * 
+     * @param values            the non-<tt>null</tt> values to create
+     * @return                  the new entities, in the same order as the values
+     * 
+     * @since 6.1
+     */
+    protected abstract List<PropertyValueEntity> createPropertyValues(List<Serializable> values);
+
     //================================
     // 'alf_prop_root' accessors
     //================================
@@ -857,7 +1041,7 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
 
     /**
      * {@inheritDoc}
-     * @see #createPropertyImpl(Long, long, long, Long, Serializable)
+     * @see #createPropertyImpl(Long, long, long, Long, Serializable, Map)
      */
     public Long createProperty(Serializable value)
     {
@@ -884,7 +1068,7 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
         {
             // We will need a new root
             Long rootPropId = createPropertyRoot();
-            createPropertyImpl(rootPropId, 0L, 0L, null, value);
+            createPropertyImpl(rootPropId, 0L, 0L, null, value, getOrCreatePropertyValues(getPropertyValues(value)));
             // Done
             if (logger.isDebugEnabled())
             {
@@ -926,7 +1110,7 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
             // Remove all links using the root
             deletePropertyLinks(key);
             // Create the new properties and update the cache
-            createPropertyImpl(key, 0L, 0L, null, value);
+            createPropertyImpl(key, 0L, 0L, null, value, getOrCreatePropertyValues(getPropertyValues(value)));
             // Update the property root to detect concurrent modification
             updatePropertyRoot(entity);
             // Done
@@ -955,8 +1139,51 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
         }
     }
 
+    /**
+     * Get the values that {@link #createPropertyImpl(Long, long, long, Long, Serializable, Map)} will
+     * persist in <b>alf_prop_value</b>, so that they can be resolved in bulk
+     */
+    private Collection<Serializable> getPropertyValues(Serializable value)
+    {
+        List<Serializable> values = new ArrayList<Serializable>();
+        getPropertyValues(value, values);
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void getPropertyValues(Serializable value, List<Serializable> values)
+    {
+        Serializable emptyInstance = null;
+        if (value instanceof Map<?, ?> || value instanceof Collection<?>)
+        {
+            emptyInstance = constructEmptyContainer(value.getClass());
+        }
+        if (emptyInstance == null)
+        {
+            values.add(value);
+        }
+        else if (value instanceof Map<?, ?>)
+        {
+            values.add(emptyInstance);
+            for (Map.Entry<Serializable, Serializable> entry : ((Map<Serializable, Serializable>) value).entrySet())
+            {
+                values.add(entry.getKey());
+                getPropertyValues(entry.getValue(), values);
+            }
+        }
+        else
+        {
+            values.add(emptyInstance);
+            for (Serializable collectionValue : (Collection<Serializable>) value)
+            {
+                getPropertyValues(collectionValue, values);
+            }
+        }
+    }
+
     /**
      * @param propIndex         a unique index within the context of the current property root
+     * @param valueIds          the IDs of values already resolved in bulk
      */
     @SuppressWarnings("unchecked")
     private long createPropertyImpl(
@@ -964,7 +1191,8 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
             long propIndex,
             long containedIn,
             Long keyPropId,
-            Serializable value)
+            Serializable value,
+            Map<Serializable, Long> valueIds)
     {
         // Keep track of the index for this property.  It gets used later when making the link entry.
         long thisPropIndex = propIndex;
@@ -973,7 +1201,7 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
         if (value == null)
         {
             // The key and the value are the same
-            valuePropId = getOrCreatePropertyValue(value).getFirst();
+            valuePropId = getPropertyValueId(value, valueIds);
         }
         else if (value instanceof Map<?, ?>)
         {
@@ -983,12 +1211,12 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
             if (emptyInstance == null)
             {
                 // No default constructor, so we just throw the whole thing in as a single property
-                valuePropId = getOrCreatePropertyValue(value).getFirst();
+                valuePropId = getPropertyValueId(value, valueIds);
             }
             else
             {
                 // Persist the empty map
-                valuePropId = getOrCreatePropertyValue(emptyInstance).getFirst();
+                valuePropId = getPropertyValueId(emptyInstance, valueIds);
                 // Persist the individual entries
                 for (Map.Entry<Serializable, Serializable> entry : map.entrySet())
                 {
@@ -996,13 +1224,14 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
                     Serializable mapKey = entry.getKey();
                     Serializable mapValue = entry.getValue();
                     // Get the IDs for these
-                    Long mapKeyId = getOrCreatePropertyValue(mapKey).getFirst();
+                    Long mapKeyId = getPropertyValueId(mapKey, valueIds);
                     propIndex = createPropertyImpl(
                             rootPropId,
                             propIndex + 1L,
                             thisPropIndex,
                             mapKeyId,
-                            mapValue);
+                            mapValue,
+                            valueIds);
                 }
             }
         }
@@ -1014,12 +1243,12 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
             if (emptyInstance == null)
             {
                 // No default constructor, so we just throw the whole thing in as a single property
-                valuePropId = getOrCreatePropertyValue(value).getFirst();
+                valuePropId = getPropertyValueId(value, valueIds);
             }
             else
             {
                 // Persist the empty collection
-                valuePropId = getOrCreatePropertyValue(emptyInstance).getFirst();
+                valuePropId = getPropertyValueId(emptyInstance, valueIds);
                 // Persist the individual entries
                 for (Serializable collectionValue : collection)
                 {
@@ -1029,14 +1258,15 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
                             propIndex + 1L,
                             thisPropIndex,
                             null,
-                            collectionValue);
+                            collectionValue,
+                            valueIds);
                 }
             }
         }
         else
         {
             // The key and the value are the same
-            valuePropId = getOrCreatePropertyValue(value).getFirst();
+            valuePropId = getPropertyValueId(value, valueIds);
         }
         
         // Create a link entry
@@ -1215,9 +1445,10 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
         checkUniquenessGuarantee(value1, value2, value3);
         
         // Translate the properties.  Null values are acceptable
-        Long id1 = getOrCreatePropertyValue(value1).getFirst();
-        Long id2 = getOrCreatePropertyValue(value2).getFirst();
-        Long id3 = getOrCreatePropertyValue(value3).getFirst();
+        Map<Serializable, Long> valueIds = getOrCreatePropertyValues(Arrays.asList(value1, value2, value3));
+        Long id1 = valueIds.get(value1);
+        Long id2 = valueIds.get(value2);
+        Long id3 = valueIds.get(value3);
         Long property1Id = null;
         if (propertyValue1 != null)
         {
@@ -1319,6 +1550,16 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
     }
     
     public void getPropertyUniqueContext(PropertyUniqueContextCallback callback, Serializable... values)
+    {
+        findPropertyUniqueContexts(callback, false, values);
+    }
+    
+    public void getPropertyUniqueContextInCreationOrder(PropertyUniqueContextCallback callback, Serializable... values)
+    {
+        findPropertyUniqueContexts(callback, true, values);
+    }
+    
+    private void findPropertyUniqueContexts(PropertyUniqueContextCallback callback, boolean inCreationOrder, Serializable... values)
     {
         if (values.length < 1 || values.length > 3)
         {
@@ -1337,7 +1578,7 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
         }
         
         // not cached
-        getPropertyUniqueContextByValues(callback, valueIds);
+        getPropertyUniqueContextByValues(callback, inCreationOrder, valueIds);
         
         // Done
         if (logger.isDebugEnabled())
@@ -1359,9 +1600,10 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
          */
         
         // Translate the properties.  Null values are acceptable
-        Long id1 = getOrCreatePropertyValue(value1).getFirst();
-        Long id2 = getOrCreatePropertyValue(value2).getFirst();
-        Long id3 = getOrCreatePropertyValue(value3).getFirst();
+        Map<Serializable, Long> valueIds = getOrCreatePropertyValues(Arrays.asList(value1, value2, value3));
+        Long id1 = valueIds.get(value1);
+        Long id2 = valueIds.get(value2);
+        Long id3 = valueIds.get(value3);
         
         CachePucKey pucKey = getPucKey(id1, id2, id3);
         
@@ -1413,9 +1655,10 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
     public void updatePropertyUniqueContext(Serializable value1, Serializable value2, Serializable value3, Serializable propertyValue)
     {
         // Translate the properties.  Null values are acceptable
-        Long id1 = getOrCreatePropertyValue(value1).getFirst();
-        Long id2 = getOrCreatePropertyValue(value2).getFirst();
-        Long id3 = getOrCreatePropertyValue(value3).getFirst();
+        Map<Serializable, Long> valueIds = getOrCreatePropertyValues(Arrays.asList(value1, value2, value3));
+        Long id1 = valueIds.get(value1);
+        Long id2 = valueIds.get(value2);
+        Long id3 = valueIds.get(value3);
         
         CachePucKey pucKey = getPucKey(id1, id2, id3);
         
@@ -1516,7 +1759,7 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
     protected abstract PropertyUniqueContextEntity createPropertyUniqueContext(Long valueId1, Long valueId2, Long valueId3, Long propertyId);
     protected abstract PropertyUniqueContextEntity getPropertyUniqueContextById(Long id);
     protected abstract PropertyUniqueContextEntity getPropertyUniqueContextByValues(Long valueId1, Long valueId2, Long valueId3);
-    protected abstract void getPropertyUniqueContextByValues(PropertyUniqueContextCallback callback, Long... valueIds);
+    protected abstract void getPropertyUniqueContextByValues(PropertyUniqueContextCallback callback, boolean inCreationOrder, Long... valueIds);
     protected abstract PropertyUniqueContextEntity updatePropertyUniqueContext(PropertyUniqueContextEntity entity);
     protected abstract int deletePropertyUniqueContexts(Long ... valueIds);
 
@@ -1625,6 +1868,155 @@ public abstract class AbstractPropertyValueDAOImpl implements PropertyValueDAO
         return result;
     }
 
+    public Long getMaxPropertyRootId()
+    {
+        return getMaxPropertyRootIdImpl();
+    }
+
+    public Long getMaxPropertyValueId()
+    {
+        return getMaxPropertyValueIdImpl();
+    }
+
+    public List<Long> getUnusedPropertyRootIds(Long minId, Long maxId)
+    {
+        return findUnusedPropertyRootIds(minId, maxId);
+    }
+
+    public List<Long> getUnusedPropertyValueIds(Long minId, Long maxId)
+    {
+        return findUnusedPropertyValueIds(minId, maxId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The candidates are locked before the references are checked again.  A writer adding a
+     * reference to a property holds a shared lock on the property row, taken by the foreign key
+     * check, until it commits.  So the references are checked after any such writer has committed,
+     * and writers that come later wait for the removal and fail the foreign key check instead of
+     * having their new rows removed by the cascading delete.
+     */
+    public int cleanupUnusedProperties(List<Long> candidateIds)
+    {
+        if (candidateIds.isEmpty())
+        {
+            return 0;
+        }
+        lockPropertyRoots(candidateIds);
+        List<Long> ids = findUnusedPropertyRootIds(candidateIds);
+        if (ids.isEmpty())
+        {
+            return 0;
+        }
+        int deleted = deleteUnusedPropertyRoots(ids);
+        for (Long id : ids)
+        {
+            propertyCache.removeByKey(id);
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Removed " + deleted + " of " + candidateIds.size() + " candidate unused properties");
+        }
+        return deleted;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The candidates are locked before the references are checked again, as
+     * {@link #cleanupUnusedProperties(List) for properties}.  Cached IDs of removed values are
+     * evicted where possible.  Any that remain cached are detected and replaced when the value
+     * is next used.
+     */
+    public int cleanupUnusedPropertyValues(List<Long> candidateIds)
+    {
+        if (candidateIds.isEmpty())
+        {
+            return 0;
+        }
+        lockPropertyValues(candidateIds);
+        List<PropertyValueEntity> entities = findUnusedPropertyValues(candidateIds);
+        if (entities.isEmpty())
+        {
+            return 0;
+        }
+        List<Long> ids = new ArrayList<Long>(entities.size());
+        List<Long> stringIds = new ArrayList<Long>(entities.size());
+        List<Long> doubleIds = new ArrayList<Long>(entities.size());
+        List<Long> serializableIds = new ArrayList<Long>(entities.size());
+        for (PropertyValueEntity entity : entities)
+        {
+            ids.add(entity.getId());
+            switch (entity.getPersistedTypeEnum())
+            {
+            case STRING:
+            case CONSTRUCTABLE:
+            case ENUM:
+                stringIds.add(entity.getLongValue());
+                break;
+            case DOUBLE:
+                doubleIds.add(entity.getLongValue());
+                break;
+            case SERIALIZABLE:
+                serializableIds.add(entity.getLongValue());
+                break;
+            default:
+                // The value is held in the row
+            }
+        }
+        int deleted = deleteUnusedPropertyValues(ids);
+        for (Long id : ids)
+        {
+            propertyValueCache.removeByKey(id);
+        }
+        if (!stringIds.isEmpty())
+        {
+            deleted += deleteUnusedPropertyStringValues(stringIds);
+            for (Long id : stringIds)
+            {
+                propertyStringValueCache.removeByKey(id);
+            }
+        }
+        if (!doubleIds.isEmpty())
+        {
+            deleted += deleteUnusedPropertyDoubleValues(doubleIds);
+            for (Long id : doubleIds)
+            {
+                propertyDoubleValueCache.removeByKey(id);
+            }
+        }
+        if (!serializableIds.isEmpty())
+        {
+            deleted += deleteUnusedPropertySerializableValues(serializableIds);
+            for (Long id : serializableIds)
+            {
+                propertySerializableValueCache.removeByKey(id);
+            }
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Removed " + deleted + " unused value rows for " + candidateIds.size() + " candidate unused values");
+        }
+        return deleted;
+    }
+
+    protected abstract Long getMaxPropertyRootIdImpl();
+    protected abstract Long getMaxPropertyValueIdImpl();
+    protected abstract List<Long> findUnusedPropertyRootIds(Long minId, Long maxId);
+    protected abstract void lockPropertyRoots(List<Long> ids);
+    protected abstract List<Long> findUnusedPropertyRootIds(List<Long> ids);
+    protected abstract int deleteUnusedPropertyRoots(List<Long> ids);
+    protected abstract List<Long> findUnusedPropertyValueIds(Long minId, Long maxId);
+    protected abstract void lockPropertyValues(List<Long> ids);
+    protected abstract List<PropertyValueEntity> findUnusedPropertyValues(List<Long> ids);
+    protected abstract int deleteUnusedPropertyValues(List<Long> ids);
+    protected abstract int deleteUnusedPropertyStringValues(List<Long> ids);
+    protected abstract int deleteUnusedPropertyDoubleValues(List<Long> ids);
+    protected abstract int deleteUnusedPropertySerializableValues(List<Long> ids);
+
     protected void clearCaches()
     {
         propertyClassCache.clear();
@@ -26,8 +26,10 @@
 package org.alfresco.repo.domain.propval;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import org.alfresco.repo.domain.CrcHelper;
 import org.alfresco.util.Pair;
@@ -210,6 +212,19 @@ public interface PropertyValueDAO
      * @param value             the value to find the ID for (may be <tt>null</tt>)
      */
     Pair<Long, Serializable> getOrCreatePropertyValue(Serializable value);
+    /**
+     * Use for accessing unique properties; see interface comments.
+     * <p/>
+     * <b>alf_prop_value</b> accessor: find or create properties for several values at once.
+     * This has the same semantics as {@link #getOrCreatePropertyValue(Serializable)} for
+     * each value, but values that are not cached are found and created in bulk.
+     * 
+     * @param values            the values to find the IDs for (may contain <tt>null</tt>)
+     * @return                  Returns the ID of each distinct value, keyed by the value
+     * 
+     * @since 6.1
+     */
+    Map<Serializable, Long> getOrCreatePropertyValues(Collection<Serializable> values);
     
     //================================
     // 'alf_prop_root' accessors
@@ -314,7 +329,11 @@ public interface PropertyValueDAO
      */
     public interface PropertyUniqueContextCallback
     {
-        public void handle(Long id, Long propId, Serializable[] keys);
+        /**
+         * @return                  <tt>true</tt> to continue sending results if any are available,
+         *                          <tt>false</tt> to stop the query
+         */
+        public boolean handle(Long id, Long propId, Serializable[] keys);
     }
     
     /**
@@ -326,6 +345,16 @@ public interface PropertyValueDAO
      * @see #createPropertyUniqueContext(Serializable, Serializable, Serializable, Serializable)
      */
     void getPropertyUniqueContext(PropertyUniqueContextCallback callback, Serializable ... values);
+    
+    /**
+     * Get unique contexts as {@link #getPropertyUniqueContext(PropertyUniqueContextCallback, Serializable...)}
+     * does, in the order in which the contexts were created.
+     *
+     * @param values            a combination of one to three values in order
+     * 
+     * @since 6.1
+     */
+    void getPropertyUniqueContextInCreationOrder(PropertyUniqueContextCallback callback, Serializable ... values);
     /**
      * Update the unique context, preserving any associated property.
      * 
@@ -375,4 +404,66 @@ public interface PropertyValueDAO
      * Remove orphaned properties.
      */
     void cleanupUnusedValues();
+    
+    /**
+     * @return                  Returns the largest ID in <b>alf_prop_root</b> or <tt>null</tt> if there are no properties
+     * 
+     * @since 6.1
+     */
+    Long getMaxPropertyRootId();
+    
+    /**
+     * @return                  Returns the largest ID in <b>alf_prop_value</b> or <tt>null</tt> if there are no values
+     * 
+     * @since 6.1
+     */
+    Long getMaxPropertyValueId();
+    
+    /**
+     * Find orphaned properties with IDs in a given range.  This allows the tables to be cleaned
+     * incrementally in small transactions.  The IDs are only candidates for
+     * {@link #cleanupUnusedProperties(List) removal} and should be found in an earlier transaction.
+     * 
+     * @param minId             the smallest property ID to check (inclusive)
+     * @param maxId             the largest property ID to check (inclusive)
+     * @return                  Returns the IDs of properties that were not referenced
+     * 
+     * @since 6.1
+     */
+    List<Long> getUnusedPropertyRootIds(Long minId, Long maxId);
+    
+    /**
+     * Remove orphaned properties.  The candidate properties are locked and checked again, so
+     * that properties referenced since the candidates were found are kept.
+     * 
+     * @param ids               the IDs of the candidate properties
+     * @return                  Returns the number of properties removed
+     * 
+     * @since 6.1
+     */
+    int cleanupUnusedProperties(List<Long> ids);
+    
+    /**
+     * Find orphaned values with IDs in a given range.  Values are only orphaned once the
+     * properties using them have been {@link #cleanupUnusedProperties(List) removed}.
+     * 
+     * @param minId             the smallest value ID to check (inclusive)
+     * @param maxId             the largest value ID to check (inclusive)
+     * @return                  Returns the IDs of values that were not referenced
+     * 
+     * @since 6.1
+     */
+    List<Long> getUnusedPropertyValueIds(Long minId, Long maxId);
+    
+    /**
+     * Remove orphaned values, along with the string, double and serializable values that they
+     * alone used.  The candidate values are locked and checked again, so that values referenced
+     * since the candidates were found are kept.
+     * 
+     * @param ids               the IDs of the candidate values
+     * @return                  Returns the number of rows removed
+     * 
+     * @since 6.1
+     */
+    int cleanupUnusedPropertyValues(List<Long> ids);
 }
@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.domain.propval;
+
+import java.util.List;
+
+/**
+ * Query parameters for searching <b>alf_prop_value</b> and <b>alf_prop_string_value</b>
+ * for several values at once.
+ * 
+ * @since 6.1
+ */
+public class PropertyValueQueryParameter
+{
+    private List<PropertyValueEntity> localValues;
+    private List<PropertyStringQueryEntity> stringValues;
+    private List<PropertyStringValueEntity> strings;
+    
+    public PropertyValueQueryParameter()
+    {
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("PropertyValueQueryParameter")
+          .append("[ localValues=").append(localValues == null ? 0 : localValues.size())
+          .append(", stringValues=").append(stringValues == null ? 0 : stringValues.size())
+          .append(", strings=").append(strings == null ? 0 : strings.size())
+          .append("]");
+        return sb.toString();
+    }
+
+    /**
+     * @return              values persisted in <b>alf_prop_value</b> itself
+     */
+    public List<PropertyValueEntity> getLocalValues()
+    {
+        return localValues;
+    }
+
+    public void setLocalValues(List<PropertyValueEntity> localValues)
+    {
+        this.localValues = localValues;
+    }
+
+    /**
+     * @return              values persisted in <b>alf_prop_string_value</b>, qualified by their type
+     */
+    public List<PropertyStringQueryEntity> getStringValues()
+    {
+        return stringValues;
+    }
+
+    public void setStringValues(List<PropertyStringQueryEntity> stringValues)
+    {
+        this.stringValues = stringValues;
+    }
+
+    /**
+     * @return              raw <b>alf_prop_string_value</b> strings
+     */
+    public List<PropertyStringValueEntity> getStrings()
+    {
+        return strings;
+    }
+
+    public void setStrings(List<PropertyStringValueEntity> strings)
+    {
+        this.strings = strings;
+    }
+}
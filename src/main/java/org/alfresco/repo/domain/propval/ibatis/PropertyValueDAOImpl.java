@@ -26,9 +26,13 @@
 package org.alfresco.repo.domain.propval.ibatis;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.alfresco.ibatis.IdsEntity;
 import org.alfresco.ibatis.RollupResultHandler;
 import org.alfresco.repo.domain.propval.AbstractPropertyValueDAOImpl;
 import org.alfresco.repo.domain.propval.PropertyClassEntity;
@@ -45,6 +49,7 @@ import org.alfresco.repo.domain.propval.PropertyStringValueEntity;
 import org.alfresco.repo.domain.propval.PropertyUniqueContextEntity;
 import org.alfresco.repo.domain.propval.PropertyValueEntity;
 import org.alfresco.repo.domain.propval.PropertyValueEntity.PersistedType;
+import org.alfresco.repo.domain.propval.PropertyValueQueryParameter;
 import org.alfresco.repo.domain.schema.script.ScriptBundleExecutor;
 import org.alfresco.util.Pair;
 import org.apache.ibatis.session.Configuration;
@@ -86,8 +91,14 @@ public class PropertyValueDAOImpl extends AbstractPropertyValueDAOImpl
     private static final String SELECT_PROPERTY_VALUE_BY_LOCAL_VALUE = "alfresco.propval.select_PropertyValueByLocalValue";
     private static final String SELECT_PROPERTY_VALUE_BY_DOUBLE_VALUE = "alfresco.propval.select_PropertyValueByDoubleValue";
     private static final String SELECT_PROPERTY_VALUE_BY_STRING_VALUE = "alfresco.propval.select_PropertyValueByStringValue";
+    private static final String SELECT_PROPERTY_VALUES_BY_LOCAL_VALUES = "alfresco.propval.select_PropertyValuesByLocalValues";
+    private static final String SELECT_PROPERTY_VALUES_BY_STRING_VALUES = "alfresco.propval.select_PropertyValuesByStringValues";
+    private static final String SELECT_PROPERTY_STRING_VALUES_BY_VALUES = "alfresco.propval.select_PropertyStringValuesByValues";
     private static final String INSERT_PROPERTY_VALUE = "alfresco.propval.insert.insert_PropertyValue";
     
+    /** The maximum number of values looked up by a single set-based query */
+    private static final int MAX_VALUES_PER_QUERY = 100;
+    
     private static final String SELECT_PROPERTY_BY_ID = "alfresco.propval.select_PropertyById";
     private static final String SELECT_PROPERTIES_BY_IDS = "alfresco.propval.select_PropertiesByIds";
     private static final String SELECT_PROPERTY_ROOT_BY_ID = "alfresco.propval.select_PropertyRootById";
@@ -97,6 +108,7 @@ public class PropertyValueDAOImpl extends AbstractPropertyValueDAOImpl
     
     private static final String SELECT_PROPERTY_UNIQUE_CTX_BY_ID = "alfresco.propval.select_PropertyUniqueContextById";
     private static final String SELECT_PROPERTY_UNIQUE_CTX_BY_VALUES = "alfresco.propval.select_PropertyUniqueContextByValues";
+    private static final String SELECT_PROPERTY_UNIQUE_CTX_BY_VALUES_IN_CREATION_ORDER = "alfresco.propval.select_PropertyUniqueContextByValuesInCreationOrder";
     private static final String INSERT_PROPERTY_UNIQUE_CTX = "alfresco.propval.insert.insert_PropertyUniqueContext";
     private static final String UPDATE_PROPERTY_UNIQUE_CTX = "alfresco.propval.update_PropertyUniqueContext";
     private static final String DELETE_PROPERTY_UNIQUE_CTX_BY_ID = "alfresco.propval.delete_PropertyUniqueContextById";
@@ -105,6 +117,20 @@ public class PropertyValueDAOImpl extends AbstractPropertyValueDAOImpl
     private static final String INSERT_PROPERTY_LINK = "alfresco.propval.insert_PropertyLink";
     private static final String DELETE_PROPERTY_LINKS_BY_ROOT_ID = "alfresco.propval.delete_PropertyLinksByRootId";
     
+    private static final String SELECT_PROPERTY_ROOT_MAX_ID = "alfresco.propval.select_PropertyRootMaxId";
+    private static final String SELECT_PROPERTY_VALUE_MAX_ID = "alfresco.propval.select_PropertyValueMaxId";
+    private static final String SELECT_UNUSED_PROPERTY_ROOT_IDS = "alfresco.propval.select_UnusedPropertyRootIds";
+    private static final String SELECT_LOCK_PROPERTY_ROOTS = "alfresco.propval.select_LockPropertyRoots";
+    private static final String SELECT_UNUSED_PROPERTY_ROOT_IDS_BY_IDS = "alfresco.propval.select_UnusedPropertyRootIdsByIds";
+    private static final String DELETE_UNUSED_PROPERTY_ROOTS = "alfresco.propval.delete_UnusedPropertyRoots";
+    private static final String SELECT_UNUSED_PROPERTY_VALUE_IDS = "alfresco.propval.select_UnusedPropertyValueIds";
+    private static final String SELECT_LOCK_PROPERTY_VALUES = "alfresco.propval.select_LockPropertyValues";
+    private static final String SELECT_UNUSED_PROPERTY_VALUES_BY_IDS = "alfresco.propval.select_UnusedPropertyValuesByIds";
+    private static final String DELETE_UNUSED_PROPERTY_VALUES = "alfresco.propval.delete_UnusedPropertyValues";
+    private static final String DELETE_UNUSED_PROPERTY_STRING_VALUES = "alfresco.propval.delete_UnusedPropertyStringValues";
+    private static final String DELETE_UNUSED_PROPERTY_DOUBLE_VALUES = "alfresco.propval.delete_UnusedPropertyDoubleValues";
+    private static final String DELETE_UNUSED_PROPERTY_SERIALIZABLE_VALUES = "alfresco.propval.delete_UnusedPropertySerializableValues";
+    
     
     private SqlSessionTemplate template;
     
@@ -410,22 +436,157 @@ public class PropertyValueDAOImpl extends AbstractPropertyValueDAOImpl
         return result;
     }
     
+    /**
+     * Finds values persisted locally or as strings using set-based queries, a chunk at a time.
+     * Doubles are looked up individually and pure Serializable values are never shared.
+     */
+    @Override
+    protected List<PropertyValueEntity> findPropertyValuesByValues(List<Serializable> values)
+    {
+        List<PropertyValueEntity> results = new ArrayList<PropertyValueEntity>(values.size());
+        List<PropertyValueEntity> localValues = new ArrayList<PropertyValueEntity>(values.size());
+        List<PropertyStringQueryEntity> stringValues = new ArrayList<PropertyStringQueryEntity>(values.size());
+        for (Serializable value : values)
+        {
+            Pair<Long, Class<?>> clazzPair = getPropertyClass(value.getClass());
+            if (clazzPair == null)
+            {
+                // Shortcut: There are no properties of this type
+                continue;
+            }
+            PropertyValueEntity queryEntity = new PropertyValueEntity();
+            queryEntity.setValue(value, converter);
+            queryEntity.setActualTypeId(clazzPair.getFirst());
+            switch (queryEntity.getPersistedTypeEnum())
+            {
+            case NULL:
+            case LONG:
+                localValues.add(queryEntity);
+                break;
+            case DOUBLE:
+                PropertyValueEntity doubleEntity = findPropertyValueByValue(value);
+                if (doubleEntity != null)
+                {
+                    results.add(doubleEntity);
+                }
+                break;
+            case CONSTRUCTABLE:
+            case ENUM:
+            case STRING:
+                stringValues.add(new PropertyStringQueryEntity(
+                        queryEntity.getPersistedType(),
+                        clazzPair.getFirst(),
+                        queryEntity.getStringValue()));
+                break;
+            case SERIALIZABLE:
+                // No query
+                break;
+            default:
+                throw new IllegalStateException("Unhandled PersistedType value: " + queryEntity.getPersistedTypeEnum());
+            }
+        }
+        for (int i = 0; i < localValues.size(); i += MAX_VALUES_PER_QUERY)
+        {
+            PropertyValueQueryParameter parameter = new PropertyValueQueryParameter();
+            parameter.setLocalValues(localValues.subList(i, Math.min(i + MAX_VALUES_PER_QUERY, localValues.size())));
+            List<PropertyValueEntity> rows = template.selectList(SELECT_PROPERTY_VALUES_BY_LOCAL_VALUES, parameter);
+            results.addAll(rows);
+        }
+        for (int i = 0; i < stringValues.size(); i += MAX_VALUES_PER_QUERY)
+        {
+            PropertyValueQueryParameter parameter = new PropertyValueQueryParameter();
+            parameter.setStringValues(stringValues.subList(i, Math.min(i + MAX_VALUES_PER_QUERY, stringValues.size())));
+            List<PropertyValueEntity> rows = template.selectList(SELECT_PROPERTY_VALUES_BY_STRING_VALUES, parameter);
+            results.addAll(rows);
+        }
+        // Done
+        return results;
+    }
+
+    /**
+     * Find the IDs of several strings in <b>alf_prop_string_value</b> using set-based queries
+     * 
+     * @return                  the IDs of the strings that exist, keyed by string
+     */
+    private Map<String, Long> findStringValuesByValues(List<String> values)
+    {
+        Map<String, Long> results = new HashMap<String, Long>(values.size() * 2 + 1);
+        List<PropertyStringValueEntity> strings = new ArrayList<PropertyStringValueEntity>(values.size());
+        for (String value : values)
+        {
+            PropertyStringValueEntity entity = new PropertyStringValueEntity();
+            entity.setValue(value);
+            strings.add(entity);
+        }
+        for (int i = 0; i < strings.size(); i += MAX_VALUES_PER_QUERY)
+        {
+            PropertyValueQueryParameter parameter = new PropertyValueQueryParameter();
+            parameter.setStrings(strings.subList(i, Math.min(i + MAX_VALUES_PER_QUERY, strings.size())));
+            List<PropertyStringValueEntity> rows = template.selectList(SELECT_PROPERTY_STRING_VALUES_BY_VALUES, parameter);
+            for (PropertyStringValueEntity row : rows)
+            {
+                // The CRC only narrows the search; the match must be case-sensitive
+                Pair<Long, String> rowPair = row.getEntityPair();
+                results.put(rowPair.getSecond(), rowPair.getFirst());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Creates the values one by one, sharing a single set-based lookup of the strings they need.
+     * The value tables are written to directly, bypassing the caches.
+     */
+    @Override
+    protected List<PropertyValueEntity> createPropertyValues(List<Serializable> values)
+    {
+        List<String> strings = new ArrayList<String>(values.size());
+        for (Serializable value : values)
+        {
+            PropertyValueEntity entity = new PropertyValueEntity();
+            entity.setValue(value, converter);
+            switch (entity.getPersistedTypeEnum())
+            {
+            case STRING:
+            case CONSTRUCTABLE:
+            case ENUM:
+                strings.add(entity.getStringValue());
+                break;
+            default:
+                // Only strings are looked up in bulk
+            }
+        }
+        Map<String, Long> stringIds = strings.isEmpty() ? new HashMap<String, Long>() : findStringValuesByValues(strings);
+        
+        List<PropertyValueEntity> entities = new ArrayList<PropertyValueEntity>(values.size());
+        for (Serializable value : values)
+        {
+            entities.add(createPropertyValueInternal(value, stringIds));
+        }
+        return entities;
+    }
+    
     @Override
     protected PropertyValueEntity createPropertyValue(Serializable value)
     {
         try
         {
-            return createPropertyValueInternal(value);
+            return createPropertyValueInternal(value, null);
         }
         catch (DuplicateKeyException e )
         {
             //In very rare situation, it can fail. Just try one more time.
             //See MNT-12770 for details
-            return createPropertyValueInternal(value);
+            return createPropertyValueInternal(value, null);
         }
     }
     
-    private PropertyValueEntity createPropertyValueInternal(Serializable value)
+    /**
+     * @param stringIds         the IDs of strings already looked up in bulk, to which new strings are added
+     *                          (<tt>null</tt> to look up strings individually).  When given, the values are
+     *                          being created in bulk and none of the value caches are used.
+     */
+    private PropertyValueEntity createPropertyValueInternal(Serializable value, Map<String, Long> stringIds)
     {
         // Get the actual type ID
         Class<?> clazz = (value == null ? Object.class : value.getClass());
@@ -442,19 +603,53 @@ public class PropertyValueDAOImpl extends AbstractPropertyValueDAOImpl
         {
         case DOUBLE:
             Double doubleValue = insertEntity.getDoubleValue();
-            Pair<Long, Double> insertDoublePair = getOrCreatePropertyDoubleValue(doubleValue);
-            insertEntity.setLongValue(insertDoublePair.getFirst());
+            if (stringIds == null)
+            {
+                Pair<Long, Double> insertDoublePair = getOrCreatePropertyDoubleValue(doubleValue);
+                insertEntity.setLongValue(insertDoublePair.getFirst());
+            }
+            else
+            {
+                PropertyDoubleValueEntity doubleEntity = findDoubleValueByValue(doubleValue);
+                if (doubleEntity == null)
+                {
+                    doubleEntity = createDoubleValue(doubleValue);
+                }
+                insertEntity.setLongValue(doubleEntity.getId());
+            }
             break;
         case STRING:
         case CONSTRUCTABLE:
         case ENUM:
             String stringValue = insertEntity.getStringValue();
-            Pair<Long, String> insertStringPair = getOrCreatePropertyStringValue(stringValue);
-            insertEntity.setLongValue(insertStringPair.getFirst());
+            if (stringIds == null)
+            {
+                Pair<Long, String> insertStringPair = getOrCreatePropertyStringValue(stringValue);
+                insertEntity.setLongValue(insertStringPair.getFirst());
+            }
+            else
+            {
+                Long stringId = stringIds.get(stringValue);
+                if (stringId == null)
+                {
+                    // Known not to exist
+                    checkPersistableStringValue(stringValue);
+                    stringId = createStringValue(stringValue);
+                    stringIds.put(stringValue, stringId);
+                }
+                insertEntity.setLongValue(stringId);
+            }
             break;
         case SERIALIZABLE:
-            Pair<Long, Serializable> insertSerializablePair = createPropertySerializableValue(value);
-            insertEntity.setLongValue(insertSerializablePair.getFirst());
+            if (stringIds == null)
+            {
+                Pair<Long, Serializable> insertSerializablePair = createPropertySerializableValue(value);
+                insertEntity.setLongValue(insertSerializablePair.getFirst());
+            }
+            else
+            {
+                insertEntity.setLongValue(createSerializableValue(value).getId());
+            }
             break;
         case NULL:
         case LONG:
@@ -590,7 +785,7 @@ public class PropertyValueDAOImpl extends AbstractPropertyValueDAOImpl
     }
     
     @Override
-    protected void getPropertyUniqueContextByValues(final PropertyUniqueContextCallback callback, Long... valueIds)
+    protected void getPropertyUniqueContextByValues(final PropertyUniqueContextCallback callback, boolean inCreationOrder, Long... valueIds)
     {
         PropertyUniqueContextEntity entity = new PropertyUniqueContextEntity();
         for (int i = 0; i < valueIds.length; i++)
@@ -624,11 +819,16 @@ public class PropertyValueDAOImpl extends AbstractPropertyValueDAOImpl
                 keys[1] = result.getValue2PropId();
                 keys[2] = result.getValue3PropId();
                 
-                callback.handle(id, propId, keys);
+                if (!callback.handle(id, propId, keys))
+                {
+                    context.stop();
+                }
             }
         };
         
-        template.select(SELECT_PROPERTY_UNIQUE_CTX_BY_VALUES, entity, valueResultHandler);
+        template.select(
+                inCreationOrder ? SELECT_PROPERTY_UNIQUE_CTX_BY_VALUES_IN_CREATION_ORDER : SELECT_PROPERTY_UNIQUE_CTX_BY_VALUES,
+                entity, valueResultHandler);
         // Done
     }
 
@@ -739,4 +939,119 @@ public class PropertyValueDAOImpl extends AbstractPropertyValueDAOImpl
             clearCaches();
         }
     }
+
+    @Override
+    protected Long getMaxPropertyRootIdImpl()
+    {
+        return template.selectOne(SELECT_PROPERTY_ROOT_MAX_ID);
+    }
+
+    @Override
+    protected Long getMaxPropertyValueIdImpl()
+    {
+        return template.selectOne(SELECT_PROPERTY_VALUE_MAX_ID);
+    }
+
+    @Override
+    protected List<Long> findUnusedPropertyRootIds(Long minId, Long maxId)
+    {
+        IdsEntity idsParam = new IdsEntity();
+        idsParam.setIdOne(minId);
+        idsParam.setIdTwo(maxId);
+        return template.selectList(SELECT_UNUSED_PROPERTY_ROOT_IDS, idsParam);
+    }
+
+    @Override
+    protected void lockPropertyRoots(List<Long> ids)
+    {
+        selectByIds(SELECT_LOCK_PROPERTY_ROOTS, ids);
+    }
+
+    @Override
+    protected List<Long> findUnusedPropertyRootIds(List<Long> ids)
+    {
+        return selectByIds(SELECT_UNUSED_PROPERTY_ROOT_IDS_BY_IDS, ids);
+    }
+
+    @Override
+    protected int deleteUnusedPropertyRoots(List<Long> ids)
+    {
+        return deleteByIds(DELETE_UNUSED_PROPERTY_ROOTS, ids);
+    }
+
+    @Override
+    protected List<Long> findUnusedPropertyValueIds(Long minId, Long maxId)
+    {
+        IdsEntity idsParam = new IdsEntity();
+        idsParam.setIdOne(minId);
+        idsParam.setIdTwo(maxId);
+        return template.selectList(SELECT_UNUSED_PROPERTY_VALUE_IDS, idsParam);
+    }
+
+    @Override
+    protected void lockPropertyValues(List<Long> ids)
+    {
+        selectByIds(SELECT_LOCK_PROPERTY_VALUES, ids);
+    }
+
+    @Override
+    protected List<PropertyValueEntity> findUnusedPropertyValues(List<Long> ids)
+    {
+        return selectByIds(SELECT_UNUSED_PROPERTY_VALUES_BY_IDS, ids);
+    }
+
+    @Override
+    protected int deleteUnusedPropertyValues(List<Long> ids)
+    {
+        return deleteByIds(DELETE_UNUSED_PROPERTY_VALUES, ids);
+    }
+
+    @Override
+    protected int deleteUnusedPropertyStringValues(List<Long> ids)
+    {
+        return deleteByIds(DELETE_UNUSED_PROPERTY_STRING_VALUES, ids);
+    }
+
+    @Override
+    protected int deleteUnusedPropertyDoubleValues(List<Long> ids)
+    {
+        return deleteByIds(DELETE_UNUSED_PROPERTY_DOUBLE_VALUES, ids);
+    }
+
+    @Override
+    protected int deleteUnusedPropertySerializableValues(List<Long> ids)
+    {
+        return deleteByIds(DELETE_UNUSED_PROPERTY_SERIALIZABLE_VALUES, ids);
+    }
+
+    /**
+     * Run a select statement against IDs, keeping the number of IDs per statement bounded
+     */
+    private <T> List<T> selectByIds(String statement, List<Long> ids)
+    {
+        List<T> results = new ArrayList<T>(ids.size());
+        for (int i = 0; i < ids.size(); i += MAX_VALUES_PER_QUERY)
+        {
+            IdsEntity idsParam = new IdsEntity();
+            idsParam.setIds(ids.subList(i, Math.min(i + MAX_VALUES_PER_QUERY, ids.size())));
+            List<T> chunk = template.selectList(statement, idsParam);
+            results.addAll(chunk);
+        }
+        return results;
+    }
+
+    /**
+     * Run a delete statement against IDs, keeping the number of IDs per statement bounded
+     */
+    private int deleteByIds(String statement, List<Long> ids)
+    {
+        int deleted = 0;
+        for (int i = 0; i < ids.size(); i += MAX_VALUES_PER_QUERY)
+        {
+            IdsEntity idsParam = new IdsEntity();
+            idsParam.setIds(ids.subList(i, Math.min(i + MAX_VALUES_PER_QUERY, ids.size())));
+            deleted += template.delete(statement, idsParam);
+        }
+        return deleted;
+    }
 }
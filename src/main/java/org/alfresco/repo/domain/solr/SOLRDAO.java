@@ -53,6 +53,19 @@ public interface SOLRDAO
      */
     public List<AclChangeSet> getAclChangeSets(Long minAclChangeSetId, Long fromCommitTime, Long maxAclChangeSetId, Long toCommitTime, int maxResults);
     
+    /**
+     * Get the ACL changesets summary (rollup count) that follow a given changeset in commit order.
+     * The position is given by the commit time and ID of the last changeset already retrieved,
+     * so that consecutive pages can be fetched without rescanning the preceding range.
+     * 
+     * @param afterCommitTime           commit time of the last changeset retrieved (optional)
+     * @param afterAclChangeSetId       ID of the last changeset retrieved (mandatory if the commit time is given)
+     * @param toCommitTime              maximum ACL commit time - (exclusive and optional)
+     * @param maxResults                limit the results (must be greater than zero and less than MAX)
+     * @return                          list of ACL changesets (no details)
+     */
+    public List<AclChangeSet> getAclChangeSetsAfter(Long afterCommitTime, Long afterAclChangeSetId, Long toCommitTime, int maxResults);
+    
     /**
      * Get the ACLs (no rollup count) for the given ACL ChangeSets
      * 
@@ -75,6 +88,19 @@ public interface SOLRDAO
      */
 	public List<Transaction> getTransactions(Long minTxnId, Long fromCommitTime, Long maxTxnId, Long toCommitTime, int maxResults);
 	
+    /**
+     * Get the transactions that follow a given transaction in commit order.  The position is given
+     * by the commit time and ID of the last transaction already retrieved, so that consecutive pages
+     * can be fetched without rescanning the preceding range.
+     * 
+     * @param afterCommitTime           commit time of the last transaction retrieved (optional)
+     * @param afterTxnId                ID of the last transaction retrieved (mandatory if the commit time is given)
+     * @param toCommitTime              maximum transaction commit time - (exclusive and optional)
+     * @param maxResults                limit the results (must be greater than zero and less than MAX)
+     * @return                          list of transactions
+     */
+    public List<Transaction> getTransactionsAfter(Long afterCommitTime, Long afterTxnId, Long toCommitTime, int maxResults);
+	
     /**
      * Get the nodes satisfying the constraints in nodeParameters
      * 
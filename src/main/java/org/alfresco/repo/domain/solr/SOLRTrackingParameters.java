@@ -41,6 +41,8 @@ public class SOLRTrackingParameters
     private List<Long> ids;
     private Long toIdExclusive;
     private Long toCommitTimeExclusive;
+    private Long afterCommitTime;
+    private Long afterId;
     private final Long deletedTypeQNameId;
 
     /**
@@ -128,6 +130,32 @@ public class SOLRTrackingParameters
         this.toCommitTimeExclusive = toCommitTimeExclusive;
     }
 
+    public Long getAfterCommitTime()
+    {
+        return afterCommitTime;
+    }
+
+    /**
+     * @param afterCommitTime               the commit time of the last entry already retrieved
+     */
+    public void setAfterCommitTime(Long afterCommitTime)
+    {
+        this.afterCommitTime = afterCommitTime;
+    }
+
+    public Long getAfterId()
+    {
+        return afterId;
+    }
+
+    /**
+     * @param afterId                       the ID of the last entry already retrieved
+     */
+    public void setAfterId(Long afterId)
+    {
+        this.afterId = afterId;
+    }
+
     @Override
     public int hashCode()
     {
@@ -138,6 +166,8 @@ public class SOLRTrackingParameters
         result = prime * result + ((ids == null) ? 0 : ids.hashCode());
         result = prime * result + ((toCommitTimeExclusive == null) ? 0 : toCommitTimeExclusive.hashCode());
         result = prime * result + ((toIdExclusive == null) ? 0 : toIdExclusive.hashCode());
+        result = prime * result + ((afterCommitTime == null) ? 0 : afterCommitTime.hashCode());
+        result = prime * result + ((afterId == null) ? 0 : afterId.hashCode());
         result = prime * result + ((deletedTypeQNameId == null) ? 0 : deletedTypeQNameId.hashCode());
         return result;
     }
@@ -158,6 +188,8 @@ public class SOLRTrackingParameters
                 EqualsHelper.nullSafeEquals(this.ids, other.ids) &&
                 EqualsHelper.nullSafeEquals(this.toIdExclusive, other.toIdExclusive) &&
                 EqualsHelper.nullSafeEquals(this.toCommitTimeExclusive, other.toCommitTimeExclusive) &&
+                EqualsHelper.nullSafeEquals(this.afterCommitTime, other.afterCommitTime) &&
+                EqualsHelper.nullSafeEquals(this.afterId, other.afterId) &&
                 EqualsHelper.nullSafeEquals(this.deletedTypeQNameId, other.deletedTypeQNameId);
     }
 
@@ -167,6 +199,7 @@ public class SOLRTrackingParameters
         return "SOLRTrackingParameters [fromIdInclusive=" + fromIdInclusive
                 + ", fromCommitTimeInclusive=" + fromCommitTimeInclusive + ", ids=" + ids
                 + ", toIdExclusive=" + toIdExclusive + ", toCommitTimeExclusive="
-                + toCommitTimeExclusive + ", typeQNameId=" + deletedTypeQNameId + "]";
+                + toCommitTimeExclusive + ", afterCommitTime=" + afterCommitTime
+                + ", afterId=" + afterId + ", typeQNameId=" + deletedTypeQNameId + "]";
     }
 }
@@ -108,6 +108,46 @@ public class SOLRDAOImpl implements SOLRDAO
         return template.selectList(SELECT_CHANGESETS_SUMMARY, params, new RowBounds(0, maxResults));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<AclChangeSet> getAclChangeSetsAfter(Long afterCommitTime, Long afterAclChangeSetId, Long toCommitTime, int maxResults)
+    {
+        if (maxResults <= 0 || maxResults == Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Maximum results must be a reasonable number.");
+        }
+
+        // We simulate an ID for the sys:deleted type
+        Pair<Long, QName> deletedTypeQNamePair = qnameDAO.getQName(ContentModel.TYPE_DELETED);
+        Long deletedTypeQNameId = deletedTypeQNamePair == null ? -1L : deletedTypeQNamePair.getFirst();
+
+        SOLRTrackingParameters params = new SOLRTrackingParameters(deletedTypeQNameId);
+        setKeysetPosition(params, afterCommitTime, afterAclChangeSetId);
+        params.setToCommitTimeExclusive(toCommitTime);
+
+        return template.selectList(SELECT_CHANGESETS_SUMMARY, params, new RowBounds(0, maxResults));
+    }
+
+    /**
+     * Set the position after which a keyset-paginated query continues
+     */
+    private void setKeysetPosition(SOLRTrackingParameters params, Long afterCommitTime, Long afterId)
+    {
+        if (afterCommitTime == null)
+        {
+            return;
+        }
+        if (afterId == null)
+        {
+            throw new IllegalArgumentException("The ID of the last entry is required with its commit time.");
+        }
+        params.setAfterCommitTime(afterCommitTime);
+        params.setAfterId(afterId);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -195,6 +235,29 @@ public class SOLRDAOImpl implements SOLRDAO
         return template.selectList(SELECT_TRANSACTIONS, params, new RowBounds(0, maxResults));
 	}
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Transaction> getTransactionsAfter(Long afterCommitTime, Long afterTxnId, Long toCommitTime, int maxResults)
+    {
+        if (maxResults <= 0 || maxResults == Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Maximum results must be a reasonable number.");
+        }
+
+        // We simulate an ID for the sys:deleted type
+        Pair<Long, QName> deletedTypeQNamePair = qnameDAO.getQName(ContentModel.TYPE_DELETED);
+        Long deletedTypeQNameId = deletedTypeQNamePair == null ? -1L : deletedTypeQNamePair.getFirst();
+
+        SOLRTrackingParameters params = new SOLRTrackingParameters(deletedTypeQNameId);
+        setKeysetPosition(params, afterCommitTime, afterTxnId);
+        params.setToCommitTimeExclusive(toCommitTime);
+
+        return template.selectList(SELECT_TRANSACTIONS, params, new RowBounds(0, maxResults));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -30,12 +30,10 @@ import java.util.Map;
 
 import org.alfresco.repo.tenant.TenantService;
 import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
-import org.alfresco.repo.transaction.TransactionalResourceHelper;
 import org.alfresco.service.cmr.dictionary.ClassDefinition;
 import org.alfresco.service.cmr.dictionary.DictionaryService;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.namespace.QName;
-import org.apache.commons.lang.mutable.MutableInt;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.extensions.surf.util.ParameterCheck;
@@ -45,6 +43,10 @@ import org.springframework.extensions.surf.util.ParameterCheck;
  * resources.  Behaviour will therefore never span transactions; the filter state has
  * the same lifespan as the transaction in which it was created.
  * <p/>
+ * The state of all the filters in a transaction is held in a single resource.  The
+ * <tt>isEnabled</tt> checks, made on every policy invocation, look at a total of the
+ * disabled filters first and allocate nothing.
+ * <p/>
  * <b>Multitenancy and disabling by <tt>NodeRef</tt>:</b><br/>
  * Conversions based on the current tenant context are done automatically.
  * 
@@ -52,11 +54,7 @@ import org.springframework.extensions.surf.util.ParameterCheck;
  */
 public class BehaviourFilterImpl implements BehaviourFilter
 {
-    private static final String KEY_FILTER_COUNT = "BehaviourFilterImpl.filterCount";
-    private static final String KEY_GLOBAL_FILTERS = "BehaviourFilterImpl.globalFilters";
-    private static final String KEY_CLASS_FILTERS = "BehaviourFilterImpl.classFilters";
-    private static final String KEY_INSTANCE_CLASS_FILTERS = "BehaviourFilterImpl.instanceClassFilters";
-    private static final String KEY_INSTANCE_FILTERS = "BehaviourFilterImpl.instanceFilters";
+    private static final String KEY_FILTER_STATE = "BehaviourFilterImpl.filterState";
     
     private static final Log logger = LogFactory.getLog(BehaviourFilterImpl.class);
     
@@ -79,6 +77,22 @@ public class BehaviourFilterImpl implements BehaviourFilter
         this.tenantService = tenantService;
     }
 
+    /**
+     * @param create            <tt>true</tt> to bind new state to the transaction if there is none
+     * @return                  the filter state of the current transaction (<tt>null</tt> if there is
+     *                          none and <tt>create</tt> is <tt>false</tt>)
+     */
+    private FilterState getFilterState(boolean create)
+    {
+        FilterState state = AlfrescoTransactionSupport.getResource(KEY_FILTER_STATE);
+        if (state == null && create)
+        {
+            state = new FilterState();
+            AlfrescoTransactionSupport.bindResource(KEY_FILTER_STATE, state);
+        }
+        return state;
+    }
+
     @Deprecated
     @Override
     // TODO
@@ -111,13 +125,14 @@ public class BehaviourFilterImpl implements BehaviourFilter
             logger.debug("Behaviour: DISABLE (" + AlfrescoTransactionSupport.getTransactionId() + "): ALL");
         }
 
-        TransactionalResourceHelper.incrementCount(KEY_FILTER_COUNT);
-        
-        TransactionalResourceHelper.incrementCount(KEY_GLOBAL_FILTERS);
+        FilterState state = getFilterState(true);
+        state.filterCount++;
+        state.globalCount++;
+        state.disabledCount++;
         
         if (logger.isDebugEnabled())
         {
-            logger.debug("   Now: " + TransactionalResourceHelper.getCount(KEY_GLOBAL_FILTERS));
+            logger.debug("   Now: " + state.globalCount);
         }
     }
 
@@ -135,22 +150,28 @@ public class BehaviourFilterImpl implements BehaviourFilter
             logger.debug("Behaviour: DISABLE (" + AlfrescoTransactionSupport.getTransactionId() + "): " + className);
         }
         ParameterCheck.mandatory("className",  className);
-        ClassFilter classFilter = new ClassFilter(className, includeSubClasses);
 
-        TransactionalResourceHelper.incrementCount(KEY_FILTER_COUNT);
+        FilterState state = getFilterState(true);
+        state.filterCount++;
 
-        Map<ClassFilter, MutableInt> classFilters = TransactionalResourceHelper.getMap(KEY_CLASS_FILTERS);
-        MutableInt filterNumber = classFilters.get(classFilter);
-        if (filterNumber == null)
+        Filter filter = state.classFilters.get(className);
+        if (filter == null)
         {
-            filterNumber = new MutableInt(0);
+            filter = new Filter();
+            state.classFilters.put(className, filter);
         }
-        filterNumber.increment();
-        classFilters.put(classFilter, filterNumber);
+        if (filter.count == 0)
+        {
+            // The first filter decides whether subclasses are included
+            filter.includeSubClasses = includeSubClasses;
+        }
+        filter.count++;
+        state.classCount++;
+        state.disabledCount++;
 
         if (logger.isDebugEnabled())
         {
-            logger.debug("   Now: " + filterNumber);
+            logger.debug("   Now: " + filter);
         }
     }
 
@@ -165,24 +186,25 @@ public class BehaviourFilterImpl implements BehaviourFilter
         {
             logger.debug("Behaviour: DISABLE (" + AlfrescoTransactionSupport.getTransactionId() + "): " + nodeRef + "/" + className);
         }
-        nodeRef = tenantService.getName(nodeRef);
         
-        TransactionalResourceHelper.incrementCount(KEY_FILTER_COUNT);
+        FilterState state = getFilterState(true);
+        state.filterCount++;
         
-        Map<NodeRef, Map<QName, MutableInt>> instanceClassFilters = TransactionalResourceHelper.getMap(KEY_INSTANCE_CLASS_FILTERS);
-        Map<QName, MutableInt> classFilters = instanceClassFilters.get(nodeRef);
+        Map<QName, Filter> classFilters = state.instanceClassFilters.get(nodeRef);
         if (classFilters == null)
         {
-            classFilters = new HashMap<QName, MutableInt>(3);
-            instanceClassFilters.put(nodeRef, classFilters);
+            classFilters = new HashMap<QName, Filter>(3);
+            state.instanceClassFilters.put(nodeRef, classFilters);
         }
-        MutableInt filter = classFilters.get(className);
+        Filter filter = classFilters.get(className);
         if (filter == null)
         {
-            filter = new MutableInt(0);
+            filter = new Filter();
             classFilters.put(className, filter);
         }
-        filter.increment();
+        filter.count++;
+        state.instanceClassCount++;
+        state.disabledCount++;
         
         if (logger.isDebugEnabled())
         {
@@ -201,16 +223,18 @@ public class BehaviourFilterImpl implements BehaviourFilter
         }
         nodeRef = tenantService.getName(nodeRef);
         
-        TransactionalResourceHelper.incrementCount(KEY_FILTER_COUNT);
+        FilterState state = getFilterState(true);
+        state.filterCount++;
         
-        Map<NodeRef, MutableInt> instanceFilters = TransactionalResourceHelper.getMap(KEY_INSTANCE_FILTERS);
-        MutableInt filter = instanceFilters.get(nodeRef);
+        Filter filter = state.instanceFilters.get(nodeRef);
         if (filter == null)
         {
-            filter = new MutableInt(0);
-            instanceFilters.put(nodeRef, filter);
+            filter = new Filter();
+            state.instanceFilters.put(nodeRef, filter);
         }
-        filter.increment();
+        filter.count++;
+        state.instanceCount++;
+        state.disabledCount++;
         
         if (logger.isDebugEnabled())
         {
@@ -226,13 +250,22 @@ public class BehaviourFilterImpl implements BehaviourFilter
             logger.debug("Behaviour: ENABLE (" + AlfrescoTransactionSupport.getTransactionId() + "): ALL");
         }
 
-        TransactionalResourceHelper.decrementCount(KEY_FILTER_COUNT, false);
-        
-        TransactionalResourceHelper.decrementCount(KEY_GLOBAL_FILTERS, false);
+        FilterState state = getFilterState(false);
+        if (state == null)
+        {
+            // Nothing was disabled
+            return;
+        }
+        state.decrementFilterCount();
+        if (state.globalCount > 0)
+        {
+            state.globalCount--;
+            state.disabledCount--;
+        }
         
         if (logger.isDebugEnabled())
         {
-            logger.debug("   Now: " + TransactionalResourceHelper.getCount(KEY_GLOBAL_FILTERS));
+            logger.debug("   Now: " + state.globalCount);
         }
     }
 
@@ -246,40 +279,34 @@ public class BehaviourFilterImpl implements BehaviourFilter
             logger.debug("Behaviour: ENABLE (" + AlfrescoTransactionSupport.getTransactionId() + "): " + className);
         }
         
-        TransactionalResourceHelper.decrementCount(KEY_FILTER_COUNT, false);
-        
-        if (!TransactionalResourceHelper.isResourcePresent(KEY_CLASS_FILTERS))
+        FilterState state = getFilterState(false);
+        if (state == null)
         {
             // Nothing was disabled
             return;
         }
-        Map<ClassFilter, MutableInt> classFilters = TransactionalResourceHelper.getMap(KEY_CLASS_FILTERS);
-        MutableInt filterNumber = null;
-        for (ClassFilter classFilter : classFilters.keySet())
-        {
-            if (classFilter.getClassName().equals(className))
-            {
-                filterNumber = classFilters.get(classFilter);
-                break;
-            }
-        }
-        if (filterNumber == null)
+        state.decrementFilterCount();
+        
+        Filter filter = state.classFilters.get(className);
+        if (filter == null)
         {
             // Class was not disabled
             return;
         }
-        else if (filterNumber.intValue() <= 0)
+        else if (filter.count <= 0)
         {
             // Can't go below zero for this
         }
         else
         {
-            filterNumber.decrement();
+            filter.count--;
+            state.classCount--;
+            state.disabledCount--;
         }
         
         if (logger.isDebugEnabled())
         {
-            logger.debug("   Now: "+ filterNumber);
+            logger.debug("   Now: "+ filter);
         }
     }
 
@@ -294,35 +321,42 @@ public class BehaviourFilterImpl implements BehaviourFilter
             logger.debug("Behaviour: ENABLE (" + AlfrescoTransactionSupport.getTransactionId() + "): " + nodeRef + "/" + className);
         }
         
-        TransactionalResourceHelper.decrementCount(KEY_FILTER_COUNT, false);
+        FilterState state = getFilterState(false);
+        if (state == null)
+        {
+            // Nothing was disabled
+            return;
+        }
+        state.decrementFilterCount();
         
-        if (!TransactionalResourceHelper.isResourcePresent(KEY_INSTANCE_CLASS_FILTERS))
+        if (state.instanceClassFilters.isEmpty())
         {
             // Nothing was disabled
             return;
         }
         nodeRef = tenantService.getName(nodeRef);
 
-        Map<NodeRef, Map<QName, MutableInt>> instanceClassFilters = TransactionalResourceHelper.getMap(KEY_INSTANCE_CLASS_FILTERS);
-        Map<QName, MutableInt> classFilters = instanceClassFilters.get(nodeRef);
+        Map<QName, Filter> classFilters = state.instanceClassFilters.get(nodeRef);
         if (classFilters == null)
         {
             // Instance classes were not disabled
             return;
         }
-        MutableInt filter = classFilters.get(className);
+        Filter filter = classFilters.get(className);
         if (filter == null)
         {
             // Class was not disabled
             return;
         }
-        else if (filter.intValue() <= 0)
+        else if (filter.count <= 0)
         {
             // Can't go below zero for this
         }
         else
         {
-            filter.decrement();
+            filter.count--;
+            state.instanceClassCount--;
+            state.disabledCount--;
         }
         
         if (logger.isDebugEnabled())
@@ -341,29 +375,36 @@ public class BehaviourFilterImpl implements BehaviourFilter
             logger.debug("Behaviour: ENABLE (" + AlfrescoTransactionSupport.getTransactionId() + "): " + nodeRef + "/ALL");
         }
         
-        TransactionalResourceHelper.decrementCount(KEY_FILTER_COUNT, false);
+        FilterState state = getFilterState(false);
+        if (state == null)
+        {
+            // Nothing was disabled
+            return;
+        }
+        state.decrementFilterCount();
         
-        if (!TransactionalResourceHelper.isResourcePresent(KEY_INSTANCE_FILTERS))
+        if (state.instanceFilters.isEmpty())
         {
             // Nothing was disabled
             return;
         }
         nodeRef = tenantService.getName(nodeRef);
 
-        Map<NodeRef, MutableInt> instanceFilters = TransactionalResourceHelper.getMap(KEY_INSTANCE_FILTERS);
-        MutableInt filter = instanceFilters.get(nodeRef);
+        Filter filter = state.instanceFilters.get(nodeRef);
         if (filter == null)
         {
             // Instance was not disabled
             return;
         }
-        else if (filter.intValue() <= 0)
+        else if (filter.count <= 0)
         {
             // Can't go below zero for this
         }
         else
         {
-            filter.decrement();
+            filter.count--;
+            state.instanceCount--;
+            state.disabledCount--;
         }
         
         if (logger.isDebugEnabled())
@@ -375,7 +416,8 @@ public class BehaviourFilterImpl implements BehaviourFilter
     @Override
     public boolean isEnabled()
     {
-        return TransactionalResourceHelper.getCount(KEY_GLOBAL_FILTERS) <= 0;
+        FilterState state = getFilterState(false);
+        return state == null || state.globalCount <= 0;
     }
 
     /**
@@ -399,42 +441,45 @@ public class BehaviourFilterImpl implements BehaviourFilter
     {
         ParameterCheck.mandatory("className", className);
         
+        FilterState state = getFilterState(false);
+        if (state == null || state.disabledCount <= 0)
+        {
+            // Nothing was disabled
+            return true;
+        }
+        return isClassEnabled(state, className);
+    }
+
+    private boolean isClassEnabled(FilterState state, QName className)
+    {
         // Check the global, first
-        if (!isEnabled())
+        if (state.globalCount > 0)
         {
             return false;
         }
-        
-        if (!TransactionalResourceHelper.isResourcePresent(KEY_CLASS_FILTERS))
+        if (state.classCount <= 0)
         {
-            // Nothing was disabled
+            // No classes are disabled
             return true;
         }
-        Map<ClassFilter, MutableInt> classFilters = TransactionalResourceHelper.getMap(KEY_CLASS_FILTERS);
 
         // Check this class to be disabled
-        ClassFilter classFilter = getClassFilter(className);
-        if (classFilter != null)
+        Filter filter = state.classFilters.get(className);
+        if (filter != null && filter.count > 0)
         {
-            MutableInt filterNumber = classFilters.get(classFilter);
-            if (filterNumber != null && filterNumber.intValue() > 0) {
-                // the class is disabled
-                return false;
-            }
+            // the class is disabled
+            return false;
         }
 
         // Search for the super classes to be disabled with subclasses
+        className = generaliseClass(className);
         while (className != null)
         {
-            classFilter = getClassFilter(className);
-            if (classFilter != null && classFilter.isDisableSubClasses())
+            filter = state.classFilters.get(className);
+            if (filter != null && filter.count > 0 && filter.includeSubClasses)
             {
-                MutableInt filterNumber = classFilters.get(classFilter);
-                if (filterNumber != null && filterNumber.intValue() > 0)
-                {
-                    // the class is disabled
-                    return false;
-                }
+                // the class is disabled
+                return false;
             }
             // continue search
             // look up the hierarchy
@@ -443,58 +488,33 @@ public class BehaviourFilterImpl implements BehaviourFilter
         return true;
     }
 
-    private ClassFilter getClassFilter(QName className)
-    {
-        ParameterCheck.mandatory("className", className);
-
-        // Check the global, first
-        if (!isEnabled())
-        {
-            return null;
-        }
-
-        if (!TransactionalResourceHelper.isResourcePresent(KEY_CLASS_FILTERS))
-        {
-            // Nothing was disabled
-            return null;
-        }
-        Map<ClassFilter, MutableInt> classFilters = TransactionalResourceHelper.getMap(KEY_CLASS_FILTERS);
-        for (ClassFilter classFilter : classFilters.keySet())
-        {
-            if (classFilter.getClassName().equals(className))
-            {
-                MutableInt filterNumber = classFilters.get(classFilter);
-                if (filterNumber != null && filterNumber.intValue() > 0 )
-                {
-                    return classFilter;
-                }
-                break;
-            }
-        }
-        return null;
-    }
-
     @Override
     public boolean isEnabled(NodeRef nodeRef, QName className)
     {
         ParameterCheck.mandatory("nodeRef",  nodeRef);
         ParameterCheck.mandatory("className",  className);
         
+        FilterState state = getFilterState(false);
+        if (state == null || state.disabledCount <= 0)
+        {
+            // Nothing was disabled
+            return true;
+        }
+        
         // Check the class (includes global) and instance, first
-        if (!isEnabled(className) || !isEnabled(nodeRef))
+        if (!isClassEnabled(state, className) || !isInstanceEnabled(state, nodeRef))
         {
             return false;
         }
         
-        if (!TransactionalResourceHelper.isResourcePresent(KEY_INSTANCE_CLASS_FILTERS))
+        if (state.instanceClassCount <= 0)
         {
             // Nothing was disabled
             return true;
         }
         nodeRef = tenantService.getName(nodeRef);
 
-        Map<NodeRef, Map<QName, MutableInt>> instanceClassFilters = TransactionalResourceHelper.getMap(KEY_INSTANCE_CLASS_FILTERS);
-        Map<QName, MutableInt> classFilters = instanceClassFilters.get(nodeRef);
+        Map<QName, Filter> classFilters = state.instanceClassFilters.get(nodeRef);
         if (classFilters == null)
         {
             // Instance classes were not disabled
@@ -507,8 +527,8 @@ public class BehaviourFilterImpl implements BehaviourFilter
             {
                 continue;
             }
-            MutableInt filter = classFilters.get(className);
-            if (filter != null && filter.intValue() > 0)
+            Filter filter = classFilters.get(className);
+            if (filter != null && filter.count > 0)
             {
                 // Class was disabled
                 return false;
@@ -522,22 +542,31 @@ public class BehaviourFilterImpl implements BehaviourFilter
     {
         ParameterCheck.mandatory("nodeRef",  nodeRef);
         
-        // Check the class (includes global) and instance, first
-        if (!isEnabled())
+        FilterState state = getFilterState(false);
+        if (state == null || state.disabledCount <= 0)
+        {
+            // Nothing was disabled
+            return true;
+        }
+        return isInstanceEnabled(state, nodeRef);
+    }
+
+    private boolean isInstanceEnabled(FilterState state, NodeRef nodeRef)
+    {
+        // Check the global, first
+        if (state.globalCount > 0)
         {
             return false;
         }
-        
-        if (!TransactionalResourceHelper.isResourcePresent(KEY_INSTANCE_FILTERS))
+        if (state.instanceCount <= 0)
         {
-            // Nothing was disabled
+            // No instances are disabled
             return true;
         }
         nodeRef = tenantService.getName(nodeRef);
 
-        Map<NodeRef, MutableInt> instanceFilters = TransactionalResourceHelper.getMap(KEY_INSTANCE_FILTERS);
-        MutableInt filter = instanceFilters.get(nodeRef);
-        if (filter != null && filter.intValue() > 0)
+        Filter filter = state.instanceFilters.get(nodeRef);
+        if (filter != null && filter.count > 0)
         {
             // Instance was disabled
             return false;
@@ -548,6 +577,49 @@ public class BehaviourFilterImpl implements BehaviourFilter
     @Override
     public boolean isActivated()
     {
-        return TransactionalResourceHelper.getCount(KEY_FILTER_COUNT) > 0;
+        FilterState state = getFilterState(false);
+        return state != null && state.filterCount > 0;
+    }
+
+    /**
+     * The number of times a class or instance has been disabled and not yet enabled again
+     */
+    private static final class Filter
+    {
+        private int count;
+        private boolean includeSubClasses;
+
+        @Override
+        public String toString()
+        {
+            return Integer.toString(count);
+        }
+    }
+
+    /**
+     * All the behaviour filters of a transaction.  The totals let the checks skip the maps
+     * for the kinds of filter that are not in use.
+     */
+    private static final class FilterState
+    {
+        /** The number of disable calls not matched by enable calls, see {@link BehaviourFilter#isActivated()} */
+        private int filterCount;
+        /** The total of all the counts below: zero when nothing is disabled */
+        private int disabledCount;
+        private int globalCount;
+        private int classCount;
+        private int instanceCount;
+        private int instanceClassCount;
+        private final Map<QName, Filter> classFilters = new HashMap<QName, Filter>(7);
+        private final Map<NodeRef, Filter> instanceFilters = new HashMap<NodeRef, Filter>(7);
+        private final Map<NodeRef, Map<QName, Filter>> instanceClassFilters = new HashMap<NodeRef, Map<QName, Filter>>(7);
+
+        private void decrementFilterCount()
+        {
+            if (filterCount > 0)
+            {
+                filterCount--;
+            }
+        }
     }
 }
@@ -27,6 +27,7 @@ package org.alfresco.repo.policy;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -139,6 +140,25 @@ import java.util.Map;
     }
 
     
+    /**
+     * Gets a copy of the bound Behaviours, keyed by binding
+     * 
+     * @return  an unmodifiable copy that is not affected by later changes
+     */
+    public Map<B, List<BehaviourDefinition<B>>> copy()
+    {
+        Map<B, List<BehaviourDefinition<B>>> copy = new HashMap<B, List<BehaviourDefinition<B>>>(index.size() * 2);
+        for (Map.Entry<B, List<BehaviourDefinition<B>>> entry : index.entrySet())
+        {
+            if (!entry.getValue().isEmpty())
+            {
+                copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<BehaviourDefinition<B>>(entry.getValue())));
+            }
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    
     /**
      * Gets the count of bound behaviours
      * 
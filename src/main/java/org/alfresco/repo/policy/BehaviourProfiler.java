@@ -0,0 +1,424 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.policy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.alfresco.service.namespace.QName;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Records how often each behaviour is invoked and how long it takes, keyed by
+ * (policy, behaviour, class).
+ * <p>
+ * When enabled, the {@link PolicyFactory} wraps every behaviour's policy interface before
+ * handing it to the transaction handlers, so behaviours deferred to the end of the
+ * transaction are timed when the {@link TransactionBehaviourQueue} actually runs them.
+ * Every invocation is counted; only 1 in {@link #setSampleRate(int) N} invocations is
+ * timed to keep the overhead on hot behaviours low.  Latencies are kept in power-of-two
+ * microsecond buckets from which approximate percentiles are derived.
+ * <p>
+ * Profiling has to be enabled at startup as behaviours are only wrapped when policies are
+ * created.  The sample rate can be changed at any time.
+ *
+ * @since 6.1
+ */
+public class BehaviourProfiler implements BehaviourProfilerMBean
+{
+    private static final Log logger = LogFactory.getLog(BehaviourProfiler.class);
+
+    private static final int BUCKET_COUNT = 40;
+    private static final int MAX_TOP_BEHAVIOURS = 50;
+
+    private final ConcurrentMap<String, BehaviourProfile> profiles = new ConcurrentHashMap<String, BehaviourProfile>(256);
+
+    private boolean enabled = false;
+    private volatile int sampleRate = 10;
+
+    /**
+     * @param enabled           <tt>true</tt> to wrap behaviours for profiling (default <tt>false</tt>)
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    @Override
+    public int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    @Override
+    public void setSampleRate(int sampleRate)
+    {
+        if (sampleRate < 0)
+        {
+            throw new IllegalArgumentException("Sample rate cannot be negative: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Behaviour profiler sample rate set to " + sampleRate);
+        }
+    }
+
+    /**
+     * Wrap a behaviour's policy interface so that its invocations are recorded
+     *
+     * @param policyClass           the policy interface
+     * @param behaviourDef          the definition of the bound behaviour
+     * @param policyIF              the behaviour's policy interface
+     * @return                      the profiling policy interface
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    /*package*/ <P extends Policy> P wrap(Class<P> policyClass, BehaviourDefinition behaviourDef, P policyIF)
+    {
+        BehaviourBinding binding = behaviourDef.getBinding();
+        String boundTo;
+        if (binding instanceof ClassBehaviourBinding)
+        {
+            boundTo = ((ClassBehaviourBinding) binding).getClassQName().toString();
+        }
+        else
+        {
+            boundTo = String.valueOf(binding);
+        }
+        BehaviourProfile profile = getProfile(behaviourDef.getPolicy(), behaviourDef.getBehaviour().toString(), boundTo);
+        InvocationHandler handler = new ProfilingHandler(this, profile, policyIF);
+        return (P) Proxy.newProxyInstance(policyClass.getClassLoader(), new Class[]{policyClass}, handler);
+    }
+
+    /**
+     * Get, or create, the profile for a (policy, behaviour, class) combination
+     */
+    /*package*/ BehaviourProfile getProfile(QName policy, String behaviour, String boundTo)
+    {
+        String key = policy + " | " + behaviour + " | " + boundTo;
+        BehaviourProfile profile = profiles.get(key);
+        if (profile == null)
+        {
+            profile = new BehaviourProfile(key);
+            BehaviourProfile existing = profiles.putIfAbsent(key, profile);
+            if (existing != null)
+            {
+                profile = existing;
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * @return                      the profiles, most expensive first
+     */
+    /*package*/ List<BehaviourProfile> getProfilesByTotalTime()
+    {
+        List<BehaviourProfile> sorted = new ArrayList<BehaviourProfile>(profiles.values());
+        Collections.sort(sorted, new Comparator<BehaviourProfile>()
+        {
+            @Override
+            public int compare(BehaviourProfile p1, BehaviourProfile p2)
+            {
+                return Long.compare(p2.getEstimatedTotalNanos(), p1.getEstimatedTotalNanos());
+            }
+        });
+        return sorted;
+    }
+
+    @Override
+    public int getProfiledBehaviourCount()
+    {
+        return profiles.size();
+    }
+
+    @Override
+    public Map<String, Long> getInvocationCounts()
+    {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>(profiles.size() * 2);
+        for (BehaviourProfile profile : getProfilesByTotalTime())
+        {
+            counts.put(profile.getKey(), profile.getInvocations());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getEstimatedTotalTimeMs()
+    {
+        Map<String, Long> times = new LinkedHashMap<String, Long>(profiles.size() * 2);
+        for (BehaviourProfile profile : getProfilesByTotalTime())
+        {
+            times.put(profile.getKey(), profile.getEstimatedTotalNanos() / 1000000L);
+        }
+        return times;
+    }
+
+    @Override
+    public List<String> getTopBehaviours()
+    {
+        List<String> top = new ArrayList<String>(MAX_TOP_BEHAVIOURS);
+        for (BehaviourProfile profile : getProfilesByTotalTime())
+        {
+            if (top.size() >= MAX_TOP_BEHAVIOURS)
+            {
+                break;
+            }
+            top.add(profile.toString());
+        }
+        return top;
+    }
+
+    @Override
+    public void reset()
+    {
+        for (BehaviourProfile profile : profiles.values())
+        {
+            profile.reset();
+        }
+    }
+
+    /**
+     * Counters for a single (policy, behaviour, class) combination
+     */
+    /*package*/ static class BehaviourProfile
+    {
+        private final String key;
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder sampled = new LongAdder();
+        private final LongAdder sampledNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+        private BehaviourProfile(String key)
+        {
+            this.key = key;
+        }
+
+        /*package*/ void recordInvocation()
+        {
+            invocations.increment();
+        }
+
+        /*package*/ void recordTime(long nanos)
+        {
+            sampled.increment();
+            sampledNanos.add(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+            {
+                max = maxNanos.get();
+            }
+            long micros = nanos / 1000L;
+            int bucket = (micros <= 0L) ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            buckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+        }
+
+        private void reset()
+        {
+            invocations.reset();
+            sampled.reset();
+            sampledNanos.reset();
+            maxNanos.set(0L);
+            for (int i = 0; i < BUCKET_COUNT; i++)
+            {
+                buckets.set(i, 0L);
+            }
+        }
+
+        public String getKey()
+        {
+            return key;
+        }
+
+        public long getInvocations()
+        {
+            return invocations.sum();
+        }
+
+        public long getSampledInvocations()
+        {
+            return sampled.sum();
+        }
+
+        /**
+         * @return              the mean sampled time scaled up to all invocations
+         */
+        public long getEstimatedTotalNanos()
+        {
+            long sampledCount = sampled.sum();
+            if (sampledCount == 0L)
+            {
+                return 0L;
+            }
+            return (long) ((double) sampledNanos.sum() / sampledCount * invocations.sum());
+        }
+
+        public long getMaxNanos()
+        {
+            return maxNanos.get();
+        }
+
+        /**
+         * @param percentile    the percentile (0.0 to 1.0)
+         * @return              the upper bound (microseconds) of the bucket holding the percentile
+         */
+        public long getPercentileMicros(double percentile)
+        {
+            long total = 0L;
+            long[] counts = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++)
+            {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0L)
+            {
+                return 0L;
+            }
+            long target = (long) Math.ceil(percentile * total);
+            long seen = 0L;
+            for (int i = 0; i < BUCKET_COUNT; i++)
+            {
+                seen += counts[i];
+                if (seen >= target)
+                {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKET_COUNT - 1);
+        }
+
+        @Override
+        public String toString()
+        {
+            return key +
+                    ": invocations=" + getInvocations() +
+                    ", sampled=" + getSampledInvocations() +
+                    ", estimatedTotalMs=" + (getEstimatedTotalNanos() / 1000000L) +
+                    ", p50Us<=" + getPercentileMicros(0.50) +
+                    ", p95Us<=" + getPercentileMicros(0.95) +
+                    ", p99Us<=" + getPercentileMicros(0.99) +
+                    ", maxUs=" + (getMaxNanos() / 1000L);
+        }
+    }
+
+    /**
+     * Counts, and samples the time of, calls to a behaviour's policy interface
+     */
+    private static class ProfilingHandler implements InvocationHandler
+    {
+        private final BehaviourProfiler profiler;
+        private final BehaviourProfile profile;
+        private final Object target;
+
+        private ProfilingHandler(BehaviourProfiler profiler, BehaviourProfile profile, Object target)
+        {
+            this.profiler = profiler;
+            this.profile = profile;
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            if (method.getDeclaringClass() == Object.class)
+            {
+                String name = method.getName();
+                if (name.equals("equals"))
+                {
+                    Object other = args[0];
+                    if (other != null && Proxy.isProxyClass(other.getClass()))
+                    {
+                        InvocationHandler otherHandler = Proxy.getInvocationHandler(other);
+                        if (otherHandler instanceof ProfilingHandler)
+                        {
+                            other = ((ProfilingHandler) otherHandler).target;
+                        }
+                    }
+                    return target.equals(other);
+                }
+                else if (name.equals("hashCode"))
+                {
+                    return target.hashCode();
+                }
+                else if (name.equals("toString"))
+                {
+                    return target.toString();
+                }
+            }
+
+            profile.recordInvocation();
+            int rate = profiler.sampleRate;
+            if (rate <= 0 || (rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0))
+            {
+                return invokeTarget(method, args);
+            }
+            long start = System.nanoTime();
+            try
+            {
+                return invokeTarget(method, args);
+            }
+            finally
+            {
+                profile.recordTime(System.nanoTime() - start);
+            }
+        }
+
+        private Object invokeTarget(Method method, Object[] args) throws Throwable
+        {
+            try
+            {
+                return method.invoke(target, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.policy;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Management interface for the {@link BehaviourProfiler}.
+ *
+ * @since 6.1
+ */
+public interface BehaviourProfilerMBean
+{
+    /**
+     * @return          <tt>true</tt> if behaviours were wrapped for profiling at startup
+     */
+    public boolean isEnabled();
+
+    /**
+     * @return          the timing sample rate: 1 in N invocations are timed, 0 means none
+     */
+    public int getSampleRate();
+
+    /**
+     * Change the timing sample rate without a restart.  Invocations are always counted.
+     *
+     * @param sampleRate            time 1 in N invocations; 1 times every invocation and 0 stops timing
+     */
+    public void setSampleRate(int sampleRate);
+
+    /**
+     * @return          the number of (policy, behaviour, class) combinations profiled
+     */
+    public int getProfiledBehaviourCount();
+
+    /**
+     * @return          the number of invocations per (policy, behaviour, class)
+     */
+    public Map<String, Long> getInvocationCounts();
+
+    /**
+     * @return          the estimated cumulative time (ms) per (policy, behaviour, class),
+     *                  most expensive first
+     */
+    public Map<String, Long> getEstimatedTotalTimeMs();
+
+    /**
+     * @return          a one-line summary of the most expensive behaviours, including
+     *                  invocation counts and latency percentiles, most expensive first
+     */
+    public List<String> getTopBehaviours();
+
+    /**
+     * Reset all counters
+     */
+    public void reset();
+}
@@ -25,11 +25,11 @@
  */
 package org.alfresco.repo.policy;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.alfresco.api.AlfrescoPublicApi;
 import org.alfresco.util.LockHelper;
@@ -39,6 +39,10 @@ import org.apache.commons.logging.LogFactory;
 
 /**
  * Policy Factory with caching support.
+ * <p>
+ * The caches are immutable maps that are replaced, never modified, so policy lookups read
+ * them without locking.  Behaviour bindings change rarely (at startup and on model deployment)
+ * so the cost of copying the maps on change is insignificant.
  *
  * @author David Caruana
  *
@@ -54,18 +58,24 @@ public class CachedPolicyFactory<B extends BehaviourBinding, P extends Policy> e
     // Behaviour Filter
     private BehaviourFilter behaviourFilter = null;
     
-    // Cache Lock
-    private ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); 
+    // Lock serializing changes to the caches
+    private ReentrantLock lock = new ReentrantLock(); 
 
     /**
      * Cache for a single Policy interface (keyed by Binding)
      */
-    private Map<B, P> singleCache = new HashMap<B, P>();
+    private volatile Map<B, P> singleCache = Collections.emptyMap();
     
     /**
      * Cache for a collection of Policy interfaces (keyed by Binding)
      */
-    private Map<B, Collection<P>> listCache = new HashMap<B, Collection<P>>();
+    private volatile Map<B, Collection<P>> listCache = Collections.emptyMap();
+    
+    /**
+     * Incremented whenever cache entries are invalidated, so that policies built from
+     * bindings that have since changed are not cached
+     */
+    private volatile long generation = 0L;
 
     // Try lock timeout (MNT-11371)
     private long tryLockTimeout;
@@ -94,14 +104,12 @@ public class CachedPolicyFactory<B extends BehaviourBinding, P extends Policy> e
         {
             public void addition(B binding, Behaviour behaviour)
             {
-                clearCache("aggregate delegate", singleCache, binding);
-                clearCache("delegate collection", listCache, binding);
+                clearCaches(binding);
             }
 
             public void removal(B binding, Behaviour behaviour)
             {
-                clearCache("aggregate delegate", singleCache, binding);
-                clearCache("delegate collection", listCache, binding);
+                clearCaches(binding);
             }
         });
     }
@@ -116,40 +124,39 @@ public class CachedPolicyFactory<B extends BehaviourBinding, P extends Policy> e
             return super.create(binding);
         }
         
-        LockHelper.tryLock(lock.readLock(), tryLockTimeout, "getting policy from cache in 'CachedPolicyFactory.create()'");
-        try
-        {
-            P policyInterface = singleCache.get(binding);
-            if (policyInterface != null)
-            {
-                return policyInterface;
-            }
-        }
-        finally
+        P policyInterface = singleCache.get(binding);
+        if (policyInterface != null)
         {
-            lock.readLock().unlock();
+            return policyInterface;
         }
         
         // There wasn't one
-        LockHelper.tryLock(lock.writeLock(), tryLockTimeout, "putting new policy to cache in 'CachedPolicyFactory.create()'");
+        long createGeneration = generation;
+        policyInterface = super.create(binding);
+        
+        LockHelper.tryLock(lock, tryLockTimeout, "putting new policy to cache in 'CachedPolicyFactory.create()'");
         try
         {
-            P policyInterface = singleCache.get(binding);
-            if (policyInterface != null)
+            P cachedPolicyInterface = singleCache.get(binding);
+            if (cachedPolicyInterface != null)
             {
-                return policyInterface;
+                return cachedPolicyInterface;
+            }
+            if (createGeneration == generation)
+            {
+                Map<B, P> newCache = new HashMap<B, P>(singleCache);
+                newCache.put(binding, policyInterface);
+                singleCache = Collections.unmodifiableMap(newCache);
+                
+                if (logger.isDebugEnabled())
+                    logger.debug("Cached delegate interface " + policyInterface + " for " + binding + " and policy " + getPolicyClass());
             }
-            policyInterface = super.create(binding);
-            singleCache.put(binding, policyInterface);
-            
-            if (logger.isDebugEnabled())
-                logger.debug("Cached delegate interface " + policyInterface + " for " + binding + " and policy " + getPolicyClass());
             
             return policyInterface;
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
     
@@ -163,108 +170,106 @@ public class CachedPolicyFactory<B extends BehaviourBinding, P extends Policy> e
             return super.createList(binding);
         }
         
-        LockHelper.tryLock(lock.readLock(), tryLockTimeout, "getting policy list from cache in 'CachedPolicyFactory.createList()'");
-        try
-        {
-            Collection<P> policyInterfaces = listCache.get(binding);
-            if (policyInterfaces != null)
-            {
-                return policyInterfaces;
-            }
-        }
-        finally
+        Collection<P> policyInterfaces = listCache.get(binding);
+        if (policyInterfaces != null)
         {
-            lock.readLock().unlock();
+            return policyInterfaces;
         }
         
         // There wasn't one
-        LockHelper.tryLock(lock.writeLock(), tryLockTimeout, "putting policy list to cache in 'CachedPolicyFactory.createList()'");
+        long createGeneration = generation;
+        policyInterfaces = super.createList(binding);
+        
+        LockHelper.tryLock(lock, tryLockTimeout, "putting policy list to cache in 'CachedPolicyFactory.createList()'");
         try
         {
-            Collection<P> policyInterfaces = listCache.get(binding);
-            if (policyInterfaces != null)
+            Collection<P> cachedPolicyInterfaces = listCache.get(binding);
+            if (cachedPolicyInterfaces != null)
             {
-                return policyInterfaces;
+                return cachedPolicyInterfaces;
+            }
+            if (createGeneration == generation)
+            {
+                Map<B, Collection<P>> newCache = new HashMap<B, Collection<P>>(listCache);
+                newCache.put(binding, policyInterfaces);
+                listCache = Collections.unmodifiableMap(newCache);
+        
+                if (logger.isDebugEnabled())
+                    logger.debug("Cached delegate interface collection " + policyInterfaces + " for " + binding + " and policy " + getPolicyClass());
             }
-            policyInterfaces = super.createList(binding);
-            listCache.put(binding, policyInterfaces);
-    
-            if (logger.isDebugEnabled())
-                logger.debug("Cached delegate interface collection " + policyInterfaces + " for " + binding + " and policy " + getPolicyClass());
             
             return policyInterfaces;
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
     
     /**
-     * Clear entries in the cache based on binding changes.
+     * Clear entries in both caches based on binding changes.
+     * 
+     * @param binding  the binding that changed or <tt>null</tt> if all bindings are affected
+     */
+    private void clearCaches(B binding)
+    {
+        LockHelper.tryLock(lock, tryLockTimeout, "clearing policy cache in 'CachedPolicyFactory.clearCaches()'");
+        try
+        {
+            // Policies being built now may be based on the old bindings
+            generation++;
+            singleCache = clearCache("aggregate delegate", singleCache, binding);
+            listCache = clearCache("delegate collection", listCache, binding);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Copy a cache without the entries affected by a binding change.
      * 
      * @param cacheDescription  description of cache to clear
      * @param cache  the cache to clear
      * @param binding  the binding
+     * @return  the cache to use from now on
      */
-    private void clearCache(String cacheDescription, Map<B, ?> cache, B binding)
+    private <V> Map<B, V> clearCache(String cacheDescription, Map<B, V> cache, B binding)
     {
         if (binding == null)
         {
-            LockHelper.tryLock(lock.writeLock(), tryLockTimeout, "clearing policy cache in 'CachedPolicyFactory.clearCache()'");
-            try
-            {
-                // A specific binding has not been provided, so clear all entries
-                cache.clear();
-                
-                if (logger.isDebugEnabled() && cache.isEmpty() == false)
-                    logger.debug("Cleared " + cacheDescription + " cache (all class bindings) for policy " + getPolicyClass());
-            }
-            finally
-            {
-                lock.writeLock().unlock();
-            }
+            // A specific binding has not been provided, so clear all entries
+            if (logger.isDebugEnabled() && cache.isEmpty() == false)
+                logger.debug("Cleared " + cacheDescription + " cache (all class bindings) for policy " + getPolicyClass());
+            
+            return Collections.emptyMap();
         }
-        else
+        
+        // A specific binding has been provided.  An entry is removed if the binding in the
+        // list is equal or derived from the changed binding. 
+        Map<B, V> newCache = null;
+        for (B cachedBinding : cache.keySet())
         {
-            // A specific binding has been provided.  Build a list of entries
-            // that require removal.  An entry is removed if the binding in the
-            // list is equal or derived from the changed binding. 
-            Collection<B> invalidBindings = new ArrayList<B>();
-            for (B cachedBinding : cache.keySet())
+            // Determine if binding is equal or derived from changed binding
+            BehaviourBinding generalisedBinding = cachedBinding;
+            while(generalisedBinding != null)
             {
-                // Determine if binding is equal or derived from changed binding
-                BehaviourBinding generalisedBinding = cachedBinding;
-                while(generalisedBinding != null)
+                if (generalisedBinding.equals(binding))
                 {
-                    if (generalisedBinding.equals(binding))
+                    if (newCache == null)
                     {
-                        invalidBindings.add(cachedBinding);
-                        break;
+                        newCache = new HashMap<B, V>(cache);
                     }
-                    generalisedBinding = generalisedBinding.generaliseBinding();
-                }
-            }
-
-            // Remove all invalid bindings
-            if (invalidBindings.size() > 0)
-            {
-                LockHelper.tryLock(lock.writeLock(), tryLockTimeout, "removing invalid policy bindings from cache in 'CachedPolicyFactory.clearCache()'");
-                try
-                {
-                    for (B invalidBinding : invalidBindings)
-                    {
-                        cache.remove(invalidBinding);
-                        
-                        if (logger.isDebugEnabled())
-                            logger.debug("Cleared " + cacheDescription + " cache for " + invalidBinding + " and policy " + getPolicyClass());
-                    }
-                }
-                finally
-                {
-                    lock.writeLock().unlock();
+                    newCache.remove(cachedBinding);
+                    
+                    if (logger.isDebugEnabled())
+                        logger.debug("Cleared " + cacheDescription + " cache for " + cachedBinding + " and policy " + getPolicyClass());
+                    break;
                 }
+                generalisedBinding = generalisedBinding.generaliseBinding();
             }
         }
+        return (newCache == null) ? cache : Collections.unmodifiableMap(newCache);
     }
 }
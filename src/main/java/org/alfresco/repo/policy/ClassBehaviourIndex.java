@@ -27,8 +27,12 @@ package org.alfresco.repo.policy;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.namespace.QName;
@@ -39,14 +43,18 @@ import org.alfresco.util.LockHelper;
  * Class (Type/Aspect) oriented index of bound behaviours
  * 
  * Note: Uses Class hierarchy to derive bindings.
+ * <p>
+ * Lookups use an immutable snapshot of the bindings, replaced whenever a behaviour is bound or
+ * removed, so they do not lock.  The behaviours found for a class, including those inherited
+ * through the class hierarchy, are remembered by the snapshot.
  * 
  * @author David Caruana
  *
  */
 /*package*/ class ClassBehaviourIndex<B extends ClassBehaviourBinding> implements BehaviourIndex<B>
 {
-    // Lock
-    private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Lock serializing changes
+    private ReentrantLock lock = new ReentrantLock();
     
     // Map of class bindings  
     private BehaviourMap<B> classMap = new BehaviourMap<B>();
@@ -54,6 +62,11 @@ import org.alfresco.util.LockHelper;
     // Map of service bindings
     private BehaviourMap<ServiceBehaviourBinding> serviceMap = new BehaviourMap<ServiceBehaviourBinding>();
     
+    // Bindings as of the last change
+    private volatile Snapshot<B> snapshot = new Snapshot<B>(
+            Collections.<B, List<BehaviourDefinition<B>>>emptyMap(),
+            Collections.<BehaviourDefinition<ServiceBehaviourBinding>>emptyList());
+    
     // List of registered observers
     private List<BehaviourChangeObserver<B>> observers = new ArrayList<BehaviourChangeObserver<B>>();
 
@@ -74,30 +87,14 @@ import org.alfresco.util.LockHelper;
      */
     /*package*/ ClassBehaviourIndex(BehaviourFilter filter)
     {
-        // Observe class binding changes and propagate to our own observers 
-        this.classMap.addChangeObserver(new BehaviourChangeObserver<B>()
-        {
-            public void addition(B binding, Behaviour behaviour)
-            {
-                for (BehaviourChangeObserver<B> listener : observers)
-                {
-                    listener.addition(binding, behaviour);
-                }
-            }
-
-            public void removal(B binding, Behaviour behaviour)
-            {
-                for (BehaviourChangeObserver<B> listener : observers)
-                {
-                    listener.removal(binding, behaviour);
-                }
-            }
-        });
-
+        // Observe class binding changes and propagate to our own observers.
+        // The new snapshot is published first, so that observers clearing their
+        // caches cannot rebuild them from the old bindings.
         this.classMap.addChangeObserver(new BehaviourChangeObserver<B>()
         {
             public void addition(B binding, Behaviour behaviour)
             {
+                publishSnapshot();
                 for (BehaviourChangeObserver<B> listener : observers)
                 {
                     listener.addition(binding, behaviour);
@@ -106,6 +103,7 @@ import org.alfresco.util.LockHelper;
 
             public void removal(B binding, Behaviour behaviour)
             {
+                publishSnapshot();
                 for (BehaviourChangeObserver<B> listener : observers)
                 {
                     listener.removal(binding, behaviour);
@@ -118,6 +116,7 @@ import org.alfresco.util.LockHelper;
         {
             public void addition(ServiceBehaviourBinding binding, Behaviour behaviour)
             {
+                publishSnapshot();
                 for (BehaviourChangeObserver<B> listener : observers)
                 {
                     // Note: Don't specify class ref as service-level bindings affect all classes
@@ -127,6 +126,7 @@ import org.alfresco.util.LockHelper;
 
             public void removal(ServiceBehaviourBinding binding, Behaviour behaviour)
             {
+                publishSnapshot();
                 for (BehaviourChangeObserver<B> listener : observers)
                 {
                     listener.removal(null, behaviour);
@@ -142,56 +142,26 @@ import org.alfresco.util.LockHelper;
     @Override
     public Collection<BehaviourDefinition> getAll()
     {
-        LockHelper.tryLock(lock.readLock(), tryLockTimeout, "getting all behavior definitions in 'ClassBehaviourIndex.getAll()'");
-        
-        try
-        {
-            List<BehaviourDefinition> all = new ArrayList<BehaviourDefinition>(classMap.size() + serviceMap.size());
-            all.addAll(classMap.getAll());
-            all.addAll(serviceMap.getAll());
-            return all;
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return snapshot.all;
     }
     
 
     @Override
-    @SuppressWarnings("unchecked")
     public Collection<BehaviourDefinition> find(B binding)
     {
-        LockHelper.tryLock(lock.readLock(), tryLockTimeout, "searching behavior definitions list in 'ClassBehaviourIndex.find()'");
-        
-        try
+        Snapshot<B> current = snapshot;
+        if (!isEnabled(binding))
         {
-            List<BehaviourDefinition> behaviours = new ArrayList<BehaviourDefinition>();
-
-            // Find class behaviour by scanning up the class hierarchy
-            List<BehaviourDefinition<B>> behaviour = null;
-
-            if (isEnabled(binding))
-            {
-                while (binding != null)
-                {
-                    behaviour = classMap.get(binding);
-                    if (behaviour != null)
-                    {
-                        behaviours.addAll(0, behaviour); // note: list base/generalised before extended/specific
-                    }
-                    binding = (B)binding.generaliseBinding();
-                }
-            }
-            // Append all service-level behaviours
-            behaviours.addAll(serviceMap.getAll());
-            
-            return behaviours;
+            // Only service-level behaviours apply
+            return current.serviceBehaviours;
         }
-        finally
+        List<BehaviourDefinition> behaviours = current.resolved.get(binding);
+        if (behaviours == null)
         {
-            lock.readLock().unlock();
+            behaviours = current.resolve(binding);
+            current.resolved.putIfAbsent(binding, behaviours);
         }
+        return behaviours;
     }
 
     @Override
@@ -215,14 +185,14 @@ import org.alfresco.util.LockHelper;
      */
     public void putClassBehaviour(BehaviourDefinition<B> behaviour)
     {
-        LockHelper.tryLock(lock.writeLock(), tryLockTimeout, "putting behavior definition in 'ClassBehaviourIndex.putClassBehavior()'");
+        LockHelper.tryLock(lock, tryLockTimeout, "putting behavior definition in 'ClassBehaviourIndex.putClassBehavior()'");
         try
         {
             classMap.put(behaviour);
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -234,14 +204,14 @@ import org.alfresco.util.LockHelper;
      */
     public void putServiceBehaviour(BehaviourDefinition<ServiceBehaviourBinding> behaviour)
     {
-        LockHelper.tryLock(lock.writeLock(), tryLockTimeout, "putting behavior definition in 'ClassBehaviourIndex.putServiceBehavior()'");
+        LockHelper.tryLock(lock, tryLockTimeout, "putting behavior definition in 'ClassBehaviourIndex.putServiceBehavior()'");
         try
         {
             serviceMap.put(behaviour);
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -252,17 +222,25 @@ import org.alfresco.util.LockHelper;
      */
     public void removeClassBehaviour(BehaviourDefinition<B> behaviour)
     {
-        LockHelper.tryLock(lock.writeLock(), tryLockTimeout, "removing behavior definition in 'ClassBehaviourIndex.removeClassBehavior()'");
+        LockHelper.tryLock(lock, tryLockTimeout, "removing behavior definition in 'ClassBehaviourIndex.removeClassBehavior()'");
         try
         {
             classMap.remove(behaviour);
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
+    /**
+     * Replace the snapshot used by lookups.  Called with the lock held.
+     */
+    private void publishSnapshot()
+    {
+        snapshot = new Snapshot<B>(classMap.copy(), serviceMap.getAll());
+    }
+
     private boolean isEnabled(B binding)
     {
         // Determine if behaviour has been disabled
@@ -275,4 +253,51 @@ import org.alfresco.util.LockHelper;
         }
         return isEnabled;
     }
+    
+    /**
+     * Immutable view of the bindings at one point in time, with the behaviours found
+     * for each binding so far
+     */
+    private static class Snapshot<B extends ClassBehaviourBinding>
+    {
+        private final Map<B, List<BehaviourDefinition<B>>> classBehaviours;
+        private final List<BehaviourDefinition> serviceBehaviours;
+        private final List<BehaviourDefinition> all;
+        private final ConcurrentMap<B, List<BehaviourDefinition>> resolved;
+        
+        private Snapshot(Map<B, List<BehaviourDefinition<B>>> classBehaviours, Collection<BehaviourDefinition<ServiceBehaviourBinding>> serviceBehaviours)
+        {
+            this.classBehaviours = classBehaviours;
+            this.serviceBehaviours = Collections.unmodifiableList(new ArrayList<BehaviourDefinition>(serviceBehaviours));
+            List<BehaviourDefinition> all = new ArrayList<BehaviourDefinition>(classBehaviours.size() + serviceBehaviours.size());
+            for (List<BehaviourDefinition<B>> behaviours : classBehaviours.values())
+            {
+                all.addAll(behaviours);
+            }
+            all.addAll(serviceBehaviours);
+            this.all = Collections.unmodifiableList(all);
+            this.resolved = new ConcurrentHashMap<B, List<BehaviourDefinition>>();
+        }
+        
+        /**
+         * Find class behaviour by scanning up the class hierarchy
+         */
+        @SuppressWarnings("unchecked")
+        private List<BehaviourDefinition> resolve(B binding)
+        {
+            List<BehaviourDefinition> behaviours = new ArrayList<BehaviourDefinition>();
+            while (binding != null)
+            {
+                List<BehaviourDefinition<B>> behaviour = classBehaviours.get(binding);
+                if (behaviour != null)
+                {
+                    behaviours.addAll(0, behaviour); // note: list base/generalised before extended/specific
+                }
+                binding = (B)binding.generaliseBinding();
+            }
+            // Append all service-level behaviours
+            behaviours.addAll(serviceBehaviours);
+            return Collections.unmodifiableList(behaviours);
+        }
+    }
 }
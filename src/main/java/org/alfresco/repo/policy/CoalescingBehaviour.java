@@ -0,0 +1,52 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.policy;
+
+import java.util.List;
+
+/**
+ * A {@link NotificationFrequency#TRANSACTION_COMMIT TRANSACTION_COMMIT} behaviour that
+ * can process all of the invocations queued during a transaction in one call.
+ * <p>
+ * The {@link TransactionBehaviourQueue} de-duplicates the queued invocations on their
+ * {@link Policy.Arg#KEY KEY} arguments, as it does for other transaction-level behaviours,
+ * and hands them over at commit time in batches of a bounded size instead of executing
+ * them one by one.
+ *
+ * @see CoalescingJavaBehaviour
+ * @since 6.1
+ */
+public interface CoalescingBehaviour extends Behaviour
+{
+    /**
+     * Execute a batch of queued invocations
+     *
+     * @param invocations           the arguments of each distinct invocation, in the order they were first
+     *                              queued and with {@link Policy.Arg#END_VALUE END_VALUE} arguments
+     *                              holding the last value seen
+     */
+    public void executeBatch(List<Object[]> invocations);
+}
@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.policy;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.springframework.extensions.surf.util.ParameterCheck;
+
+/**
+ * Java based {@link CoalescingBehaviour}.
+ * <p>
+ * Invocations queued in a transaction are delivered at commit time to a batch method
+ * on the instance that takes a single <code>List&lt;Object[]&gt;</code> argument.  The
+ * policy method itself is still required as it is used if the behaviour is invoked
+ * after the transaction has started committing.
+ *
+ * @since 6.1
+ */
+public class CoalescingJavaBehaviour extends JavaBehaviour implements CoalescingBehaviour
+{
+    // The method handling a batch of invocations
+    private Method batchMethod;
+
+    /**
+     * Construct.
+     *
+     * @param instance              the object instance holding the methods
+     * @param method                the policy method name
+     * @param batchMethod           the name of the method taking a <code>List&lt;Object[]&gt;</code> of invocations
+     */
+    public CoalescingJavaBehaviour(Object instance, String method, String batchMethod)
+    {
+        super(instance, method, NotificationFrequency.TRANSACTION_COMMIT);
+        ParameterCheck.mandatory("Batch method", batchMethod);
+        try
+        {
+            this.batchMethod = instance.getClass().getMethod(batchMethod, List.class);
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new PolicyException("Method " + batchMethod + "(List) not found or accessible on " + instance.getClass(), e);
+        }
+    }
+
+    @Override
+    public void executeBatch(List<Object[]> invocations)
+    {
+        if (!isEnabled())
+        {
+            return;
+        }
+        try
+        {
+            disable();
+            batchMethod.invoke(instance, invocations);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new PolicyException("Failed to execute batched behaviour " + this, e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw AlfrescoRuntimeException.makeRuntimeException(e.getTargetException(), "Failed to execute batched behaviour " + this);
+        }
+        finally
+        {
+            enable();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Java method[class=" + instance.getClass().getName() + ", method=" + method + ", batchMethod=" + batchMethod.getName() + "]";
+    }
+}
@@ -133,6 +133,17 @@ public class PolicyComponentImpl implements PolicyComponent
         PolicyFactory.setTransactionInvocationHandlerFactory(factory);
     }
     
+    /**
+     * Sets the profiler used to record behaviour invocation counts and latencies
+     * 
+     * @param profiler BehaviourProfiler
+     * @since 6.1
+     */
+    public void setBehaviourProfiler(BehaviourProfiler profiler)
+    {
+        PolicyFactory.setBehaviourProfiler(profiler);
+    }
+    
     
     /* (non-Javadoc)
      * @see org.alfresco.repo.policy.PolicyComponent#registerClassPolicy()
@@ -67,6 +67,9 @@ import org.alfresco.service.cmr.repository.StoreRef;
     // Tenant Service
     private static TenantService tenantService = null;
     
+    // Behaviour Profiler
+    private static BehaviourProfiler behaviourProfiler = null;
+    
     
     /**
      * Construct.
@@ -100,6 +103,17 @@ import org.alfresco.service.cmr.repository.StoreRef;
     {
         tenantService = service;
     }
+    
+    /**
+     * Sets the Behaviour Profiler
+     * 
+     * @param profiler BehaviourProfiler
+     * @since 6.1
+     */
+    protected static void setBehaviourProfiler(BehaviourProfiler profiler)
+    {
+        behaviourProfiler = profiler;
+    }
 
     
     /**
@@ -141,6 +155,11 @@ import org.alfresco.service.cmr.repository.StoreRef;
         {
             Behaviour behaviour = behaviourDef.getBehaviour();
             P policyIF = behaviour.getInterface(policyClass);
+            if (behaviourProfiler != null && behaviourProfiler.isEnabled())
+            {
+                // profile the behaviour itself, so deferred behaviours are measured when they are executed
+                policyIF = behaviourProfiler.wrap(policyClass, behaviourDef, policyIF);
+            }
             if (!(behaviour.getNotificationFrequency().equals(NotificationFrequency.EVERY_EVENT)))
             {
                 // wrap behaviour in transaction proxy which deals with delaying invocation until necessary
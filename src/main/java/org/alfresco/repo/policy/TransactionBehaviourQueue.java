@@ -27,23 +27,33 @@ package org.alfresco.repo.policy;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.repo.policy.Policy.Arg;
 import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
 import org.alfresco.repo.transaction.TransactionListener;
 import org.alfresco.util.GUID;
+import org.alfresco.util.PropertyCheck;
 
 
 /**
  * Transaction Behaviour Queue.
  * 
  * Responsible for keeping a record of behaviours to execute at the end of a transaction.
+ * <p>
+ * Invocations of a {@link CoalescingBehaviour} are not queued individually: they are collected
+ * per behaviour, keeping only the arguments of each distinct invocation, and delivered to the
+ * behaviour in batches of at most {@link #setMaxBatchSize(int) maxBatchSize} invocations.
  */
 public class TransactionBehaviourQueue implements TransactionListener
 {
@@ -53,6 +63,29 @@ public class TransactionBehaviourQueue implements TransactionListener
     // Transaction Keys for Behaviour Execution state
     private static final String QUEUE_CONTEXT_KEY = TransactionBehaviourQueue.class.getName() + ".context";
     
+    private int maxBatchSize = 1000;
+    
+    /**
+     * Set the maximum number of invocations handed to a {@link CoalescingBehaviour} in one call
+     * 
+     * @param maxBatchSize int
+     * @since 6.1
+     */
+    public void setMaxBatchSize(int maxBatchSize)
+    {
+        PropertyCheck.mandatory(this, "maxBatchSize", maxBatchSize > 0 ? maxBatchSize : null);
+        this.maxBatchSize = maxBatchSize;
+    }
+    
+    /**
+     * @return the maximum number of invocations handed to a {@link CoalescingBehaviour} in one call
+     * @since 6.1
+     */
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+    
     
     /**
      * Queue a behaviour for end-of-transaction execution
@@ -76,6 +109,12 @@ public class TransactionBehaviourQueue implements TransactionListener
             AlfrescoTransactionSupport.bindListener(this);
         }
         
+        if (behaviour instanceof CoalescingBehaviour)
+        {
+            queueBatched(queueContext, (CoalescingBehaviour) behaviour, definition.getArguments(), args);
+            return;
+        }
+        
         // Determine if behaviour instance has already been queued
         
         // Identity of ExecutionContext is Behaviour + KEY argument(s)
@@ -120,6 +159,106 @@ public class TransactionBehaviourQueue implements TransactionListener
         }
     }
     
+    /**
+     * Collect an invocation of a coalescing behaviour
+     */
+    private void queueBatched(QueueContext queueContext, CoalescingBehaviour behaviour, Arg[] argDefs, Object[] args)
+    {
+        BatchContext batch = queueContext.batches.get(behaviour);
+        if (batch == null)
+        {
+            batch = new BatchContext(behaviour);
+            queueContext.batches.put(behaviour, batch);
+        }
+        
+        // Identity of an invocation within the batch is its KEY argument(s)
+        Object key = getBatchKey(argDefs, args);
+        Object[] queuedArgs = batch.pending.get(key);
+        if (queuedArgs != null)
+        {
+            // Already waiting: only update argument state that is marked END_TRANSACTION
+            for (int i = 0; i < argDefs.length; i++)
+            {
+                if (argDefs[i].equals(Arg.END_VALUE))
+                {
+                    queuedArgs[i] = args[i];
+                }
+            }
+        }
+        else if (batch.seen.add(key))
+        {
+            if (!queueContext.committed)
+            {
+                batch.pending.put(key, args);
+                if (!batch.queued)
+                {
+                    // execute the batch at the point of its first pending invocation
+                    queueContext.queue.offer(batch);
+                    batch.queued = true;
+                }
+            }
+            else
+            {
+                // execute now
+                List<Object[]> invocations = new ArrayList<Object[]>(1);
+                invocations.add(args);
+                batch.behaviour.executeBatch(invocations);
+            }
+        }
+    }
+    
+    /**
+     * Get the key identifying an invocation of a coalescing behaviour, avoiding a
+     * wrapper for the common case of a single KEY argument
+     */
+    private Object getBatchKey(Arg[] argDefs, Object[] args)
+    {
+        Object singleKey = null;
+        List<Object> keys = null;
+        int keyCount = 0;
+        for (int i = 0; i < argDefs.length; i++)
+        {
+            if (argDefs[i].equals(Arg.KEY))
+            {
+                keyCount++;
+                if (keyCount == 1)
+                {
+                    singleKey = args[i];
+                }
+                else
+                {
+                    if (keys == null)
+                    {
+                        keys = new ArrayList<Object>(argDefs.length);
+                        keys.add(singleKey);
+                    }
+                    keys.add(args[i]);
+                }
+            }
+        }
+        return (keys != null) ? keys : singleKey;
+    }
+    
+    /**
+     * Deliver the pending invocations of a coalescing behaviour, in chunks of at most {@link #maxBatchSize}
+     */
+    private void executeBatch(BatchContext batch)
+    {
+        batch.queued = false;
+        while (!batch.pending.isEmpty())
+        {
+            List<Object[]> invocations = new ArrayList<Object[]>(Math.min(batch.pending.size(), maxBatchSize));
+            Iterator<Object[]> iterator = batch.pending.values().iterator();
+            while (iterator.hasNext() && invocations.size() < maxBatchSize)
+            {
+                invocations.add(iterator.next());
+                // the arguments are released once executed; only the key is retained
+                iterator.remove();
+            }
+            batch.behaviour.executeBatch(invocations);
+        }
+    }
+    
 
     /* (non-Javadoc)
      * @see org.alfresco.repo.transaction.TransactionListener#flush()
@@ -135,10 +274,17 @@ public class TransactionBehaviourQueue implements TransactionListener
     public void beforeCommit(boolean readOnly)
     {
         QueueContext queueContext = (QueueContext)AlfrescoTransactionSupport.getResource(QUEUE_CONTEXT_KEY);
-        ExecutionContext context = queueContext.queue.poll();
+        Object context = queueContext.queue.poll();
         while (context != null)
         {
-            execute(context);
+            if (context instanceof BatchContext)
+            {
+                executeBatch((BatchContext) context);
+            }
+            else
+            {
+                execute((ExecutionContext) context);
+            }
             context = queueContext.queue.poll();
         }
         queueContext.committed = true;
@@ -306,14 +452,35 @@ public class TransactionBehaviourQueue implements TransactionListener
     }
     
     
+    /**
+     * Invocations of a coalescing behaviour
+     */
+    private static class BatchContext
+    {
+        final CoalescingBehaviour behaviour;
+        // Invocations waiting for execution, by key
+        final Map<Object, Object[]> pending = new LinkedHashMap<Object, Object[]>();
+        // Keys of all invocations seen in the transaction
+        final Set<Object> seen = new HashSet<Object>();
+        boolean queued = false;
+        
+        BatchContext(CoalescingBehaviour behaviour)
+        {
+            this.behaviour = behaviour;
+        }
+    }
+    
+    
     /**
      * Queue Context
      */
     private class QueueContext
     {
         // TODO: Tune sizes
-        Queue<ExecutionContext> queue = new LinkedList<ExecutionContext>();
+        // Holds ExecutionContext and BatchContext instances in execution order
+        Queue<Object> queue = new ArrayDeque<Object>();
         Map<ExecutionInstanceKey, ExecutionContext> index = new HashMap<ExecutionInstanceKey, ExecutionContext>();
+        Map<CoalescingBehaviour, BatchContext> batches = new HashMap<CoalescingBehaviour, BatchContext>(7);
         boolean committed = false;
     }
         
@@ -30,9 +30,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.model.ContentModel;
 import org.alfresco.repo.action.ActionImpl;
@@ -42,6 +44,7 @@ import org.alfresco.repo.action.executer.CompositeActionExecuter;
 import org.alfresco.repo.action.executer.MailActionExecuter;
 import org.alfresco.repo.cache.NullCache;
 import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.node.NodeBulkLoader;
 import org.alfresco.repo.node.NodeServicePolicies;
 import org.alfresco.repo.policy.JavaBehaviour;
 import org.alfresco.repo.policy.PolicyComponent;
@@ -50,6 +53,7 @@ import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
 import org.alfresco.repo.transaction.TransactionListener;
 import org.alfresco.repo.transaction.TransactionalResourceHelper;
 import org.alfresco.service.cmr.action.Action;
+import org.alfresco.service.cmr.attributes.AttributeService;
 import org.alfresco.service.cmr.action.ActionService;
 import org.alfresco.service.cmr.action.ActionServiceException;
 import org.alfresco.service.cmr.action.CompositeAction;
@@ -100,6 +104,16 @@ public class RuleServiceImpl
     /** key against which to store executed rules on the current transaction */
     private static final String KEY_RULES_EXECUTED = "RuleServiceImpl.ExecutedRules";
     
+    /** key against which to store the rule hierarchy version seen by the current transaction */
+    private static final String KEY_HIERARCHY_VERSION = "RuleServiceImpl.HierarchyVersion";
+    
+    /** key against which to record that the current transaction has moved the rule hierarchy version on */
+    private static final String KEY_HIERARCHY_VERSION_MOVED = "RuleServiceImpl.HierarchyVersionMoved";
+    
+    /** attribute keys of the rule hierarchy version shared by all servers */
+    private static final String ATTR_KEY_RULE_SERVICE = ".RuleService";
+    private static final String ATTR_KEY_HIERARCHY_VERSION = "hierarchyVersion";
+    
     /** qname of assoc to rules */
     private String ASSOC_NAME_RULES_PREFIX = "rules";
     private RegexQNamePattern ASSOC_NAME_RULES_REGEX = new RegexQNamePattern(RuleModel.RULE_MODEL_URI, "^" + ASSOC_NAME_RULES_PREFIX + ".*");
@@ -120,6 +134,7 @@ public class RuleServiceImpl
     private DictionaryService dictionaryService;
     private PolicyComponent policyComponent;
     private PermissionService permissionService;
+    private AttributeService attributeService;
     
     /**
      * The action service implementation which we need for some things.
@@ -130,6 +145,28 @@ public class RuleServiceImpl
      * Cache of raw rules (not inherited or interpreted) for a given node
      */
     private SimpleCache<NodeRef, List<Rule>> nodeRulesCache;
+    
+    /** The deepest nesting of an action or parameter below the node owning its rule */
+    private static final int MAX_RULE_DEPTH = 32;
+    
+    private final AtomicLong nodeRulesCacheHits = new AtomicLong();
+    private final AtomicLong nodeRulesCacheMisses = new AtomicLong();
+    private final AtomicLong nodeRulesCacheInvalidations = new AtomicLong();
+    private final AtomicLong nodeRulesCacheFullInvalidations = new AtomicLong();
+    
+    private SimpleCache<NodeRef, InheritedRuleOwners> inheritedRulesCache = NullCache.getInstance();
+    
+    private final AtomicLong inheritedRulesCacheHits = new AtomicLong();
+    private final AtomicLong inheritedRulesCacheMisses = new AtomicLong();
+    
+    /** Pre-loads the nodes a batch of pending rules will act upon */
+    private NodeBulkLoader nodeBulkLoader;
+    
+    /** The number of pending rules from which they are executed as a batch */
+    private int batchExecutionThreshold = 10;
+    
+    private final AtomicLong batchedRuleExecutions = new AtomicLong();
+    private final AtomicLong batchedRuleLoads = new AtomicLong();
        
     /**
      * List of disabled rules.  Any rules that appear in this list will not be added to the pending list and therefore
@@ -173,6 +210,16 @@ public class RuleServiceImpl
         this.runtimeNodeService = runtimeNodeService;
     }
 
+    /**
+     * Set the service holding the version of the rule hierarchy shared by all servers
+     * 
+     * @since 6.1
+     */
+    public void setAttributeService(AttributeService attributeService)
+    {
+        this.attributeService = attributeService;
+    }
+
     /**
      * Set the service for locating copied nodes' originals
      */
@@ -233,6 +280,43 @@ public class RuleServiceImpl
     {
         this.nodeRulesCache = nodeRulesCache;
     }
+    
+    /**
+     * Set the cache of the nodes whose rules are inherited by the children of a node.  The
+     * cache holds only node references and may be shared across transactions.
+     * 
+     * @param inheritedRulesCache   a cache of resolved rule inheritance, keyed by parent node
+     * 
+     * @since 6.1
+     */
+    public void setInheritedRulesCache(SimpleCache<NodeRef, InheritedRuleOwners> inheritedRulesCache)
+    {
+        this.inheritedRulesCache = inheritedRulesCache;
+    }
+    
+    /**
+     * Set the component used to pre-load the nodes that a batch of pending rules act upon
+     * 
+     * @since 6.1
+     */
+    public void setNodeBulkLoader(NodeBulkLoader nodeBulkLoader)
+    {
+        this.nodeBulkLoader = nodeBulkLoader;
+    }
+    
+    /**
+     * Set the number of rules pending execution at which they are run as a batch: the nodes
+     * they act upon are loaded together and each rule is loaded once for the whole batch.
+     * Zero or less disables batch execution.
+     * 
+     * @param batchExecutionThreshold   the smallest batch (default: 10)
+     * 
+     * @since 6.1
+     */
+    public void setBatchExecutionThreshold(int batchExecutionThreshold)
+    {
+        this.batchExecutionThreshold = batchExecutionThreshold;
+    }
 
     /**
      * Set the global rules disabled flag
@@ -287,39 +371,360 @@ public class RuleServiceImpl
                 NodeServicePolicies.OnUpdateNodePolicy.QNAME,
                 ActionModel.TYPE_ACTION_PARAMETER,
                 new JavaBehaviour(this, "onUpdateNode"));
+        
+        // Changes that alter which rules are inherited
+        policyComponent.bindClassBehaviour(
+                NodeServicePolicies.OnAddAspectPolicy.QNAME,
+                RuleModel.ASPECT_IGNORE_INHERITED_RULES,
+                new JavaBehaviour(this, "onChangeIgnoreInheritedRules"));
+        policyComponent.bindClassBehaviour(
+                NodeServicePolicies.OnRemoveAspectPolicy.QNAME,
+                RuleModel.ASPECT_IGNORE_INHERITED_RULES,
+                new JavaBehaviour(this, "onChangeIgnoreInheritedRules"));
+        policyComponent.bindClassBehaviour(
+                NodeServicePolicies.OnMoveNodePolicy.QNAME,
+                ContentModel.TYPE_BASE,
+                new JavaBehaviour(this, "onMoveNode"));
+        policyComponent.bindClassBehaviour(
+                NodeServicePolicies.OnRestoreNodePolicy.QNAME,
+                ContentModel.TYPE_BASE,
+                new JavaBehaviour(this, "onRestoreNode"));
+        policyComponent.bindAssociationBehaviour(
+                NodeServicePolicies.OnCreateChildAssociationPolicy.QNAME,
+                ContentModel.TYPE_BASE,
+                new JavaBehaviour(this, "onCreateSecondaryChildAssociation"));
+        policyComponent.bindAssociationBehaviour(
+                NodeServicePolicies.OnDeleteChildAssociationPolicy.QNAME,
+                ContentModel.TYPE_BASE,
+                new JavaBehaviour(this, "onDeleteSecondaryChildAssociation"));
     }
 
     /**
-     * Cache invalidation
+     * Cache invalidation: a rule folder has been attached (or linked) to a node
      */
     @Override
     public void onCreateChildAssociation(ChildAssociationRef childAssocRef, boolean isNewNode)
     {
-        nodeRulesCache.clear();
+        invalidateNodeRules(childAssocRef.getParentRef());
     }
 
     /**
-     * Cache invalidation
+     * Cache invalidation: a node with rules, a rule or part of a rule's action has changed
      */
     public void onUpdateNode(NodeRef nodeRef)
     {
-        nodeRulesCache.clear();
+        invalidateRulesOwnedBy(nodeRef);
     }
 
     /**
-     * Cache invalidation
+     * Cache invalidation: a rule or part of a rule's action has been created
      */
     public void onCreateNode(ChildAssociationRef childAssocRef)
     {
-        nodeRulesCache.clear();
+        invalidateRulesOwnedBy(childAssocRef.getChildRef());
     }
 
     /**
-     * Cache invalidation
+     * Cache invalidation: a node has been given rules
      */
     public void onAddAspect(NodeRef nodeRef, QName aspectTypeQName)
     {
+        invalidateNodeRules(nodeRef);
+    }
+    
+    /**
+     * Cache invalidation: a node has started or stopped inheriting rules
+     */
+    public void onChangeIgnoreInheritedRules(NodeRef nodeRef, QName aspectTypeQName)
+    {
+        invalidateInheritedRules();
+    }
+    
+    /**
+     * Cache invalidation: a node has moved to another parent
+     */
+    public void onMoveNode(ChildAssociationRef oldChildAssocRef, ChildAssociationRef newChildAssocRef)
+    {
+        invalidateInheritedRulesForNewParents(
+                newChildAssocRef.getChildRef(),
+                getRuleOwnersThrough(oldChildAssocRef.getParentRef()),
+                getRuleOwnersThrough(newChildAssocRef.getParentRef()));
+    }
+    
+    /**
+     * Cache invalidation: a node has been restored to a parent.  The rules the node inherited
+     * before it was deleted are not known, so all resolved inheritance is dropped.
+     */
+    public void onRestoreNode(ChildAssociationRef childAssocRef)
+    {
+        invalidateInheritedRules();
+    }
+    
+    /**
+     * Cache invalidation: a node has been given an additional parent
+     */
+    public void onCreateSecondaryChildAssociation(ChildAssociationRef childAssocRef, boolean isNewNode)
+    {
+        if (isNewNode || IGNORE_PARENT_ASSOC_TYPES.contains(childAssocRef.getTypeQName()))
+        {
+            // A new node has nothing inheriting through it yet
+            return;
+        }
+        if (childAssocRef.isPrimary())
+        {
+            // The node has been moved, which is handled once the move is complete
+            return;
+        }
+        invalidateInheritedRulesForNewParents(
+                childAssocRef.getChildRef(),
+                Collections.<NodeRef>emptyList(),
+                getRuleOwnersThrough(childAssocRef.getParentRef()));
+    }
+    
+    /**
+     * Cache invalidation: a node has lost one of its additional parents, which may have been
+     * a node using linked rules
+     */
+    public void onDeleteSecondaryChildAssociation(ChildAssociationRef childAssocRef)
+    {
+        if (childAssocRef.isPrimary() || IGNORE_PARENT_ASSOC_TYPES.contains(childAssocRef.getTypeQName()))
+        {
+            // Deleted nodes are not inherited through
+            return;
+        }
+        if (RuleModel.ASSOC_RULE_FOLDER.equals(childAssocRef.getTypeQName()))
+        {
+            invalidateNodeRules(childAssocRef.getParentRef());
+        }
+        else
+        {
+            invalidateInheritedRulesForNewParents(
+                    childAssocRef.getChildRef(),
+                    getRuleOwnersThrough(childAssocRef.getParentRef()),
+                    Collections.<NodeRef>emptyList());
+        }
+    }
+    
+    /**
+     * Remove the cached rules of the nodes using the rules that the given node belongs to.
+     * The node is either a node with rules or is held under a rule folder: a rule, or an
+     * action, condition or parameter of a rule.  Actions that are not part of a rule do not
+     * affect any cached rules.
+     * <p>
+     * Inherited rules are not cached but are built from the cached rules of each ancestor,
+     * so nodes inheriting the rules see the change without further invalidation.
+     */
+    private void invalidateRulesOwnedBy(NodeRef nodeRef)
+    {
+        NodeRef currentRef = nodeRef;
+        for (int depth = 0; depth < MAX_RULE_DEPTH; depth++)
+        {
+            if (!runtimeNodeService.exists(currentRef))
+            {
+                // Nothing can be cached against a node that is gone
+                return;
+            }
+            if (runtimeNodeService.hasAspect(currentRef, RuleModel.ASPECT_RULES))
+            {
+                invalidateNodeRules(currentRef);
+                return;
+            }
+            ChildAssociationRef parentAssocRef = runtimeNodeService.getPrimaryParent(currentRef);
+            if (parentAssocRef == null || parentAssocRef.getParentRef() == null)
+            {
+                // Reached the root: the node is not part of any rule
+                return;
+            }
+            if (RuleModel.ASSOC_RULE_FOLDER.equals(parentAssocRef.getTypeQName()))
+            {
+                // The rule folder is used by its owner and by any nodes linked to it
+                List<ChildAssociationRef> ruleFolderAssocRefs = runtimeNodeService.getParentAssocs(
+                        currentRef, RuleModel.ASSOC_RULE_FOLDER, RegexQNamePattern.MATCH_ALL);
+                for (ChildAssociationRef ruleFolderAssocRef : ruleFolderAssocRefs)
+                {
+                    invalidateNodeRules(ruleFolderAssocRef.getParentRef());
+                }
+                return;
+            }
+            currentRef = parentAssocRef.getParentRef();
+        }
+        // Nested too deeply to be sure which rules are affected
+        nodeRulesCacheFullInvalidations.incrementAndGet();
         nodeRulesCache.clear();
+        invalidateInheritedRules();
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Cleared rules cache: could not find rules owning " + nodeRef);
+        }
+    }
+    
+    private void invalidateNodeRules(NodeRef nodeRef)
+    {
+        nodeRulesCacheInvalidations.incrementAndGet();
+        nodeRulesCache.remove(nodeRef);
+        // The node's rules may be inherited by any of its descendants
+        invalidateInheritedRules();
+    }
+    
+    /**
+     * Drop all resolved rule inheritance.  The transaction no longer sees cached inheritance and
+     * the hierarchy version shared by all servers moves on with the transaction, so that inheritance
+     * resolved concurrently against the old state is not used either.  Transactions moving the
+     * version on at the same time conflict and are retried.
+     */
+    private void invalidateInheritedRules()
+    {
+        inheritedRulesCache.clear();
+        if (AlfrescoTransactionSupport.getResource(KEY_HIERARCHY_VERSION_MOVED) != null)
+        {
+            return;
+        }
+        long version = getHierarchyVersion() + 1L;
+        attributeService.setAttribute(Long.valueOf(version), ATTR_KEY_RULE_SERVICE, ATTR_KEY_HIERARCHY_VERSION);
+        AlfrescoTransactionSupport.bindResource(KEY_HIERARCHY_VERSION, Long.valueOf(version));
+        AlfrescoTransactionSupport.bindResource(KEY_HIERARCHY_VERSION_MOVED, Boolean.TRUE);
+    }
+    
+    /**
+     * Drop resolved rule inheritance after a node has been given a different set of parents, unless
+     * the change cannot affect it: the node does not inherit rules or the rules inherited through
+     * the parents that it lost and gained are the same.  The nodes below are not visited, so any
+     * other change drops all resolved inheritance.
+     * 
+     * @param nodeRef           the node with new parents
+     * @param ownersBefore      the nodes whose rules were inherited through the parents that were lost
+     *                          or <tt>null</tt> if not known
+     * @param ownersAfter       the nodes whose rules are inherited through the parents that were gained
+     *                          or <tt>null</tt> if not known
+     */
+    private void invalidateInheritedRulesForNewParents(NodeRef nodeRef, List<NodeRef> ownersBefore, List<NodeRef> ownersAfter)
+    {
+        if (ownersBefore != null && ownersBefore.equals(ownersAfter))
+        {
+            return;
+        }
+        if (runtimeNodeService.exists(nodeRef) &&
+            runtimeNodeService.hasAspect(nodeRef, RuleModel.ASPECT_IGNORE_INHERITED_RULES))
+        {
+            return;
+        }
+        invalidateInheritedRules();
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Cleared inherited rules cache: inherited rules changed for " + nodeRef);
+        }
+    }
+    
+    /**
+     * @param parentRef         a parent node
+     * @return                  the nodes whose rules may be inherited by the children of the parent
+     *                          or <tt>null</tt> if the parent no longer exists
+     */
+    private List<NodeRef> getRuleOwnersThrough(NodeRef parentRef)
+    {
+        if (parentRef == null || runtimeNodeService.exists(parentRef) == false)
+        {
+            return null;
+        }
+        return getChildRuleOwners(parentRef, new InheritanceWalk());
+    }
+    
+    /**
+     * Gets the version of the rule hierarchy against which cached inheritance is valid.  The version
+     * is read once per transaction.
+     * 
+     * @return                  the current rule hierarchy version
+     */
+    private long getHierarchyVersion()
+    {
+        Long version = AlfrescoTransactionSupport.getResource(KEY_HIERARCHY_VERSION);
+        if (version == null)
+        {
+            Serializable value = attributeService.getAttribute(ATTR_KEY_RULE_SERVICE, ATTR_KEY_HIERARCHY_VERSION);
+            version = (value == null) ? Long.valueOf(0L) : DefaultTypeConverter.INSTANCE.convert(Long.class, value);
+            AlfrescoTransactionSupport.bindResource(KEY_HIERARCHY_VERSION, version);
+        }
+        return version.longValue();
+    }
+    
+    /**
+     * @return              the number of rule lookups answered by the rules cache
+     * 
+     * @since 6.1
+     */
+    public long getNodeRulesCacheHits()
+    {
+        return nodeRulesCacheHits.get();
+    }
+    
+    /**
+     * @return              the number of rule lookups that read the rules from the repository
+     * 
+     * @since 6.1
+     */
+    public long getNodeRulesCacheMisses()
+    {
+        return nodeRulesCacheMisses.get();
+    }
+    
+    /**
+     * @return              the number of times the rules of a single node were removed from the cache
+     * 
+     * @since 6.1
+     */
+    public long getNodeRulesCacheInvalidations()
+    {
+        return nodeRulesCacheInvalidations.get();
+    }
+    
+    /**
+     * @return              the number of times the whole rules cache was cleared
+     * 
+     * @since 6.1
+     */
+    public long getNodeRulesCacheFullInvalidations()
+    {
+        return nodeRulesCacheFullInvalidations.get();
+    }
+    
+    /**
+     * @return              the number of inherited rule lookups answered by the inherited rules cache
+     * 
+     * @since 6.1
+     */
+    public long getInheritedRulesCacheHits()
+    {
+        return inheritedRulesCacheHits.get();
+    }
+    
+    /**
+     * @return              the number of inherited rule lookups that walked the node's ancestors
+     * 
+     * @since 6.1
+     */
+    public long getInheritedRulesCacheMisses()
+    {
+        return inheritedRulesCacheMisses.get();
+    }
+    
+    /**
+     * @return          the number of pending rules executed as part of a batch
+     * 
+     * @since 6.1
+     */
+    public long getBatchedRuleExecutions()
+    {
+        return batchedRuleExecutions.get();
+    }
+    
+    /**
+     * @return          the number of rules loaded for batches of pending rules
+     * 
+     * @since 6.1
+     */
+    public long getBatchedRuleLoads()
+    {
+        return batchedRuleLoads.get();
     }
     
     protected NodeRef getSavedRuleFolderRef(NodeRef nodeRef)
@@ -480,7 +885,7 @@ public class RuleServiceImpl
                 if (includeInherited == true && runtimeNodeService.hasAspect(nodeRef, RuleModel.ASPECT_IGNORE_INHERITED_RULES) == false)
                 {
                     // Get any inherited rules
-                    for (Rule rule : getInheritedRules(nodeRef, ruleTypeName, null))
+                    for (Rule rule : getInheritedRules(nodeRef, ruleTypeName))
                     {
                         // Ensure rules are not duplicated in the list
                         if (rules.contains(rule) == false)
@@ -521,9 +926,11 @@ public class RuleServiceImpl
         if (nodeRules != null)
         {
             // We have already processed this node
+            nodeRulesCacheHits.incrementAndGet();
             return nodeRules;
         }
         // Not in the cache, so go and get the rules
+        nodeRulesCacheMisses.incrementAndGet();
         nodeRules = new ArrayList<Rule>();
         NodeRef ruleFolder = getSavedRuleFolderRef(nodeRef);
         if (ruleFolder != null)
@@ -603,73 +1010,108 @@ public class RuleServiceImpl
      * @param ruleTypeName        the rule type (null if all applicable)
      * @return                    a list of inherited rules (empty if none)
      */
-    private List<Rule> getInheritedRules(NodeRef nodeRef, String ruleTypeName, Set<NodeRef> visitedNodeRefs)
+    private List<Rule> getInheritedRules(NodeRef nodeRef, String ruleTypeName)
     {
         List<Rule> inheritedRules = new ArrayList<Rule>();
         
-        if (this.runtimeNodeService.hasAspect(nodeRef, RuleModel.ASPECT_IGNORE_INHERITED_RULES) == false)
-        {        
-            // Create the visited nodes set if it has not already been created
-            if (visitedNodeRefs == null)
-            {
-                visitedNodeRefs = new HashSet<NodeRef>();
-            }
-            
-            // This check prevents stack over flow when we have a cyclic node graph
-            if (visitedNodeRefs.contains(nodeRef) == false)
+        // The owners are ordered from the most distant ancestor
+        for (NodeRef ownerNodeRef : getInheritedRuleOwners(nodeRef, new InheritanceWalk()))
+        {
+            for (Rule rule : getRules(ownerNodeRef, false))
             {
-                visitedNodeRefs.add(nodeRef);
-                
-                List<Rule> allInheritedRules = new ArrayList<Rule>();
-                List<ChildAssociationRef> parents = this.runtimeNodeService.getParentAssocs(nodeRef);
-                for (ChildAssociationRef parent : parents)
-                {
-                    // We are not interested in following potentially massive person group membership trees!
-                    if (IGNORE_PARENT_ASSOC_TYPES.contains(parent.getTypeQName()))
-                    {
-                        continue;
-                    }
-
-                    // Add the inherited rule first
-                    for (Rule rule : getInheritedRules(parent.getParentRef(), ruleTypeName, visitedNodeRefs))
-                    {
-                        // Ensure that we don't get any rule duplication (don't use a set cos we want to preserve order)
-                        if (allInheritedRules.contains(rule) == false)
-                        {
-                            allInheritedRules.add(rule);
-                        }
-                    }
-                    
-                    List<Rule> rules = getRules(parent.getParentRef(), false);
-                    for (Rule rule : rules)
-                    {
-                        // Add is we hanvn't already added and it should be applied to the children
-                        if (rule.isAppliedToChildren() == true && allInheritedRules.contains(rule) == false)
-                        {
-                            allInheritedRules.add(rule);
-                        }
-                    }
-                }
-                
-                if (ruleTypeName == null)
+                // Ensure that we don't get any rule duplication (don't use a set cos we want to preserve order)
+                if (rule.isAppliedToChildren() == true &&
+                    inheritedRules.contains(rule) == false &&
+                    (ruleTypeName == null || rule.getRuleTypes().contains(ruleTypeName) == true))
                 {
-                    inheritedRules = allInheritedRules;
+                    inheritedRules.add(rule);
                 }
-                else
+            }
+        }
+        
+        return inheritedRules;
+    }
+    
+    /**
+     * Gets the ancestors whose rules may be inherited by a given node
+     * 
+     * @param nodeRef           the node inheriting rules
+     * @param walk              the state of the walk up the node graph
+     * @return                  the nodes with rules, ordered from the most distant ancestor
+     */
+    private List<NodeRef> getInheritedRuleOwners(NodeRef nodeRef, InheritanceWalk walk)
+    {
+        List<NodeRef> ownerNodeRefs = new ArrayList<NodeRef>();
+        
+        if (this.runtimeNodeService.hasAspect(nodeRef, RuleModel.ASPECT_IGNORE_INHERITED_RULES) == true)
+        {
+            return ownerNodeRefs;
+        }
+        // This check prevents stack over flow when we have a cyclic node graph
+        if (walk.visitedNodeRefs.add(nodeRef) == false)
+        {
+            walk.truncated = true;
+            return ownerNodeRefs;
+        }
+        
+        List<ChildAssociationRef> parents = this.runtimeNodeService.getParentAssocs(nodeRef);
+        for (ChildAssociationRef parent : parents)
+        {
+            // We are not interested in following potentially massive person group membership trees!
+            if (IGNORE_PARENT_ASSOC_TYPES.contains(parent.getTypeQName()))
+            {
+                continue;
+            }
+            for (NodeRef ownerNodeRef : getChildRuleOwners(parent.getParentRef(), walk))
+            {
+                if (ownerNodeRefs.contains(ownerNodeRef) == false)
                 {
-                    // Filter the rule list by rule type
-                    for (Rule rule : allInheritedRules)
-                    {
-                        if (rule.getRuleTypes().contains(ruleTypeName) == true)
-                        {
-                            inheritedRules.add(rule);
-                        }
-                    }
+                    ownerNodeRefs.add(ownerNodeRef);
                 }
             }
         }
         
-        return inheritedRules;
+        return ownerNodeRefs;
+    }
+    
+    /**
+     * Gets the nodes whose rules may be inherited by the children of a given node: the node
+     * itself, if it has rules, preceded by the nodes whose rules it inherits.
+     * <p>
+     * The result is cached against the current hierarchy version unless the walk had to stop
+     * at a node it had already seen, in which case the result depends on how the node was reached.
+     * 
+     * @param parentNodeRef     the parent node
+     * @param walk              the state of the walk up the node graph
+     * @return                  the nodes with rules, ordered from the most distant ancestor
+     */
+    private List<NodeRef> getChildRuleOwners(NodeRef parentNodeRef, InheritanceWalk walk)
+    {
+        long version = getHierarchyVersion();
+        InheritedRuleOwners cached = inheritedRulesCache.get(parentNodeRef);
+        if (cached != null && cached.getVersion() == version)
+        {
+            inheritedRulesCacheHits.incrementAndGet();
+            return cached.getOwnerNodeRefs();
+        }
+        inheritedRulesCacheMisses.incrementAndGet();
+        
+        boolean truncatedBefore = walk.truncated;
+        walk.truncated = false;
+        
+        List<NodeRef> ownerNodeRefs = getInheritedRuleOwners(parentNodeRef, walk);
+        if (this.runtimeNodeService.hasAspect(parentNodeRef, RuleModel.ASPECT_RULES) == true &&
+            ownerNodeRefs.contains(parentNodeRef) == false)
+        {
+            ownerNodeRefs.add(parentNodeRef);
+        }
+        if (walk.truncated == false)
+        {
+            inheritedRulesCache.put(parentNodeRef, new InheritedRuleOwners(version, ownerNodeRefs));
+        }
+        
+        walk.truncated = walk.truncated || truncatedBefore;
+        return ownerNodeRefs;
     }
 
     /**
@@ -792,7 +1234,7 @@ public class RuleServiceImpl
             {
                 enableRules();
                 // Drop the rules from the cache
-                nodeRulesCache.remove(nodeRef);
+                invalidateNodeRules(nodeRef);
             }
         }
         else
@@ -937,7 +1379,7 @@ public class RuleServiceImpl
                 }
             }
             // Drop the rules from the cache
-            nodeRulesCache.remove(nodeRef);
+            invalidateNodeRules(nodeRef);
         }
         else
         {
@@ -984,7 +1426,7 @@ public class RuleServiceImpl
                 this.nodeService.removeAspect(nodeRef, RuleModel.ASPECT_RULES);
             }
             // Drop the rules from the cache
-            nodeRulesCache.remove(nodeRef);
+            invalidateNodeRules(nodeRef);
         }
         else
         {
@@ -1098,9 +1540,10 @@ public class RuleServiceImpl
     	
     	List<PendingRuleData> executeAtEndRules = new ArrayList<PendingRuleData>();
         executePendingRulesImpl(executeAtEndRules);
+        RuleBatch batch = prepareBatch(executeAtEndRules);
         for (PendingRuleData data : executeAtEndRules)
         {
-            executePendingRule(data);
+            executePendingRule(data, batch);
         }
     }     
     
@@ -1119,12 +1562,13 @@ public class RuleServiceImpl
             PendingRuleData[] pendingRulesArr = pendingRules.toArray(new PendingRuleData[0]);
             // remove all pending rules from the transaction
             AlfrescoTransactionSupport.unbindResource(KEY_RULES_PENDING);
+            RuleBatch batch = prepareBatch(pendingRules);
             // execute each rule
             for (PendingRuleData pendingRule : pendingRulesArr) 
             {
                 if (pendingRule.getExecuteAtEnd() == false)
                 {
-                    executePendingRule(pendingRule);
+                    executePendingRule(pendingRule, batch);
                 }
                 else
                 {
@@ -1137,12 +1581,45 @@ public class RuleServiceImpl
         }   
     }
     
+    /**
+     * Prepare to execute many pending rules together, as happens when many nodes arrive in a
+     * folder in one transaction.  The nodes acted upon are loaded in bulk so that evaluating
+     * the rule conditions reads from the caches.
+     * <p>
+     * The conditions are still evaluated just before each rule runs, in the order the rules
+     * were queued, as the actions of earlier rules can change what later conditions see.
+     * 
+     * @return              the batch, or <tt>null</tt> if there are too few pending rules
+     */
+    private RuleBatch prepareBatch(List<PendingRuleData> pendingRules)
+    {
+        if (batchExecutionThreshold <= 0 || pendingRules.size() < batchExecutionThreshold)
+        {
+            return null;
+        }
+        Set<NodeRef> actionedUponNodeRefs = new LinkedHashSet<NodeRef>(pendingRules.size() * 2);
+        for (PendingRuleData pendingRule : pendingRules)
+        {
+            actionedUponNodeRefs.add(pendingRule.getActionedUponNodeRef());
+        }
+        if (nodeBulkLoader != null)
+        {
+            nodeBulkLoader.cacheNodes(new ArrayList<NodeRef>(actionedUponNodeRefs));
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Executing " + pendingRules.size() + " pending rules as a batch for " + actionedUponNodeRefs.size() + " nodes");
+        }
+        return new RuleBatch();
+    }
+    
     /**
      * Executes a pending rule
      * 
 	 * @param pendingRule	the pending rule data object
+	 * @param batch         the batch the rule is executed in, or <tt>null</tt>
      */
-    private void executePendingRule(final PendingRuleData pendingRule) 
+    private void executePendingRule(final PendingRuleData pendingRule, final RuleBatch batch) 
     {
         if (AuthenticationUtil.getRunAsAuthentication() == null && pendingRule.getRunAsUser() != null)
         {
@@ -1151,19 +1628,19 @@ public class RuleServiceImpl
             {
                 public Void doWork() throws Exception
                 {
-                    executePendingRuleImpl(pendingRule);
+                    executePendingRuleImpl(pendingRule, batch);
                     return null;
                 }
             }, pendingRule.getRunAsUser());
         }
         else
         {
-            executePendingRuleImpl(pendingRule);
+            executePendingRuleImpl(pendingRule, batch);
         }
     }
     
     @SuppressWarnings("unchecked")
-    private void executePendingRuleImpl(PendingRuleData pendingRule) 
+    private void executePendingRuleImpl(PendingRuleData pendingRule, RuleBatch batch) 
     {
         Set<ExecutedRuleData> executedRules =
                (Set<ExecutedRuleData>) AlfrescoTransactionSupport.getResource(KEY_RULES_EXECUTED);
@@ -1188,17 +1665,35 @@ public class RuleServiceImpl
             
         }
         final NodeRef finalRuleNodeRef = ruleNodeRef;
-        // update all associations and actions
-        rule = AuthenticationUtil.runAs(new AuthenticationUtil.RunAsWork<Rule>()
+        Rule batchRule = (batch == null ? null : batch.rules.get(finalRuleNodeRef));
+        if (batchRule != null)
+        {
+            rule = batchRule;
+        }
+        else
         {
-            public Rule doWork() throws Exception
+            // update all associations and actions
+            rule = AuthenticationUtil.runAs(new AuthenticationUtil.RunAsWork<Rule>()
             {
-                return getRule(finalRuleNodeRef);
+                public Rule doWork() throws Exception
+                {
+                    return getRule(finalRuleNodeRef);
+                }
+            }, AuthenticationUtil.getSystemUserName());
+            // Asynchronous rules hand their action to another thread, so each needs its own copy
+            if (batch != null && rule != null && !rule.getExecuteAsynchronously())
+            {
+                batch.rules.put(finalRuleNodeRef, rule);
+                batchedRuleLoads.incrementAndGet();
             }
-        }, AuthenticationUtil.getSystemUserName());
+        }
 
         if (executedRules == null || canExecuteRule(executedRules, actionedUponNodeRef, rule) == true)
         {
+            if (batch != null)
+            {
+                batchedRuleExecutions.incrementAndGet();
+            }
             if (isSystemUser)
             {
                 final Rule fRule = rule;
@@ -1493,6 +1988,60 @@ public class RuleServiceImpl
             }
         }
     }
+    
+    /**
+     * The rules loaded for a batch of pending rules, each shared by all its executions
+     */
+    private static class RuleBatch
+    {
+        private final Map<NodeRef, Rule> rules = new HashMap<NodeRef, Rule>();
+    }
+
+    /**
+     * The state of a single walk up the node graph to find inherited rules
+     */
+    private static class InheritanceWalk
+    {
+        private final Set<NodeRef> visitedNodeRefs = new HashSet<NodeRef>();
+        /** <tt>true</tt> if the walk stopped at a node it had already visited */
+        private boolean truncated;
+    }
+    
+    /**
+     * The nodes whose rules are inherited by the children of a node, as resolved at a
+     * given version of the rule hierarchy
+     * 
+     * @since 6.1
+     */
+    public static class InheritedRuleOwners implements Serializable
+    {
+        private static final long serialVersionUID = -2466541282637591376L;
+        
+        private final long version;
+        private final List<NodeRef> ownerNodeRefs;
+        
+        public InheritedRuleOwners(long version, List<NodeRef> ownerNodeRefs)
+        {
+            this.version = version;
+            this.ownerNodeRefs = Collections.unmodifiableList(new ArrayList<NodeRef>(ownerNodeRefs));
+        }
+        
+        public long getVersion()
+        {
+            return version;
+        }
+        
+        public List<NodeRef> getOwnerNodeRefs()
+        {
+            return ownerNodeRefs;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return "InheritedRuleOwners [version=" + version + ", owners=" + ownerNodeRefs + "]";
+        }
+    }
 
     @Override
     public NodeRef getOwningNodeRef(final Rule rule)
@@ -84,13 +84,27 @@ public abstract class AbstractAlfrescoFtsQueryLanguage extends AbstractLuceneQue
     
     public ResultSet executeQuery(SearchParameters searchParameters, ADMLuceneSearcherImpl admLuceneSearcher)
     {
-        String ftsExpression = searchParameters.getQuery();
         QueryModelFactory factory = queryEngine.getQueryModelFactory();
         AlfrescoFunctionEvaluationContext context = new AlfrescoFunctionEvaluationContext(getNamespacePrefixResolver(admLuceneSearcher), getDictionaryService(admLuceneSearcher),
                 searchParameters.getNamespace());
 
         QueryOptions options = QueryOptions.create(searchParameters);
 
+        org.alfresco.repo.search.impl.querymodel.Query query = buildQuery(searchParameters, options, factory, context);
+
+        QueryEngineResults results = queryEngine.executeQuery(query, options, context);
+        ResultSet resultSet = results.getResults().values().iterator().next();
+        return resultSet;
+    }
+
+    /**
+     * Parse the FTS expression and build the query model
+     */
+    protected org.alfresco.repo.search.impl.querymodel.Query buildQuery(SearchParameters searchParameters, QueryOptions options, QueryModelFactory factory,
+            AlfrescoFunctionEvaluationContext context)
+    {
+        String ftsExpression = searchParameters.getQuery();
+
         FTSParser.Mode mode;
 
         if(options.getDefaultFTSConnective() == Connective.AND)
@@ -104,11 +118,7 @@ public abstract class AbstractAlfrescoFtsQueryLanguage extends AbstractLuceneQue
             
         Constraint constraint = FTSQueryParser.buildFTS(ftsExpression, factory, context, null, null, mode, options.getDefaultFTSFieldConnective(),
                 searchParameters.getQueryTemplates(), options.getDefaultFieldName(), FTSQueryParser.RerankPhase.SINGLE_PASS);
-        org.alfresco.repo.search.impl.querymodel.Query query = factory.createQuery(null, null, constraint, buildOrderings(factory, searchParameters));
-
-        QueryEngineResults results = queryEngine.executeQuery(query, options, context);
-        ResultSet resultSet = results.getResults().values().iterator().next();
-        return resultSet;
+        return factory.createQuery(null, null, constraint, buildOrderings(factory, searchParameters));
     }
 
     public List<Ordering> buildOrderings(QueryModelFactory factory, SearchParameters searchParameters)
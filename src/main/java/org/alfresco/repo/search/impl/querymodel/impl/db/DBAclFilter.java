@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.querymodel.impl.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parameters of the SQL permission pre-filter for a metadata query.
+ * <p/>
+ * The filter restricts the query to nodes without an ACL, nodes with an ACL that has an allowing
+ * entry for one of the {@link #getAuthorities() authorities} and one of the
+ * {@link #getPermissions() permissions}, and, if given, nodes created or owned by the
+ * {@link #getOwner() owner}.  It only removes nodes that cannot be read: deny entries, conditional
+ * entries and entries that do not apply to the node are ignored, so the results must still be
+ * checked for read permission after the query.
+ *
+ * @since 6.1
+ */
+public class DBAclFilter
+{
+    private final List<String> authorities;
+    private final List<String> permissions;
+    private final String owner;
+    private final Long ownerQNameId;
+
+    /**
+     * @param authorities           the authorities of the user, including the dynamic authorities
+     * @param permissions           the names of the permissions that grant read permission
+     * @param owner                 the user to include owned nodes for or <tt>null</tt>
+     * @param ownerQNameId          the ID of the <b>cm:owner</b> property QName or <tt>null</tt> if it is not used
+     */
+    public DBAclFilter(Collection<String> authorities, Collection<String> permissions, String owner, Long ownerQNameId)
+    {
+        this.authorities = Collections.unmodifiableList(new ArrayList<String>(authorities));
+        this.permissions = Collections.unmodifiableList(new ArrayList<String>(permissions));
+        this.owner = owner;
+        this.ownerQNameId = ownerQNameId;
+    }
+
+    /**
+     * @return the authorities that an ACL entry must be allowed for
+     */
+    public List<String> getAuthorities()
+    {
+        return authorities;
+    }
+
+    /**
+     * @return the names of the permissions that an ACL entry must allow
+     */
+    public List<String> getPermissions()
+    {
+        return permissions;
+    }
+
+    /**
+     * @return the user whose created or owned nodes are always included, or <tt>null</tt>
+     */
+    public String getOwner()
+    {
+        return owner;
+    }
+
+    /**
+     * @return the ID of the <b>cm:owner</b> property QName, or <tt>null</tt>
+     */
+    public Long getOwnerQNameId()
+    {
+        return ownerQNameId;
+    }
+
+    /**
+     * @return <tt>true</tt>, the value of the <b>allowed</b> flag of the ACL entries to match
+     */
+    public boolean getAllowed()
+    {
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DBAclFilter [authorities=" + authorities.size() + ", permissions=" + permissions + ", owner=" + owner + "]";
+    }
+}
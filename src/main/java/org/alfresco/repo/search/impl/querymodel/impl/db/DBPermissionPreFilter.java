@@ -0,0 +1,406 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.querymodel.impl.db;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.domain.qname.QNameDAO;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.permissions.PermissionEntry;
+import org.alfresco.repo.security.permissions.PermissionReference;
+import org.alfresco.repo.security.permissions.impl.ModelDAO;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.alfresco.util.PropertyCheck;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mybatis.spring.SqlSessionTemplate;
+
+/**
+ * Decides whether a metadata query should exclude unreadable nodes in the database and, if so,
+ * gives it the {@link DBAclFilter} to do it.
+ * <p/>
+ * Without the pre-filter, every node matching the query is fetched and then checked for read
+ * permission, which is wasteful for users that can read only a small part of the repository.
+ * With it, the query only returns nodes whose ACL has an entry allowing read permission to one of
+ * the user's authorities (or that the user owns), so most unreadable nodes never leave the database.
+ * The usual permission checks are still made on the results.
+ * <p/>
+ * The join against the ACL entries is not free, so the pre-filter is only used when it is expected
+ * to remove a significant proportion of the rows: the number of ACLs readable by the user's set of
+ * authorities is compared with the total number of ACLs.  These counts are cached per authority set
+ * for {@link #setCostTimeToLiveMs(long) costTimeToLiveMs}.  The set of readable ACLs itself is
+ * evaluated by the database as part of the query, so changes to ACLs are seen immediately.
+ * <p/>
+ * The pre-filter is never used for the system user, administrators or when a global permission
+ * grants read permission to one of the user's authorities.  The {@link DBQueryEngine} only applies it
+ * to searches made through the secured search service (see {@link SecuredSearchInterceptor}).
+ *
+ * @since 6.1
+ */
+public class DBPermissionPreFilter
+{
+    private static final Log logger = LogFactory.getLog(DBPermissionPreFilter.class);
+
+    private static final String SELECT_READABLE_ACL_COUNT = "alfresco.metadata.query.select_ReadableAclCount";
+    private static final String SELECT_ACL_COUNT = "alfresco.metadata.query.select_AclCount";
+
+    private SqlSessionTemplate template;
+    private PermissionService permissionService;
+    private ModelDAO modelDAO;
+    private QNameDAO qnameDAO;
+
+    private boolean enabled;
+    private int maxAuthorities;
+    private double maxReadableAclRatio;
+    private long costTimeToLiveMs;
+    private int maxCachedAuthoritySets;
+    private List<String> dynamicAuthorities;
+
+    private final ConcurrentMap<Set<String>, AclCost> costs = new ConcurrentHashMap<Set<String>, AclCost>();
+    private final AtomicLong preFilteredQueries = new AtomicLong();
+    private final AtomicLong postFilteredQueries = new AtomicLong();
+
+    /**
+     * Defaults:
+     * <ul>
+     *   <li><b>enabled: </b>false</li>
+     *   <li><b>maxAuthorities: </b>500</li>
+     *   <li><b>maxReadableAclRatio: </b>0.5</li>
+     *   <li><b>costTimeToLiveMs: </b>300000</li>
+     *   <li><b>maxCachedAuthoritySets: </b>1000</li>
+     *   <li><b>dynamicAuthorities: </b>ROLE_OWNER, ROLE_LOCK_OWNER</li>
+     * </ul>
+     */
+    public DBPermissionPreFilter()
+    {
+        this.enabled = false;
+        this.maxAuthorities = 500;
+        this.maxReadableAclRatio = 0.5;
+        this.costTimeToLiveMs = 300000L;
+        this.maxCachedAuthoritySets = 1000;
+        this.dynamicAuthorities = Arrays.asList(PermissionService.OWNER_AUTHORITY, PermissionService.LOCK_OWNER_AUTHORITY);
+    }
+
+    public final void setSqlSessionTemplate(SqlSessionTemplate sqlSessionTemplate)
+    {
+        this.template = sqlSessionTemplate;
+    }
+
+    public void setPermissionService(PermissionService permissionService)
+    {
+        this.permissionService = permissionService;
+    }
+
+    public void setModelDAO(ModelDAO modelDAO)
+    {
+        this.modelDAO = modelDAO;
+    }
+
+    public void setQnameDAO(QNameDAO qnameDAO)
+    {
+        this.qnameDAO = qnameDAO;
+    }
+
+    /**
+     * @param enabled           <tt>true</tt> to consider pre-filtering queries in the database
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param maxAuthorities    the largest number of authorities a user may have for the pre-filter to be used
+     */
+    public void setMaxAuthorities(int maxAuthorities)
+    {
+        this.maxAuthorities = maxAuthorities;
+    }
+
+    /**
+     * @param maxReadableAclRatio   the largest proportion of all ACLs that may be readable by the user for
+     *                              the pre-filter to be used.  Above this, too few rows are removed to pay
+     *                              for the join.
+     */
+    public void setMaxReadableAclRatio(double maxReadableAclRatio)
+    {
+        this.maxReadableAclRatio = maxReadableAclRatio;
+    }
+
+    /**
+     * @param costTimeToLiveMs  how long (ms) the ACL counts for an authority set are kept
+     */
+    public void setCostTimeToLiveMs(long costTimeToLiveMs)
+    {
+        this.costTimeToLiveMs = costTimeToLiveMs;
+    }
+
+    /**
+     * @param maxCachedAuthoritySets    the maximum number of authority sets to keep ACL counts for
+     */
+    public void setMaxCachedAuthoritySets(int maxCachedAuthoritySets)
+    {
+        this.maxCachedAuthoritySets = maxCachedAuthoritySets;
+    }
+
+    /**
+     * @param dynamicAuthorities    the dynamic authorities that may be granted read permission on a node.
+     *                              ACL entries for these are matched for every user.
+     */
+    public void setDynamicAuthorities(List<String> dynamicAuthorities)
+    {
+        this.dynamicAuthorities = dynamicAuthorities;
+    }
+
+    public void init()
+    {
+        PropertyCheck.mandatory(this, "sqlSessionTemplate", template);
+        PropertyCheck.mandatory(this, "permissionService", permissionService);
+        PropertyCheck.mandatory(this, "modelDAO", modelDAO);
+        PropertyCheck.mandatory(this, "qnameDAO", qnameDAO);
+        PropertyCheck.mandatory(this, "dynamicAuthorities", dynamicAuthorities);
+    }
+
+    /**
+     * Give the query a permission pre-filter for the current user if it is expected to pay off.
+     *
+     * @param dbQuery           the query to filter
+     * @return                  <tt>true</tt> if the query will be pre-filtered in the database
+     */
+    public boolean apply(DBQuery dbQuery)
+    {
+        dbQuery.setAclFilter(null);
+        if (!enabled)
+        {
+            return false;
+        }
+        DBAclFilter aclFilter = getAclFilter();
+        if (aclFilter == null)
+        {
+            postFilteredQueries.incrementAndGet();
+            return false;
+        }
+        dbQuery.setAclFilter(aclFilter);
+        preFilteredQueries.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return the filter for the current user or <tt>null</tt> if the results should only be filtered after the query
+     */
+    private DBAclFilter getAclFilter()
+    {
+        String user = AuthenticationUtil.getRunAsUser();
+        if (user == null || AuthenticationUtil.isRunAsUserTheSystemUser())
+        {
+            return null;
+        }
+        Set<String> authorisations = permissionService.getAuthorisations();
+        if (authorisations.contains(PermissionService.ADMINISTRATOR_AUTHORITY))
+        {
+            return null;
+        }
+
+        Set<PermissionReference> readPermissions = getReadPermissions();
+        boolean includeOwned = false;
+        for (PermissionEntry globalEntry : modelDAO.getGlobalPermissionEntries())
+        {
+            if (!globalEntry.isAllowed() || !readPermissions.contains(globalEntry.getPermissionReference()))
+            {
+                continue;
+            }
+            String authority = globalEntry.getAuthority();
+            if (PermissionService.OWNER_AUTHORITY.equals(authority))
+            {
+                includeOwned = true;
+            }
+            else if (authorisations.contains(authority) || dynamicAuthorities.contains(authority))
+            {
+                // Read permission does not depend on the ACL
+                return null;
+            }
+        }
+
+        Set<String> authorities = new TreeSet<String>(authorisations);
+        authorities.addAll(dynamicAuthorities);
+        if (authorities.size() > maxAuthorities)
+        {
+            return null;
+        }
+        Set<String> permissionNames = new TreeSet<String>();
+        for (PermissionReference permission : readPermissions)
+        {
+            permissionNames.add(permission.getName());
+        }
+        Long ownerQNameId = null;
+        if (includeOwned)
+        {
+            Pair<Long, QName> ownerQNamePair = qnameDAO.getQName(ContentModel.PROP_OWNER);
+            ownerQNameId = (ownerQNamePair == null) ? null : ownerQNamePair.getFirst();
+        }
+        DBAclFilter aclFilter = new DBAclFilter(authorities, permissionNames, includeOwned ? user : null, ownerQNameId);
+
+        AclCost cost = getCost(authorities, aclFilter);
+        boolean worthwhile = cost.readableAcls <= cost.totalAcls * maxReadableAclRatio;
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                    "Permission pre-filter for " + user + ": " + cost.readableAcls + " of " + cost.totalAcls +
+                    " ACLs readable, " + (worthwhile ? "filtering in the database" : "filtering after the query"));
+        }
+        return worthwhile ? aclFilter : null;
+    }
+
+    /**
+     * @return the permissions that grant read permission
+     */
+    private Set<PermissionReference> getReadPermissions()
+    {
+        Set<PermissionReference> readPermissions = new HashSet<PermissionReference>(
+                modelDAO.getGrantingPermissions(modelDAO.getPermissionReference(null, PermissionService.READ)));
+        readPermissions.add(modelDAO.getPermissionReference(null, PermissionService.ALL_PERMISSIONS));
+        for (PermissionReference permission : modelDAO.getAllPermissions())
+        {
+            if (modelDAO.hasFull(permission))
+            {
+                readPermissions.add(permission);
+            }
+        }
+        return readPermissions;
+    }
+
+    private AclCost getCost(Set<String> authorities, DBAclFilter aclFilter)
+    {
+        long now = System.currentTimeMillis();
+        AclCost cost = costs.get(authorities);
+        if (cost != null && cost.expiresAt > now)
+        {
+            return cost;
+        }
+        Map<String, Object> params = new HashMap<String, Object>(3);
+        params.put("aclFilter", aclFilter);
+        Long readableAcls = (Long) template.selectOne(SELECT_READABLE_ACL_COUNT, params);
+        Long totalAcls = (Long) template.selectOne(SELECT_ACL_COUNT);
+        cost = new AclCost(
+                readableAcls == null ? 0L : readableAcls,
+                totalAcls == null ? 0L : totalAcls,
+                now + costTimeToLiveMs);
+        if (costTimeToLiveMs > 0L)
+        {
+            trim(now);
+            costs.put(Collections.unmodifiableSet(authorities), cost);
+        }
+        return cost;
+    }
+
+    /**
+     * Drop expired ACL counts and, if there are still too many, any others
+     */
+    private void trim(long now)
+    {
+        if (costs.size() < maxCachedAuthoritySets)
+        {
+            return;
+        }
+        Iterator<AclCost> it = costs.values().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().expiresAt <= now)
+            {
+                it.remove();
+            }
+        }
+        it = costs.values().iterator();
+        while (costs.size() >= maxCachedAuthoritySets && it.hasNext())
+        {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Forget the cached ACL counts
+     */
+    public void clear()
+    {
+        costs.clear();
+    }
+
+    /**
+     * @return the number of queries that were filtered in the database
+     */
+    public long getPreFilteredQueries()
+    {
+        return preFilteredQueries.get();
+    }
+
+    /**
+     * @return the number of queries that were only filtered after the query
+     */
+    public long getPostFilteredQueries()
+    {
+        return postFilteredQueries.get();
+    }
+
+    /**
+     * @return the number of authority sets with cached ACL counts
+     */
+    public int getCachedAuthoritySetCount()
+    {
+        return costs.size();
+    }
+
+    /**
+     * The number of ACLs readable by an authority set and the total number of ACLs
+     */
+    private static class AclCost
+    {
+        private final long readableAcls;
+        private final long totalAcls;
+        private final long expiresAt;
+
+        private AclCost(long readableAcls, long totalAcls, long expiresAt)
+        {
+            this.readableAcls = readableAcls;
+            this.totalAcls = totalAcls;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
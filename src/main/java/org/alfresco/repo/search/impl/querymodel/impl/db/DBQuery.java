@@ -27,6 +27,7 @@ package org.alfresco.repo.search.impl.querymodel.impl.db;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -72,8 +73,26 @@ public class DBQuery extends BaseQuery implements DBQueryBuilderComponent
 
     private Long sinceTxId;
     
+    private boolean stableOrder;
+    
+    private Long afterNodeId;
+    
+    private int maxRows;
+    
+    private int rowOffset;
+
+    private DBAclFilter aclFilter;
+    
     Set<String> selectorGroup;
 
+    private boolean prepared;
+
+    private List<DBQueryBuilderJoinCommand> preparedJoins;
+
+    private List<DBQueryBuilderPredicatePartCommand> preparedPredicateParts;
+
+    private List<Object> planKey;
+
     /**
      * @param source Source
      * @param constraint Constraint
@@ -83,6 +102,26 @@ public class DBQuery extends BaseQuery implements DBQueryBuilderComponent
         super(columns, source, constraint, orderings);
     }
 
+    /**
+     * Create a query for a single execution of a prepared query.  The prepared query model and
+     * SQL commands are shared; the store, transaction and permission parameters are not.
+     *
+     * @param preparedQuery a query that has been {@link #isPrepared() prepared}
+     */
+    public DBQuery(DBQuery preparedQuery)
+    {
+        super(preparedQuery.getColumns(), preparedQuery.getSource(), preparedQuery.getConstraint(), preparedQuery.getOrderings());
+        if (!preparedQuery.isPrepared())
+        {
+            throw new QueryModelException("The query has not been prepared");
+        }
+        this.selectorGroup = preparedQuery.selectorGroup;
+        this.prepared = true;
+        this.preparedJoins = preparedQuery.preparedJoins;
+        this.preparedPredicateParts = preparedQuery.preparedPredicateParts;
+        this.planKey = preparedQuery.planKey;
+    }
+
     /**
      * @return the storeId
      */
@@ -133,8 +172,119 @@ public class DBQuery extends BaseQuery implements DBQueryBuilderComponent
         this.sinceTxId = sinceTxId;
     }
 
+    /**
+     * @return <tt>true</tt> if the node ID is used to give the results a repeatable order
+     */
+    public boolean getStableOrder()
+    {
+        return stableOrder;
+    }
+
+    /**
+     * @param stableOrder <tt>true</tt> to order by node ID after any requested ordering, so that
+     *            consecutive chunks of the results can be read by separate queries
+     */
+    public void setStableOrder(boolean stableOrder)
+    {
+        this.stableOrder = stableOrder;
+    }
+
+    /**
+     * @return the node ID after which results are read, or <tt>null</tt> to read from the start
+     */
+    public Long getAfterNodeId()
+    {
+        return afterNodeId;
+    }
+
+    /**
+     * @param afterNodeId only read nodes with a greater ID (for results in {@link #setStableOrder(boolean)
+     *            node ID order}), or <tt>null</tt> to read from the start
+     */
+    public void setAfterNodeId(Long afterNodeId)
+    {
+        this.afterNodeId = afterNodeId;
+    }
+
+    /**
+     * @return the maximum number of rows the database returns, or <tt>0</tt> for no limit
+     */
+    public int getMaxRows()
+    {
+        return maxRows;
+    }
+
+    /**
+     * @param maxRows the maximum number of rows the database returns, or <tt>0</tt> for no limit
+     */
+    public void setMaxRows(int maxRows)
+    {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * @return the number of rows the database skips, used with {@link #getMaxRows()}
+     */
+    public int getRowOffset()
+    {
+        return rowOffset;
+    }
+
+    /**
+     * @param rowOffset the number of rows the database skips, used with {@link #setMaxRows(int)}
+     */
+    public void setRowOffset(int rowOffset)
+    {
+        this.rowOffset = rowOffset;
+    }
+
+    /**
+     * @return the permission pre-filter applied in the database, or <tt>null</tt> if there is none
+     */
+    public DBAclFilter getAclFilter()
+    {
+        return aclFilter;
+    }
+
+    /**
+     * @param aclFilter the permission pre-filter to apply in the database or <tt>null</tt> to leave
+     *            all permission checks until after the query
+     */
+    public void setAclFilter(DBAclFilter aclFilter)
+    {
+        this.aclFilter = aclFilter;
+    }
+
+    /**
+     * @return <tt>true</tt> if the query has been prepared and its SQL commands built
+     */
+    public boolean isPrepared()
+    {
+        return prepared;
+    }
+
+    /**
+     * @return the key of the query in the {@link DBQueryPlanCache} or <tt>null</tt> if it is not to be cached
+     */
+    public List<Object> getPlanKey()
+    {
+        return planKey;
+    }
+
+    /**
+     * @param planKey the key under which the query is to be cached once prepared
+     */
+    public void setPlanKey(List<Object> planKey)
+    {
+        this.planKey = planKey;
+    }
+
     public List<DBQueryBuilderJoinCommand> getJoins()
     {
+        if (prepared)
+        {
+            return preparedJoins;
+        }
         HashMap<QName, DBQueryBuilderJoinCommand> singleJoins = new HashMap<QName, DBQueryBuilderJoinCommand>();
         ArrayList<DBQueryBuilderJoinCommand> multipleJoins = new ArrayList<DBQueryBuilderJoinCommand>();
         buildJoins(singleJoins, multipleJoins);
@@ -158,6 +308,10 @@ public class DBQuery extends BaseQuery implements DBQueryBuilderComponent
 
     public List<DBQueryBuilderPredicatePartCommand> getPredicateParts()
     {
+        if (prepared)
+        {
+            return preparedPredicateParts;
+        }
         ArrayList<DBQueryBuilderPredicatePartCommand> predicatePartCommands = new ArrayList<DBQueryBuilderPredicatePartCommand>();
         buildPredicateCommands(predicatePartCommands);
         return predicatePartCommands;
@@ -201,6 +355,7 @@ public class DBQuery extends BaseQuery implements DBQueryBuilderComponent
     public void prepare(NamespaceService namespaceService, DictionaryService dictionaryService, QNameDAO qnameDAO, NodeDAO nodeDAO, TenantService tenantService, Set<String> selectors,
             Map<String, Argument> functionArgs, FunctionEvaluationContext functionContext, boolean supportBooleanFloatAndDouble)
     {
+        prepared = false;
         selectorGroup = selectors;
         if (selectorGroup != null)
         {
@@ -245,6 +400,12 @@ public class DBQuery extends BaseQuery implements DBQueryBuilderComponent
             }
         }
 
+        // Build the SQL commands once; the joins must be built first as they assign the aliases
+        List<DBQueryBuilderJoinCommand> joins = Collections.unmodifiableList(getJoins());
+        List<DBQueryBuilderPredicatePartCommand> predicateParts = Collections.unmodifiableList(getPredicateParts());
+        preparedJoins = joins;
+        preparedPredicateParts = predicateParts;
+        prepared = true;
     }
 
     /*
@@ -46,23 +46,53 @@ import org.alfresco.repo.search.impl.querymodel.QueryEngineResults;
 import org.alfresco.repo.search.impl.querymodel.QueryModelException;
 import org.alfresco.repo.search.impl.querymodel.QueryModelFactory;
 import org.alfresco.repo.search.impl.querymodel.QueryOptions;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.permissions.PermissionCheckedValue;
+import org.alfresco.repo.security.permissions.PermissionCheckedValue.PermissionCheckedValueMixin;
 import org.alfresco.repo.tenant.TenantService;
 import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.LimitBy;
 import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.util.Pair;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
 import org.mybatis.spring.SqlSessionTemplate;
 
 /**
+ * Executes metadata queries against the database.
+ * <p/>
+ * When a query made through the secured search service (see {@link SecuredSearchInterceptor}) asks
+ * for a page of results (<tt>maxItems</tt> or a final size limit) and a
+ * {@link #setPermissionService(PermissionService) permission service} is available, the rows are
+ * read in chunks of increasing size and checked for read permission as they arrive.  No further rows
+ * are read once the page (plus one row, to detect further pages) has been filled.  The number found
+ * is then estimated from up to {@link #setNumberFoundEstimateCap(int) numberFoundEstimateCap} further
+ * rows, scaled by the proportion of rows that were readable, and the results are marked as
+ * {@link PermissionCheckedValue permission checked} so that they are not filtered again.
+ * <p/>
+ * Other queries, including those made through the unsecured search service or by the system user,
+ * read every matching row without any permission checks.
+ * 
  * @author Andy
  */
 public class DBQueryEngine implements QueryEngine
 {
+    private static final Log logger = LogFactory.getLog(DBQueryEngine.class);
+
     private static final String SELECT_BY_DYNAMIC_QUERY = "alfresco.metadata.query.select_byDynamicQuery";
     
+    private static final int MIN_CHUNK_SIZE = 100;
+
     private SqlSessionTemplate template;
 
     private QNameDAO qnameDAO;
@@ -79,6 +109,22 @@ public class DBQueryEngine implements QueryEngine
     
     private OptionalPatchApplicationCheckBootstrapBean metadataIndexCheck2;
 
+    private PermissionService permissionService;
+
+    private DBPermissionPreFilter permissionPreFilter;
+
+    private DBQueryPlanCache planCache;
+
+    private boolean pageStreamingEnabled = true;
+
+    private int maxChunkSize = 10000;
+
+    private int numberFoundEstimateCap = 1000;
+
+    private int maxPermissionChecks = Integer.MAX_VALUE;
+
+    private long maxPermissionCheckTimeMillis = Long.MAX_VALUE;
+
     public void setMetadataIndexCheck2(OptionalPatchApplicationCheckBootstrapBean metadataIndexCheck2)
     {
         this.metadataIndexCheck2 = metadataIndexCheck2;
@@ -137,6 +183,71 @@ public class DBQueryEngine implements QueryEngine
         this.nodeDAO = nodeDAO;
     }
 
+    /**
+     * @param permissionService the permission service used to fill pages of secured search results incrementally
+     */
+    public void setPermissionService(PermissionService permissionService)
+    {
+        this.permissionService = permissionService;
+    }
+
+    /**
+     * @param permissionPreFilter decides whether unreadable nodes are excluded by the query itself
+     *                            for searches made through the secured search service
+     */
+    public void setPermissionPreFilter(DBPermissionPreFilter permissionPreFilter)
+    {
+        this.permissionPreFilter = permissionPreFilter;
+    }
+
+    /**
+     * @param planCache the cache that prepared queries with a plan key are given to
+     */
+    public void setPlanCache(DBQueryPlanCache planCache)
+    {
+        this.planCache = planCache;
+    }
+
+    /**
+     * @param pageStreamingEnabled <tt>false</tt> to always read every matching row
+     */
+    public void setPageStreamingEnabled(boolean pageStreamingEnabled)
+    {
+        this.pageStreamingEnabled = pageStreamingEnabled;
+    }
+
+    /**
+     * @param maxChunkSize the largest number of rows read by a single query when filling a page
+     */
+    public void setMaxChunkSize(int maxChunkSize)
+    {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * @param numberFoundEstimateCap the maximum number of rows read beyond a filled page to estimate the number found
+     */
+    public void setNumberFoundEstimateCap(int numberFoundEstimateCap)
+    {
+        this.numberFoundEstimateCap = numberFoundEstimateCap;
+    }
+
+    /**
+     * @param maxPermissionChecks the default maximum number of permission checks made when filling a page
+     */
+    public void setMaxPermissionChecks(int maxPermissionChecks)
+    {
+        this.maxPermissionChecks = maxPermissionChecks;
+    }
+
+    /**
+     * @param maxPermissionCheckTimeMillis the default maximum time spent on permission checks when filling a page
+     */
+    public void setMaxPermissionCheckTimeMillis(long maxPermissionCheckTimeMillis)
+    {
+        this.maxPermissionCheckTimeMillis = maxPermissionCheckTimeMillis;
+    }
+
     /*
      * (non-Javadoc)
      * @see
@@ -170,6 +281,11 @@ public class DBQueryEngine implements QueryEngine
         key.add("");
         Map<Set<String>, ResultSet> answer = new HashMap<Set<String>, ResultSet>();
         DBQuery dbQuery = (DBQuery)query;
+        if (dbQuery.isPrepared())
+        {
+            // A cached plan: execute a copy so that concurrent executions do not share parameters
+            dbQuery = new DBQuery(dbQuery);
+        }
         
         if(options.getStores().size() > 1)
         {
@@ -204,21 +320,254 @@ public class DBQueryEngine implements QueryEngine
         }
         dbQuery.setSinceTxId(sinceTxId);
         
-        dbQuery.prepare(namespaceService, dictionaryService, qnameDAO, nodeDAO, tenantService, selectorGroup, null, functionContext, metadataIndexCheck2.getPatchApplied());
-        List<Node> nodes = template.selectList(SELECT_BY_DYNAMIC_QUERY, dbQuery);
-        LinkedHashSet<Long> set = new LinkedHashSet<Long>(nodes.size());
-        for(Node node : nodes)
+        if (permissionPreFilter != null && SecuredSearchInterceptor.isSecured())
         {
-            set.add(node.getId());
+            permissionPreFilter.apply(dbQuery);
+        }
+        else
+        {
+            // Searches that are not filtered for read permission return every matching node
+            dbQuery.setAclFilter(null);
         }
-        List<Long> nodeIds = new ArrayList<Long>(set);
-        ResultSet rs =  new DBResultSet(options.getAsSearchParmeters(), nodeIds, nodeDAO, nodeService, tenantService, Integer.MAX_VALUE);
-        ResultSet paged = new PagingLuceneResultSet(rs, options.getAsSearchParmeters(), nodeService);
+        
+        SearchParameters searchParameters = options.getAsSearchParmeters();
+        int pageEnd = getPageEnd(searchParameters);
+        ResultSet rs;
+        if (!dbQuery.isPrepared())
+        {
+            prepare(dbQuery, selectorGroup, functionContext);
+        }
+        if (pageStreamingEnabled && pageEnd >= 0 && isSecured())
+        {
+            // Stable ordering so that the same rows are seen when reading successive chunks
+            dbQuery.setStableOrder(true);
+            rs = selectPage(dbQuery, searchParameters, pageEnd);
+        }
+        else
+        {
+            final LinkedHashSet<Long> set = new LinkedHashSet<Long>();
+            template.select(SELECT_BY_DYNAMIC_QUERY, dbQuery, new ResultHandler()
+            {
+                @Override
+                public void handleResult(ResultContext context)
+                {
+                    set.add(((Node) context.getResultObject()).getId());
+                }
+            });
+            List<Long> nodeIds = new ArrayList<Long>(set);
+            rs = new DBResultSet(searchParameters, nodeIds, nodeDAO, nodeService, tenantService, Integer.MAX_VALUE);
+        }
+        ResultSet paged = new PagingLuceneResultSet(rs, searchParameters, nodeService);
         
         answer.put(key, paged);
         return new QueryEngineResults(answer);
     }
 
+    /**
+     * @return <tt>true</tt> if the results will be filtered for read permission by the search service
+     */
+    private boolean isSecured()
+    {
+        return permissionService != null && SecuredSearchInterceptor.isSecured() && !AuthenticationUtil.isRunAsUserTheSystemUser();
+    }
+
+    /**
+     * Prepare the query and, if it has a plan key, offer it to the plan cache
+     */
+    private void prepare(DBQuery dbQuery, Set<String> selectorGroup, FunctionEvaluationContext functionContext)
+    {
+        long start = System.nanoTime();
+        MissRecordingQNameDAO recordingQNameDAO = new MissRecordingQNameDAO(qnameDAO);
+        dbQuery.prepare(namespaceService, dictionaryService, recordingQNameDAO, nodeDAO, tenantService, selectorGroup, null, functionContext, metadataIndexCheck2.getPatchApplied());
+        if (planCache != null)
+        {
+            planCache.recordPrepareTime(System.nanoTime() - start);
+            planCache.putPlan(dbQuery, !recordingQNameDAO.missed);
+        }
+    }
+
+    /**
+     * @return the number of readable results needed to fill the requested page (including skipped results)
+     *         or <tt>-1</tt> if the query is not paged
+     */
+    private int getPageEnd(SearchParameters searchParameters)
+    {
+        int pageSize = -1;
+        if (searchParameters.getMaxItems() >= 0)
+        {
+            pageSize = searchParameters.getMaxItems();
+        }
+        else if (searchParameters.getLimitBy() == LimitBy.FINAL_SIZE && searchParameters.getLimit() >= 0)
+        {
+            pageSize = searchParameters.getLimit();
+        }
+        if (pageSize < 0)
+        {
+            return -1;
+        }
+        long pageEnd = (long) pageSize + Math.max(0, searchParameters.getSkipCount());
+        return pageEnd >= Integer.MAX_VALUE - 1 ? -1 : (int) pageEnd;
+    }
+
+    /**
+     * Read rows in chunks, keeping the readable nodes, until the page is filled or the rows run out.
+     * Each chunk is limited in the database: rows in node ID order are read after the last node ID
+     * seen, otherwise by offset into the requested order.
+     */
+    private ResultSet selectPage(DBQuery dbQuery, SearchParameters searchParameters, int pageEnd)
+    {
+        // One more than the page to show that there are further results
+        int required = pageEnd + 1;
+        int maxChecks = searchParameters.getMaxPermissionChecks() >= 0 ? searchParameters.getMaxPermissionChecks() : maxPermissionChecks;
+        long maxCheckTime = searchParameters.getMaxPermissionCheckTimeMillis() >= 0 ? searchParameters.getMaxPermissionCheckTimeMillis() : maxPermissionCheckTimeMillis;
+
+        final Set<Long> seen = new HashSet<Long>();
+        List<Long> readable = new ArrayList<Long>(Math.min(required, 1000));
+        int offset = 0;
+        int chunkSize = (int) Math.min(Math.max(MIN_CHUNK_SIZE, 2L * required), Math.max(MIN_CHUNK_SIZE, maxChunkSize));
+        int checks = 0;
+        int unchecked = 0;
+        boolean exhausted = false;
+        LimitBy limitBy = LimitBy.UNLIMITED;
+        long startTime = System.currentTimeMillis();
+        int queries = 0;
+        boolean keyset = !dbQuery.getHasPredicatePartsOrder();
+        Long lastNodeId = null;
+
+        fill:
+        while (true)
+        {
+            setWindow(dbQuery, keyset, lastNodeId, offset, chunkSize);
+            List<Node> rows = template.selectList(SELECT_BY_DYNAMIC_QUERY, dbQuery);
+            queries++;
+            offset += rows.size();
+            exhausted = rows.size() < chunkSize;
+            if (!rows.isEmpty())
+            {
+                lastNodeId = rows.get(rows.size() - 1).getId();
+            }
+
+            List<Long> candidates = new ArrayList<Long>(rows.size());
+            for (Node row : rows)
+            {
+                if (seen.add(row.getId()))
+                {
+                    candidates.add(row.getId());
+                }
+            }
+            nodeDAO.cacheNodesById(candidates);
+            for (int i = 0; i < candidates.size(); i++)
+            {
+                if (readable.size() >= required)
+                {
+                    limitBy = LimitBy.FINAL_SIZE;
+                    unchecked = candidates.size() - i;
+                    break fill;
+                }
+                if (checks >= maxChecks || System.currentTimeMillis() - startTime > maxCheckTime)
+                {
+                    limitBy = LimitBy.NUMBER_OF_PERMISSION_EVALUATIONS;
+                    unchecked = candidates.size() - i;
+                    break fill;
+                }
+                checks++;
+                Long nodeId = candidates.get(i);
+                Pair<Long, NodeRef> nodePair = nodeDAO.getNodePair(nodeId);
+                if (nodePair == null)
+                {
+                    continue;
+                }
+                NodeRef nodeRef = tenantService.getBaseName(nodePair.getSecond());
+                if (permissionService.hasReadPermission(nodeRef) == AccessStatus.ALLOWED)
+                {
+                    readable.add(nodeId);
+                }
+            }
+            if (readable.size() >= required)
+            {
+                limitBy = LimitBy.FINAL_SIZE;
+                break;
+            }
+            if (exhausted)
+            {
+                break;
+            }
+            chunkSize = (int) Math.min(2L * chunkSize, Math.max(chunkSize, maxChunkSize));
+        }
+
+        // Estimate the number found from a limited number of further rows
+        long numberFound = readable.size();
+        if (limitBy != LimitBy.UNLIMITED)
+        {
+            int estimateCap = Math.max(0, numberFoundEstimateCap);
+            int remaining = Math.min(unchecked, estimateCap);
+            if (!exhausted && remaining < estimateCap)
+            {
+                remaining += countFurtherRows(dbQuery, keyset, lastNodeId, offset, estimateCap - remaining, seen);
+            }
+            double readableRatio = checks == 0 ? 1.0 : (double) readable.size() / checks;
+            numberFound = readable.size() + Math.round(remaining * readableRatio);
+            if (limitBy == LimitBy.NUMBER_OF_PERMISSION_EVALUATIONS)
+            {
+                // Whatever the estimate, there may be more results than were checked
+                numberFound = Math.max(numberFound, readable.size() + 1L);
+            }
+        }
+
+        // Do not leave the window on a query that may be kept as a cached plan
+        setWindow(dbQuery, false, null, 0, 0);
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                    "Filled page of " + pageEnd + " results from " + offset + " rows in " + queries + " queries; " +
+                    checks + " permission checks, " + readable.size() + " readable, limited by " + limitBy +
+                    ", number found " + numberFound);
+        }
+        ResultSet rs = new DBResultSet(searchParameters, readable, nodeDAO, nodeService, tenantService, Integer.MAX_VALUE, numberFound, limitBy);
+        return PermissionCheckedValueMixin.create(rs);
+    }
+
+    /**
+     * Limit the rows returned by the database to those following the rows already read
+     *
+     * @param keyset        <tt>true</tt> if the rows are in node ID order and can be read after the last node ID
+     * @param lastNodeId    the ID of the last node read, if any
+     * @param offset        the number of rows already read
+     * @param maxRows       the number of rows to read or <tt>0</tt> to remove the limit
+     */
+    private void setWindow(DBQuery dbQuery, boolean keyset, Long lastNodeId, int offset, int maxRows)
+    {
+        dbQuery.setAfterNodeId(keyset ? lastNodeId : null);
+        dbQuery.setRowOffset(keyset ? 0 : offset);
+        dbQuery.setMaxRows(maxRows);
+    }
+
+    /**
+     * Count the distinct nodes in up to <tt>limit</tt> rows following those already read
+     */
+    private int countFurtherRows(DBQuery dbQuery, boolean keyset, Long lastNodeId, int offset, int limit, final Set<Long> seen)
+    {
+        if (limit <= 0)
+        {
+            return 0;
+        }
+        final int[] count = new int[] {0};
+        setWindow(dbQuery, keyset, lastNodeId, offset, limit);
+        template.select(SELECT_BY_DYNAMIC_QUERY, dbQuery, new ResultHandler()
+        {
+            @Override
+            public void handleResult(ResultContext context)
+            {
+                if (seen.add(((Node) context.getResultObject()).getId()))
+                {
+                    count[0]++;
+                }
+            }
+        });
+        return count[0];
+    }
+
     /*
      * (non-Javadoc)
      * @see org.alfresco.repo.search.impl.querymodel.QueryEngine#getQueryModelFactory()
@@ -229,4 +578,104 @@ public class DBQueryEngine implements QueryEngine
         return new DBQueryModelFactory();
     }
 
+    /**
+     * Notes whether any QName or namespace looked up while preparing a query was missing, in
+     * which case the prepared query must not be reused.
+     */
+    private static class MissRecordingQNameDAO implements QNameDAO
+    {
+        private final QNameDAO qnameDAO;
+        private boolean missed;
+
+        private MissRecordingQNameDAO(QNameDAO qnameDAO)
+        {
+            this.qnameDAO = qnameDAO;
+        }
+
+        private <T> T record(T result)
+        {
+            if (result == null)
+            {
+                missed = true;
+            }
+            return result;
+        }
+
+        @Override
+        public Pair<Long, String> getNamespace(Long id)
+        {
+            return record(qnameDAO.getNamespace(id));
+        }
+
+        @Override
+        public Pair<Long, String> getNamespace(String namespaceUri)
+        {
+            return record(qnameDAO.getNamespace(namespaceUri));
+        }
+
+        @Override
+        public Pair<Long, String> getOrCreateNamespace(String namespaceUri)
+        {
+            return qnameDAO.getOrCreateNamespace(namespaceUri);
+        }
+
+        @Override
+        public void updateNamespace(String oldNamespaceUri, String newNamespaceUri)
+        {
+            qnameDAO.updateNamespace(oldNamespaceUri, newNamespaceUri);
+        }
+
+        @Override
+        public Pair<Long, QName> getQName(Long id)
+        {
+            return record(qnameDAO.getQName(id));
+        }
+
+        @Override
+        public Pair<Long, QName> getQName(QName qname)
+        {
+            return record(qnameDAO.getQName(qname));
+        }
+
+        @Override
+        public Pair<Long, QName> getOrCreateQName(QName qname)
+        {
+            return qnameDAO.getOrCreateQName(qname);
+        }
+
+        @Override
+        public Pair<Long, QName> updateQName(QName qnameOld, QName qnameNew)
+        {
+            return qnameDAO.updateQName(qnameOld, qnameNew);
+        }
+
+        @Override
+        public void deleteQName(QName qname)
+        {
+            qnameDAO.deleteQName(qname);
+        }
+
+        @Override
+        public Set<QName> convertIdsToQNames(Set<Long> ids)
+        {
+            return qnameDAO.convertIdsToQNames(ids);
+        }
+
+        @Override
+        public Map<QName, ? extends Object> convertIdMapToQNameMap(Map<Long, ? extends Object> idMap)
+        {
+            return qnameDAO.convertIdMapToQNameMap(idMap);
+        }
+
+        @Override
+        public Set<Long> convertQNamesToIds(Set<QName> qnames, boolean create)
+        {
+            Set<Long> ids = qnameDAO.convertQNamesToIds(qnames, create);
+            if (ids.size() < qnames.size())
+            {
+                missed = true;
+            }
+            return ids;
+        }
+    }
 }
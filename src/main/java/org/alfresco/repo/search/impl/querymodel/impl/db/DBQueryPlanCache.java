@@ -0,0 +1,349 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.querymodel.impl.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.dictionary.DictionaryDAO;
+import org.alfresco.repo.dictionary.DictionaryListener;
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.util.PropertyCheck;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Bounded cache of prepared metadata queries.
+ * <p/>
+ * Parsing an FTS or CMIS query, building the query model and preparing it (resolving types, aspects
+ * and properties against the dictionary and their QName IDs) is repeated for every execution of a
+ * query.  Once a {@link DBQuery} has been prepared it is kept here under a key made of the
+ * {@link #normalise(String) normalised} query text, the options that affect its parsing and the
+ * tenant.  Later executions of the same query start from a copy of the prepared query.
+ * <p/>
+ * A query is only cached if every QName it referred to was found while preparing it, so that a
+ * query against a type or property that is not yet in use does not keep failing to match once it is.
+ * All plans are dropped when the dictionary is reloaded.  The least recently used plan is dropped
+ * when there are more than {@link #setMaxPlans(int) maxPlans}.
+ *
+ * @since 6.1
+ */
+public class DBQueryPlanCache implements DBQueryPlanCacheMBean, DictionaryListener
+{
+    private static final Log logger = LogFactory.getLog(DBQueryPlanCache.class);
+
+    private DictionaryDAO dictionaryDAO;
+    private boolean enabled;
+    private int maxPlans;
+
+    private Map<List<Object>, DBQuery> plans;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong uncacheable = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong parseTimeNs = new AtomicLong();
+    private final AtomicLong prepareTimeNs = new AtomicLong();
+
+    /**
+     * Defaults:
+     * <ul>
+     *   <li><b>enabled: </b>true</li>
+     *   <li><b>maxPlans: </b>500</li>
+     * </ul>
+     */
+    public DBQueryPlanCache()
+    {
+        this.enabled = true;
+        this.maxPlans = 500;
+    }
+
+    public void setDictionaryDAO(DictionaryDAO dictionaryDAO)
+    {
+        this.dictionaryDAO = dictionaryDAO;
+    }
+
+    /**
+     * @param enabled           <tt>false</tt> to parse and prepare every query
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param maxPlans          the maximum number of prepared queries to keep
+     */
+    public void setMaxPlans(int maxPlans)
+    {
+        this.maxPlans = maxPlans;
+    }
+
+    public void init()
+    {
+        PropertyCheck.mandatory(this, "dictionaryDAO", dictionaryDAO);
+        final int max = maxPlans;
+        plans = new LinkedHashMap<List<Object>, DBQuery>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, DBQuery> eldest)
+            {
+                return size() > max;
+            }
+        };
+        dictionaryDAO.registerListener(this);
+    }
+
+    /**
+     * Build the key of a query.  The current tenant is added to the given parts.
+     *
+     * @param language          the query language
+     * @param query             the query text, which is {@link #normalise(String) normalised}
+     * @param options           anything else that changes how the query is parsed or prepared
+     * @return                  the key or <tt>null</tt> if plans are not being cached
+     */
+    public List<Object> getKey(String language, String query, Object ... options)
+    {
+        if (!enabled || query == null)
+        {
+            return null;
+        }
+        List<Object> key = new ArrayList<Object>(options.length + 3);
+        key.add(language);
+        key.add(normalise(query));
+        key.add(TenantUtil.getCurrentDomain());
+        key.addAll(Arrays.asList(options));
+        return key;
+    }
+
+    /**
+     * @param key               the key of the query, which may be <tt>null</tt>
+     * @return                  the prepared query or <tt>null</tt> if it must be parsed.  The query
+     *                          must not be changed; the {@link DBQueryEngine} executes a copy of it.
+     */
+    public DBQuery getPlan(List<Object> key)
+    {
+        if (key == null)
+        {
+            return null;
+        }
+        DBQuery plan;
+        synchronized (plans)
+        {
+            plan = plans.get(key);
+        }
+        if (plan == null)
+        {
+            misses.incrementAndGet();
+        }
+        else
+        {
+            hits.incrementAndGet();
+        }
+        return plan;
+    }
+
+    /**
+     * Keep a prepared query for later executions
+     *
+     * @param dbQuery           the prepared query, with its {@link DBQuery#getPlanKey() plan key}
+     * @param cacheable         <tt>false</tt> if the prepared query depends on something that may change
+     */
+    public void putPlan(DBQuery dbQuery, boolean cacheable)
+    {
+        List<Object> key = dbQuery.getPlanKey();
+        if (key == null || !enabled || !dbQuery.isPrepared())
+        {
+            return;
+        }
+        if (!cacheable)
+        {
+            uncacheable.incrementAndGet();
+            return;
+        }
+        synchronized (plans)
+        {
+            plans.put(key, dbQuery);
+        }
+    }
+
+    /**
+     * @param timeNs            the time (ns) spent parsing a query that had no cached plan
+     */
+    public void recordParseTime(long timeNs)
+    {
+        parseTimeNs.addAndGet(timeNs);
+    }
+
+    /**
+     * @param timeNs            the time (ns) spent preparing a query
+     */
+    public void recordPrepareTime(long timeNs)
+    {
+        prepareTimeNs.addAndGet(timeNs);
+    }
+
+    /**
+     * Normalise the text of a query so that insignificant differences in white space do not give
+     * different keys.  Runs of white space outside of quotes become a single space.
+     */
+    public static String normalise(String query)
+    {
+        StringBuilder normalised = new StringBuilder(query.length());
+        char quote = 0;
+        boolean escaped = false;
+        boolean space = false;
+        for (int i = 0; i < query.length(); i++)
+        {
+            char c = query.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c))
+            {
+                space = true;
+                continue;
+            }
+            if (space && normalised.length() > 0)
+            {
+                normalised.append(' ');
+            }
+            space = false;
+            normalised.append(c);
+            if (escaped)
+            {
+                escaped = false;
+            }
+            else if (c == '\\')
+            {
+                escaped = true;
+            }
+            else if (quote == 0 && (c == '"' || c == '\''))
+            {
+                quote = c;
+            }
+            else if (c == quote)
+            {
+                quote = 0;
+            }
+        }
+        return normalised.toString();
+    }
+
+    @Override
+    public void onDictionaryInit()
+    {
+    }
+
+    @Override
+    public void afterDictionaryInit()
+    {
+        invalidate();
+    }
+
+    @Override
+    public void afterDictionaryDestroy()
+    {
+        invalidate();
+    }
+
+    private void invalidate()
+    {
+        invalidations.incrementAndGet();
+        clear();
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Dictionary changed: cleared the metadata query plan cache");
+        }
+    }
+
+    @Override
+    public void clear()
+    {
+        synchronized (plans)
+        {
+            plans.clear();
+        }
+    }
+
+    @Override
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    @Override
+    public long getUncacheable()
+    {
+        return uncacheable.get();
+    }
+
+    @Override
+    public long getInvalidations()
+    {
+        return invalidations.get();
+    }
+
+    @Override
+    public long getParseTimeMs()
+    {
+        return parseTimeNs.get() / 1000000L;
+    }
+
+    @Override
+    public long getPrepareTimeMs()
+    {
+        return prepareTimeNs.get() / 1000000L;
+    }
+
+    @Override
+    public int getCachedPlanCount()
+    {
+        synchronized (plans)
+        {
+            return plans.size();
+        }
+    }
+
+    @Override
+    public void resetStatistics()
+    {
+        hits.set(0L);
+        misses.set(0L);
+        uncacheable.set(0L);
+        invalidations.set(0L);
+        parseTimeNs.set(0L);
+        prepareTimeNs.set(0L);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.querymodel.impl.db;
+
+/**
+ * Management interface for the {@link DBQueryPlanCache}.
+ *
+ * @since 6.1
+ */
+public interface DBQueryPlanCacheMBean
+{
+    /**
+     * @return          the number of queries that used a cached plan
+     */
+    public long getHits();
+
+    /**
+     * @return          the number of queries that had to be parsed and prepared
+     */
+    public long getMisses();
+
+    /**
+     * @return          the number of prepared queries that could not be cached
+     */
+    public long getUncacheable();
+
+    /**
+     * @return          the number of times the cache was cleared because the dictionary changed
+     */
+    public long getInvalidations();
+
+    /**
+     * @return          the total time (ms) spent parsing queries
+     */
+    public long getParseTimeMs();
+
+    /**
+     * @return          the total time (ms) spent preparing queries
+     */
+    public long getPrepareTimeMs();
+
+    /**
+     * @return          the number of cached plans
+     */
+    public int getCachedPlanCount();
+
+    /**
+     * Remove all cached plans
+     */
+    public void clear();
+
+    /**
+     * Reset all counters
+     */
+    public void resetStatistics();
+}
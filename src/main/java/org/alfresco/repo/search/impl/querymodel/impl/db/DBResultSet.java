@@ -63,8 +63,21 @@ public class DBResultSet extends AbstractResultSet
     
     private BitSet prefetch;
     
+    private long numberFound;
+    
     public DBResultSet(SearchParameters searchParameters, List<Long> dbids, NodeDAO nodeDao,  NodeService nodeService, TenantService tenantService, int maximumResultsFromUnlimitedQuery)
     {
+        this(searchParameters, dbids, nodeDao, nodeService, tenantService, maximumResultsFromUnlimitedQuery, dbids.size(), null);
+    }
+    
+    /**
+     * @param numberFound       the (possibly estimated) number of results, which may exceed the IDs held
+     * @param limitedBy         how the results were limited or <tt>null</tt> to derive it from the search parameters
+     */
+    public DBResultSet(SearchParameters searchParameters, List<Long> dbids, NodeDAO nodeDao,  NodeService nodeService, TenantService tenantService, int maximumResultsFromUnlimitedQuery,
+            long numberFound, LimitBy limitedBy)
+    {
+        this.numberFound = numberFound;
         this.nodeDao = nodeDao;
         this.dbids = dbids;
         this.nodeService = nodeService;
@@ -72,6 +85,12 @@ public class DBResultSet extends AbstractResultSet
         this.prefetch = new BitSet(dbids.size());
         nodeRefs= new NodeRef[(dbids.size())];
         
+        if (limitedBy != null)
+        {
+            this.resultSetMetaData = new SimpleResultSetMetaData(limitedBy, PermissionEvaluationMode.EAGER, searchParameters);
+            return;
+        }
+        
         final LimitBy limitBy;
         int maxResults = -1;
         if (searchParameters.getMaxItems() >= 0)
@@ -114,7 +133,7 @@ public class DBResultSet extends AbstractResultSet
     @Override
     public long getNumberFound()
     {
-        return dbids.size();
+        return numberFound;
     }
 
     /* (non-Javadoc)
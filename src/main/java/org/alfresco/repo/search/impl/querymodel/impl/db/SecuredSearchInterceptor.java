@@ -0,0 +1,76 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.querymodel.impl.db;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Marks the searches made through a public search service whose results are filtered for read
+ * permission by its security interceptor.  Only these searches may have unreadable nodes removed
+ * by the {@link DBQueryEngine} itself: searches through the unsecured service return every node.
+ * <p/>
+ * The interceptor must follow the security interceptor, so that it is only reached by invocations
+ * that the security interceptor will filter.  Where the public services are unsecured it should be
+ * replaced along with the security interceptor.
+ *
+ * @since 6.1
+ */
+public class SecuredSearchInterceptor implements MethodInterceptor
+{
+    private static final ThreadLocal<Boolean> secured = new ThreadLocal<Boolean>();
+
+    @Override
+    public Object invoke(MethodInvocation mi) throws Throwable
+    {
+        Boolean previous = secured.get();
+        secured.set(Boolean.TRUE);
+        try
+        {
+            return mi.proceed();
+        }
+        finally
+        {
+            if (previous == null)
+            {
+                secured.remove();
+            }
+            else
+            {
+                secured.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @return          <tt>true</tt> if the current thread is making a search whose results will be
+     *                  filtered for read permission
+     */
+    public static boolean isSecured()
+    {
+        return secured.get() != null;
+    }
+}
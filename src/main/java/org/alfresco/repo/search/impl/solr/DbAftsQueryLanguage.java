@@ -25,13 +25,24 @@
  */
 package org.alfresco.repo.search.impl.solr;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
 import org.alfresco.repo.admin.patch.OptionalPatchApplicationCheckBootstrapBean;
 import org.alfresco.repo.search.impl.lucene.ADMLuceneSearcherImpl;
 import org.alfresco.repo.search.impl.lucene.AbstractAlfrescoFtsQueryLanguage;
+import org.alfresco.repo.search.impl.parsers.AlfrescoFunctionEvaluationContext;
+import org.alfresco.repo.search.impl.querymodel.Query;
 import org.alfresco.repo.search.impl.querymodel.QueryModelException;
+import org.alfresco.repo.search.impl.querymodel.QueryModelFactory;
+import org.alfresco.repo.search.impl.querymodel.QueryOptions;
+import org.alfresco.repo.search.impl.querymodel.impl.db.DBQuery;
+import org.alfresco.repo.search.impl.querymodel.impl.db.DBQueryPlanCache;
 import org.alfresco.service.cmr.dictionary.DictionaryService;
 import org.alfresco.service.cmr.search.ResultSet;
 import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchParameters.SortDefinition;
 import org.alfresco.service.namespace.NamespacePrefixResolver;
 import org.alfresco.service.namespace.NamespaceService;
 
@@ -48,6 +59,8 @@ public class DbAftsQueryLanguage  extends AbstractAlfrescoFtsQueryLanguage
     OptionalPatchApplicationCheckBootstrapBean metadataIndexCheck1;
     
     OptionalPatchApplicationCheckBootstrapBean metadataIndexCheck2;
+    
+    DBQueryPlanCache planCache;
 
     /**
      * @param metadataIndexCheck1 the metadataIndexCheck1 to set
@@ -65,6 +78,14 @@ public class DbAftsQueryLanguage  extends AbstractAlfrescoFtsQueryLanguage
         this.metadataIndexCheck2 = metadataIndexCheck2;
     }
 
+    /**
+     * @param planCache the cache of prepared queries, may be <tt>null</tt>
+     */
+    public void setPlanCache(DBQueryPlanCache planCache)
+    {
+        this.planCache = planCache;
+    }
+
     /**
      ** @param namespaceService the namespaceService to set
      */
@@ -99,6 +120,45 @@ public class DbAftsQueryLanguage  extends AbstractAlfrescoFtsQueryLanguage
         return dictionaryService;
     }
 
+    /**
+     * Use the prepared query from the plan cache if there is one.  Otherwise the parsed query is
+     * given a plan key so that the query engine caches it once it has been prepared.
+     */
+    @Override
+    protected Query buildQuery(SearchParameters searchParameters, QueryOptions options, QueryModelFactory factory, AlfrescoFunctionEvaluationContext context)
+    {
+        if (planCache == null)
+        {
+            return super.buildQuery(searchParameters, options, factory, context);
+        }
+        List<String> sorts = new ArrayList<String>(searchParameters.getSortDefinitions().size());
+        for (SortDefinition sd : searchParameters.getSortDefinitions())
+        {
+            sorts.add(sd.getSortType() + ":" + sd.getField() + ":" + sd.isAscending());
+        }
+        List<Object> key = planCache.getKey(getName(), searchParameters.getQuery(),
+                searchParameters.getNamespace(),
+                options.getDefaultFTSConnective(),
+                options.getDefaultFTSFieldConnective(),
+                options.getDefaultFieldName(),
+                new HashMap<String, String>(searchParameters.getQueryTemplates()),
+                sorts,
+                metadataIndexCheck2.getPatchApplied());
+        DBQuery plan = planCache.getPlan(key);
+        if (plan != null)
+        {
+            return plan;
+        }
+        long start = System.nanoTime();
+        Query query = super.buildQuery(searchParameters, options, factory, context);
+        if (key != null && query instanceof DBQuery)
+        {
+            planCache.recordParseTime(System.nanoTime() - start);
+            ((DBQuery) query).setPlanKey(key);
+        }
+        return query;
+    }
+
     public DbAftsQueryLanguage()
     {
         this.setName("db-afts");
@@ -25,6 +25,7 @@
  */
 package org.alfresco.repo.search.impl.solr;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 
@@ -41,7 +42,9 @@ import org.alfresco.repo.search.impl.lucene.AbstractLuceneQueryLanguage;
 import org.alfresco.repo.search.impl.querymodel.QueryEngine;
 import org.alfresco.repo.search.impl.querymodel.QueryEngineResults;
 import org.alfresco.repo.search.impl.querymodel.QueryModelException;
+import org.alfresco.repo.search.impl.querymodel.impl.db.DBQuery;
 import org.alfresco.repo.search.impl.querymodel.impl.db.DBQueryModelFactory;
+import org.alfresco.repo.search.impl.querymodel.impl.db.DBQueryPlanCache;
 import org.alfresco.repo.search.impl.querymodel.impl.lucene.LuceneQueryModelFactory;
 import org.alfresco.service.cmr.search.ResultSet;
 import org.alfresco.service.cmr.search.SearchParameters;
@@ -61,6 +64,7 @@ public class DbCmisQueryLanguage extends AbstractLuceneQueryLanguage
     
     OptionalPatchApplicationCheckBootstrapBean metadataIndexCheck2;
     
+    DBQueryPlanCache planCache;
    
 
     /**
@@ -81,6 +85,15 @@ public class DbCmisQueryLanguage extends AbstractLuceneQueryLanguage
     }
 
 
+    /**
+     * @param planCache the cache of prepared queries, may be <tt>null</tt>
+     */
+    public void setPlanCache(DBQueryPlanCache planCache)
+    {
+        this.planCache = planCache;
+    }
+
+
     /**
      * Set the query engine
      * 
@@ -132,8 +145,31 @@ public class DbCmisQueryLanguage extends AbstractLuceneQueryLanguage
         functionContext.setCmisDictionaryService(cmisDictionaryService);
         functionContext.setValidScopes(validScopes);
 
+        List<Object> planKey = null;
+        if (planCache != null)
+        {
+            planKey = planCache.getKey(getName(), searchParameters.getQuery(),
+                    cmisDictionaryService,
+                    options.getDefaultFTSConnective(),
+                    options.getDefaultFTSFieldConnective(),
+                    new HashMap<String, String>(searchParameters.getQueryTemplates()),
+                    metadataIndexCheck2.getPatchApplied());
+            DBQuery plan = planCache.getPlan(planKey);
+            if (plan != null)
+            {
+                QueryEngineResults results = queryEngine.executeQuery(plan, options, functionContext);
+                return results.getResults().values().iterator().next();
+            }
+        }
+
+        long start = System.nanoTime();
         CMISQueryParser parser = new CMISQueryParser(options, cmisDictionaryService, joinSupport);
         org.alfresco.repo.search.impl.querymodel.Query queryModelQuery = parser.parse(new DBQueryModelFactory(), functionContext);
+        if (planKey != null && queryModelQuery instanceof DBQuery)
+        {
+            planCache.recordParseTime(System.nanoTime() - start);
+            ((DBQuery) queryModelQuery).setPlanKey(planKey);
+        }
 
         // build lucene query
         Set<String> selectorGroup = null;
@@ -502,6 +502,11 @@ public class ACLEntryAfterInvocationProvider implements AfterInvocationProvider,
         {
             return returnedObject;
         }
+        // Results that were filtered as they were read keep their own number found
+        if(raw instanceof PermissionCheckedValue)
+        {
+            return returnedObject;
+        }
         ResultSet filteredForPermissions = decide(authentication, object, config, raw);
         PagingLuceneResultSet newPaging = new PagingLuceneResultSet(filteredForPermissions, returnedObject.getResultSetMetaData().getSearchParameters(), nodeService);
         return newPaging;
@@ -52,6 +52,18 @@ public interface SOLRTrackingComponent
      */
     public List<AclChangeSet> getAclChangeSets(Long minAclChangeSetId, Long fromCommitTime, Long maxAclChangeSetId, Long toCommitTime, int maxResults);
     
+    /**
+     * Get the ACL changesets that follow a given changeset in commit order (keyset pagination).
+     * The next page is fetched by passing the commit time and ID of the last changeset returned.
+     * 
+     * @param afterCommitTime           commit time of the last changeset retrieved - (optional, first page if <tt>null</tt>)
+     * @param afterAclChangeSetId       ID of the last changeset retrieved - (mandatory if the commit time is given)
+     * @param toCommitTime              max ACL commit time - (exclusive and optional)
+     * @param maxResults                limit the results (must be greater than zero and less than MAX)
+     * @return                          list of ACL changesets
+     */
+    public List<AclChangeSet> getAclChangeSetsAfter(Long afterCommitTime, Long afterAclChangeSetId, Long toCommitTime, int maxResults);
+    
     /**
      * Get the ACLs with paging options for a specific ACL ChangeSet
      * 
@@ -82,6 +94,18 @@ public interface SOLRTrackingComponent
      */
     public List<Transaction> getTransactions(Long minTxnId, Long fromCommitTime, Long maxTxnId, Long toCommitTimeint, int maxResults);
     
+    /**
+     * Get the transactions that follow a given transaction in commit order (keyset pagination).
+     * The next page is fetched by passing the commit time and ID of the last transaction returned.
+     * 
+     * @param afterCommitTime           commit time of the last transaction retrieved - (optional, first page if <tt>null</tt>)
+     * @param afterTxnId                ID of the last transaction retrieved - (mandatory if the commit time is given)
+     * @param toCommitTime              max transaction commit time - (exclusive and optional)
+     * @param maxResults                limit the results (must be greater than zero and less than MAX)
+     * @return                          list of transactions
+     */
+    public List<Transaction> getTransactionsAfter(Long afterCommitTime, Long afterTxnId, Long toCommitTime, int maxResults);
+    
     /**
      * Get the nodes satisfying the constraints in nodeParameters
      * 
@@ -101,6 +101,7 @@ public class SOLRTrackingComponentImpl implements SOLRTrackingComponent
     private AspectIndexFilter aspectIndexFilter;
     private ShardRegistry shardRegistry;
     private NamespaceService namespaceService;
+    private SOLRTrackingQueryCache queryCache;
     
     
     @Override
@@ -188,6 +189,14 @@ public class SOLRTrackingComponentImpl implements SOLRTrackingComponent
         this.namespaceService = namespaceService;
     }
 
+    /**
+     * @param queryCache            optional cache that shares transaction and ACL changeset windows between shard trackers
+     */
+    public void setQueryCache(SOLRTrackingQueryCache queryCache)
+    {
+        this.queryCache = queryCache;
+    }
+
     /**
      * Initialize
      */    
@@ -208,12 +217,53 @@ public class SOLRTrackingComponentImpl implements SOLRTrackingComponent
     }
     
     @Override
-    public List<AclChangeSet> getAclChangeSets(Long minAclChangeSetId, Long fromCommitTime, Long maxAclChangeSetId, Long toCommitTime, int maxResults)
+    public List<AclChangeSet> getAclChangeSets(final Long minAclChangeSetId, final Long fromCommitTime, final Long maxAclChangeSetId, final Long toCommitTime, final int maxResults)
     {
         if(enabled)
         {
-            List<AclChangeSet> changesets = solrDAO.getAclChangeSets(minAclChangeSetId, fromCommitTime, maxAclChangeSetId, toCommitTime, maxResults);
-            return changesets;
+            SOLRTrackingQueryCache.WindowQuery<AclChangeSet> query = new SOLRTrackingQueryCache.WindowQuery<AclChangeSet>()
+            {
+                @Override
+                public List<AclChangeSet> execute()
+                {
+                    return solrDAO.getAclChangeSets(minAclChangeSetId, fromCommitTime, maxAclChangeSetId, toCommitTime, maxResults);
+                }
+            };
+            if (queryCache == null)
+            {
+                return query.execute();
+            }
+            boolean bounded = (maxAclChangeSetId != null || toCommitTime != null);
+            return queryCache.getResults(
+                    "aclChangeSets", bounded, query,
+                    minAclChangeSetId, fromCommitTime, maxAclChangeSetId, toCommitTime, maxResults);
+        }
+        else
+        {
+            return Collections.<AclChangeSet>emptyList();
+        }
+    }
+
+    @Override
+    public List<AclChangeSet> getAclChangeSetsAfter(final Long afterCommitTime, final Long afterAclChangeSetId, final Long toCommitTime, final int maxResults)
+    {
+        if(enabled)
+        {
+            SOLRTrackingQueryCache.WindowQuery<AclChangeSet> query = new SOLRTrackingQueryCache.WindowQuery<AclChangeSet>()
+            {
+                @Override
+                public List<AclChangeSet> execute()
+                {
+                    return solrDAO.getAclChangeSetsAfter(afterCommitTime, afterAclChangeSetId, toCommitTime, maxResults);
+                }
+            };
+            if (queryCache == null)
+            {
+                return query.execute();
+            }
+            return queryCache.getResults(
+                    "aclChangeSetsAfter", toCommitTime != null, query,
+                    afterCommitTime, afterAclChangeSetId, toCommitTime, maxResults);
         }
         else
         {
@@ -336,12 +386,26 @@ public class SOLRTrackingComponentImpl implements SOLRTrackingComponent
     }
     
     @Override
-    public List<Transaction> getTransactions(Long minTxnId, Long fromCommitTime, Long maxTxnId, Long toCommitTime, int maxResults)
+    public List<Transaction> getTransactions(final Long minTxnId, final Long fromCommitTime, final Long maxTxnId, final Long toCommitTime, final int maxResults)
     {
         if(enabled)
         {
-            List<Transaction> txns = solrDAO.getTransactions(minTxnId, fromCommitTime, maxTxnId, toCommitTime, maxResults);
-            return txns;
+            SOLRTrackingQueryCache.WindowQuery<Transaction> query = new SOLRTrackingQueryCache.WindowQuery<Transaction>()
+            {
+                @Override
+                public List<Transaction> execute()
+                {
+                    return solrDAO.getTransactions(minTxnId, fromCommitTime, maxTxnId, toCommitTime, maxResults);
+                }
+            };
+            if (queryCache == null)
+            {
+                return query.execute();
+            }
+            boolean bounded = (maxTxnId != null || toCommitTime != null);
+            return queryCache.getResults(
+                    "transactions", bounded, query,
+                    minTxnId, fromCommitTime, maxTxnId, toCommitTime, maxResults);
         }
         else
         {
@@ -349,6 +413,33 @@ public class SOLRTrackingComponentImpl implements SOLRTrackingComponent
         } 
     }
 
+    @Override
+    public List<Transaction> getTransactionsAfter(final Long afterCommitTime, final Long afterTxnId, final Long toCommitTime, final int maxResults)
+    {
+        if(enabled)
+        {
+            SOLRTrackingQueryCache.WindowQuery<Transaction> query = new SOLRTrackingQueryCache.WindowQuery<Transaction>()
+            {
+                @Override
+                public List<Transaction> execute()
+                {
+                    return solrDAO.getTransactionsAfter(afterCommitTime, afterTxnId, toCommitTime, maxResults);
+                }
+            };
+            if (queryCache == null)
+            {
+                return query.execute();
+            }
+            return queryCache.getResults(
+                    "transactionsAfter", toCommitTime != null, query,
+                    afterCommitTime, afterTxnId, toCommitTime, maxResults);
+        }
+        else
+        {
+            return Collections.<Transaction>emptyList();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,341 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.solr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Short-lived cache of SOLR tracking query results shared by the trackers of all shards.
+ * <p/>
+ * The trackers of the different shards tend to ask for the same transaction and ACL changeset
+ * windows at about the same time.  The first request for a window runs the query and any
+ * request for the same window that arrives while the query is running, or within the
+ * {@link #setTimeToLiveMs(long) time to live} of the result, is given the same result.
+ * The time to live starts when the query completes, so a running query never expires.
+ * Only windows with an upper bound are cached; open-ended windows always go to the database.
+ * <p/>
+ * The number of queries, the time spent in them and the number of requests answered from
+ * the cache are recorded for each type of query.
+ *
+ * @since 6.1
+ */
+public class SOLRTrackingQueryCache implements SOLRTrackingQueryCacheMBean
+{
+    private static final Log logger = LogFactory.getLog(SOLRTrackingQueryCache.class);
+
+    /**
+     * A query to run for a window
+     */
+    public interface WindowQuery<T>
+    {
+        List<T> execute();
+    }
+
+    private long timeToLiveMs;
+    private int maxWindows;
+
+    private final ConcurrentMap<List<Object>, CachedWindow<?>> windows = new ConcurrentHashMap<List<Object>, CachedWindow<?>>();
+    private final ConcurrentMap<String, QueryStats> stats = new ConcurrentHashMap<String, QueryStats>();
+
+    /**
+     * Defaults:
+     * <ul>
+     *   <li><b>timeToLiveMs: </b>2000</li>
+     *   <li><b>maxWindows: </b>100</li>
+     * </ul>
+     */
+    public SOLRTrackingQueryCache()
+    {
+        this.timeToLiveMs = 2000L;
+        this.maxWindows = 100;
+    }
+
+    /**
+     * @param timeToLiveMs          how long (ms) a result is given to other requests for the same window.
+     *                              Zero or less disables the sharing of results.
+     */
+    public void setTimeToLiveMs(long timeToLiveMs)
+    {
+        this.timeToLiveMs = timeToLiveMs;
+    }
+
+    /**
+     * @param maxWindows            the maximum number of windows to keep results for
+     */
+    public void setMaxWindows(int maxWindows)
+    {
+        this.maxWindows = maxWindows;
+    }
+
+    /**
+     * Get the results for a window, running the query only if no other request for the
+     * same window is running or has recently completed.
+     *
+     * @param queryName             the type of query, used for the statistics
+     * @param bounded               <tt>true</tt> if the window has an upper bound and may be shared
+     * @param query                 the query that fetches the results
+     * @param window                the parameters that identify the window
+     * @return                      the results (read-only)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> getResults(String queryName, boolean bounded, WindowQuery<T> query, Object ... window)
+    {
+        if (!bounded || timeToLiveMs <= 0L)
+        {
+            return execute(queryName, query, window);
+        }
+        List<Object> key = new ArrayList<Object>(window.length + 1);
+        key.add(queryName);
+        key.addAll(Arrays.asList(window));
+        while (true)
+        {
+            long now = System.currentTimeMillis();
+            CachedWindow<T> cached = (CachedWindow<T>) windows.get(key);
+            if (cached != null && !cached.isExpired(now))
+            {
+                getStats(queryName).sharedResults.incrementAndGet();
+                return cached.get();
+            }
+            CachedWindow<T> newWindow = new CachedWindow<T>();
+            boolean owner = (cached == null) ?
+                    windows.putIfAbsent(key, newWindow) == null : windows.replace(key, cached, newWindow);
+            if (!owner)
+            {
+                // Another request started the query
+                continue;
+            }
+            trim(now);
+            try
+            {
+                List<T> results = Collections.unmodifiableList(execute(queryName, query, window));
+                newWindow.complete(results, System.currentTimeMillis() + timeToLiveMs);
+                return results;
+            }
+            catch (RuntimeException e)
+            {
+                windows.remove(key, newWindow);
+                newWindow.result.completeExceptionally(e);
+                throw e;
+            }
+            catch (Error e)
+            {
+                windows.remove(key, newWindow);
+                newWindow.result.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    private <T> List<T> execute(String queryName, WindowQuery<T> query, Object ... window)
+    {
+        long start = System.nanoTime();
+        List<T> results = query.execute();
+        long timeMs = (System.nanoTime() - start) / 1000000L;
+
+        QueryStats queryStats = getStats(queryName);
+        queryStats.queries.incrementAndGet();
+        queryStats.queryTimeMs.addAndGet(timeMs);
+        long max = queryStats.maxQueryTimeMs.get();
+        while (timeMs > max && !queryStats.maxQueryTimeMs.compareAndSet(max, timeMs))
+        {
+            max = queryStats.maxQueryTimeMs.get();
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                    "SOLR tracking query " + queryName + " for window " + Arrays.toString(window) +
+                    " returned " + results.size() + " results in " + timeMs + "ms");
+        }
+        return results;
+    }
+
+    /**
+     * Drop expired windows and, if there are still too many, any completed ones
+     */
+    private void trim(long now)
+    {
+        if (windows.size() <= maxWindows)
+        {
+            return;
+        }
+        Iterator<CachedWindow<?>> it = windows.values().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().isExpired(now))
+            {
+                it.remove();
+            }
+        }
+        it = windows.values().iterator();
+        while (windows.size() > maxWindows && it.hasNext())
+        {
+            if (it.next().result.isDone())
+            {
+                it.remove();
+            }
+        }
+    }
+
+    private QueryStats getStats(String queryName)
+    {
+        QueryStats queryStats = stats.get(queryName);
+        if (queryStats == null)
+        {
+            QueryStats newStats = new QueryStats();
+            queryStats = stats.putIfAbsent(queryName, newStats);
+            if (queryStats == null)
+            {
+                queryStats = newStats;
+            }
+        }
+        return queryStats;
+    }
+
+    /**
+     * Remove all cached results
+     */
+    public void clear()
+    {
+        windows.clear();
+    }
+
+    @Override
+    public Map<String, Long> getQueryCounts()
+    {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, QueryStats> entry : stats.entrySet())
+        {
+            result.put(entry.getKey(), entry.getValue().queries.get());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getQueryTimeMs()
+    {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, QueryStats> entry : stats.entrySet())
+        {
+            result.put(entry.getKey(), entry.getValue().queryTimeMs.get());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getMaxQueryTimeMs()
+    {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, QueryStats> entry : stats.entrySet())
+        {
+            result.put(entry.getKey(), entry.getValue().maxQueryTimeMs.get());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getSharedResultCounts()
+    {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, QueryStats> entry : stats.entrySet())
+        {
+            result.put(entry.getKey(), entry.getValue().sharedResults.get());
+        }
+        return result;
+    }
+
+    @Override
+    public int getCachedWindowCount()
+    {
+        return windows.size();
+    }
+
+    @Override
+    public void resetStatistics()
+    {
+        stats.clear();
+    }
+
+    /**
+     * The result of a window query, available to other requests while the query runs and
+     * until the result expires
+     */
+    private static class CachedWindow<T>
+    {
+        private volatile long expiresAt = Long.MAX_VALUE;
+        private final CompletableFuture<List<T>> result = new CompletableFuture<List<T>>();
+
+        private void complete(List<T> results, long expiresAt)
+        {
+            this.expiresAt = expiresAt;
+            result.complete(results);
+        }
+
+        private boolean isExpired(long now)
+        {
+            return result.isDone() && expiresAt <= now;
+        }
+
+        private List<T> get()
+        {
+            try
+            {
+                return result.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new AlfrescoRuntimeException("Interrupted while waiting for SOLR tracking query results", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw AlfrescoRuntimeException.makeRuntimeException(e.getCause(), "SOLR tracking query failed");
+            }
+        }
+    }
+
+    private static class QueryStats
+    {
+        private final AtomicLong queries = new AtomicLong();
+        private final AtomicLong queryTimeMs = new AtomicLong();
+        private final AtomicLong maxQueryTimeMs = new AtomicLong();
+        private final AtomicLong sharedResults = new AtomicLong();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.solr;
+
+import java.util.Map;
+
+/**
+ * Management interface for the {@link SOLRTrackingQueryCache}.
+ *
+ * @since 6.1
+ */
+public interface SOLRTrackingQueryCacheMBean
+{
+    /**
+     * @return          the number of queries run against the database, per type of query
+     */
+    public Map<String, Long> getQueryCounts();
+
+    /**
+     * @return          the total time (ms) spent running queries, per type of query
+     */
+    public Map<String, Long> getQueryTimeMs();
+
+    /**
+     * @return          the longest time (ms) taken by a single window query, per type of query
+     */
+    public Map<String, Long> getMaxQueryTimeMs();
+
+    /**
+     * @return          the number of requests given the results of another request for the same
+     *                  window, per type of query
+     */
+    public Map<String, Long> getSharedResultCounts();
+
+    /**
+     * @return          the number of windows with cached results
+     */
+    public int getCachedWindowCount();
+
+    /**
+     * Reset the query statistics
+     */
+    public void resetStatistics();
+}
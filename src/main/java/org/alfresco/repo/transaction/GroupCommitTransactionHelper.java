@@ -0,0 +1,598 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.PropertyCheck;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Coalesces independent, short units of transactional work into shared database transactions.
+ * <p>
+ * Units of work submitted within {@link #setMaxWaitMs(long) maxWaitMs} of each other are picked up
+ * by a worker thread and executed, one after the other, in a single read-write transaction, so that
+ * many small writes (audit entries, activity posts, tracking updates, etc) share a single commit.
+ * Each unit runs as the user that submitted it.
+ * <p>
+ * If a unit fails, the group transaction is rolled back at once and the other units are re-run as
+ * a new group.  The failed units are then re-run, each in its own transaction, using the normal
+ * {@link RetryingTransactionHelper} retry behaviour; this isolates retries to the units that
+ * actually cause them.  If the group transaction itself cannot be committed, every unit in it is
+ * re-run in isolation.
+ * <p>
+ * Units of work must therefore be <b>independent</b> of each other and <b>idempotent</b>: they
+ * may be executed more than once and their transaction-bound state (caches, listeners) is shared
+ * with the other units of the group.  The caller of {@link #doInTransaction(RetryingTransactionCallback)}
+ * never partakes in the group transaction; the unit always runs in a new transaction.
+ * <p>
+ * When disabled (the default), or when the queue is full, units are executed directly in their own
+ * transaction.
+ *
+ * @since 6.1
+ */
+public class GroupCommitTransactionHelper implements GroupCommitTransactionHelperMBean
+{
+    private static final Log logger = LogFactory.getLog(GroupCommitTransactionHelper.class);
+
+    private TransactionService transactionService;
+    private boolean enabled;
+    private long maxWaitMs;
+    private int maxGroupSize;
+    private int maxQueueSize;
+    private int workerThreads;
+
+    private RetryingTransactionHelper txnHelper;
+    private BlockingQueue<GroupCommitUnit<?>> queue;
+    private volatile List<Thread> workers;
+    private volatile boolean running;
+
+    private final AtomicLong unitsSubmitted = new AtomicLong();
+    private final AtomicLong unitsGroupCommitted = new AtomicLong();
+    private final AtomicLong unitsIsolated = new AtomicLong();
+    private final AtomicLong unitsFailed = new AtomicLong();
+    private final AtomicLong groupCommits = new AtomicLong();
+    private final AtomicLong totalQueueWaitMs = new AtomicLong();
+    private final AtomicLong totalQueueWaitCount = new AtomicLong();
+    private final AtomicLong totalGroupCommitMs = new AtomicLong();
+
+    /**
+     * Defaults:
+     * <ul>
+     *   <li><b>enabled: false</b></li>
+     *   <li><b>maxWaitMs: 5</b></li>
+     *   <li><b>maxGroupSize: 50</b></li>
+     *   <li><b>maxQueueSize: 10000</b></li>
+     *   <li><b>workerThreads: 1</b></li>
+     * </ul>
+     */
+    public GroupCommitTransactionHelper()
+    {
+        this.enabled = false;
+        this.maxWaitMs = 5L;
+        this.maxGroupSize = 50;
+        this.maxQueueSize = 10000;
+        this.workerThreads = 1;
+    }
+
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    /**
+     * @param enabled       <tt>false</tt> to execute every unit of work in its own transaction
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param maxWaitMs     the time to wait for more work after the first unit of a group arrives
+     */
+    public void setMaxWaitMs(long maxWaitMs)
+    {
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    /**
+     * @param maxGroupSize  the maximum number of units of work sharing a transaction
+     */
+    public void setMaxGroupSize(int maxGroupSize)
+    {
+        this.maxGroupSize = maxGroupSize;
+    }
+
+    /**
+     * @param maxQueueSize  the number of units that may wait for a group before work is executed directly
+     */
+    public void setMaxQueueSize(int maxQueueSize)
+    {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * @param workerThreads the number of threads executing group transactions concurrently
+     */
+    public void setWorkerThreads(int workerThreads)
+    {
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * Check properties and start the worker threads
+     */
+    public void init()
+    {
+        PropertyCheck.mandatory(this, "transactionService", transactionService);
+        if (maxGroupSize < 1)
+        {
+            throw new AlfrescoRuntimeException("'maxGroupSize' must be at least 1");
+        }
+        if (workerThreads < 1)
+        {
+            throw new AlfrescoRuntimeException("'workerThreads' must be at least 1");
+        }
+
+        txnHelper = transactionService.getRetryingTransactionHelper();
+        queue = new LinkedBlockingQueue<GroupCommitUnit<?>>(maxQueueSize);
+        if (!enabled)
+        {
+            return;
+        }
+
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("GroupCommit");
+        List<Thread> threads = new ArrayList<Thread>(workerThreads);
+        for (int i = 0; i < workerThreads; i++)
+        {
+            threads.add(threadFactory.newThread(new GroupCommitWorker()));
+        }
+        workers = threads;
+        running = true;
+        for (Thread worker : threads)
+        {
+            worker.start();
+        }
+    }
+
+    /**
+     * Stop the worker threads.  Any work still queued is executed on the calling thread.
+     */
+    public void destroy()
+    {
+        running = false;
+        if (workers != null)
+        {
+            for (Thread worker : workers)
+            {
+                worker.interrupt();
+            }
+        }
+        if (queue == null)
+        {
+            return;
+        }
+        List<GroupCommitUnit<?>> remaining = new ArrayList<GroupCommitUnit<?>>();
+        queue.drainTo(remaining);
+        for (GroupCommitUnit<?> unit : remaining)
+        {
+            executeIsolated(unit);
+        }
+    }
+
+    /**
+     * Queue a unit of work for execution in a shared transaction.
+     *
+     * @param cb            the unit of work
+     * @return              a future giving access to the result once the unit's transaction has committed
+     */
+    public <R> Future<R> submit(RetryingTransactionCallback<R> cb)
+    {
+        unitsSubmitted.incrementAndGet();
+        GroupCommitUnit<R> unit = new GroupCommitUnit<R>(cb, AuthenticationUtil.getRunAsUser());
+        if (!running || workers.contains(Thread.currentThread()) || !queue.offer(unit))
+        {
+            // Disabled, nested or overloaded: do it now
+            executeIsolated(unit);
+        }
+        else if (!running && queue.remove(unit))
+        {
+            // Shut down while we were queueing: the workers may already have drained the queue
+            executeIsolated(unit);
+        }
+        return unit.future;
+    }
+
+    /**
+     * Execute a unit of work in a shared transaction, waiting for the transaction to commit.
+     *
+     * @param cb            the unit of work
+     * @return              the result of the unit of work
+     * @throws              RuntimeException  all checked exceptions are converted
+     */
+    public <R> R doInTransaction(RetryingTransactionCallback<R> cb)
+    {
+        Future<R> future = submit(cb);
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new AlfrescoRuntimeException("Interrupted while waiting for group commit: " + cb, e);
+        }
+        catch (ExecutionException e)
+        {
+            throw AlfrescoRuntimeException.makeRuntimeException(
+                    e.getCause(), "Exception from transactional callback: " + cb);
+        }
+    }
+
+    /**
+     * Execute and commit a group of units, splitting out the units that fail
+     */
+    private void executeGroup(List<GroupCommitUnit<?>> group)
+    {
+        long startMs = System.currentTimeMillis();
+        for (GroupCommitUnit<?> unit : group)
+        {
+            totalQueueWaitMs.addAndGet(startMs - unit.submitTimeMs);
+            totalQueueWaitCount.incrementAndGet();
+        }
+
+        List<GroupCommitUnit<?>> pending = new ArrayList<GroupCommitUnit<?>>(group);
+        List<GroupCommitUnit<?>> isolated = new ArrayList<GroupCommitUnit<?>>(0);
+        while (!pending.isEmpty())
+        {
+            GroupCommitCallback groupCallback = new GroupCommitCallback(pending);
+            try
+            {
+                long groupStartMs = System.currentTimeMillis();
+                txnHelper.doInTransaction(groupCallback, false, true);
+                totalGroupCommitMs.addAndGet(System.currentTimeMillis() - groupStartMs);
+                groupCommits.incrementAndGet();
+                unitsGroupCommitted.addAndGet(pending.size());
+                for (GroupCommitUnit<?> unit : pending)
+                {
+                    unit.complete();
+                }
+                pending.clear();
+            }
+            catch (GroupCommitUnitsFailedException e)
+            {
+                // Drop the failed units and go again with the rest
+                pending.removeAll(groupCallback.failedUnits);
+                isolated.addAll(groupCallback.failedUnits);
+            }
+            catch (Throwable e)
+            {
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Group commit of " + pending.size() + " units failed; isolating units.", e);
+                }
+                isolated.addAll(pending);
+                pending.clear();
+            }
+        }
+        for (GroupCommitUnit<?> unit : isolated)
+        {
+            unitsIsolated.incrementAndGet();
+            executeIsolated(unit);
+        }
+    }
+
+    /**
+     * Execute a single unit in its own retrying transaction
+     */
+    private <R> void executeIsolated(GroupCommitUnit<R> unit)
+    {
+        try
+        {
+            R result = txnHelper.doInTransaction(unit, false, true);
+            unit.future.complete(result);
+        }
+        catch (Throwable e)
+        {
+            unitsFailed.incrementAndGet();
+            unit.future.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return running;
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        return queue == null ? 0 : queue.size();
+    }
+
+    @Override
+    public long getUnitsSubmitted()
+    {
+        return unitsSubmitted.get();
+    }
+
+    @Override
+    public long getUnitsGroupCommitted()
+    {
+        return unitsGroupCommitted.get();
+    }
+
+    @Override
+    public long getUnitsIsolated()
+    {
+        return unitsIsolated.get();
+    }
+
+    @Override
+    public long getUnitsFailed()
+    {
+        return unitsFailed.get();
+    }
+
+    @Override
+    public long getGroupCommits()
+    {
+        return groupCommits.get();
+    }
+
+    @Override
+    public double getAverageGroupSize()
+    {
+        long commits = groupCommits.get();
+        return commits == 0 ? 0.0 : (double) unitsGroupCommitted.get() / commits;
+    }
+
+    @Override
+    public double getAverageQueueWaitMs()
+    {
+        long count = totalQueueWaitCount.get();
+        return count == 0 ? 0.0 : (double) totalQueueWaitMs.get() / count;
+    }
+
+    @Override
+    public double getAverageGroupCommitMs()
+    {
+        long commits = groupCommits.get();
+        return commits == 0 ? 0.0 : (double) totalGroupCommitMs.get() / commits;
+    }
+
+    @Override
+    public void resetStatistics()
+    {
+        unitsSubmitted.set(0L);
+        unitsGroupCommitted.set(0L);
+        unitsIsolated.set(0L);
+        unitsFailed.set(0L);
+        groupCommits.set(0L);
+        totalQueueWaitMs.set(0L);
+        totalQueueWaitCount.set(0L);
+        totalGroupCommitMs.set(0L);
+    }
+
+    /**
+     * A queued unit of work, executed as the user that submitted it
+     */
+    private static class GroupCommitUnit<R> implements RetryingTransactionCallback<R>
+    {
+        private final RetryingTransactionCallback<R> callback;
+        private final String runAsUser;
+        private final long submitTimeMs;
+        private final CompletableFuture<R> future;
+        /** The result of the last execution, only valid once the group commits */
+        private R result;
+
+        private GroupCommitUnit(RetryingTransactionCallback<R> callback, String runAsUser)
+        {
+            this.callback = callback;
+            this.runAsUser = runAsUser;
+            this.submitTimeMs = System.currentTimeMillis();
+            this.future = new CompletableFuture<R>();
+        }
+
+        @Override
+        public R execute() throws Throwable
+        {
+            if (runAsUser == null)
+            {
+                return callback.execute();
+            }
+            RunAsWork<R> work = new RunAsWork<R>()
+            {
+                @Override
+                public R doWork() throws Exception
+                {
+                    try
+                    {
+                        return callback.execute();
+                    }
+                    catch (Exception | Error e)
+                    {
+                        throw e;
+                    }
+                    catch (Throwable e)
+                    {
+                        throw new AlfrescoRuntimeException("Exception from transactional callback: " + callback, e);
+                    }
+                }
+            };
+            return AuthenticationUtil.runAs(work, runAsUser);
+        }
+
+        private void executeInGroup() throws Throwable
+        {
+            result = execute();
+        }
+
+        private void complete()
+        {
+            future.complete(result);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "GroupCommitUnit [callback=" + callback + ", runAsUser=" + runAsUser + "]";
+        }
+    }
+
+    /**
+     * Executes the units of a group one after the other, stopping at the first failure.
+     * <p>
+     * The transaction-bound state of a failed unit (caches, listeners, a transaction the database
+     * has marked as aborted) cannot be separated from that of the other units, so the group
+     * transaction is always rolled back rather than partially committed.
+     */
+    private class GroupCommitCallback implements RetryingTransactionCallback<Void>
+    {
+        private final List<GroupCommitUnit<?>> units;
+        private final List<GroupCommitUnit<?>> failedUnits;
+
+        private GroupCommitCallback(List<GroupCommitUnit<?>> units)
+        {
+            this.units = units;
+            this.failedUnits = new ArrayList<GroupCommitUnit<?>>(1);
+        }
+
+        @Override
+        public Void execute() throws Throwable
+        {
+            // We may be retried
+            failedUnits.clear();
+            for (GroupCommitUnit<?> unit : units)
+            {
+                try
+                {
+                    unit.executeInGroup();
+                }
+                catch (Throwable e)
+                {
+                    if (logger.isDebugEnabled())
+                    {
+                        logger.debug("Unit failed in group transaction and will be isolated: " + unit, e);
+                    }
+                    failedUnits.add(unit);
+                    throw new GroupCommitUnitsFailedException(unit);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Thrown to roll back a group transaction when one of its units failed.
+     * It deliberately carries no cause so that the group itself is not retried.
+     */
+    private static class GroupCommitUnitsFailedException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private GroupCommitUnitsFailedException(GroupCommitUnit<?> unit)
+        {
+            super("Unit failed in group transaction: " + unit);
+        }
+    }
+
+    /**
+     * Pulls groups of work off the queue and commits them
+     */
+    private class GroupCommitWorker implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            List<GroupCommitUnit<?>> group = new ArrayList<GroupCommitUnit<?>>(maxGroupSize);
+            while (running)
+            {
+                try
+                {
+                    GroupCommitUnit<?> first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null)
+                    {
+                        continue;
+                    }
+                    group.add(first);
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+                    while (group.size() < maxGroupSize)
+                    {
+                        long remaining = deadline - System.nanoTime();
+                        GroupCommitUnit<?> next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                        if (next == null)
+                        {
+                            break;
+                        }
+                        group.add(next);
+                    }
+                    executeGroup(group);
+                    group.clear();
+                }
+                catch (InterruptedException e)
+                {
+                    // Shutting down
+                    break;
+                }
+                catch (Throwable e)
+                {
+                    logger.error("Unexpected error in group commit worker", e);
+                    for (GroupCommitUnit<?> unit : group)
+                    {
+                        unit.future.completeExceptionally(e);
+                    }
+                    group.clear();
+                }
+            }
+            // Don't strand the units collected so far or any still queued
+            queue.drainTo(group);
+            for (GroupCommitUnit<?> unit : group)
+            {
+                executeIsolated(unit);
+            }
+        }
+    }
+}
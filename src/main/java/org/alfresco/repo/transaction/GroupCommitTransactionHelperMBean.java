@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transaction;
+
+/**
+ * Management interface for the {@link GroupCommitTransactionHelper}.
+ *
+ * @since 6.1
+ */
+public interface GroupCommitTransactionHelperMBean
+{
+    /**
+     * @return          <tt>true</tt> if units of work are being coalesced into shared transactions
+     */
+    public boolean isEnabled();
+
+    /**
+     * @return          the number of units of work waiting to be picked up by a group commit
+     */
+    public int getQueueDepth();
+
+    /**
+     * @return          the total number of units of work submitted
+     */
+    public long getUnitsSubmitted();
+
+    /**
+     * @return          the number of units of work that were committed as part of a group
+     */
+    public long getUnitsGroupCommitted();
+
+    /**
+     * @return          the number of units of work that had to be re-run in their own transaction
+     */
+    public long getUnitsIsolated();
+
+    /**
+     * @return          the number of units of work that ultimately failed
+     */
+    public long getUnitsFailed();
+
+    /**
+     * @return          the number of group transactions successfully committed
+     */
+    public long getGroupCommits();
+
+    /**
+     * @return          the average number of units of work per group transaction
+     */
+    public double getAverageGroupSize();
+
+    /**
+     * @return          the average time (ms) a unit of work waited before its group started
+     */
+    public double getAverageQueueWaitMs();
+
+    /**
+     * @return          the average time (ms) taken to execute and commit a group transaction
+     */
+    public double getAverageGroupCommitMs();
+
+    /**
+     * Reset all counters
+     */
+    public void resetStatistics();
+}
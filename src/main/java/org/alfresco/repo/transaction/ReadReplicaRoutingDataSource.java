@@ -0,0 +1,453 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transaction;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.alfresco.util.PropertyCheck;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+/**
+ * A data source that sends the connections of read-only transactions to a read replica
+ * of the primary database.
+ * <p/>
+ * The {@link RetryingTransactionHelper} flags the thread while it begins a new read-only
+ * transaction; the connection acquired for that transaction is taken from the replica and
+ * stays with the transaction until it completes.  All other connections, including those
+ * of write transactions and of transactions that are already running, come from the primary.
+ * Queries such as the <tt>GetChildrenCannedQuery</tt> therefore use the replica whenever
+ * they are executed within a read-only transaction.
+ * <p/>
+ * A background check reads the replication position of the primary (the WAL position on
+ * PostgreSQL) and the position the replica has replayed up to, every
+ * {@link #setLagCheckIntervalMs(long) lagCheckIntervalMs}.  Once the replica has replayed past
+ * a position sampled from the primary, everything committed before that sample is known to be
+ * visible on the replica.  The replica is used while that point in time is no more than
+ * {@link #setMaxLagMs(long) maxLagMs} ago and, so that a thread can read its own writes, is
+ * later than the last write transaction committed by the thread.  Routing itself never queries
+ * either database.  If the check fails or a replica connection cannot be obtained, connections
+ * are taken from the primary until the next successful check.
+ *
+ * @since 6.1
+ */
+public class ReadReplicaRoutingDataSource extends AbstractRoutingDataSource implements ReadReplicaRoutingDataSourceMBean
+{
+    private static final Log logger = LogFactory.getLog(ReadReplicaRoutingDataSource.class);
+
+    public static final String KEY_PRIMARY = "primary";
+    public static final String KEY_REPLICA = "replica";
+
+    /** The number of primary positions remembered while waiting for the replica to reach them */
+    private static final int MAX_SAMPLES = 1000;
+
+    private static final ThreadLocal<Boolean> readOnlyIntent = new ThreadLocal<Boolean>();
+    /** Time of the last write transaction committed by the current thread */
+    private static final ThreadLocal<Long> lastWriteCommitMs = new ThreadLocal<Long>();
+
+    private DataSource primaryDataSource;
+    private DataSource replicaDataSource;
+    private boolean enabled;
+    private long maxLagMs;
+    private long lagCheckIntervalMs;
+    private String primaryPositionQuery;
+    private String replicaPositionQuery;
+
+    private ScheduledExecutorService scheduler;
+    /** Primary positions sampled by the checks, oldest first; only used by the checks */
+    private final Deque<long[]> samples = new ArrayDeque<long[]>();
+    private volatile boolean replicaAvailable = false;
+    /** Everything committed on the primary before this time is visible on the replica */
+    private volatile long replicaVisibleBeforeMs = -1L;
+    private volatile long lastKnownLag = -1L;
+
+    private final AtomicLong replicaConnections = new AtomicLong();
+    private final AtomicLong primaryConnections = new AtomicLong();
+    private final AtomicLong staleFallbacks = new AtomicLong();
+    private final AtomicLong failedFallbacks = new AtomicLong();
+
+    /**
+     * Flag the current thread as about to begin a read-only transaction.  Connections requested
+     * while the flag is set may be taken from the replica.
+     *
+     * @param readOnly          <tt>true</tt> to allow routing to the replica
+     */
+    public static void setReadOnlyIntent(boolean readOnly)
+    {
+        if (readOnly)
+        {
+            readOnlyIntent.set(Boolean.TRUE);
+        }
+        else
+        {
+            readOnlyIntent.remove();
+        }
+    }
+
+    /**
+     * Clear any read-only flag for the current thread
+     */
+    public static void clearReadOnlyIntent()
+    {
+        readOnlyIntent.remove();
+    }
+
+    /**
+     * Record that the current thread has committed a write transaction.  Its read-only
+     * transactions will not use the replica until the replica has caught up with the write.
+     */
+    public static void recordWriteCommitted()
+    {
+        lastWriteCommitMs.set(System.currentTimeMillis());
+    }
+
+    /**
+     * Defaults:
+     * <ul>
+     *   <li><b>enabled: </b>true</li>
+     *   <li><b>maxLagMs: </b>5000</li>
+     *   <li><b>lagCheckIntervalMs: </b>500</li>
+     *   <li><b>primaryPositionQuery: </b>the WAL position of a PostgreSQL 10 (or later) primary</li>
+     *   <li><b>replicaPositionQuery: </b>the replayed WAL position of a PostgreSQL 10 (or later) standby</li>
+     * </ul>
+     */
+    public ReadReplicaRoutingDataSource()
+    {
+        this.enabled = true;
+        this.maxLagMs = 5000L;
+        this.lagCheckIntervalMs = 500L;
+        this.primaryPositionQuery = "SELECT pg_wal_lsn_diff(pg_current_wal_lsn(), '0/0')";
+        this.replicaPositionQuery = "SELECT pg_wal_lsn_diff(pg_last_wal_replay_lsn(), '0/0')";
+    }
+
+    /**
+     * @param primaryDataSource     the data source of the primary database
+     */
+    public void setPrimaryDataSource(DataSource primaryDataSource)
+    {
+        this.primaryDataSource = primaryDataSource;
+    }
+
+    /**
+     * @param replicaDataSource     the data source of the read replica
+     */
+    public void setReplicaDataSource(DataSource replicaDataSource)
+    {
+        this.replicaDataSource = replicaDataSource;
+    }
+
+    /**
+     * @param enabled               <tt>false</tt> to send all connections to the primary
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param maxLagMs              how far (ms) the replica may be behind the primary and still be used
+     */
+    public void setMaxLagMs(long maxLagMs)
+    {
+        this.maxLagMs = maxLagMs;
+    }
+
+    /**
+     * @param lagCheckIntervalMs    the time (ms) between checks of the replication positions
+     */
+    public void setLagCheckIntervalMs(long lagCheckIntervalMs)
+    {
+        this.lagCheckIntervalMs = lagCheckIntervalMs;
+    }
+
+    /**
+     * @param primaryPositionQuery  a query, run on the primary, giving its current replication
+     *                              position as a single number
+     */
+    public void setPrimaryPositionQuery(String primaryPositionQuery)
+    {
+        this.primaryPositionQuery = primaryPositionQuery;
+    }
+
+    /**
+     * @param replicaPositionQuery  a query, run on the replica, giving the replication position it
+     *                              has replayed up to, comparable with the primary position
+     */
+    public void setReplicaPositionQuery(String replicaPositionQuery)
+    {
+        this.replicaPositionQuery = replicaPositionQuery;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        PropertyCheck.mandatory(this, "primaryDataSource", primaryDataSource);
+        PropertyCheck.mandatory(this, "replicaDataSource", replicaDataSource);
+        PropertyCheck.mandatory(this, "primaryPositionQuery", primaryPositionQuery);
+        PropertyCheck.mandatory(this, "replicaPositionQuery", replicaPositionQuery);
+
+        Map<Object, Object> targetDataSources = new HashMap<Object, Object>(5);
+        targetDataSources.put(KEY_PRIMARY, primaryDataSource);
+        targetDataSources.put(KEY_REPLICA, replicaDataSource);
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(primaryDataSource);
+        super.afterPropertiesSet();
+
+        if (enabled)
+        {
+            TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+            threadFactory.setThreadDaemon(true);
+            threadFactory.setNamePrefix("ReadReplicaCheck");
+            scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            scheduler.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    checkReplica();
+                }
+            }, lagCheckIntervalMs, lagCheckIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop checking the replica
+     */
+    public void shutdown()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey()
+    {
+        if (!enabled || readOnlyIntent.get() == null)
+        {
+            return KEY_PRIMARY;
+        }
+        if (!isReplicaCurrent(System.currentTimeMillis()))
+        {
+            staleFallbacks.incrementAndGet();
+            return KEY_PRIMARY;
+        }
+        return KEY_REPLICA;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException
+    {
+        return getConnection(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException
+    {
+        if (KEY_REPLICA.equals(determineCurrentLookupKey()))
+        {
+            try
+            {
+                Connection connection = (username == null) ?
+                        replicaDataSource.getConnection() : replicaDataSource.getConnection(username, password);
+                replicaConnections.incrementAndGet();
+                return connection;
+            }
+            catch (SQLException e)
+            {
+                // Stop using the replica until the next successful check
+                replicaAvailable = false;
+                failedFallbacks.incrementAndGet();
+                logger.warn("Failed to get a connection from the read replica; using the primary database: " + e.getMessage());
+            }
+        }
+        primaryConnections.incrementAndGet();
+        return (username == null) ?
+                primaryDataSource.getConnection() : primaryDataSource.getConnection(username, password);
+    }
+
+    /**
+     * Determine from the last check whether a read-only transaction begun now by the current
+     * thread may use the replica
+     */
+    private boolean isReplicaCurrent(long now)
+    {
+        if (!replicaAvailable)
+        {
+            return false;
+        }
+        long visibleBefore = replicaVisibleBeforeMs;
+        if (visibleBefore < 0L || now - visibleBefore > maxLagMs)
+        {
+            return false;
+        }
+        Long lastWrite = lastWriteCommitMs.get();
+        return lastWrite == null || lastWrite < visibleBefore;
+    }
+
+    /**
+     * Sample the primary's position, then find how far the replica has got.  Executed by the
+     * background check.
+     */
+    synchronized void checkReplica()
+    {
+        try
+        {
+            long now = System.currentTimeMillis();
+            long primaryPosition = getPosition(primaryDataSource, primaryPositionQuery);
+            samples.addLast(new long[] {now, primaryPosition});
+            if (samples.size() > MAX_SAMPLES)
+            {
+                samples.removeFirst();
+            }
+            long replicaPosition = getPosition(replicaDataSource, replicaPositionQuery);
+            // Everything committed before the latest sample the replica has passed is visible
+            long[] visible = null;
+            while (!samples.isEmpty() && samples.peekFirst()[1] <= replicaPosition)
+            {
+                visible = samples.removeFirst();
+            }
+            if (visible != null)
+            {
+                // Keep it: it still holds if no later sample is reached by the next check
+                samples.addFirst(visible);
+                replicaVisibleBeforeMs = visible[0];
+            }
+            lastKnownLag = Math.max(0L, primaryPosition - replicaPosition);
+            replicaAvailable = true;
+            if (logger.isDebugEnabled())
+            {
+                logger.debug(
+                        "Read replica is " + lastKnownLag + " behind the primary; commits before " +
+                        replicaVisibleBeforeMs + " are visible");
+            }
+        }
+        catch (Throwable e)
+        {
+            replicaAvailable = false;
+            logger.warn("Failed to check the read replica position; using the primary database: " + e.getMessage());
+        }
+    }
+
+    private long getPosition(DataSource dataSource, String query) throws SQLException
+    {
+        Connection connection = dataSource.getConnection();
+        try
+        {
+            Statement stmt = connection.createStatement();
+            try
+            {
+                ResultSet rs = stmt.executeQuery(query);
+                try
+                {
+                    if (!rs.next())
+                    {
+                        throw new SQLException("No replication position returned by: " + query);
+                    }
+                    long position = rs.getLong(1);
+                    if (rs.wasNull())
+                    {
+                        throw new SQLException("No replication position returned by: " + query);
+                    }
+                    return position;
+                }
+                finally
+                {
+                    rs.close();
+                }
+            }
+            finally
+            {
+                stmt.close();
+            }
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+    @Override
+    public boolean isReplicaCurrent()
+    {
+        long visibleBefore = replicaVisibleBeforeMs;
+        return replicaAvailable && visibleBefore >= 0L && System.currentTimeMillis() - visibleBefore <= maxLagMs;
+    }
+
+    @Override
+    public long getLastKnownLag()
+    {
+        return lastKnownLag;
+    }
+
+    @Override
+    public long getReplicaLagMs()
+    {
+        long visibleBefore = replicaVisibleBeforeMs;
+        return visibleBefore < 0L ? -1L : System.currentTimeMillis() - visibleBefore;
+    }
+
+    @Override
+    public long getReplicaConnections()
+    {
+        return replicaConnections.get();
+    }
+
+    @Override
+    public long getPrimaryConnections()
+    {
+        return primaryConnections.get();
+    }
+
+    @Override
+    public long getStaleFallbacks()
+    {
+        return staleFallbacks.get();
+    }
+
+    @Override
+    public long getFailedFallbacks()
+    {
+        return failedFallbacks.get();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transaction;
+
+/**
+ * Management interface for the {@link ReadReplicaRoutingDataSource}.
+ *
+ * @since 6.1
+ */
+public interface ReadReplicaRoutingDataSourceMBean
+{
+    /**
+     * @return          <tt>true</tt> if the replica is close enough to the primary to be used
+     */
+    public boolean isReplicaCurrent();
+
+    /**
+     * @return          how far the replica's replayed position was behind the primary's position at
+     *                  the last check (bytes of WAL on PostgreSQL) or <tt>-1</tt> if it has not been checked
+     */
+    public long getLastKnownLag();
+
+    /**
+     * @return          the time (ms) since the latest commit known to be visible on the replica
+     *                  or <tt>-1</tt> if none is known yet
+     */
+    public long getReplicaLagMs();
+
+    /**
+     * @return          the number of connections taken from the replica
+     */
+    public long getReplicaConnections();
+
+    /**
+     * @return          the number of connections taken from the primary
+     */
+    public long getPrimaryConnections();
+
+    /**
+     * @return          the number of read-only connections sent to the primary because the replica was behind
+     */
+    public long getStaleFallbacks();
+
+    /**
+     * @return          the number of read-only connections sent to the primary because the replica failed
+     */
+    public long getFailedFallbacks();
+}
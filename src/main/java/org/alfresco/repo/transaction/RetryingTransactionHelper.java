@@ -93,6 +93,7 @@ public class RetryingTransactionHelper
 {
     private static final String MSG_READ_ONLY = "permissions.err_read_only";
     private static final String KEY_ACTIVE_TRANSACTION = "RetryingTransactionHelper.ActiveTxn";
+    private static final String KEY_ACTIVE_TRANSACTION_TARGET = "RetryingTransactionHelper.ActiveTxnTarget";
     private static Log    logger = LogFactory.getLog(RetryingTransactionHelper.class);
 
     /**
@@ -215,6 +216,11 @@ public class RetryingTransactionHelper
      */
     private List<Class<?>> extraExceptions;
 
+    /**
+     * Optional collector of retry statistics.
+     */
+    private TransactionRetryStatistics retryStatistics;
+
     /**
      * Callback interface
      * @author Derek Hulley
@@ -313,6 +319,14 @@ public class RetryingTransactionHelper
     {
         this.extraExceptions = extraExceptions;
     }
+
+    /**
+     * Set the optional collector that records which callbacks are retried, why and for how long
+     */
+    public void setRetryStatistics(TransactionRetryStatistics retryStatistics)
+    {
+        this.retryStatistics = retryStatistics;
+    }
     
     /**
      * Execute a callback in a transaction until it succeeds, fails
@@ -450,15 +464,21 @@ public class RetryingTransactionHelper
                     {
                         txn = txnService.getNonPropagatingUserTransaction(readOnly, forceWritable);
 
-                        txn.begin();
-                        // Wrap it to protect it
-                        UserTransactionProtectionAdvise advise = new UserTransactionProtectionAdvise();
-                        ProxyFactory proxyFactory = new ProxyFactory(txn);
-                        proxyFactory.addAdvice(advise);
-                        UserTransaction wrappedTxn = (UserTransaction) proxyFactory.getProxy();
+                        // The connection is acquired when the transaction begins, so this is when
+                        // read-only transactions may be sent to a read replica
+                        ReadReplicaRoutingDataSource.setReadOnlyIntent(readOnly);
+                        try
+                        {
+                            txn.begin();
+                        }
+                        finally
+                        {
+                            ReadReplicaRoutingDataSource.clearReadOnlyIntent();
+                        }
                         // Store the UserTransaction for static retrieval.  There is no need to unbind it
-                        // because the transaction management will do that for us.
-                        AlfrescoTransactionSupport.bindResource(KEY_ACTIVE_TRANSACTION, wrappedTxn);
+                        // because the transaction management will do that for us.  It is only wrapped
+                        // for protection if someone actually asks for it.
+                        AlfrescoTransactionSupport.bindResource(KEY_ACTIVE_TRANSACTION_TARGET, txn);
                     }
                     // Do the work.
                     R result = cb.execute();
@@ -484,6 +504,10 @@ public class RetryingTransactionHelper
                             // The transaction hasn't been flagged for failure so the commit
                             // sould still be good.
                             txn.commit();
+                            if (!readOnly)
+                            {
+                                ReadReplicaRoutingDataSource.recordWriteCommitted();
+                            }
                         }
                     }
                     if (logger.isDebugEnabled())
@@ -566,6 +590,10 @@ public class RetryingTransactionHelper
                                                     : minRetryWaitMs;
                         int sleepInterval = Math.min(maxRetryWaitMs, sleepIntervalRandom);
                         sleepInterval = Math.max(sleepInterval, minRetryWaitMs);
+                        if (retryStatistics != null)
+                        {
+                            retryStatistics.recordRetry(cb, retryCause, sleepInterval);
+                        }
                         if (logger.isInfoEnabled() && !logger.isDebugEnabled())
                         {
                             String msg = String.format(
@@ -596,6 +624,10 @@ public class RetryingTransactionHelper
             }
             // We've worn out our welcome and retried the maximum number of times.
             // So, fail.
+            if (retryStatistics != null)
+            {
+                retryStatistics.recordRetriesExhausted(cb);
+            }
             throw lastException;
         }
         finally
@@ -698,7 +730,17 @@ public class RetryingTransactionHelper
         UserTransaction txn = (UserTransaction) AlfrescoTransactionSupport.getResource(KEY_ACTIVE_TRANSACTION);
         if (txn == null)
         {
-            return null;
+            UserTransaction targetTxn = (UserTransaction) AlfrescoTransactionSupport.getResource(KEY_ACTIVE_TRANSACTION_TARGET);
+            if (targetTxn == null)
+            {
+                return null;
+            }
+            // Wrap it to protect it
+            UserTransactionProtectionAdvise advise = new UserTransactionProtectionAdvise();
+            ProxyFactory proxyFactory = new ProxyFactory(targetTxn);
+            proxyFactory.addAdvice(advise);
+            txn = (UserTransaction) proxyFactory.getProxy();
+            AlfrescoTransactionSupport.bindResource(KEY_ACTIVE_TRANSACTION, txn);
         }
         // Done
         return txn;
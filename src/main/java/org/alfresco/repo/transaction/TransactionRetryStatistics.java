@@ -0,0 +1,465 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hibernate.StaleObjectStateException;
+import org.hibernate.UnresolvableObjectException;
+
+/**
+ * Collects statistics about the retries performed by {@link RetryingTransactionHelper} instances:
+ * retry counts and wait times per callback class, retry counts per root cause exception type,
+ * the entity keys involved in the contention (where they can be extracted from the exception)
+ * and a rolling histogram of the retry wait times.
+ * <p>
+ * Recording is cheap (lock-free counters) and only happens when a transaction is actually retried,
+ * so the statistics can be left switched on in production.  The number of distinct contended keys
+ * tracked is bounded; once the bound is reached, keys seen only once are discarded.
+ *
+ * @since 6.1
+ */
+public class TransactionRetryStatistics implements TransactionRetryStatisticsMBean
+{
+    /** Upper bounds (ms, inclusive) of the wait-time histogram buckets; the last bucket is unbounded */
+    private static final long[] WAIT_BUCKET_BOUNDS = new long[] {100L, 250L, 500L, 1000L, 2000L};
+
+    /** Patterns used to pick entity keys out of concurrency exception messages */
+    private static final Pattern[] KEY_PATTERNS = new Pattern[]
+    {
+        Pattern.compile("[a-z]+://[\\w.-]+/[\\w-]+"),                                 // NodeRef
+        Pattern.compile("(\\w+Entity) with ID \\(?(\\d+)"),                          // AclEntity with ID 123
+        Pattern.compile("(?i)\\b(node|assoc|association)\\s*(?:id)?[:=]?\\s*(\\d+)")    // node 123, assocId=123
+    };
+
+    private boolean enabled;
+    private int maxContendedKeys;
+    private long windowSlotMs;
+    private int windowSlots;
+
+    private final AtomicLong totalRetries = new AtomicLong();
+    private final AtomicLong totalRetryWaitMs = new AtomicLong();
+    private final AtomicLong totalRetriesExhausted = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> retriesByCallback = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> retryWaitMsByCallback = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> retriesExhaustedByCallback = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> retriesByCause = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> contendedKeys = new ConcurrentHashMap<String, AtomicLong>();
+    private volatile WindowSlot[] window;
+
+    /**
+     * Defaults:
+     * <ul>
+     *   <li><b>enabled: true</b></li>
+     *   <li><b>maxContendedKeys: 1000</b></li>
+     *   <li><b>windowSlotMs: 60000</b> (one minute)</li>
+     *   <li><b>windowSlots: 15</b> (fifteen minutes)</li>
+     * </ul>
+     */
+    public TransactionRetryStatistics()
+    {
+        this.enabled = true;
+        this.maxContendedKeys = 1000;
+        this.windowSlotMs = 60000L;
+        this.windowSlots = 15;
+        this.window = new WindowSlot[windowSlots];
+    }
+
+    /**
+     * @param enabled           <tt>false</tt> to stop recording
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param maxContendedKeys  the maximum number of distinct contended keys to track
+     */
+    public void setMaxContendedKeys(int maxContendedKeys)
+    {
+        this.maxContendedKeys = maxContendedKeys;
+    }
+
+    /**
+     * @param windowSlotMs      the time span of each slot of the rolling window
+     */
+    public void setWindowSlotMs(long windowSlotMs)
+    {
+        if (windowSlotMs <= 0L)
+        {
+            throw new IllegalArgumentException("'windowSlotMs' must be a positive number.");
+        }
+        this.windowSlotMs = windowSlotMs;
+    }
+
+    /**
+     * @param windowSlots       the number of slots in the rolling window
+     */
+    public void setWindowSlots(int windowSlots)
+    {
+        if (windowSlots <= 0)
+        {
+            throw new IllegalArgumentException("'windowSlots' must be a positive integer.");
+        }
+        this.windowSlots = windowSlots;
+        this.window = new WindowSlot[windowSlots];
+    }
+
+    /**
+     * Record a retry of a transactional callback.
+     *
+     * @param callback          the callback being retried
+     * @param retryCause        the exception that triggered the retry
+     *                          (see {@link RetryingTransactionHelper#extractRetryCause(Throwable)})
+     * @param waitMs            the time that will be spent waiting before the retry
+     */
+    public void recordRetry(Object callback, Throwable retryCause, long waitMs)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        String callbackName = getCallbackName(callback);
+        totalRetries.incrementAndGet();
+        totalRetryWaitMs.addAndGet(waitMs);
+        increment(retriesByCallback, callbackName, 1L);
+        increment(retryWaitMsByCallback, callbackName, waitMs);
+        increment(retriesByCause, getRootCause(retryCause).getClass().getName(), 1L);
+
+        String key = extractContendedKey(retryCause);
+        if (key != null)
+        {
+            if (contendedKeys.size() >= maxContendedKeys && !contendedKeys.containsKey(key))
+            {
+                trimContendedKeys();
+            }
+            increment(contendedKeys, key, 1L);
+        }
+
+        getCurrentSlot(System.currentTimeMillis()).record(waitMs);
+    }
+
+    /**
+     * Record the failure of a transactional callback that ran out of retries
+     *
+     * @param callback          the callback that failed
+     */
+    public void recordRetriesExhausted(Object callback)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        totalRetriesExhausted.incrementAndGet();
+        increment(retriesExhaustedByCallback, getCallbackName(callback), 1L);
+    }
+
+    /**
+     * Find the entity key involved in a concurrency failure, if it can be determined
+     *
+     * @param cause             the exception causing a retry
+     * @return                  the contended key or <tt>null</tt> if not known
+     */
+    protected String extractContendedKey(Throwable cause)
+    {
+        for (Throwable t = cause; t != null; t = (t.getCause() == t ? null : t.getCause()))
+        {
+            if (t instanceof UnresolvableObjectException)
+            {
+                UnresolvableObjectException e = (UnresolvableObjectException) t;
+                return e.getEntityName() + "#" + e.getIdentifier();
+            }
+            else if (t instanceof StaleObjectStateException)
+            {
+                StaleObjectStateException e = (StaleObjectStateException) t;
+                return e.getEntityName() + "#" + e.getIdentifier();
+            }
+            String msg = t.getMessage();
+            if (msg == null)
+            {
+                continue;
+            }
+            for (Pattern pattern : KEY_PATTERNS)
+            {
+                Matcher matcher = pattern.matcher(msg);
+                if (matcher.find())
+                {
+                    return matcher.groupCount() == 0 ? matcher.group() : (matcher.group(1) + "#" + matcher.group(2));
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getCallbackName(Object callback)
+    {
+        return callback == null ? "null" : callback.getClass().getName();
+    }
+
+    private static Throwable getRootCause(Throwable t)
+    {
+        Throwable root = t;
+        while (root.getCause() != null && root.getCause() != root)
+        {
+            root = root.getCause();
+        }
+        return root;
+    }
+
+    private static void increment(ConcurrentMap<String, AtomicLong> map, String key, long delta)
+    {
+        AtomicLong counter = map.get(key);
+        if (counter == null)
+        {
+            AtomicLong newCounter = new AtomicLong();
+            counter = map.putIfAbsent(key, newCounter);
+            if (counter == null)
+            {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Discard keys that have only been seen once, or everything if that does not free enough space
+     */
+    private void trimContendedKeys()
+    {
+        Iterator<AtomicLong> iterator = contendedKeys.values().iterator();
+        while (iterator.hasNext())
+        {
+            if (iterator.next().get() <= 1L)
+            {
+                iterator.remove();
+            }
+        }
+        if (contendedKeys.size() >= maxContendedKeys)
+        {
+            contendedKeys.clear();
+        }
+    }
+
+    private WindowSlot getCurrentSlot(long nowMs)
+    {
+        long slotStart = nowMs - (nowMs % windowSlotMs);
+        WindowSlot[] slots = window;
+        int index = (int) ((slotStart / windowSlotMs) % slots.length);
+        WindowSlot slot = slots[index];
+        if (slot == null || slot.startMs != slotStart)
+        {
+            synchronized (slots)
+            {
+                slot = slots[index];
+                if (slot == null || slot.startMs != slotStart)
+                {
+                    slot = new WindowSlot(slotStart);
+                    slots[index] = slot;
+                }
+            }
+        }
+        return slot;
+    }
+
+    private List<WindowSlot> getLiveSlots()
+    {
+        long windowStart = System.currentTimeMillis() - (windowSlotMs * windowSlots);
+        WindowSlot[] slots = window;
+        List<WindowSlot> live = new ArrayList<WindowSlot>(slots.length);
+        synchronized (slots)
+        {
+            for (WindowSlot slot : slots)
+            {
+                if (slot != null && slot.startMs > windowStart)
+                {
+                    live.add(slot);
+                }
+            }
+        }
+        return live;
+    }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> map)
+    {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : map.entrySet())
+        {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    @Override
+    public long getTotalRetries()
+    {
+        return totalRetries.get();
+    }
+
+    @Override
+    public long getTotalRetryWaitMs()
+    {
+        return totalRetryWaitMs.get();
+    }
+
+    @Override
+    public long getTotalRetriesExhausted()
+    {
+        return totalRetriesExhausted.get();
+    }
+
+    @Override
+    public Map<String, Long> getRetriesByCallback()
+    {
+        return snapshot(retriesByCallback);
+    }
+
+    @Override
+    public Map<String, Long> getRetryWaitMsByCallback()
+    {
+        return snapshot(retryWaitMsByCallback);
+    }
+
+    @Override
+    public Map<String, Long> getRetriesExhaustedByCallback()
+    {
+        return snapshot(retriesExhaustedByCallback);
+    }
+
+    @Override
+    public Map<String, Long> getRetriesByCause()
+    {
+        return snapshot(retriesByCause);
+    }
+
+    @Override
+    public Map<String, Long> getContendedKeys()
+    {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(snapshot(contendedKeys).entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>()
+        {
+            @Override
+            public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2)
+            {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+        Map<String, Long> sorted = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> entry : entries)
+        {
+            sorted.put(entry.getKey(), entry.getValue());
+        }
+        return sorted;
+    }
+
+    @Override
+    public Map<String, Long> getRecentRetryWaitHistogram()
+    {
+        long[] totals = new long[WAIT_BUCKET_BOUNDS.length + 1];
+        for (WindowSlot slot : getLiveSlots())
+        {
+            for (int i = 0; i < totals.length; i++)
+            {
+                totals[i] += slot.buckets.get(i);
+            }
+        }
+        Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+        long lower = 0L;
+        for (int i = 0; i < WAIT_BUCKET_BOUNDS.length; i++)
+        {
+            histogram.put(lower + "-" + WAIT_BUCKET_BOUNDS[i] + "ms", totals[i]);
+            lower = WAIT_BUCKET_BOUNDS[i];
+        }
+        histogram.put(">" + lower + "ms", totals[WAIT_BUCKET_BOUNDS.length]);
+        return histogram;
+    }
+
+    @Override
+    public long getRecentRetries()
+    {
+        long count = 0L;
+        for (WindowSlot slot : getLiveSlots())
+        {
+            for (int i = 0; i < slot.buckets.length(); i++)
+            {
+                count += slot.buckets.get(i);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void reset()
+    {
+        totalRetries.set(0L);
+        totalRetryWaitMs.set(0L);
+        totalRetriesExhausted.set(0L);
+        retriesByCallback.clear();
+        retryWaitMsByCallback.clear();
+        retriesExhaustedByCallback.clear();
+        retriesByCause.clear();
+        contendedKeys.clear();
+        window = new WindowSlot[windowSlots];
+    }
+
+    /**
+     * The retries recorded during one slot of the rolling window
+     */
+    private static class WindowSlot
+    {
+        private final long startMs;
+        private final AtomicLongArray buckets;
+
+        private WindowSlot(long startMs)
+        {
+            this.startMs = startMs;
+            this.buckets = new AtomicLongArray(WAIT_BUCKET_BOUNDS.length + 1);
+        }
+
+        private void record(long waitMs)
+        {
+            int bucket = 0;
+            while (bucket < WAIT_BUCKET_BOUNDS.length && waitMs > WAIT_BUCKET_BOUNDS[bucket])
+            {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transaction;
+
+import java.util.Map;
+
+/**
+ * Management interface for the {@link TransactionRetryStatistics}.
+ *
+ * @since 6.1
+ */
+public interface TransactionRetryStatisticsMBean
+{
+    /**
+     * @return          the total number of transaction retries recorded
+     */
+    public long getTotalRetries();
+
+    /**
+     * @return          the total time (ms) spent waiting between retries
+     */
+    public long getTotalRetryWaitMs();
+
+    /**
+     * @return          the number of transactions that failed after running out of retries
+     */
+    public long getTotalRetriesExhausted();
+
+    /**
+     * @return          the number of retries per callback class
+     */
+    public Map<String, Long> getRetriesByCallback();
+
+    /**
+     * @return          the time (ms) spent waiting between retries per callback class
+     */
+    public Map<String, Long> getRetryWaitMsByCallback();
+
+    /**
+     * @return          the number of transactions that ran out of retries per callback class
+     */
+    public Map<String, Long> getRetriesExhaustedByCallback();
+
+    /**
+     * @return          the number of retries per root cause exception type
+     */
+    public Map<String, Long> getRetriesByCause();
+
+    /**
+     * @return          the most contended entity keys (node IDs, node references, entity IDs)
+     *                  with the number of retries they caused, most contended first
+     */
+    public Map<String, Long> getContendedKeys();
+
+    /**
+     * @return          the number of retries in the rolling window, bucketed by retry wait time
+     */
+    public Map<String, Long> getRecentRetryWaitHistogram();
+
+    /**
+     * @return          the number of retries recorded in the rolling window
+     */
+    public long getRecentRetries();
+
+    /**
+     * Reset all counters
+     */
+    public void reset();
+}
@@ -91,6 +91,18 @@ public interface AttributeService
      */
     public void getAttributes(AttributeQueryCallback callback, Serializable ... keys);
     
+    /**
+     * Get all attributes that share the starter keys provided, in the order in which they were
+     * created.  Ordering the results has a cost, so use {@link #getAttributes(AttributeQueryCallback, Serializable...)}
+     * unless only the oldest attributes are wanted.
+     * 
+     * @param callback              the callback that handles the results
+     * @param keys                  0 to 3 key values to search against
+     * 
+     * @since 6.1
+     */
+    public void getAttributesInCreationOrder(AttributeQueryCallback callback, Serializable ... keys);
+    
     /**
      * Set an attribute, overwriting its prior value if it already existed.  <tt>null</tt>
      * values are treated as unique i.e. if the value set is <tt>null</tt> then
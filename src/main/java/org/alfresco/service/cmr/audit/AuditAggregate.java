@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.service.cmr.audit;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * The number of audit entries found for one group of an
+ * {@link AuditService#auditAggregate(AuditQueryParameters, AuditAggregationParameters, int) aggregation query}.
+ * Properties for groupings that were not requested are <tt>null</tt>.
+ * 
+ * @since 6.1
+ */
+public class AuditAggregate
+{
+    private final String user;
+    private final Serializable value;
+    private final Long timeBucket;
+    private final long count;
+    
+    public AuditAggregate(String user, Serializable value, Long timeBucket, long count)
+    {
+        this.user = user;
+        this.value = value;
+        this.timeBucket = timeBucket;
+        this.count = count;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("AuditAggregate")
+          .append("[ user=").append(user)
+          .append(", value=").append(value)
+          .append(", timeBucket=").append(timeBucket == null ? null : new Date(timeBucket))
+          .append(", count=").append(count)
+          .append("]");
+        return sb.toString();
+    }
+
+    /**
+     * @return              Returns the user that logged the entries
+     */
+    public String getUser()
+    {
+        return user;
+    }
+
+    /**
+     * @return              Returns the audited value of the {@link AuditAggregationParameters#getGroupByKey() grouping key}
+     */
+    public Serializable getValue()
+    {
+        return value;
+    }
+
+    /**
+     * @return              Returns the start time (ms since epoch) of the time bucket
+     */
+    public Long getTimeBucket()
+    {
+        return timeBucket;
+    }
+
+    /**
+     * @return              Returns the number of entries in the group
+     */
+    public long getCount()
+    {
+        return count;
+    }
+}
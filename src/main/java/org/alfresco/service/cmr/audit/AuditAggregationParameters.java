@@ -0,0 +1,126 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.service.cmr.audit;
+
+/**
+ * Parameters controlling how audit entries are grouped and counted by an
+ * {@link AuditService#auditAggregate(AuditQueryParameters, AuditAggregationParameters, int) aggregation query}.
+ * Entries are counted per combination of the enabled groupings; with no grouping enabled,
+ * a single count of all matching entries is produced.
+ * 
+ * @since 6.1
+ */
+public class AuditAggregationParameters
+{
+    /** Group entries by the hour (UTC) in which they were recorded */
+    public static final long TIME_BUCKET_HOUR = 3600000L;
+    /** Group entries by the day (UTC) on which they were recorded */
+    public static final long TIME_BUCKET_DAY = 86400000L;
+    
+    private boolean groupByUser;
+    private String groupByKey;
+    private Long timeBucketMs;
+    
+    /**
+     * Defaults:<br/>
+     * &nbsp;<code>groupByUser = false;</code><br/>
+     * &nbsp;<code>others = null</code>
+     */
+    public AuditAggregationParameters()
+    {
+        groupByUser = false;
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("AuditAggregationParameters")
+          .append("[ groupByUser=").append(groupByUser)
+          .append(", groupByKey=").append(groupByKey)
+          .append(", timeBucketMs=").append(timeBucketMs)
+          .append("]");
+        return sb.toString();
+    }
+
+    /**
+     * @return              Returns <tt>true</tt> if entries are counted per user
+     */
+    public boolean isGroupByUser()
+    {
+        return groupByUser;
+    }
+
+    /**
+     * @param groupByUser   <tt>true</tt> to count entries per user
+     */
+    public void setGroupByUser(boolean groupByUser)
+    {
+        this.groupByUser = groupByUser;
+    }
+
+    /**
+     * @return              Returns the key of the audited value by which entries are counted
+     *                      or <tt>null</tt> if not grouping by value
+     */
+    public String getGroupByKey()
+    {
+        return groupByKey;
+    }
+
+    /**
+     * @param groupByKey    the full path of an audited value, e.g. <b>/alfresco-access/transaction/action</b>,
+     *                      by which to count entries.  Entries without the value are counted
+     *                      against a <tt>null</tt> value.
+     */
+    public void setGroupByKey(String groupByKey)
+    {
+        this.groupByKey = groupByKey;
+    }
+
+    /**
+     * @return              Returns the width (ms) of the time buckets or <tt>null</tt> if
+     *                      not grouping by time
+     */
+    public Long getTimeBucketMs()
+    {
+        return timeBucketMs;
+    }
+
+    /**
+     * @param timeBucketMs  the width (ms) of the time buckets, measured from the epoch, into
+     *                      which entries are counted, e.g. {@link #TIME_BUCKET_DAY}
+     *                      (optional but must be greater than 0 if set)
+     */
+    public void setTimeBucketMs(Long timeBucketMs)
+    {
+        if (timeBucketMs != null && timeBucketMs <= 0L)
+        {
+            throw new IllegalArgumentException("timeBucketMs must be greater than 0");
+        }
+        this.timeBucketMs = timeBucketMs;
+    }
+}
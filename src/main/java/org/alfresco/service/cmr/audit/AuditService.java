@@ -231,4 +231,21 @@ public interface AuditService
      * @since 3.3
      */
     void auditQuery(AuditQueryCallback callback, AuditQueryParameters parameters, int maxResults);
+    
+    /**
+     * Count the audit entries matching the query parameters, grouped by user, audited value and/or
+     * time.  The counting is done by the database, so entries and their values are not fetched.
+     * Results are returned largest count first.
+     * 
+     * @param parameters        the parameters selecting the entries to count (may not be <tt>null</tt>).
+     *                          The direction of the query is ignored.
+     * @param aggregation       the grouping to apply (may not be <tt>null</tt>)
+     * @param maxResults        the maximum number of groups to retrieve (must be greater than 0)
+     * @return                  Returns the counts per group
+     * 
+     * @throws IllegalArgumentException if maxResults less or equal to zero
+     * 
+     * @since 6.1
+     */
+    List<AuditAggregate> auditAggregate(AuditQueryParameters parameters, AuditAggregationParameters aggregation, int maxResults);
 }
@@ -624,11 +624,16 @@ public class AllRepositoryTestsCatalogue
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.module.tool.ModuleServiceImplTest.class));
         suite.addTestSuite(org.alfresco.repo.policy.MTPolicyComponentTest.class);
         suite.addTestSuite(org.alfresco.repo.policy.PolicyComponentTest.class);
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.policy.BehaviourProfilerTest.class));
         suite.addTestSuite(org.alfresco.repo.rendition.RenditionNodeManagerTest.class);
         suite.addTestSuite(org.alfresco.repo.rendition.RenditionServiceImplTest.class);
         suite.addTestSuite(org.alfresco.repo.replication.ReplicationServiceImplTest.class);
         suite.addTestSuite(org.alfresco.repo.service.StoreRedirectorProxyFactoryTest.class);
         suite.addTestSuite(org.alfresco.repo.site.RoleComparatorImplTest.class);
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.solr.SOLRTrackingQueryCacheTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.transaction.GroupCommitTransactionHelperTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.transaction.TransactionRetryStatisticsTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.transaction.ReadReplicaRoutingDataSourceTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.thumbnail.ThumbnailServiceImplParameterTest.class));
         suite.addTestSuite(org.alfresco.repo.transfer.ContentChunkerImplTest.class);
         suite.addTestSuite(org.alfresco.repo.transfer.HttpClientTransmitterImplTest.class);
@@ -675,6 +680,9 @@ public class AllRepositoryTestsCatalogue
         suite.addTest(new JUnit4TestAdapter(org.alfresco.util.BeanExtenderUnitTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.search.impl.solr.SpellCheckDecisionManagerTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.search.impl.solr.SolrStoreMappingWrapperTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.search.impl.querymodel.impl.db.DBQueryEnginePagingTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.search.impl.querymodel.impl.db.DBPermissionPreFilterTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.search.impl.querymodel.impl.db.DBQueryPlanCacheTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.security.authentication.CompositePasswordEncoderTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.security.authentication.PasswordHashingTest.class));
         suite.addTest(org.alfresco.traitextender.TraitExtenderUnitTestSuite.suite());
@@ -688,8 +696,16 @@ public class AllRepositoryTestsCatalogue
         suite.addTest(new JUnit4TestAdapter(ActionConditionImplTest.class));
         suite.addTest(new JUnit4TestAdapter(CompositeActionImplTest.class));
         suite.addTest(new JUnit4TestAdapter(CompositeActionConditionImplTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.action.ActionQueueJournalTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.action.ClusteredActionQueueTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.action.ActionTrackingServiceImplStatusUpdateTest.class));
         suite.addTestSuite(AuditableAnnotationTest.class);
         suite.addTest(new JUnit4TestAdapter(PropertyAuditFilterTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.audit.AsyncAuditWriterTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.audit.model.AuditPathTrieTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.domain.audit.AuditPartitionTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.attributes.PropTablesCleanerTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.audit.access.AccessEventCoalescerTest.class));
         suite.addTest(new JUnit4TestAdapter(SpoofedTextContentReaderTest.class));
         suite.addTestSuite(ContentDataTest.class);
         suite.addTest(new JUnit4TestAdapter(TransformationOptionLimitsTest.class));
@@ -0,0 +1,153 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.alfresco.repo.action.ActionQueueJournal.Entry;
+import org.alfresco.repo.action.ActionQueueJournal.QueuedAction;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.util.GUID;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the {@link ActionQueueJournal}.
+ */
+public class ActionQueueJournalTest
+{
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = tempFolder.newFolder("actions");
+    }
+
+    @Test
+    public void testOutstandingActionsAreRecovered() throws Exception
+    {
+        ActionQueueJournal journal = new ActionQueueJournal(dir, 3, false);
+        assertEquals(0, journal.recover(10).size());
+        List<Entry> entries = new ArrayList<Entry>();
+        for (int i = 0; i < 5; i++)
+        {
+            entries.add(journal.append(createQueuedAction("action-" + i)));
+        }
+        journal.complete(entries.get(0));
+        journal.complete(entries.get(3));
+        journal.close();
+
+        ActionQueueJournal recovered = new ActionQueueJournal(dir, 3, false);
+        List<Entry> outstanding = recovered.recover(10);
+        assertEquals(3, outstanding.size());
+        assertEquals("action-1", outstanding.get(0).getActionDefinitionName());
+        assertEquals("action-2", outstanding.get(1).getActionDefinitionName());
+        assertEquals("action-4", outstanding.get(2).getActionDefinitionName());
+        assertEquals("tracked", outstanding.get(0).getAction().getAction().getParameterValue("param"));
+
+        // New actions follow on from the recovered ones
+        Entry next = recovered.append(createQueuedAction("action-5"));
+        assertEquals(outstanding.get(2).getId() + 1, next.getId());
+    }
+
+    @Test
+    public void testActionsBeyondLimitAreReadBack() throws Exception
+    {
+        ActionQueueJournal journal = new ActionQueueJournal(dir, 100, false);
+        journal.recover(10);
+        for (int i = 0; i < 3; i++)
+        {
+            journal.append(createQueuedAction("action-" + i));
+        }
+        journal.close();
+
+        ActionQueueJournal recovered = new ActionQueueJournal(dir, 100, false);
+        List<Entry> outstanding = recovered.recover(1);
+        assertNotNull(outstanding.get(0).getAction());
+        assertNull(outstanding.get(1).getAction());
+        assertEquals("action-1", outstanding.get(1).getActionDefinitionName());
+
+        QueuedAction action = recovered.read(outstanding.get(2));
+        assertEquals("action-2", action.getAction().getActionDefinitionName());
+        assertEquals("tracked", action.getAction().getParameterValue("param"));
+
+        // Released actions written in this run are read back too
+        Entry entry = recovered.append(createQueuedAction("action-3"));
+        entry.release();
+        assertEquals("action-3", recovered.read(entry).getAction().getActionDefinitionName());
+    }
+
+    @Test
+    public void testCompletedSegmentsAreDeleted() throws Exception
+    {
+        ActionQueueJournal journal = new ActionQueueJournal(dir, 2, false);
+        journal.recover(10);
+        List<Entry> entries = new ArrayList<Entry>();
+        for (int i = 0; i < 6; i++)
+        {
+            entries.add(journal.append(createQueuedAction("action-" + i)));
+        }
+        assertEquals(3, journal.getSegmentCount());
+
+        // Completing out of order keeps the oldest segment
+        journal.complete(entries.get(2));
+        journal.complete(entries.get(3));
+        assertEquals(4, journal.getSegmentCount());
+
+        for (Entry entry : entries)
+        {
+            journal.complete(entry);
+        }
+        // Only the segment being written remains
+        assertEquals(1, journal.getSegmentCount());
+        journal.close();
+
+        assertEquals(0, new ActionQueueJournal(dir, 2, false).recover(10).size());
+    }
+
+    private QueuedAction createQueuedAction(String actionDefinitionName)
+    {
+        ActionImpl action = new ActionImpl(null, GUID.generate(), actionDefinitionName,
+                Collections.<String, Serializable>singletonMap("param", "tracked"));
+        NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, GUID.generate());
+        return new QueuedAction(action, nodeRef, true, null);
+    }
+}
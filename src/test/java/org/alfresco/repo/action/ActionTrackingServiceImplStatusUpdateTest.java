@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.action.Action;
+import org.alfresco.service.cmr.action.ActionStatus;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.GUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests for the batched saving of action status updates by the {@link ActionTrackingServiceImpl}
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ActionTrackingServiceImplStatusUpdateTest
+{
+    private static final StoreRef STORE = new StoreRef(StoreRef.PROTOCOL_WORKSPACE, "SpacesStore");
+
+    private @Mock TransactionService transactionService;
+    private @Mock NodeService nodeService;
+    private @Mock RuntimeActionService runtimeActionService;
+
+    private CountingTransactionHelper transactionHelper;
+    private ActionTrackingServiceImpl trackingService;
+
+    @Before
+    public void setUp()
+    {
+        transactionHelper = new CountingTransactionHelper();
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(transactionHelper);
+        when(nodeService.exists(any(NodeRef.class))).thenReturn(true);
+        when(runtimeActionService.createAction(any(NodeRef.class))).thenAnswer(new Answer<Action>()
+        {
+            @Override
+            public Action answer(InvocationOnMock invocation) throws Throwable
+            {
+                return new ActionImpl((NodeRef) invocation.getArguments()[0], GUID.generate(), "test");
+            }
+        });
+
+        trackingService = new ActionTrackingServiceImpl();
+        trackingService.setTransactionService(transactionService);
+        trackingService.setNodeService(nodeService);
+        trackingService.setRuntimeActionService(runtimeActionService);
+        trackingService.setStatusUpdateBatchSize(3);
+    }
+
+    private NodeRef submitCompleted()
+    {
+        NodeRef actionNode = new NodeRef(STORE, GUID.generate());
+        trackingService.submitStatusUpdate(trackingService.new StatusUpdate(
+                actionNode, ActionStatus.Completed, null, new Date(), new Date()));
+        return actionNode;
+    }
+
+    @Test
+    public void testUpdatesAreWrittenInBatches()
+    {
+        NodeRef first = submitCompleted();
+        NodeRef second = submitCompleted();
+        // Nothing is written until the batch is full
+        assertEquals(0, transactionHelper.transactions.get());
+
+        NodeRef third = submitCompleted();
+        assertEquals(1, transactionHelper.transactions.get());
+        verify(runtimeActionService).saveActionImpl(eq(first), any(Action.class));
+        verify(runtimeActionService).saveActionImpl(eq(second), any(Action.class));
+        verify(runtimeActionService).saveActionImpl(eq(third), any(Action.class));
+
+        // Part batches are written when flushed
+        NodeRef fourth = submitCompleted();
+        trackingService.flushStatusUpdates();
+        assertEquals(2, transactionHelper.transactions.get());
+        verify(runtimeActionService).saveActionImpl(eq(fourth), any(Action.class));
+    }
+
+    @Test
+    public void testFailedUpdateDoesNotLoseBatch()
+    {
+        final NodeRef failing = new NodeRef(STORE, GUID.generate());
+        doThrow(new AlfrescoRuntimeException("Save failed"))
+                .when(runtimeActionService).saveActionImpl(eq(failing), any(Action.class));
+
+        NodeRef first = submitCompleted();
+        trackingService.submitStatusUpdate(trackingService.new StatusUpdate(
+                failing, ActionStatus.Failed, "Failed", new Date(), new Date()));
+        NodeRef third = submitCompleted();
+
+        // The batch failed and each update was then written on its own
+        assertEquals(4, transactionHelper.transactions.get());
+        verify(runtimeActionService, times(2)).saveActionImpl(eq(first), any(Action.class));
+        verify(runtimeActionService, times(2)).saveActionImpl(eq(failing), any(Action.class));
+        verify(runtimeActionService).saveActionImpl(eq(third), any(Action.class));
+    }
+
+    /**
+     * Executes callbacks directly, counting the transactions
+     */
+    private static class CountingTransactionHelper extends RetryingTransactionHelper
+    {
+        private final AtomicInteger transactions = new AtomicInteger();
+
+        @Override
+        public <R> R doInTransaction(RetryingTransactionCallback<R> cb, boolean readOnly, boolean requiresNew)
+        {
+            transactions.incrementAndGet();
+            try
+            {
+                return cb.execute();
+            }
+            catch (Throwable e)
+            {
+                throw AlfrescoRuntimeException.makeRuntimeException(e, "Exception from transactional callback: " + cb);
+            }
+        }
+    }
+}
@@ -340,6 +340,48 @@ public class ActionTrackingServiceImplTest extends TestCase
        assertEquals(null, executingActionsCache.get(key));
     }
     
+    /** Actions can be tracked on this server only, or not at all */
+    public void testTrackingLevels() throws Exception
+    {
+       ActionTrackingServiceImpl trackingServiceImpl = (ActionTrackingServiceImpl)actionTrackingService;
+       Map<String, String> levels = new HashMap<String, String>();
+       levels.put(SleepActionExecuter.NAME, "local");
+       trackingServiceImpl.setTrackingLevels(levels);
+       try
+       {
+          // Local tracking keeps it out of the shared cache, but it can still be listed
+          Action action = createWorkingSleepAction("1234");
+          actionTrackingService.recordActionExecuting(action);
+          String key = ActionTrackingServiceImpl.generateCacheKey(action);
+          assertEquals(null, executingActionsCache.get(key));
+          assertEquals(1, actionTrackingService.getExecutingActions(SleepActionExecuter.NAME).size());
+          ExecutionDetails d = actionTrackingService.getExecutionDetails(ActionTrackingServiceImpl.buildExecutionSummary(action));
+          assertNotNull(d);
+          assertEquals("1234", d.getActionId());
+          
+          actionTrackingService.recordActionComplete(action);
+          assertEquals(ActionStatus.Completed, action.getExecutionStatus());
+          assertEquals(0, actionTrackingService.getExecutingActions(SleepActionExecuter.NAME).size());
+          
+          // Untracked actions still have their status set
+          levels.put(SleepActionExecuter.NAME, "none");
+          trackingServiceImpl.setTrackingLevels(levels);
+          action = createWorkingSleepAction("5678");
+          actionTrackingService.recordActionExecuting(action);
+          assertEquals(ActionStatus.Running, action.getExecutionStatus());
+          assertEquals(0, actionTrackingService.getExecutingActions(SleepActionExecuter.NAME).size());
+          assertEquals(null, actionTrackingService.getExecutionDetails(ActionTrackingServiceImpl.buildExecutionSummary(action)));
+          
+          actionTrackingService.recordActionComplete(action);
+          assertEquals(ActionStatus.Completed, action.getExecutionStatus());
+       }
+       finally
+       {
+          trackingServiceImpl.setTrackingLevels(new HashMap<String, String>());
+       }
+       assertEquals(ActionTrackingServiceImpl.TrackingLevel.PERSISTED, trackingServiceImpl.getTrackingLevel(SleepActionExecuter.NAME));
+    }
+    
     /** Working actions go into the cache, then out */
     public void testWorkingActions() throws Exception 
     {
@@ -0,0 +1,412 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.action.ActionQueueJournal.QueuedAction;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.JobLockService.JobLockRefreshCallback;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.attributes.DuplicateAttributeException;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.GUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests for the {@link ClusteredActionQueue}, simulating the members of a cluster with queues
+ * that share an in-memory attribute store and job locks.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ClusteredActionQueueTest
+{
+    private @Mock TransactionService transactionService;
+    private @Mock JobLockService jobLockService;
+    private InMemoryAttributeService attributeService;
+    private Set<QName> heldLocks;
+    private List<String> actionsRun;
+
+    @Before
+    public void setUp()
+    {
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(new DirectTransactionHelper());
+        attributeService = new InMemoryAttributeService();
+        heldLocks = Collections.synchronizedSet(new HashSet<QName>());
+        actionsRun = Collections.synchronizedList(new ArrayList<String>());
+
+        when(jobLockService.getLock(any(QName.class), anyLong(), any(JobLockRefreshCallback.class))).thenAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable
+            {
+                QName lockQName = (QName) invocation.getArguments()[0];
+                if (!heldLocks.add(lockQName))
+                {
+                    throw new LockAcquisitionException(lockQName, "token");
+                }
+                return lockQName.toString();
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                heldLocks.remove(invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(jobLockService).releaseLock(anyString(), any(QName.class));
+    }
+
+    @Test
+    public void testMembersClaimTheirFairShare()
+    {
+        DeferredExecutor executor1 = new DeferredExecutor();
+        DeferredExecutor executor2 = new DeferredExecutor();
+        ClusteredActionQueue member1 = createQueue(executor1, 20);
+        ClusteredActionQueue member2 = createQueue(executor2, 20);
+
+        // Both members announce themselves before any work arrives
+        assertEquals(0, member1.poll());
+        assertEquals(0, member2.poll());
+
+        for (int i = 0; i < 10; i++)
+        {
+            member1.offer(createQueuedAction("action-" + i));
+        }
+        assertEquals(5, member1.poll());
+        assertEquals(5, member2.poll());
+        assertEquals(0, member1.poll());
+        assertEquals(5, member1.getRunningActions());
+
+        executor1.runAll();
+        executor2.runAll();
+        assertEquals(10, actionsRun.size());
+        assertEquals(5L, member1.getCompletedActions());
+        assertEquals(5L, member2.getCompletedActions());
+        assertEquals(0, member1.getRunningActions());
+        assertTrue("Completed actions should be removed: " + attributeService.attributes, attributeService.attributes.size() == 2);
+        assertTrue(heldLocks.isEmpty());
+    }
+
+    @Test
+    public void testClaimsAreLimitedByCapacity()
+    {
+        DeferredExecutor executor = new DeferredExecutor();
+        ClusteredActionQueue member = createQueue(executor, 3);
+        for (int i = 0; i < 5; i++)
+        {
+            member.offer(createQueuedAction("action-" + i));
+        }
+        assertEquals(3, member.poll());
+        assertEquals(0, member.poll());
+
+        executor.runAll();
+        assertEquals(3, actionsRun.size());
+        assertEquals(2, member.poll());
+    }
+
+    @Test
+    public void testExpiredClaimIsTakenByAnotherMember()
+    {
+        DeferredExecutor executor1 = new DeferredExecutor();
+        DeferredExecutor executor2 = new DeferredExecutor();
+        ClusteredActionQueue member1 = createQueue(executor1, 20);
+        ClusteredActionQueue member2 = createQueue(executor2, 20);
+        member1.offer(createQueuedAction("action-0"));
+        assertEquals(1, member1.poll());
+        assertEquals(0, member2.poll());
+
+        // The first member dies and its lease runs out
+        member1.stop();
+        heldLocks.clear();
+
+        assertEquals(1, member2.poll());
+        executor2.runAll();
+        assertEquals(Arrays.asList("action-0"), actionsRun);
+        assertEquals(1L, member2.getCompletedActions());
+    }
+
+    @Test
+    public void testLocksComeFromAFixedPool()
+    {
+        DeferredExecutor executor = new DeferredExecutor();
+        ClusteredActionQueue member = createQueue(executor, 1000);
+        int actions = ClusteredActionQueue.LOCK_SLOTS + 10;
+        for (int i = 0; i < actions; i++)
+        {
+            member.offer(createQueuedAction("action-" + i));
+        }
+        assertEquals(ClusteredActionQueue.LOCK_SLOTS, member.poll());
+        assertEquals(ClusteredActionQueue.LOCK_SLOTS, heldLocks.size());
+
+        executor.runAll();
+        assertTrue(heldLocks.isEmpty());
+        assertEquals(10, member.poll());
+        executor.runAll();
+        assertEquals(actions, actionsRun.size());
+    }
+
+    @Test
+    public void testItemIdsAreReused()
+    {
+        DeferredExecutor executor = new DeferredExecutor();
+        ClusteredActionQueue member = createQueue(executor, 1000);
+        Set<Serializable> itemIds = new HashSet<Serializable>();
+        int actions = 0;
+        for (int round = 0; round < 10; round++)
+        {
+            for (int i = 0; i < 200; i++, actions++)
+            {
+                member.offer(createQueuedAction("action-" + actions));
+            }
+            for (List<Serializable> keys : new ArrayList<List<Serializable>>(attributeService.attributes.keySet()))
+            {
+                if (ClusteredActionQueue.KEY_QUEUE.equals(keys.get(0)))
+                {
+                    itemIds.add(keys.get(2));
+                }
+            }
+            assertEquals(200, member.poll());
+            executor.runAll();
+        }
+        assertEquals(actions, actionsRun.size());
+        assertTrue("Item IDs should be reused: " + itemIds.size(), itemIds.size() < actions);
+        assertEquals(1, attributeService.attributes.size());
+    }
+
+    private ClusteredActionQueue createQueue(Executor executor, int capacity)
+    {
+        ClusteredActionQueue.ActionRunner actionRunner = new ClusteredActionQueue.ActionRunner()
+        {
+            @Override
+            public void run(QueuedAction queuedAction)
+            {
+                actionsRun.add(queuedAction.getAction().getActionDefinitionName());
+            }
+        };
+        return new ClusteredActionQueue(
+                "test", transactionService, attributeService, jobLockService, executor, actionRunner,
+                capacity, 60000L, 60000L);
+    }
+
+    private QueuedAction createQueuedAction(String actionDefinitionName)
+    {
+        ActionImpl action = new ActionImpl(null, GUID.generate(), actionDefinitionName);
+        NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, GUID.generate());
+        return new QueuedAction(action, nodeRef, true, null);
+    }
+
+    /**
+     * Holds on to tasks until told to run them
+     */
+    private static class DeferredExecutor implements Executor
+    {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command)
+        {
+            tasks.add(command);
+        }
+
+        private void runAll()
+        {
+            List<Runnable> toRun = new ArrayList<Runnable>(tasks);
+            tasks.clear();
+            for (Runnable task : toRun)
+            {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Executes callbacks directly
+     */
+    private static class DirectTransactionHelper extends RetryingTransactionHelper
+    {
+        @Override
+        public <R> R doInTransaction(RetryingTransactionCallback<R> cb, boolean readOnly, boolean requiresNew)
+        {
+            try
+            {
+                return cb.execute();
+            }
+            catch (Throwable e)
+            {
+                throw AlfrescoRuntimeException.makeRuntimeException(e, "Exception from transactional callback: " + cb);
+            }
+        }
+    }
+
+    /**
+     * Attribute store shared by the simulated members
+     */
+    private static class InMemoryAttributeService implements AttributeService
+    {
+        private final Map<List<Serializable>, Serializable> attributes = Collections.synchronizedMap(new HashMap<List<Serializable>, Serializable>());
+        /** The ID of each attribute, in creation order, as given out by the database */
+        private final Map<List<Serializable>, Long> ids = new ConcurrentHashMap<List<Serializable>, Long>();
+        private final AtomicLong nextId = new AtomicLong(100L);
+
+        private static List<Serializable> key(Serializable... keys)
+        {
+            return Arrays.asList(keys);
+        }
+
+        @Override
+        public boolean exists(Serializable... keys)
+        {
+            return attributes.containsKey(key(keys));
+        }
+
+        @Override
+        public Serializable getAttribute(Serializable... keys)
+        {
+            return attributes.get(key(keys));
+        }
+
+        @Override
+        public void getAttributes(AttributeQueryCallback callback, Serializable... keys)
+        {
+            getAttributesInCreationOrder(callback, keys);
+        }
+
+        @Override
+        public void getAttributesInCreationOrder(AttributeQueryCallback callback, Serializable... keys)
+        {
+            Map<Long, List<Serializable>> byId = new TreeMap<Long, List<Serializable>>();
+            for (Map.Entry<List<Serializable>, Long> entry : ids.entrySet())
+            {
+                byId.put(entry.getValue(), entry.getKey());
+            }
+            for (Map.Entry<Long, List<Serializable>> entry : byId.entrySet())
+            {
+                List<Serializable> entryKeys = entry.getValue();
+                if (entryKeys.size() >= keys.length && entryKeys.subList(0, keys.length).equals(key(keys)))
+                {
+                    Serializable value = attributes.get(entryKeys);
+                    if (!callback.handleAttribute(entry.getKey(), value, entryKeys.toArray(new Serializable[entryKeys.size()])))
+                    {
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void put(List<Serializable> keys, Serializable value)
+        {
+            if (!ids.containsKey(keys))
+            {
+                ids.put(keys, nextId.getAndIncrement());
+            }
+            attributes.put(keys, value);
+        }
+
+        private Serializable remove(List<Serializable> keys)
+        {
+            ids.remove(keys);
+            return attributes.remove(keys);
+        }
+
+        @Override
+        public void setAttribute(Serializable value, Serializable... keys)
+        {
+            put(key(keys), value);
+        }
+
+        @Override
+        public void createAttribute(Serializable value, Serializable... keys)
+        {
+            if (attributes.containsKey(key(keys)))
+            {
+                throw new DuplicateAttributeException(keys[0], keys[1], keys[2], null);
+            }
+            put(key(keys), value);
+        }
+
+        @Override
+        public void updateOrCreateAttribute(
+                Serializable keyBefore1, Serializable keyBefore2, Serializable keyBefore3,
+                Serializable keyAfter1, Serializable keyAfter2, Serializable keyAfter3)
+        {
+            Serializable value = remove(key(keyBefore1, keyBefore2, keyBefore3));
+            put(key(keyAfter1, keyAfter2, keyAfter3), value);
+        }
+
+        @Override
+        public void removeAttribute(Serializable... keys)
+        {
+            remove(key(keys));
+        }
+
+        @Override
+        public void removeAttributes(Serializable... keys)
+        {
+            for (List<Serializable> entryKeys : new ArrayList<List<Serializable>>(attributes.keySet()))
+            {
+                if (entryKeys.size() >= keys.length && entryKeys.subList(0, keys.length).equals(key(keys)))
+                {
+                    remove(entryKeys);
+                }
+            }
+        }
+    }
+}
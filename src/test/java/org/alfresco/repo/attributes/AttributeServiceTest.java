@@ -27,6 +27,7 @@ package org.alfresco.repo.attributes;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -164,6 +165,32 @@ public class AttributeServiceTest extends TestCase
         assertEquals(2, counter.getValue());
     }
     
+    /**
+     * Checks that {@link AttributeService#getAttributesInCreationOrder(AttributeQueryCallback, Serializable...)}
+     * returns the oldest attributes first
+     */
+    public void testGetAttributesInCreationOrder() throws Exception
+    {
+        String key = GUID.generate();
+        attributeService.createAttribute(VALUE_AAC_STRING, key, "c");
+        attributeService.createAttribute(VALUE_AAA_STRING, key, "a");
+        attributeService.createAttribute(VALUE_AAB_STRING, key, "b");
+        
+        final List<Serializable> results = new ArrayList<Serializable>();
+        attributeService.getAttributesInCreationOrder(new AttributeQueryCallback()
+        {
+            @Override
+            public boolean handleAttribute(Long id, Serializable value, Serializable[] keys)
+            {
+                results.add(value);
+                return results.size() < 2;
+            }
+        }, key);
+        assertEquals(Arrays.asList(VALUE_AAC_STRING, VALUE_AAA_STRING), results);
+        
+        attributeService.removeAttributes(key);
+    }
+    
     public void testRemoveOrphanedProps()
     {
         final Serializable[] stringKey = new String[] { "z", "q", "string" };
@@ -0,0 +1,168 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.attributes;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.domain.propval.PropertyValueDAO;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Tests for the {@link PropTablesCleaner} in its incremental mode.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class PropTablesCleanerTest
+{
+    private @Mock PropertyValueDAO propertyValueDAO;
+    private @Mock JobLockService jobLockService;
+    private @Mock TransactionService transactionService;
+    private @Mock AttributeService attributeService;
+    private PropTablesCleaner cleaner;
+
+    @Before
+    public void setUp()
+    {
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(new DirectTransactionHelper());
+        when(jobLockService.getLock(any(QName.class), anyLong())).thenReturn("lock-token");
+        when(propertyValueDAO.getMaxPropertyRootId()).thenReturn(2500L);
+        when(propertyValueDAO.getMaxPropertyValueId()).thenReturn(900L);
+
+        cleaner = new PropTablesCleaner();
+        cleaner.setPropertyValueDAO(propertyValueDAO);
+        cleaner.setJobLockService(jobLockService);
+        cleaner.setTransactionService(transactionService);
+        cleaner.setAttributeService(attributeService);
+        cleaner.setIncremental(true);
+        cleaner.setBatchSize(1000);
+    }
+
+    @Test
+    public void testFullPassInBatches()
+    {
+        cleaner.execute();
+
+        InOrder inOrder = inOrder(propertyValueDAO);
+        inOrder.verify(propertyValueDAO).getUnusedPropertyRootIds(0L, 999L);
+        inOrder.verify(propertyValueDAO).getUnusedPropertyRootIds(1000L, 1999L);
+        inOrder.verify(propertyValueDAO).getUnusedPropertyRootIds(2000L, 2500L);
+        inOrder.verify(propertyValueDAO).getUnusedPropertyValueIds(0L, 900L);
+        verify(propertyValueDAO, never()).cleanupUnusedValues();
+        // Nothing to remove
+        verify(propertyValueDAO, never()).cleanupUnusedProperties(anyListOf(Long.class));
+        verify(propertyValueDAO, never()).cleanupUnusedPropertyValues(anyListOf(Long.class));
+
+        // Progress is recorded with each batch and the next run starts from the beginning
+        verify(attributeService).setAttribute(1000L, ".PropTablesCleaner", "properties");
+        verify(attributeService).setAttribute(901L, ".PropTablesCleaner", "values");
+        verify(attributeService).setAttribute("properties", ".PropTablesCleaner", "phase");
+        verify(jobLockService, times(4)).refreshLock(eq("lock-token"), any(QName.class), anyLong());
+        verify(jobLockService).releaseLock(eq("lock-token"), any(QName.class));
+    }
+
+    @Test
+    public void testResumeFromSavedPosition()
+    {
+        when(attributeService.getAttribute(".PropTablesCleaner", "phase")).thenReturn("values");
+        when(attributeService.getAttribute(".PropTablesCleaner", "values")).thenReturn(500L);
+
+        cleaner.execute();
+
+        InOrder inOrder = inOrder(propertyValueDAO);
+        inOrder.verify(propertyValueDAO).getUnusedPropertyValueIds(500L, 900L);
+        inOrder.verify(propertyValueDAO).getUnusedPropertyRootIds(0L, 999L);
+        inOrder.verify(propertyValueDAO).getUnusedPropertyRootIds(2000L, 2500L);
+        verify(propertyValueDAO, never()).getUnusedPropertyValueIds(0L, 499L);
+    }
+
+    @Test
+    public void testCandidatesAreCleanedUp()
+    {
+        List<Long> rootIds = Arrays.asList(5L, 17L);
+        List<Long> valueIds = Arrays.asList(3L);
+        when(propertyValueDAO.getUnusedPropertyRootIds(0L, 999L)).thenReturn(rootIds);
+        when(propertyValueDAO.getUnusedPropertyValueIds(0L, 900L)).thenReturn(valueIds);
+
+        cleaner.execute();
+
+        InOrder inOrder = inOrder(propertyValueDAO);
+        inOrder.verify(propertyValueDAO).getUnusedPropertyRootIds(0L, 999L);
+        inOrder.verify(propertyValueDAO).cleanupUnusedProperties(rootIds);
+        inOrder.verify(propertyValueDAO).getUnusedPropertyValueIds(0L, 900L);
+        inOrder.verify(propertyValueDAO).cleanupUnusedPropertyValues(valueIds);
+        verify(propertyValueDAO, times(1)).cleanupUnusedProperties(anyListOf(Long.class));
+    }
+
+    @Test
+    public void testNotIncremental()
+    {
+        cleaner.setIncremental(false);
+        cleaner.execute();
+
+        verify(propertyValueDAO).cleanupUnusedValues();
+        verify(propertyValueDAO, never()).getUnusedPropertyRootIds(anyLong(), anyLong());
+    }
+
+    /**
+     * Executes callbacks directly
+     */
+    private static class DirectTransactionHelper extends RetryingTransactionHelper
+    {
+        @Override
+        public <R> R doInTransaction(RetryingTransactionCallback<R> cb, boolean readOnly, boolean requiresNew)
+        {
+            try
+            {
+                return cb.execute();
+            }
+            catch (Throwable e)
+            {
+                throw AlfrescoRuntimeException.makeRuntimeException(e, "Exception from transactional callback: " + cb);
+            }
+        }
+    }
+}
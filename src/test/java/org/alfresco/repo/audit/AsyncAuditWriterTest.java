@@ -0,0 +1,206 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.audit.AsyncAuditWriter.QueuedAuditEntry;
+import org.alfresco.repo.domain.audit.AuditDAO;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.transaction.TransactionService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Tests for the {@link AsyncAuditWriter} using a transaction helper that executes callbacks directly.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncAuditWriterTest
+{
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private @Mock TransactionService transactionService;
+    private @Mock AuditDAO auditDAO;
+    private File walDir;
+    private List<AsyncAuditWriter> writers = new ArrayList<AsyncAuditWriter>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        walDir = tempFolder.newFolder("audit-wal");
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(new DirectTransactionHelper());
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (AsyncAuditWriter writer : writers)
+        {
+            writer.destroy();
+        }
+    }
+
+    private AsyncAuditWriter createWriter(int batchSize, int maxQueuedEntries)
+    {
+        AsyncAuditWriter writer = new AsyncAuditWriter();
+        writer.setTransactionService(transactionService);
+        writer.setAuditDAO(auditDAO);
+        writer.setEnabled(true);
+        writer.setWalDirectory(walDir.getAbsolutePath());
+        writer.setBatchSize(batchSize);
+        writer.setMaxQueuedEntries(maxQueuedEntries);
+        // Only flush when asked to
+        writer.setFlushIntervalMs(60000L);
+        writer.init();
+        writers.add(writer);
+        return writer;
+    }
+
+    private static List<QueuedAuditEntry> entries(int count)
+    {
+        List<QueuedAuditEntry> entries = new ArrayList<QueuedAuditEntry>(count);
+        for (int i = 0; i < count; i++)
+        {
+            entries.add(new QueuedAuditEntry(
+                    1L, 1000L + i, "user" + i,
+                    Collections.<String, Serializable>singletonMap("/test/value", "value" + i)));
+        }
+        return entries;
+    }
+
+    @Test
+    public void testEntriesAreWrittenInBatches()
+    {
+        AsyncAuditWriter writer = createWriter(100, 1000);
+        writer.append(entries(3));
+        writer.append(entries(2));
+        assertEquals(5, writer.getQueuedEntries());
+        assertEquals(1, walDir.list().length);
+
+        writer.setBatchSize(2);
+        writer.flush();
+
+        verify(auditDAO, times(5)).createAuditEntry(eq(1L), anyLong(), anyString(), anyMapOf(String.class, Serializable.class));
+        assertEquals(5L, writer.getWrittenEntries());
+        assertEquals(3L, writer.getBatches());
+        assertEquals(0, writer.getQueuedEntries());
+        assertEquals(0L, writer.getLagMs());
+        assertEquals("Written segments are deleted", 0, walDir.list().length);
+    }
+
+    @Test
+    public void testEntriesAreDroppedWhenQueueIsFull()
+    {
+        AsyncAuditWriter writer = createWriter(100, 3);
+        writer.append(entries(2));
+        writer.append(entries(2));
+        assertEquals(2, writer.getQueuedEntries());
+        assertEquals(2L, writer.getDroppedEntries());
+
+        writer.flush();
+        writer.append(entries(3));
+        assertEquals(3, writer.getQueuedEntries());
+        assertEquals(2L, writer.getDroppedEntries());
+    }
+
+    @Test
+    public void testSegmentsAreReplayedOnStartup()
+    {
+        AsyncAuditWriter crashed = createWriter(100, 1000);
+        // Never flushed, as if the server had stopped abruptly
+        crashed.append(entries(4));
+
+        AsyncAuditWriter writer = createWriter(100, 1000);
+        assertEquals(4, writer.getQueuedEntries());
+        assertTrue(writer.getLagMs() >= 0L);
+        writer.flush();
+        verify(auditDAO, times(1)).createAuditEntry(eq(1L), eq(1003L), eq("user3"), anyMapOf(String.class, Serializable.class));
+        assertEquals(4L, writer.getWrittenEntries());
+        assertEquals(0, walDir.list().length);
+    }
+
+    @Test
+    public void testFailedBatchIsRetried()
+    {
+        when(auditDAO.createAuditEntry(eq(1L), anyLong(), anyString(), anyMapOf(String.class, Serializable.class)))
+                .thenThrow(new AlfrescoRuntimeException("Database unavailable"))
+                .thenReturn(10L);
+        AsyncAuditWriter writer = createWriter(100, 1000);
+        writer.append(entries(2));
+
+        writer.flush();
+        assertEquals(0L, writer.getWrittenEntries());
+        assertEquals(2, writer.getQueuedEntries());
+        assertEquals(1, walDir.list().length);
+
+        writer.flush();
+        assertEquals(2L, writer.getWrittenEntries());
+        assertEquals(0, writer.getQueuedEntries());
+        assertEquals(0L, writer.getFailedEntries());
+        assertEquals(0, walDir.list().length);
+    }
+
+    /**
+     * Executes callbacks directly, propagating failures as the real helper would once out of retries
+     */
+    private static class DirectTransactionHelper extends RetryingTransactionHelper
+    {
+        @Override
+        public <R> R doInTransaction(RetryingTransactionCallback<R> cb, boolean readOnly, boolean requiresNew)
+        {
+            try
+            {
+                return cb.execute();
+            }
+            catch (Throwable e)
+            {
+                throw AlfrescoRuntimeException.makeRuntimeException(e, "Exception from transactional callback: " + cb);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.audit.access;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link AccessEventCoalescer}.
+ */
+public class AccessEventCoalescerTest
+{
+    private static final NodeRef NODE_1 = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node-1");
+    private static final NodeRef NODE_2 = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node-2");
+    
+    private List<String> recordedUsers;
+    private List<Map<String, Serializable>> recordedMaps;
+    private AccessEventCoalescer coalescer;
+
+    @Before
+    public void setUp()
+    {
+        recordedUsers = new ArrayList<String>();
+        recordedMaps = new ArrayList<Map<String, Serializable>>();
+        coalescer = new AccessEventCoalescer(1000L, 3, new AccessEventCoalescer.Recorder()
+        {
+            @Override
+            public void record(String user, Map<String, Serializable> auditMap)
+            {
+                recordedUsers.add(user);
+                recordedMaps.add(auditMap);
+            }
+        });
+    }
+
+    @Test
+    public void testRepeatedReadsAreMerged()
+    {
+        assertTrue(coalescer.offer("fred", NODE_1, "READ", newAuditMap(NODE_1), 0L));
+        assertTrue(coalescer.offer("fred", NODE_1, "READ", newAuditMap(NODE_1), 100L));
+        assertTrue(coalescer.offer("fred", NODE_1, "READ", newAuditMap(NODE_1), 200L));
+        // Different user and different node are kept apart
+        assertTrue(coalescer.offer("wilma", NODE_1, "READ", newAuditMap(NODE_1), 300L));
+        assertTrue(coalescer.offer("fred", NODE_2, "READ", newAuditMap(NODE_2), 1500L));
+        assertEquals(3, coalescer.getPendingCount());
+
+        // Nothing is recorded until the window closes
+        coalescer.flushExpired(999L);
+        assertTrue(recordedMaps.isEmpty());
+
+        coalescer.flushExpired(1300L);
+        assertEquals(2, recordedMaps.size());
+        assertEquals("fred", recordedUsers.get(0));
+        assertEquals(3, recordedMaps.get(0).get(AccessEventCoalescer.COUNT));
+        assertEquals(new Date(0L), recordedMaps.get(0).get(AccessEventCoalescer.FIRST_TIME));
+        assertEquals("wilma", recordedUsers.get(1));
+        assertEquals(1, recordedMaps.get(1).get(AccessEventCoalescer.COUNT));
+        assertEquals(new Date(300L), recordedMaps.get(1).get(AccessEventCoalescer.FIRST_TIME));
+        assertEquals(1, coalescer.getPendingCount());
+
+        // A read after the window starts a new entry
+        assertTrue(coalescer.offer("fred", NODE_1, "READ", newAuditMap(NODE_1), 1600L));
+        assertEquals(2, coalescer.getPendingCount());
+    }
+
+    @Test
+    public void testPendingEventsAreBounded()
+    {
+        assertTrue(coalescer.offer("a", NODE_1, "READ", newAuditMap(NODE_1), 0L));
+        assertTrue(coalescer.offer("b", NODE_1, "READ", newAuditMap(NODE_1), 0L));
+        assertTrue(coalescer.offer("c", NODE_1, "READ", newAuditMap(NODE_1), 0L));
+        // Full: new events are not held but repeats are still merged
+        assertFalse(coalescer.offer("d", NODE_1, "READ", newAuditMap(NODE_1), 0L));
+        assertTrue(coalescer.offer("a", NODE_1, "READ", newAuditMap(NODE_1), 0L));
+        assertEquals(3, coalescer.getPendingCount());
+    }
+
+    @Test
+    public void testShutdownDiscardsHeldEvents()
+    {
+        coalescer.offer("fred", NODE_1, "READ", newAuditMap(NODE_1), System.currentTimeMillis());
+        coalescer.shutdown();
+        assertEquals(0, recordedMaps.size());
+        assertEquals(0, coalescer.getPendingCount());
+    }
+
+    private Map<String, Serializable> newAuditMap(NodeRef nodeRef)
+    {
+        Map<String, Serializable> auditMap = new HashMap<String, Serializable>();
+        auditMap.put("action", "READ");
+        auditMap.put("node", nodeRef);
+        return auditMap;
+    }
+}
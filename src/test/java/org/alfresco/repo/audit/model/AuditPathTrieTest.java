@@ -0,0 +1,109 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.audit.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.alfresco.repo.audit.extractor.DataExtractor;
+import org.alfresco.repo.audit.generator.DataGenerator;
+import org.alfresco.repo.audit.model._3.Application;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link AuditPathTrie}.
+ */
+public class AuditPathTrieTest
+{
+    @Test
+    public void testGet()
+    {
+        AuditPathTrie<String> trie = new AuditPathTrie<String>();
+        trie.put("/app/a/b", "one");
+        trie.put("/app/a/b", "two");
+        trie.put("/app/a", "three");
+
+        assertEquals(3, trie.size());
+        assertEquals(Arrays.asList("one", "two"), trie.get("/app/a/b"));
+        assertEquals(Collections.singletonList("three"), trie.get("/app/a"));
+        assertTrue(trie.get("/app").isEmpty());
+        assertTrue(trie.get("/app/a/b/c").isEmpty());
+        assertTrue(trie.get("/other").isEmpty());
+    }
+
+    @Test
+    public void testContainsPrefixOf()
+    {
+        AuditPathTrie<String> trie = new AuditPathTrie<String>();
+        trie.put("/app/a/b", "/app/a/b");
+        trie.put("/app/c", "/app/c");
+
+        assertTrue(trie.containsPrefixOf("/app/a/b"));
+        assertTrue(trie.containsPrefixOf("/app/a/b/x/y"));
+        assertTrue(trie.containsPrefixOf("/app/c/d"));
+        assertFalse(trie.containsPrefixOf("/app"));
+        assertFalse(trie.containsPrefixOf("/app/a"));
+        assertFalse(trie.containsPrefixOf("/app/a/x"));
+        assertFalse(trie.containsPrefixOf("/other/a/b"));
+        // Matching is the same as String.startsWith
+        assertTrue(trie.containsPrefixOf("/app/a/bc"));
+        assertTrue(trie.containsPrefixOf("/app/cd/e"));
+    }
+
+    @Test
+    public void testDisabledPathTrieIsReused()
+    {
+        AuditApplication application = newApplication();
+        Set<String> disabledPaths = new HashSet<String>(Arrays.asList("/app/a"));
+        AuditPathTrie<String> trie = application.getDisabledPathTrie(disabledPaths);
+        assertTrue(trie.containsPrefixOf("/app/a/b"));
+        assertTrue(trie == application.getDisabledPathTrie(new HashSet<String>(disabledPaths)));
+
+        disabledPaths.add("/app/b");
+        AuditPathTrie<String> changed = application.getDisabledPathTrie(disabledPaths);
+        assertFalse(trie == changed);
+        assertTrue(changed.containsPrefixOf("/app/b/c"));
+    }
+
+    private static AuditApplication newApplication()
+    {
+        Application app = new Application();
+        app.setName("Test");
+        app.setKey("app");
+        return new AuditApplication(
+                Collections.<String, DataExtractor>emptyMap(),
+                Collections.<String, DataGenerator>emptyMap(),
+                app,
+                1L,
+                2L);
+    }
+}
@@ -91,6 +91,7 @@ public class CacheTest extends TestCase
         // Make the cache mutable (default)
         transactionalCache.setMutable(true);
         transactionalCache.setAllowEqualsChecks(false);
+        transactionalCache.setReadOnlyFastPath(false);
         
         transactionalCacheNoStats.setMutable(true);
         transactionalCacheNoStats.setAllowEqualsChecks(false);
@@ -500,6 +501,126 @@ public class CacheTest extends TestCase
                 "   transaction: " + (end-start)/((long)count) + " ns\\count"); 
     }
     
+    /**
+     * Read-only transactions using the fast path must not bind any transactional state until
+     * they need to remove values.
+     */
+    public void testReadOnlyFastPath() throws Throwable
+    {
+        transactionalCache.setReadOnlyFastPath(true);
+        TransactionalCache.putSharedCacheValue(backingCache, NEW_GLOBAL_ONE, NEW_GLOBAL_ONE, null);
+        final long hitsAtStart = countStats("transactionalCache", OpType.GET_HIT);
+        final long putsAtStart = countStats("transactionalCache", OpType.PUT);
+        
+        TransactionService transactionService = serviceRegistry.getTransactionService();
+        UserTransaction txn = transactionService.getUserTransaction(true);
+        try
+        {
+            txn.begin();
+            
+            assertEquals(NEW_GLOBAL_ONE, transactionalCache.get(NEW_GLOBAL_ONE));
+            // Values put in a read-only transaction go straight to the shared cache
+            transactionalCache.put(NEW_GLOBAL_TWO, NEW_GLOBAL_TWO);
+            assertEquals(NEW_GLOBAL_TWO, TransactionalCache.getSharedCacheValue(backingCache, NEW_GLOBAL_TWO, null));
+            assertNull("No transactional state expected",
+                    AlfrescoTransactionSupport.getResource("TransactionalCache.TxnData.transactionalCache"));
+            // Statistics are gathered for the transaction rather than recorded by each operation
+            assertEquals(hitsAtStart, countStats("transactionalCache", OpType.GET_HIT));
+            assertEquals(putsAtStart, countStats("transactionalCache", OpType.PUT));
+            
+            // Removal switches back to transactional behaviour
+            transactionalCache.remove(NEW_GLOBAL_ONE);
+            assertNull(transactionalCache.get(NEW_GLOBAL_ONE));
+            assertTrue("Removal must wait for the transaction to complete", backingCache.contains(NEW_GLOBAL_ONE));
+            assertNotNull("Transactional state expected",
+                    AlfrescoTransactionSupport.getResource("TransactionalCache.TxnData.transactionalCache"));
+            
+            txn.commit();
+        }
+        catch (Throwable e)
+        {
+            try { txn.rollback(); } catch (Throwable ee) {}
+            throw e;
+        }
+        assertFalse("Removal not propagated on commit", backingCache.contains(NEW_GLOBAL_ONE));
+        // Fast path statistics are recorded when the transaction completes
+        assertEquals(hitsAtStart + 1, countStats("transactionalCache", OpType.GET_HIT));
+        assertEquals(putsAtStart + 1, countStats("transactionalCache", OpType.PUT));
+        assertEquals(NEW_GLOBAL_TWO, transactionalCache.get(NEW_GLOBAL_TWO));
+        
+        // Writable transactions are not affected
+        txn = transactionService.getUserTransaction(false);
+        try
+        {
+            txn.begin();
+            transactionalCache.put(NEW_GLOBAL_THREE, NEW_GLOBAL_THREE);
+            assertFalse("Item was put into backing cache", backingCache.contains(NEW_GLOBAL_THREE));
+            txn.commit();
+        }
+        catch (Throwable e)
+        {
+            try { txn.rollback(); } catch (Throwable ee) {}
+            throw e;
+        }
+        assertEquals(NEW_GLOBAL_THREE, TransactionalCache.getSharedCacheValue(backingCache, NEW_GLOBAL_THREE, null));
+    }
+    
+    private long countStats(String cacheName, OpType opType)
+    {
+        try
+        {
+            return cacheStats.count(cacheName, opType);
+        }
+        catch (NoStatsForCache e)
+        {
+            return 0L;
+        }
+    }
+    
+    /**
+     * Compare the per-transaction overhead of read-only transactions with and without the fast path,
+     * checking that both record the same statistics
+     */
+    public void testReadOnlyFastPathPerformance() throws Exception
+    {
+        TransactionalCache.putSharedCacheValue(backingCache, "A", "AAA", null);
+        long hitsAtStart = countStats("transactionalCache", OpType.GET_HIT);
+        long timeNormal = runReadOnlyTxnPerformanceTest(false, 10000);
+        long hitsNormal = countStats("transactionalCache", OpType.GET_HIT) - hitsAtStart;
+        long timeFastPath = runReadOnlyTxnPerformanceTest(true, 10000);
+        long hitsFastPath = countStats("transactionalCache", OpType.GET_HIT) - hitsAtStart - hitsNormal;
+        
+        // Each transaction reads the shared cache once without the fast path and every time with it
+        assertEquals(10000L, hitsNormal);
+        assertEquals(100000L, hitsFastPath);
+        
+        // report
+        System.out.println(
+                "Read-only transaction cache performance test: \n" +
+                "   count:       " + 10000 + "\n" +
+                "   normal:      " + timeNormal + " ns\\count \n" +
+                "   fast path:   " + timeFastPath + " ns\\count");
+    }
+    
+    private long runReadOnlyTxnPerformanceTest(boolean readOnlyFastPath, int count) throws Exception
+    {
+        transactionalCache.setReadOnlyFastPath(readOnlyFastPath);
+        TransactionService transactionService = serviceRegistry.getTransactionService();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+        {
+            UserTransaction txn = transactionService.getUserTransaction(true);
+            txn.begin();
+            for (int j = 0; j < 10; j++)
+            {
+                assertEquals("AAA", transactionalCache.get("A"));
+            }
+            txn.commit();
+        }
+        long end = System.nanoTime();
+        return (end - start) / ((long) count);
+    }
+    
     /**
      * @see #testPerformance()
      */
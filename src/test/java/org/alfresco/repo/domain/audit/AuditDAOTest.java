@@ -49,6 +49,8 @@ import org.alfresco.repo.domain.propval.PropertyValueDAO;
 import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
 import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.audit.AuditAggregate;
+import org.alfresco.service.cmr.audit.AuditAggregationParameters;
 import org.alfresco.service.cmr.audit.AuditQueryParameters;
 import org.alfresco.service.cmr.audit.AuditService.AuditQueryCallback;
 import org.alfresco.service.cmr.repository.ContentData;
@@ -634,6 +636,75 @@ public class AuditDAOTest extends TestCase
         txnHelper.doInTransaction(deletedCallback);
     }
     
+    public void testAuditAggregates() throws Exception
+    {
+        RetryingTransactionCallback<Void> aggregateCallback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                AuditApplicationInfo info = createAuditApp();
+                String app = info.getName();
+                long day = AuditAggregationParameters.TIME_BUCKET_DAY;
+                
+                // Three entries by 'fred' on the first day, one for each action
+                auditDAO.createAuditEntry(info.getId(), 10 * day + 1, "fred", Collections.singletonMap("/a/action", (Serializable) "READ"));
+                auditDAO.createAuditEntry(info.getId(), 10 * day + 2, "fred", Collections.singletonMap("/a/action", (Serializable) "READ"));
+                auditDAO.createAuditEntry(info.getId(), 10 * day + 3, "fred", Collections.singletonMap("/a/action", (Serializable) "DELETE"));
+                // Two entries by 'wilma' on the next day, one without the action
+                auditDAO.createAuditEntry(info.getId(), 11 * day + 1, "wilma", Collections.singletonMap("/a/action", (Serializable) "READ"));
+                auditDAO.createAuditEntry(info.getId(), 11 * day + 2, "wilma", Collections.singletonMap("/a/other", (Serializable) "X"));
+                
+                AuditQueryParameters params = new AuditQueryParameters();
+                params.setApplicationName(app);
+                
+                // Total
+                List<AuditAggregate> results = auditDAO.findAuditAggregates(params, new AuditAggregationParameters(), 10);
+                assertEquals(1, results.size());
+                assertEquals(5L, results.get(0).getCount());
+                
+                // By user
+                AuditAggregationParameters byUser = new AuditAggregationParameters();
+                byUser.setGroupByUser(true);
+                results = auditDAO.findAuditAggregates(params, byUser, 10);
+                assertEquals(2, results.size());
+                assertEquals("fred", results.get(0).getUser());
+                assertEquals(3L, results.get(0).getCount());
+                assertEquals("wilma", results.get(1).getUser());
+                assertEquals(2L, results.get(1).getCount());
+                
+                // By action and day
+                AuditAggregationParameters byActionAndDay = new AuditAggregationParameters();
+                byActionAndDay.setGroupByKey("/a/action");
+                byActionAndDay.setTimeBucketMs(day);
+                results = auditDAO.findAuditAggregates(params, byActionAndDay, 10);
+                Map<String, Long> counts = new HashMap<String, Long>();
+                for (AuditAggregate result : results)
+                {
+                    assertNull(result.getUser());
+                    counts.put(result.getValue() + "@" + (result.getTimeBucket() / day), result.getCount());
+                }
+                assertEquals(4, counts.size());
+                assertEquals(Long.valueOf(2L), counts.get("READ@10"));
+                assertEquals(Long.valueOf(1L), counts.get("DELETE@10"));
+                assertEquals(Long.valueOf(1L), counts.get("READ@11"));
+                assertEquals(Long.valueOf(1L), counts.get("null@11"));
+                
+                // Limited to the largest group
+                results = auditDAO.findAuditAggregates(params, byUser, 1);
+                assertEquals(1, results.size());
+                assertEquals("fred", results.get(0).getUser());
+                
+                // Restricted by time
+                params.setFromTime(11 * day);
+                results = auditDAO.findAuditAggregates(params, byUser, 10);
+                assertEquals(1, results.size());
+                assertEquals("wilma", results.get(0).getUser());
+                return null;
+            }
+        };
+        txnHelper.doInTransaction(aggregateCallback);
+    }
+    
     /**
      * Create an audit item
      * @param appInfo The audit application to create the item for.
@@ -0,0 +1,98 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.domain.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.alfresco.repo.domain.audit.AuditPartition.Period;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link AuditPartition}.
+ */
+public class AuditPartitionTest
+{
+    private static long utc(int year, int month, int day, int hour)
+    {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void testMonthPartition()
+    {
+        AuditPartition partition = AuditPartition.getPartition(3L, utc(2018, 12, 15, 13), Period.MONTH);
+        assertEquals("alf_audit_entry_3_m201812", partition.getTableName());
+        assertEquals(Long.valueOf(3L), partition.getApplicationId());
+        assertEquals(utc(2018, 12, 1, 0), partition.getFromTime());
+        assertEquals(utc(2019, 1, 1, 0), partition.getToTime());
+        assertEquals(partition, AuditPartition.parse(partition.getTableName()));
+    }
+
+    @Test
+    public void testDayPartition()
+    {
+        AuditPartition partition = AuditPartition.getPartition(12L, utc(2018, 2, 28, 23), Period.DAY);
+        assertEquals("alf_audit_entry_12_d20180228", partition.getTableName());
+        assertEquals(utc(2018, 2, 28, 0), partition.getFromTime());
+        assertEquals(utc(2018, 3, 1, 0), partition.getToTime());
+
+        AuditPartition parsed = AuditPartition.parse("alf_audit_entry_12_d20180228");
+        assertEquals(partition, parsed);
+        assertEquals(Period.DAY, parsed.getPeriod());
+        assertEquals(partition.getFromTime(), parsed.getFromTime());
+    }
+
+    @Test
+    public void testParseInvalidNames()
+    {
+        assertNull(AuditPartition.parse("alf_audit_entry"));
+        assertNull(AuditPartition.parse("alf_audit_app"));
+        assertNull(AuditPartition.parse("alf_audit_entry_x_m201801"));
+        assertNull(AuditPartition.parse("alf_audit_entry_3_y2018"));
+        assertNull(AuditPartition.parse("alf_audit_entry_3_m2018011"));
+        assertNull(AuditPartition.parse("alf_audit_entry_3_d20180231"));
+    }
+
+    @Test
+    public void testIsWithin()
+    {
+        AuditPartition partition = AuditPartition.getPartition(3L, utc(2018, 6, 10, 0), Period.MONTH);
+        assertTrue(partition.isWithin(null, null));
+        assertTrue(partition.isWithin(null, utc(2018, 7, 1, 0)));
+        assertTrue(partition.isWithin(utc(2018, 6, 1, 0), utc(2018, 7, 1, 0)));
+        assertFalse(partition.isWithin(null, utc(2018, 6, 30, 0)));
+        assertFalse(partition.isWithin(utc(2018, 6, 2, 0), null));
+    }
+}
@@ -522,6 +522,58 @@ public class PropertyValueDAOTest
         runPropertyValueTest(map, false);
     }
     
+    @Test
+    public void testPropertyValues_Bulk() throws Exception
+    {
+        final String prefix = "BULK-" + GUID.generate() + "-";
+        final List<Serializable> values = new ArrayList<Serializable>();
+        values.add(null);
+        values.add(Boolean.TRUE);
+        values.add(Long.valueOf(System.nanoTime()));
+        values.add(Double.valueOf(Math.random()));
+        values.add(TEST_NUMBERS.ONE);
+        for (int i = 0; i < 150; i++)
+        {
+            values.add(prefix + i);
+        }
+        // Duplicates are resolved once
+        values.add(prefix + 0);
+        // Some of the values exist already
+        for (int i = 0; i < 10; i++)
+        {
+            runPropertyValueTest(prefix + i, false);
+        }
+        
+        RetryingTransactionCallback<Map<Serializable, Long>> createValuesCallback = new RetryingTransactionCallback<Map<Serializable, Long>>()
+        {
+            public Map<Serializable, Long> execute() throws Throwable
+            {
+                return propertyValueDAO.getOrCreatePropertyValues(values);
+            }
+        };
+        final Map<Serializable, Long> valueIds = txnHelper.doInTransaction(createValuesCallback, false);
+        assertEquals(values.size() - 1, valueIds.size());
+        
+        // Each value must resolve to the same ID individually
+        RetryingTransactionCallback<Void> checkValuesCallback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                for (Map.Entry<Serializable, Long> entry : valueIds.entrySet())
+                {
+                    Pair<Long, Serializable> entityPair = propertyValueDAO.getOrCreatePropertyValue(entry.getKey());
+                    assertEquals("Incorrect ID for " + entry.getKey(), entry.getValue(), entityPair.getFirst());
+                    assertEquals(entry.getKey(), propertyValueDAO.getPropertyValueById(entry.getValue()).getSecond());
+                }
+                return null;
+            }
+        };
+        txnHelper.doInTransaction(checkValuesCallback, false);
+        
+        // Resolving again gives the same IDs
+        assertEquals(valueIds, txnHelper.doInTransaction(createValuesCallback, false));
+    }
+    
     /**
      * Tests that the given value can be persisted and retrieved with the same resulting ID
      */
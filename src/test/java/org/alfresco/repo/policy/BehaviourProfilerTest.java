@@ -0,0 +1,194 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.policy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.policy.BehaviourProfiler.BehaviourProfile;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link BehaviourProfiler}.
+ */
+public class BehaviourProfilerTest
+{
+    private static final QName POLICY = QName.createQName(NamespaceService.ALFRESCO_URI, "onTest");
+    private static final QName TYPE = QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "content");
+
+    private BehaviourProfiler profiler;
+
+    @Before
+    public void setUp()
+    {
+        profiler = new BehaviourProfiler();
+        profiler.setEnabled(true);
+        profiler.setSampleRate(1);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private TestPolicy wrap(TestPolicy target)
+    {
+        ClassBehaviourBinding binding = mock(ClassBehaviourBinding.class);
+        when(binding.getClassQName()).thenReturn(TYPE);
+        BehaviourDefinition behaviourDef = mock(BehaviourDefinition.class);
+        when(behaviourDef.getPolicy()).thenReturn(POLICY);
+        when(behaviourDef.getBinding()).thenReturn(binding);
+        when(behaviourDef.getBehaviour()).thenReturn(new JavaBehaviour(target, "onTest"));
+        return profiler.wrap(TestPolicy.class, behaviourDef, target);
+    }
+
+    @Test
+    public void testInvocationsAreRecorded()
+    {
+        TestBehaviour target = new TestBehaviour();
+        TestPolicy policy = wrap(target);
+        for (int i = 0; i < 20; i++)
+        {
+            assertEquals("value-" + i, policy.onTest("value-" + i));
+        }
+
+        assertEquals(1, profiler.getProfiledBehaviourCount());
+        BehaviourProfile profile = profiler.getProfilesByTotalTime().get(0);
+        assertTrue(profile.getKey().startsWith(POLICY.toString()));
+        assertTrue(profile.getKey().endsWith(TYPE.toString()));
+        assertEquals(20L, profile.getInvocations());
+        assertEquals(20L, profile.getSampledInvocations());
+        assertTrue(profile.getPercentileMicros(0.5) <= profile.getPercentileMicros(0.99));
+        assertEquals(Long.valueOf(20L), profiler.getInvocationCounts().get(profile.getKey()));
+
+        List<String> top = profiler.getTopBehaviours();
+        assertEquals(1, top.size());
+        assertTrue(top.get(0).contains("invocations=20"));
+
+        profiler.reset();
+        assertEquals(0L, profile.getInvocations());
+        assertEquals(0L, profile.getSampledInvocations());
+    }
+
+    @Test
+    public void testSampling()
+    {
+        TestPolicy policy = wrap(new TestBehaviour());
+        profiler.setSampleRate(0);
+        for (int i = 0; i < 10; i++)
+        {
+            policy.onTest("x");
+        }
+        BehaviourProfile profile = profiler.getProfilesByTotalTime().get(0);
+        assertEquals(10L, profile.getInvocations());
+        assertEquals(0L, profile.getSampledInvocations());
+        assertEquals(0L, profile.getEstimatedTotalNanos());
+
+        // Sampling can be switched back on at runtime
+        profiler.setSampleRate(1);
+        policy.onTest("x");
+        assertEquals(11L, profile.getInvocations());
+        assertEquals(1L, profile.getSampledInvocations());
+    }
+
+    @Test
+    public void testProfilesAreSharedAndOrdered()
+    {
+        TestBehaviour target = new TestBehaviour();
+        wrap(target).onTest("x");
+        wrap(target).onTest("x");
+        assertEquals(1, profiler.getProfiledBehaviourCount());
+
+        BehaviourProfile slow = profiler.getProfile(POLICY, "slow", TYPE.toString());
+        slow.recordInvocation();
+        slow.recordTime(5000000L);
+        Map<String, Long> times = profiler.getEstimatedTotalTimeMs();
+        assertEquals(slow.getKey(), times.keySet().iterator().next());
+        assertEquals(Long.valueOf(5L), times.get(slow.getKey()));
+        assertTrue(slow.getPercentileMicros(0.99) >= 5000L);
+    }
+
+    @Test
+    public void testExceptionsAndIdentity()
+    {
+        TestBehaviour target = new TestBehaviour();
+        TestPolicy policy = wrap(target);
+        try
+        {
+            policy.onTest(null);
+            fail("Behaviour exception should be propagated");
+        }
+        catch (AlfrescoRuntimeException e)
+        {
+            // Expected
+        }
+        assertEquals(1L, profiler.getProfilesByTotalTime().get(0).getInvocations());
+
+        assertEquals(wrap(target), policy);
+        assertEquals(target.hashCode(), policy.hashCode());
+        assertNotEquals(wrap(new TestBehaviour()), policy);
+    }
+
+    @Test
+    public void testNegativeSampleRate()
+    {
+        try
+        {
+            profiler.setSampleRate(-1);
+            fail("Negative sample rate should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+        assertEquals(1, profiler.getSampleRate());
+    }
+
+    public interface TestPolicy extends Policy
+    {
+        public String onTest(String value);
+    }
+
+    private static class TestBehaviour implements TestPolicy
+    {
+        @Override
+        public String onTest(String value)
+        {
+            if (value == null)
+            {
+                throw new AlfrescoRuntimeException("No value");
+            }
+            return value;
+        }
+    }
+}
@@ -28,7 +28,10 @@ package org.alfresco.repo.policy;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import junit.framework.TestCase;
 
@@ -361,6 +364,65 @@ public class PolicyComponentTest extends TestCase
     }
 
 
+    /**
+     * Lookups run without locking while behaviours are bound, and never see stale policies
+     * once the binding is complete.
+     */
+    public void testClassCacheConcurrentLookup() throws Exception
+    {
+        final ClassPolicyDelegate<TestClassPolicy> delegate = policyComponent.registerClassPolicy(TestClassPolicy.class);
+        QName policyName = QName.createQName(TEST_NAMESPACE, "test");
+        policyComponent.bindClassBehaviour(policyName, BASE_TYPE, new JavaBehaviour(this, "baseTest"));
+        assertEquals("Base: file", delegate.get(FILE_TYPE).test("file"));
+        
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+        final AtomicLong lookups = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++)
+        {
+            Thread thread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        while (running.get())
+                        {
+                            String result = delegate.get(FILE_TYPE).test("file");
+                            if (!"Base: file".equals(result) && !"File: file".equals(result))
+                            {
+                                throw new IllegalStateException("Unexpected result: " + result);
+                            }
+                            lookups.incrementAndGet();
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        errors.add(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        
+        Thread.sleep(200);
+        policyComponent.bindClassBehaviour(policyName, FILE_TYPE, new JavaBehaviour(this, "fileTest"));
+        // Lookups after the binding must see it
+        assertEquals("File: file", delegate.get(FILE_TYPE).test("file"));
+        Thread.sleep(200);
+        running.set(false);
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertTrue("Lookup errors: " + errors, errors.isEmpty());
+        assertTrue("No concurrent lookups completed", lookups.get() > 0);
+        assertEquals("File: file", delegate.get(FILE_TYPE).test("file"));
+    }
+
+
     public void testPropertyDelegate()
     {
         // Register Policy
@@ -407,6 +407,85 @@ public class PolicyComponentTransactionTest extends TestCase
         }        
     }
 
+    /**
+     * Invocations of a coalescing behaviour are de-duplicated and delivered in bounded batches at commit
+     */
+    public void testCoalescedEndTransactionPolicy() throws Exception
+    {
+        ClassPolicyDelegate<BatchTestPolicy> batchDelegate = policyComponent.registerClassPolicy(BatchTestPolicy.class);
+
+        QName policyName = QName.createQName(TEST_NAMESPACE, "batch");
+        Behaviour batchBehaviour = new CoalescingJavaBehaviour(this, "batchTest", "batchTestAll");
+        policyComponent.bindClassBehaviour(policyName, BASE_TYPE, batchBehaviour);
+        int maxBatchSize = ((TransactionBehaviourQueue) applicationContext.getBean("policyBehaviourQueue")).getMaxBatchSize();
+        int distinctKeys = maxBatchSize + (maxBatchSize / 2);
+
+        List<List<String>> batches = new ArrayList<List<String>>();
+        UserTransaction userTransaction = trxService.getUserTransaction();
+        try
+        {
+            userTransaction.begin();
+
+            BatchTestPolicy basePolicy = batchDelegate.get(BASE_TYPE);
+            for (int i = 0; i < distinctKeys * 2; i++)
+            {
+                basePolicy.batch("key" + (i % distinctKeys), "value" + i, batches);
+            }
+            assertEquals(0, batches.size());
+
+            userTransaction.commit();
+        }
+        catch(Exception e)
+        {
+            try { userTransaction.rollback(); } catch (IllegalStateException ee) {}
+            throw e;
+        }
+
+        assertEquals(2, batches.size());
+        assertEquals(maxBatchSize, batches.get(0).size());
+        assertEquals(distinctKeys - maxBatchSize, batches.get(1).size());
+        // First queued order is kept, with the last END_VALUE seen
+        assertEquals("key0=value" + distinctKeys, batches.get(0).get(0));
+        assertEquals("key" + (distinctKeys - 1) + "=value" + (distinctKeys * 2 - 1), batches.get(1).get(batches.get(1).size() - 1));
+    }
+
+    /**
+     * Filters left disabled at the end of a transaction are not seen by the next one
+     */
+    public void testFilterStateDoesNotSpanTransactions() throws Exception
+    {
+        NodeRef nodeRef = new NodeRef(TEST_NAMESPACE, "test", "456");
+        UserTransaction transaction = trxService.getUserTransaction();
+        try
+        {
+            transaction.begin();
+            checkBehaviour(BASE_TYPE, nodeRef, true, true, true, true);
+            behaviourFilter.disableBehaviour(nodeRef, BASE_TYPE);
+            behaviourFilter.disableBehaviour(nodeRef);
+            behaviourFilter.disableBehaviour(BASE_TYPE, true);
+            checkBehaviour(BASE_TYPE, nodeRef, true, false, false, false);
+            transaction.commit();
+        }
+        catch(Exception e)
+        {
+            try { transaction.rollback(); } catch (IllegalStateException ee) {}
+            throw e;
+        }
+        
+        transaction = trxService.getUserTransaction();
+        try
+        {
+            transaction.begin();
+            checkBehaviour(BASE_TYPE, nodeRef, true, true, true, true);
+            transaction.commit();
+        }
+        catch(Exception e)
+        {
+            try { transaction.rollback(); } catch (IllegalStateException ee) {}
+            throw e;
+        }
+    }
+
     public void behaviourHierarchyTestWork(QName createDocType, ClassFilter... disableTypes) throws Exception
     {
         UserTransaction transaction = trxService.getUserTransaction();
@@ -1158,6 +1237,24 @@ public class PolicyComponentTransactionTest extends TestCase
         return result.toString();
     }    
 
+    public void batchTest(String key, String value, List<List<String>> batches)
+    {
+        List<Object[]> invocations = new ArrayList<Object[]>(1);
+        invocations.add(new Object[] {key, value, batches});
+        batchTestAll(invocations);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void batchTestAll(List<Object[]> invocations)
+    {
+        List<String> batch = new ArrayList<String>(invocations.size());
+        for (Object[] args : invocations)
+        {
+            batch.add(args[0] + "=" + args[1]);
+        }
+        ((List<List<String>>) invocations.get(0)[2]).add(batch);
+    }
+
     
     //
     // Policy Definitions
@@ -1194,6 +1291,15 @@ public class PolicyComponentTransactionTest extends TestCase
         static Arg ARG_1 = Arg.KEY;
     }
     
+    public interface BatchTestPolicy extends ClassPolicy
+    {
+        public void batch(String key, String value, List<List<String>> batches);
+        
+        static String NAMESPACE = TEST_NAMESPACE;
+        static Arg ARG_0 = Arg.KEY;
+        static Arg ARG_1 = Arg.END_VALUE;
+    }
+    
 
     /**
      * Result of Policy Invocation
@@ -278,6 +278,148 @@ public class RuleServiceImplTest extends BaseRuleTest
         assertEquals(1, conditions.size());                
     }
     
+    /**
+     * Changing the rules of one node leaves the cached rules of other nodes in place
+     */
+    public void testRulesCacheTargetedInvalidation()
+    {
+        RuleServiceImpl ruleServiceImpl = (RuleServiceImpl) this.ruleService;
+        NodeRef otherNodeRef = this.nodeService.createNode(rootNodeRef,
+                ContentModel.ASSOC_CHILDREN,
+                QName.createQName("{test}othernode"),
+                ContentModel.TYPE_CONTAINER).getChildRef();
+        this.ruleService.saveRule(otherNodeRef, createTestRule());
+        this.ruleService.saveRule(this.nodeRef, createTestRule());
+        
+        // Prime the cache
+        assertEquals(1, this.ruleService.getRules(this.nodeRef, false).size());
+        assertEquals(1, this.ruleService.getRules(otherNodeRef, false).size());
+        long fullInvalidations = ruleServiceImpl.getNodeRulesCacheFullInvalidations();
+        
+        // Change a rule on the first node
+        Rule rule = this.ruleService.getRules(this.nodeRef, false).get(0);
+        rule.setTitle("changed");
+        this.ruleService.saveRule(this.nodeRef, rule);
+        
+        // The other node's rules are still cached
+        long hits = ruleServiceImpl.getNodeRulesCacheHits();
+        assertEquals(1, this.ruleService.getRules(otherNodeRef, false).size());
+        assertEquals(hits + 1, ruleServiceImpl.getNodeRulesCacheHits());
+        
+        // The first node's rules were reloaded
+        long misses = ruleServiceImpl.getNodeRulesCacheMisses();
+        assertEquals("changed", this.ruleService.getRules(this.nodeRef, false).get(0).getTitle());
+        assertTrue(ruleServiceImpl.getNodeRulesCacheMisses() > misses);
+        assertEquals(fullInvalidations, ruleServiceImpl.getNodeRulesCacheFullInvalidations());
+    }
+    
+    /**
+     * Inherited rules are resolved once per folder and re-resolved when the inheritance changes
+     */
+    public void testInheritedRulesCache()
+    {
+        RuleServiceImpl ruleServiceImpl = (RuleServiceImpl) this.ruleService;
+        NodeRef folderB = this.nodeService.createNode(this.nodeRef,
+                ContentModel.ASSOC_CONTAINS,
+                QName.createQName("{test}folderB"),
+                ContentModel.TYPE_FOLDER).getChildRef();
+        NodeRef folderC = this.nodeService.createNode(folderB,
+                ContentModel.ASSOC_CONTAINS,
+                QName.createQName("{test}folderC"),
+                ContentModel.TYPE_FOLDER).getChildRef();
+        NodeRef folderD = this.nodeService.createNode(this.nodeRef,
+                ContentModel.ASSOC_CONTAINS,
+                QName.createQName("{test}folderD"),
+                ContentModel.TYPE_FOLDER).getChildRef();
+        NodeRef document = this.nodeService.createNode(folderD,
+                ContentModel.ASSOC_CONTAINS,
+                QName.createQName("{test}document"),
+                ContentModel.TYPE_CONTENT).getChildRef();
+        this.ruleService.saveRule(this.nodeRef, createTestRule(true));
+        
+        assertEquals(1, this.ruleService.getRules(folderC, true).size());
+        
+        // Moving a document leaves the inheritance resolved elsewhere in place
+        this.nodeService.moveNode(document, folderB, ContentModel.ASSOC_CONTAINS, QName.createQName("{test}document"));
+        
+        // The same folder's inheritance is not resolved again
+        long misses = ruleServiceImpl.getInheritedRulesCacheMisses();
+        long hits = ruleServiceImpl.getInheritedRulesCacheHits();
+        assertEquals(1, this.ruleService.getRules(folderC, true).size());
+        assertEquals(misses, ruleServiceImpl.getInheritedRulesCacheMisses());
+        assertTrue(ruleServiceImpl.getInheritedRulesCacheHits() > hits);
+        
+        // Moving a folder between folders inheriting the same rules leaves its inheritance in place
+        NodeRef folderE = this.nodeService.createNode(folderD,
+                ContentModel.ASSOC_CONTAINS,
+                QName.createQName("{test}folderE"),
+                ContentModel.TYPE_FOLDER).getChildRef();
+        this.nodeService.moveNode(folderC, folderE, ContentModel.ASSOC_CONTAINS, QName.createQName("{test}folderC"));
+        misses = ruleServiceImpl.getInheritedRulesCacheMisses();
+        assertEquals(1, this.ruleService.getRules(folderC, true).size());
+        assertEquals(misses, ruleServiceImpl.getInheritedRulesCacheMisses());
+        this.nodeService.moveNode(folderC, folderB, ContentModel.ASSOC_CONTAINS, QName.createQName("{test}folderC"));
+        
+        // Stopping inheritance part way up is seen below
+        this.nodeService.addAspect(folderB, RuleModel.ASPECT_IGNORE_INHERITED_RULES, null);
+        assertEquals(0, this.ruleService.getRules(folderC, true).size());
+        this.nodeService.removeAspect(folderB, RuleModel.ASPECT_IGNORE_INHERITED_RULES);
+        assertEquals(1, this.ruleService.getRules(folderC, true).size());
+        
+        // As is moving the folder out from under the rules
+        this.nodeService.moveNode(folderB, rootNodeRef, ContentModel.ASSOC_CHILDREN, QName.createQName("{test}folderB"));
+        assertEquals(0, this.ruleService.getRules(folderC, true).size());
+    }
+    
+    /**
+     * Many rules pending in one transaction are executed as a batch, loading each rule once
+     */
+    public void testBatchRuleExecution()
+    {
+        RuleServiceImpl ruleServiceImpl = (RuleServiceImpl) this.ruleService;
+        NodeRef folder = this.nodeService.createNode(rootNodeRef,
+                ContentModel.ASSOC_CHILDREN,
+                QName.createQName("{test}batchFolder"),
+                ContentModel.TYPE_FOLDER).getChildRef();
+        
+        Rule rule = new Rule();
+        rule.setRuleTypes(Collections.singletonList(RuleType.INBOUND));
+        rule.setTitle("batch");
+        Action action = this.actionService.createAction(AddFeaturesActionExecuter.NAME);
+        action.setParameterValue(AddFeaturesActionExecuter.PARAM_ASPECT_NAME, ContentModel.ASPECT_VERSIONABLE);
+        ActionCondition condition = this.actionService.createActionCondition(ComparePropertyValueEvaluator.NAME);
+        condition.setParameterValue(ComparePropertyValueEvaluator.PARAM_VALUE, "*.doc");
+        action.addActionCondition(condition);
+        rule.setAction(action);
+        this.ruleService.saveRule(folder, rule);
+        
+        List<NodeRef> nodeRefs = new ArrayList<NodeRef>();
+        for (int i = 0; i < 20; i++)
+        {
+            String name = "file" + i + (i % 2 == 0 ? ".doc" : ".txt");
+            Map<QName, Serializable> props = Collections.<QName, Serializable>singletonMap(ContentModel.PROP_NAME, name);
+            NodeRef nodeRef = this.nodeService.createNode(rootNodeRef,
+                    ContentModel.ASSOC_CHILDREN,
+                    QName.createQName("{test}" + name),
+                    ContentModel.TYPE_CONTENT,
+                    props).getChildRef();
+            nodeRefs.add(nodeRef);
+            ((RuntimeRuleService) ruleService).addRulePendingExecution(folder, nodeRef, rule);
+        }
+        
+        long executions = ruleServiceImpl.getBatchedRuleExecutions();
+        long loads = ruleServiceImpl.getBatchedRuleLoads();
+        ((RuntimeRuleService) ruleService).executePendingRules();
+        
+        // The conditions were evaluated for each node
+        for (int i = 0; i < nodeRefs.size(); i++)
+        {
+            assertEquals(i % 2 == 0, this.nodeService.hasAspect(nodeRefs.get(i), ContentModel.ASPECT_VERSIONABLE));
+        }
+        assertEquals(executions + 20, ruleServiceImpl.getBatchedRuleExecutions());
+        assertEquals(loads + 1, ruleServiceImpl.getBatchedRuleLoads());
+    }
+    
     /** Ensure the rules are retrieved in the correct order **/
     public void testGetRulesOrder()
     {
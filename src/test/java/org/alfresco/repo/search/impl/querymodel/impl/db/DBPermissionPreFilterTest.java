@@ -0,0 +1,206 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.querymodel.impl.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.domain.qname.QNameDAO;
+import org.alfresco.repo.search.impl.querymodel.Column;
+import org.alfresco.repo.search.impl.querymodel.Ordering;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.permissions.PermissionEntry;
+import org.alfresco.repo.security.permissions.PermissionReference;
+import org.alfresco.repo.security.permissions.impl.ModelDAO;
+import org.alfresco.repo.security.permissions.impl.SimplePermissionEntry;
+import org.alfresco.repo.security.permissions.impl.SimplePermissionReference;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mybatis.spring.SqlSessionTemplate;
+
+/**
+ * Tests for the {@link DBPermissionPreFilter}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DBPermissionPreFilterTest
+{
+    private static final QName TYPE_BASE = QName.createQName("http://www.alfresco.org/model/system/1.0", "base");
+    private static final PermissionReference READ = SimplePermissionReference.getPermissionReference(TYPE_BASE, PermissionService.READ);
+    private static final PermissionReference CONSUMER = SimplePermissionReference.getPermissionReference(ContentModel.TYPE_CMOBJECT, "Consumer");
+    private static final PermissionReference ALL = SimplePermissionReference.getPermissionReference(TYPE_BASE, PermissionService.ALL_PERMISSIONS);
+    private static final PermissionReference FULL_CONTROL = SimplePermissionReference.getPermissionReference(TYPE_BASE, "FullControl");
+
+    private @Mock SqlSessionTemplate template;
+    private @Mock PermissionService permissionService;
+    private @Mock ModelDAO modelDAO;
+    private @Mock QNameDAO qnameDAO;
+    private DBPermissionPreFilter preFilter;
+    private DBQuery dbQuery;
+
+    @Before
+    public void setUp()
+    {
+        AuthenticationUtil.setFullyAuthenticatedUser("alice");
+
+        when(permissionService.getAuthorisations()).thenReturn(
+                new HashSet<String>(Arrays.asList("alice", "GROUP_EVERYONE", "GROUP_site_a_SiteConsumer")));
+        when(modelDAO.getPermissionReference(null, PermissionService.READ)).thenReturn(READ);
+        when(modelDAO.getPermissionReference(null, PermissionService.ALL_PERMISSIONS)).thenReturn(ALL);
+        when(modelDAO.getGrantingPermissions(READ)).thenReturn(new HashSet<PermissionReference>(Arrays.asList(READ, CONSUMER)));
+        when(modelDAO.getAllPermissions()).thenReturn(new HashSet<PermissionReference>(Arrays.asList(READ, CONSUMER, FULL_CONTROL)));
+        when(modelDAO.hasFull(FULL_CONTROL)).thenReturn(true);
+        Set<PermissionEntry> globalEntries = new HashSet<PermissionEntry>();
+        globalEntries.add(new SimplePermissionEntry(null, FULL_CONTROL, PermissionService.ADMINISTRATOR_AUTHORITY, AccessStatus.ALLOWED));
+        globalEntries.add(new SimplePermissionEntry(null, FULL_CONTROL, PermissionService.OWNER_AUTHORITY, AccessStatus.ALLOWED));
+        doReturn(globalEntries).when(modelDAO).getGlobalPermissionEntries();
+        when(qnameDAO.getQName(ContentModel.PROP_OWNER)).thenReturn(new Pair<Long, QName>(7L, ContentModel.PROP_OWNER));
+        setAclCounts(10L, 1000L);
+
+        preFilter = new DBPermissionPreFilter();
+        preFilter.setSqlSessionTemplate(template);
+        preFilter.setPermissionService(permissionService);
+        preFilter.setModelDAO(modelDAO);
+        preFilter.setQnameDAO(qnameDAO);
+        preFilter.setEnabled(true);
+        preFilter.init();
+
+        dbQuery = new DBQuery(Collections.<Column>emptyList(), null, null, Collections.<Ordering>emptyList());
+    }
+
+    @After
+    public void tearDown()
+    {
+        AuthenticationUtil.clearCurrentSecurityContext();
+    }
+
+    private void setAclCounts(long readableAcls, long totalAcls)
+    {
+        when(template.selectOne(eq("alfresco.metadata.query.select_ReadableAclCount"), any())).thenReturn(readableAcls);
+        when(template.selectOne("alfresco.metadata.query.select_AclCount")).thenReturn(totalAcls);
+    }
+
+    @Test
+    public void testSmallReadableSetIsPreFiltered()
+    {
+        assertTrue(preFilter.apply(dbQuery));
+
+        DBAclFilter aclFilter = dbQuery.getAclFilter();
+        assertNotNull(aclFilter);
+        assertTrue(aclFilter.getAuthorities().contains("GROUP_site_a_SiteConsumer"));
+        assertTrue(aclFilter.getAuthorities().contains(PermissionService.OWNER_AUTHORITY));
+        assertTrue(aclFilter.getPermissions().containsAll(Arrays.asList("Read", "Consumer", "All", "FullControl")));
+        assertEquals("alice", aclFilter.getOwner());
+        assertEquals(Long.valueOf(7L), aclFilter.getOwnerQNameId());
+        assertEquals(1L, preFilter.getPreFilteredQueries());
+    }
+
+    @Test
+    public void testLargeReadableSetIsPostFiltered()
+    {
+        setAclCounts(900L, 1000L);
+
+        assertFalse(preFilter.apply(dbQuery));
+        assertNull(dbQuery.getAclFilter());
+        assertEquals(1L, preFilter.getPostFilteredQueries());
+    }
+
+    @Test
+    public void testCostIsCachedPerAuthoritySet()
+    {
+        preFilter.apply(dbQuery);
+        preFilter.apply(dbQuery);
+        verify(template, times(1)).selectOne(eq("alfresco.metadata.query.select_ReadableAclCount"), any());
+        assertEquals(1, preFilter.getCachedAuthoritySetCount());
+
+        when(permissionService.getAuthorisations()).thenReturn(new HashSet<String>(Arrays.asList("bob", "GROUP_EVERYONE")));
+        preFilter.apply(dbQuery);
+        verify(template, times(2)).selectOne(eq("alfresco.metadata.query.select_ReadableAclCount"), any());
+        assertEquals(2, preFilter.getCachedAuthoritySetCount());
+    }
+
+    @Test
+    public void testAdministratorIsNotPreFiltered()
+    {
+        when(permissionService.getAuthorisations()).thenReturn(
+                new HashSet<String>(Arrays.asList("alice", PermissionService.ADMINISTRATOR_AUTHORITY)));
+
+        assertFalse(preFilter.apply(dbQuery));
+        assertNull(dbQuery.getAclFilter());
+    }
+
+    @Test
+    public void testGlobalReadPermissionIsNotPreFiltered()
+    {
+        Set<PermissionEntry> globalEntries = new HashSet<PermissionEntry>();
+        globalEntries.add(new SimplePermissionEntry(null, CONSUMER, "GROUP_EVERYONE", AccessStatus.ALLOWED));
+        doReturn(globalEntries).when(modelDAO).getGlobalPermissionEntries();
+
+        assertFalse(preFilter.apply(dbQuery));
+    }
+
+    @Test
+    public void testTooManyAuthorities()
+    {
+        preFilter.setMaxAuthorities(3);
+
+        assertFalse(preFilter.apply(dbQuery));
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        preFilter.setEnabled(false);
+        dbQuery.setAclFilter(new DBAclFilter(Collections.singleton("alice"), Collections.singleton("Read"), null, null));
+
+        assertFalse(preFilter.apply(dbQuery));
+        assertNull(dbQuery.getAclFilter());
+        verify(template, times(0)).selectOne(anyString(), any());
+    }
+}
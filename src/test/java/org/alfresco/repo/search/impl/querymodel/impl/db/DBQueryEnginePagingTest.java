@@ -0,0 +1,417 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.querymodel.impl.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalMatchers.gt;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.notNull;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.alfresco.repo.admin.patch.OptionalPatchApplicationCheckBootstrapBean;
+import org.alfresco.repo.domain.node.Node;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.domain.node.NodeEntity;
+import org.alfresco.repo.domain.qname.QNameDAO;
+import org.alfresco.repo.search.impl.lucene.PagingLuceneResultSet;
+import org.alfresco.repo.search.impl.querymodel.FunctionEvaluationContext;
+import org.alfresco.repo.search.impl.querymodel.QueryOptions;
+import org.alfresco.repo.security.permissions.PermissionCheckedValue;
+import org.alfresco.repo.tenant.TenantService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.LimitBy;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.util.Pair;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.mybatis.spring.SqlSessionTemplate;
+
+/**
+ * Tests that the {@link DBQueryEngine} only reads as many rows as are needed to fill a page
+ * of readable results for secured searches, and that other searches are not filtered.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DBQueryEnginePagingTest
+{
+    private static final int TOTAL_ROWS = 20000;
+
+    private @Mock SqlSessionTemplate template;
+    private @Mock NodeDAO nodeDAO;
+    private @Mock QNameDAO qnameDAO;
+    private @Mock TenantService tenantService;
+    private @Mock PermissionService permissionService;
+    private @Mock OptionalPatchApplicationCheckBootstrapBean metadataIndexCheck2;
+    private @Mock DBQuery dbQuery;
+    private @Mock QueryOptions options;
+    private @Mock FunctionEvaluationContext functionContext;
+
+    private DBQueryEngine engine;
+    private SearchParameters searchParameters;
+    private int rowsRead;
+    // The window last set on the query
+    private Long afterNodeId;
+    private int maxRows;
+    private int rowOffset;
+
+    @Before
+    public void setUp()
+    {
+        engine = new DBQueryEngine();
+        engine.setSqlSessionTemplate(template);
+        engine.setNodeDAO(nodeDAO);
+        engine.setQnameDAO(qnameDAO);
+        engine.setTenantService(tenantService);
+        engine.setPermissionService(permissionService);
+        engine.setMetadataIndexCheck2(metadataIndexCheck2);
+        engine.setNumberFoundEstimateCap(1000);
+
+        searchParameters = new SearchParameters();
+        when(options.getAsSearchParmeters()).thenReturn(searchParameters);
+        when(options.getStores()).thenReturn(Collections.singletonList(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE));
+        when(tenantService.getName(any(StoreRef.class))).thenReturn(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        when(nodeDAO.getStore(any(StoreRef.class))).thenReturn(new Pair<Long, StoreRef>(1L, StoreRef.STORE_REF_WORKSPACE_SPACESSTORE));
+        when(tenantService.getBaseName(any(NodeRef.class))).thenAnswer(new Answer<NodeRef>()
+        {
+            @Override
+            public NodeRef answer(InvocationOnMock invocation) throws Throwable
+            {
+                return (NodeRef) invocation.getArguments()[0];
+            }
+        });
+        when(nodeDAO.getNodePair(anyLong())).thenAnswer(new Answer<Pair<Long, NodeRef>>()
+        {
+            @Override
+            public Pair<Long, NodeRef> answer(InvocationOnMock invocation) throws Throwable
+            {
+                Long nodeId = (Long) invocation.getArguments()[0];
+                return new Pair<Long, NodeRef>(nodeId, new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node-" + nodeId));
+            }
+        });
+        // Only every fourth node is readable
+        when(permissionService.hasReadPermission(any(NodeRef.class))).thenAnswer(new Answer<AccessStatus>()
+        {
+            @Override
+            public AccessStatus answer(InvocationOnMock invocation) throws Throwable
+            {
+                String id = ((NodeRef) invocation.getArguments()[0]).getId();
+                long nodeId = Long.parseLong(id.substring("node-".length()));
+                return nodeId % 4 == 0 ? AccessStatus.ALLOWED : AccessStatus.DENIED;
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                afterNodeId = (Long) invocation.getArguments()[0];
+                return null;
+            }
+        }).when(dbQuery).setAfterNodeId(any(Long.class));
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                maxRows = (Integer) invocation.getArguments()[0];
+                return null;
+            }
+        }).when(dbQuery).setMaxRows(anyInt());
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                rowOffset = (Integer) invocation.getArguments()[0];
+                return null;
+            }
+        }).when(dbQuery).setRowOffset(anyInt());
+        // Rows are node IDs 1 to TOTAL_ROWS, limited by the window as the database would
+        when(template.selectList(anyString(), any())).thenAnswer(new Answer<List<Node>>()
+        {
+            @Override
+            public List<Node> answer(InvocationOnMock invocation) throws Throwable
+            {
+                List<Node> rows = new ArrayList<Node>();
+                for (int i = firstRow(); i < TOTAL_ROWS && rows.size() < maxRows; i++)
+                {
+                    rows.add(makeRow(i + 1));
+                }
+                rowsRead += rows.size();
+                return rows;
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                ResultHandler handler = (ResultHandler) invocation.getArguments()[2];
+                int first = firstRow();
+                for (int i = first; i < TOTAL_ROWS && (maxRows == 0 || i < first + maxRows); i++)
+                {
+                    final Node row = makeRow(i + 1);
+                    rowsRead++;
+                    handler.handleResult(new ResultContext()
+                    {
+                        public Object getResultObject()
+                        {
+                            return row;
+                        }
+
+                        public int getResultCount()
+                        {
+                            return 0;
+                        }
+
+                        public boolean isStopped()
+                        {
+                            return false;
+                        }
+
+                        public void stop()
+                        {
+                        }
+                    });
+                }
+                return null;
+            }
+        }).when(template).select(anyString(), any(), any(ResultHandler.class));
+    }
+
+    /**
+     * @return the index of the first row in the current window
+     */
+    private int firstRow()
+    {
+        if (afterNodeId != null)
+        {
+            // Node IDs are one more than the row index
+            return afterNodeId.intValue();
+        }
+        return rowOffset;
+    }
+
+    private Node makeRow(long nodeId)
+    {
+        NodeEntity node = new NodeEntity();
+        node.setId(nodeId);
+        return node;
+    }
+
+    /**
+     * Execute the query as the secured search service would
+     */
+    private ResultSet executeSecured()
+    {
+        MethodInvocation mi = mock(MethodInvocation.class);
+        try
+        {
+            when(mi.proceed()).thenAnswer(new Answer<ResultSet>()
+            {
+                @Override
+                public ResultSet answer(InvocationOnMock invocation) throws Throwable
+                {
+                    return engine.executeQuery(dbQuery, options, functionContext).getResults().values().iterator().next();
+                }
+            });
+            return (ResultSet) new SecuredSearchInterceptor().invoke(mi);
+        }
+        catch (Throwable e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testPageIsFilledWithoutReadingAllRows()
+    {
+        searchParameters.setSkipCount(10);
+        searchParameters.setMaxItems(25);
+
+        ResultSet results = executeSecured();
+
+        assertEquals(25, results.length());
+        assertEquals(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node-44"), results.getNodeRef(0));
+        assertTrue(results.hasMore());
+        assertTrue("Read too many rows: " + rowsRead, rowsRead < 2000);
+        // The number found is an estimate from the readable proportion of the rows that follow
+        long numberFound = results.getNumberFound();
+        assertTrue("Unexpected estimate: " + numberFound, numberFound > 35 && numberFound < 36 + 1000);
+        verify(dbQuery).setStableOrder(true);
+        // The results are not filtered again by the search service
+        assertTrue(((PagingLuceneResultSet) results).getWrapped() instanceof PermissionCheckedValue);
+        // Rows in node ID order are read after the last node seen, not by offset
+        verify(dbQuery, never()).setRowOffset(gt(0));
+    }
+
+    @Test
+    public void testOrderedQueryIsReadByOffset()
+    {
+        when(dbQuery.getHasPredicatePartsOrder()).thenReturn(true);
+        searchParameters.setSkipCount(10);
+        searchParameters.setMaxItems(25);
+        engine.setMaxChunkSize(50);
+
+        ResultSet results = executeSecured();
+
+        assertEquals(25, results.length());
+        assertEquals(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node-44"), results.getNodeRef(0));
+        assertTrue("Read too many rows: " + rowsRead, rowsRead < 2000);
+        verify(dbQuery, never()).setAfterNodeId((Long) notNull());
+        verify(dbQuery, atLeastOnce()).setRowOffset(gt(0));
+    }
+
+    @Test
+    public void testLastPage()
+    {
+        searchParameters.setSkipCount(TOTAL_ROWS / 4 - 5);
+        searchParameters.setMaxItems(25);
+        engine.setMaxChunkSize(TOTAL_ROWS);
+
+        ResultSet results = executeSecured();
+
+        assertEquals(5, results.length());
+        assertFalse(results.hasMore());
+        assertEquals(TOTAL_ROWS / 4, results.getNumberFound());
+    }
+
+    @Test
+    public void testPermissionCheckLimit()
+    {
+        searchParameters.setMaxItems(100);
+        searchParameters.setMaxPermissionChecks(200);
+
+        ResultSet results = executeSecured();
+
+        assertEquals(50, results.length());
+        assertEquals(LimitBy.NUMBER_OF_PERMISSION_EVALUATIONS, results.getResultSetMetaData().getLimitedBy());
+    }
+
+    @Test
+    public void testUnsecuredQueryIsNotFiltered()
+    {
+        searchParameters.setSkipCount(10);
+        searchParameters.setMaxItems(25);
+
+        ResultSet results = engine.executeQuery(dbQuery, options, functionContext).getResults().values().iterator().next();
+
+        assertEquals(25, results.length());
+        assertEquals(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node-11"), results.getNodeRef(0));
+        assertEquals(TOTAL_ROWS, results.getNumberFound());
+        assertFalse(((PagingLuceneResultSet) results).getWrapped() instanceof PermissionCheckedValue);
+        verify(permissionService, never()).hasReadPermission(any(NodeRef.class));
+        verify(dbQuery, never()).setStableOrder(true);
+    }
+
+    @Test
+    public void testPermissionPreFilterIsOnlyAppliedToSecuredQueries()
+    {
+        DBPermissionPreFilter permissionPreFilter = mock(DBPermissionPreFilter.class);
+        engine.setPermissionPreFilter(permissionPreFilter);
+        searchParameters.setMaxItems(25);
+
+        engine.executeQuery(dbQuery, options, functionContext);
+        verify(permissionPreFilter, never()).apply(any(DBQuery.class));
+        verify(dbQuery).setAclFilter(null);
+
+        executeSecured();
+        verify(permissionPreFilter).apply(dbQuery);
+    }
+
+    @Test
+    public void testUnpagedQueryReadsAllRows()
+    {
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                ResultHandler handler = (ResultHandler) invocation.getArguments()[2];
+                for (int i = 0; i < 10; i++)
+                {
+                    final Node row = makeRow(i + 1);
+                    handler.handleResult(new ResultContext()
+                    {
+                        public Object getResultObject()
+                        {
+                            return row;
+                        }
+
+                        public int getResultCount()
+                        {
+                            return 0;
+                        }
+
+                        public boolean isStopped()
+                        {
+                            return false;
+                        }
+
+                        public void stop()
+                        {
+                        }
+                    });
+                }
+                return null;
+            }
+        }).when(template).select(anyString(), any(), any(ResultHandler.class));
+
+        ResultSet results = engine.executeQuery(dbQuery, options, functionContext).getResults().values().iterator().next();
+
+        assertEquals(10, results.length());
+        verify(dbQuery, never()).setStableOrder(true);
+        verify(permissionService, never()).hasReadPermission(any(NodeRef.class));
+        verify(template, never()).selectList(eq("alfresco.metadata.query.select_byDynamicQuery"), any());
+        verify(dbQuery, never()).setMaxRows(gt(0));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.querymodel.impl.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.alfresco.repo.dictionary.DictionaryDAO;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Tests for the {@link DBQueryPlanCache}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DBQueryPlanCacheTest
+{
+    private @Mock DictionaryDAO dictionaryDAO;
+    private DBQueryPlanCache planCache;
+
+    @Before
+    public void setUp()
+    {
+        planCache = new DBQueryPlanCache();
+        planCache.setDictionaryDAO(dictionaryDAO);
+        planCache.setMaxPlans(2);
+        planCache.init();
+    }
+
+    private DBQuery preparedQuery(List<Object> key)
+    {
+        DBQuery dbQuery = mock(DBQuery.class);
+        when(dbQuery.isPrepared()).thenReturn(true);
+        when(dbQuery.getPlanKey()).thenReturn(key);
+        return dbQuery;
+    }
+
+    @Test
+    public void testNormalise()
+    {
+        assertEquals("TYPE:\"cm:content\" AND =cm:name:\"a  b\"",
+                DBQueryPlanCache.normalise("  TYPE:\"cm:content\"\n   AND\t=cm:name:\"a  b\" "));
+        assertEquals("SELECT * FROM cmis:document WHERE cmis:name = 'x  y'",
+                DBQueryPlanCache.normalise("SELECT *  FROM cmis:document\nWHERE cmis:name = 'x  y'"));
+        assertEquals("=cm:name:\"a\\\"  b\" c",
+                DBQueryPlanCache.normalise("=cm:name:\"a\\\"  b\"   c"));
+    }
+
+    @Test
+    public void testKeys()
+    {
+        assertEquals(planCache.getKey("db-afts", "TYPE:cm:content  AND ASPECT:cm:titled", "cm"),
+                planCache.getKey("db-afts", " TYPE:cm:content AND ASPECT:cm:titled", "cm"));
+        planCache.setEnabled(false);
+        assertNull(planCache.getKey("db-afts", "TYPE:cm:content"));
+    }
+
+    @Test
+    public void testHitsAndMisses()
+    {
+        List<Object> key = planCache.getKey("db-afts", "TYPE:cm:content");
+        assertNull(planCache.getPlan(key));
+
+        DBQuery plan = preparedQuery(key);
+        planCache.putPlan(plan, true);
+        assertSame(plan, planCache.getPlan(key));
+        assertEquals(1L, planCache.getHits());
+        assertEquals(1L, planCache.getMisses());
+    }
+
+    @Test
+    public void testUncacheablePlan()
+    {
+        List<Object> key = planCache.getKey("db-afts", "=my:unusedProperty:x");
+        planCache.putPlan(preparedQuery(key), false);
+
+        assertNull(planCache.getPlan(key));
+        assertEquals(1L, planCache.getUncacheable());
+        assertEquals(0, planCache.getCachedPlanCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedPlanIsDropped()
+    {
+        List<Object> key1 = planCache.getKey("db-afts", "TYPE:cm:content");
+        List<Object> key2 = planCache.getKey("db-afts", "TYPE:cm:folder");
+        List<Object> key3 = planCache.getKey("db-afts", "TYPE:cm:person");
+        planCache.putPlan(preparedQuery(key1), true);
+        planCache.putPlan(preparedQuery(key2), true);
+        planCache.getPlan(key1);
+        planCache.putPlan(preparedQuery(key3), true);
+
+        assertEquals(2, planCache.getCachedPlanCount());
+        assertNull(planCache.getPlan(key2));
+    }
+
+    @Test
+    public void testDictionaryChangeClearsPlans()
+    {
+        verify(dictionaryDAO).registerListener(planCache);
+        List<Object> key = planCache.getKey("db-afts", "TYPE:cm:content");
+        planCache.putPlan(preparedQuery(key), true);
+
+        planCache.afterDictionaryInit();
+
+        assertNull(planCache.getPlan(key));
+        assertEquals(1L, planCache.getInvalidations());
+    }
+}
@@ -224,6 +224,24 @@ public class SOLRTrackingComponentTest extends TestCase
         return transactionService.getRetryingTransactionHelper().doInTransaction(callback, true);
     }
 
+    /**
+     * Call {@link SOLRTrackingComponent#getTransactionsAfter(Long, Long, Long, int)} in a transaction
+     */
+    private List<Transaction> getTransactionsAfter(
+            final Long afterCommitTime, final Long afterTxnId,
+            final Long toCommitTime, final int maxResults)
+    {
+        RetryingTransactionCallback<List<Transaction>> callback = new RetryingTransactionCallback<List<Transaction>>()
+        {
+            @Override
+            public List<Transaction> execute() throws Throwable
+            {
+                return solrTrackingComponent.getTransactionsAfter(afterCommitTime, afterTxnId, toCommitTime, maxResults);
+            }
+        };
+        return transactionService.getRetryingTransactionHelper().doInTransaction(callback, true);
+    }
+
     /**
      * Call {@link SOLRTrackingComponent#getNodes(NodeParameters, NodeQueryCallback)} in a transaction
      */
@@ -340,6 +358,53 @@ public class SOLRTrackingComponentTest extends TestCase
         assertEquals(0, txns.size());
     }
 
+    public void testGetTransactionsAfter()
+    {
+        long startTime = System.currentTimeMillis();
+
+        SOLRTest st = new SOLRTest3(txnHelper, fileFolderService, nodeDAO, qnameDAO, nodeService, dictionaryService, rootNodeRef, "testGetTransactionsAfter", true, true);
+        List<Long> createdTransactions = st.buildTransactions();
+
+        List<Transaction> txns = getTransactions(null, startTime-1000, null, null, 100);
+        int[] updates = new int[] {1, 1};
+        int[] deletes = new int[] {0, 1};
+        List<Transaction> checkedTransactions = checkTransactions(txns, createdTransactions, updates, deletes);
+        Transaction first = checkedTransactions.get(0);
+        Transaction last = checkedTransactions.get(1);
+
+        // Page through the transactions one at a time, starting just before the first one
+        Transaction previous = null;
+        List<Long> pagedTransactions = new ArrayList<Long>();
+        for (Transaction txn : txns)
+        {
+            if (txn.getId().equals(first.getId()))
+            {
+                break;
+            }
+            previous = txn;
+        }
+        Long afterCommitTime = (previous == null) ? null : previous.getCommitTimeMs();
+        Long afterTxnId = (previous == null) ? null : previous.getId();
+        while (true)
+        {
+            List<Transaction> page = getTransactionsAfter(afterCommitTime, afterTxnId, last.getCommitTimeMs() + 1, 1);
+            if (page.isEmpty())
+            {
+                break;
+            }
+            assertEquals(1, page.size());
+            Transaction txn = page.get(0);
+            pagedTransactions.add(txn.getId());
+            afterCommitTime = txn.getCommitTimeMs();
+            afterTxnId = txn.getId();
+        }
+        assertTrue("Paging did not return all the transactions: " + pagedTransactions, pagedTransactions.containsAll(createdTransactions));
+
+        // Nothing follows the last transaction in the window
+        txns = getTransactionsAfter(last.getCommitTimeMs(), last.getId(), last.getCommitTimeMs() + 1, 50);
+        assertEquals(0, txns.size());
+    }
+
     public void testGetNodeMetaDataExludesResidualProperties()
     {
         long startTime = System.currentTimeMillis();
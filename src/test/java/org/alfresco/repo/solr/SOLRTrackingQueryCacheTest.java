@@ -0,0 +1,243 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link SOLRTrackingQueryCache}.
+ */
+public class SOLRTrackingQueryCacheTest
+{
+    private SOLRTrackingQueryCache cache;
+    private AtomicInteger executions;
+
+    @Before
+    public void setUp()
+    {
+        cache = new SOLRTrackingQueryCache();
+        cache.setTimeToLiveMs(60000L);
+        executions = new AtomicInteger();
+    }
+
+    private SOLRTrackingQueryCache.WindowQuery<Long> countingQuery(final long result)
+    {
+        return new SOLRTrackingQueryCache.WindowQuery<Long>()
+        {
+            @Override
+            public List<Long> execute()
+            {
+                executions.incrementAndGet();
+                return Collections.singletonList(result);
+            }
+        };
+    }
+
+    @Test
+    public void testBoundedWindowIsShared()
+    {
+        List<Long> first = cache.getResults("transactions", true, countingQuery(1L), 10L, null, 20L, null, 100);
+        List<Long> second = cache.getResults("transactions", true, countingQuery(2L), 10L, null, 20L, null, 100);
+        assertSame(first, second);
+        assertEquals(1, executions.get());
+
+        // A different window runs its own query
+        cache.getResults("transactions", true, countingQuery(3L), 20L, null, 30L, null, 100);
+        assertEquals(2, executions.get());
+
+        assertEquals(Long.valueOf(2L), cache.getQueryCounts().get("transactions"));
+        assertEquals(Long.valueOf(1L), cache.getSharedResultCounts().get("transactions"));
+        assertEquals(2, cache.getCachedWindowCount());
+    }
+
+    @Test
+    public void testOpenWindowIsNotShared()
+    {
+        cache.getResults("transactions", false, countingQuery(1L), 10L, null, null, null, 100);
+        cache.getResults("transactions", false, countingQuery(1L), 10L, null, null, null, 100);
+        assertEquals(2, executions.get());
+        assertEquals(0, cache.getCachedWindowCount());
+    }
+
+    @Test
+    public void testExpiry() throws Exception
+    {
+        cache.setTimeToLiveMs(10L);
+        cache.getResults("transactions", true, countingQuery(1L), 10L, 20L);
+        Thread.sleep(50L);
+        cache.getResults("transactions", true, countingQuery(1L), 10L, 20L);
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void testRunningQueryDoesNotExpire() throws Exception
+    {
+        cache.setTimeToLiveMs(10L);
+        final CountDownLatch queryStarted = new CountDownLatch(1);
+        final CountDownLatch releaseQuery = new CountDownLatch(1);
+        final SOLRTrackingQueryCache.WindowQuery<Long> slowQuery = new SOLRTrackingQueryCache.WindowQuery<Long>()
+        {
+            @Override
+            public List<Long> execute()
+            {
+                executions.incrementAndGet();
+                queryStarted.countDown();
+                try
+                {
+                    releaseQuery.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return Collections.singletonList(1L);
+            }
+        };
+        Callable<List<Long>> request = new Callable<List<Long>>()
+        {
+            @Override
+            public List<Long> call() throws Exception
+            {
+                return cache.getResults("transactions", true, slowQuery, 10L, 20L);
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            Future<List<Long>> first = executor.submit(request);
+            queryStarted.await(10, TimeUnit.SECONDS);
+            // Outlive the time to live while the query is still running
+            Thread.sleep(50L);
+            Future<List<Long>> second = executor.submit(request);
+            Thread.sleep(50L);
+            releaseQuery.countDown();
+            assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void testFailureIsNotCached()
+    {
+        SOLRTrackingQueryCache.WindowQuery<Long> failing = new SOLRTrackingQueryCache.WindowQuery<Long>()
+        {
+            @Override
+            public List<Long> execute()
+            {
+                throw new AlfrescoRuntimeException("Query failed");
+            }
+        };
+        try
+        {
+            cache.getResults("transactions", true, failing, 10L, 20L);
+            fail("Query failure not propagated");
+        }
+        catch (AlfrescoRuntimeException e)
+        {
+            // Expected
+        }
+        cache.getResults("transactions", true, countingQuery(1L), 10L, 20L);
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareQuery() throws Exception
+    {
+        final CountDownLatch queryStarted = new CountDownLatch(1);
+        final CountDownLatch releaseQuery = new CountDownLatch(1);
+        final SOLRTrackingQueryCache.WindowQuery<Long> slowQuery = new SOLRTrackingQueryCache.WindowQuery<Long>()
+        {
+            @Override
+            public List<Long> execute()
+            {
+                executions.incrementAndGet();
+                queryStarted.countDown();
+                try
+                {
+                    releaseQuery.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return Collections.singletonList(1L);
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<List<Long>>> futures = new ArrayList<Future<List<Long>>>();
+            for (int i = 0; i < 4; i++)
+            {
+                futures.add(executor.submit(new Callable<List<Long>>()
+                {
+                    @Override
+                    public List<Long> call() throws Exception
+                    {
+                        return cache.getResults("aclChangeSets", true, slowQuery, 1L, 2L);
+                    }
+                }));
+                if (i == 0)
+                {
+                    queryStarted.await(10, TimeUnit.SECONDS);
+                }
+            }
+            Thread.sleep(50L);
+            releaseQuery.countDown();
+            for (Future<List<Long>> future : futures)
+            {
+                assertEquals(Collections.singletonList(1L), future.get(10, TimeUnit.SECONDS));
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        assertEquals(1, executions.get());
+        assertEquals(Long.valueOf(3L), cache.getSharedResultCounts().get("aclChangeSets"));
+    }
+}
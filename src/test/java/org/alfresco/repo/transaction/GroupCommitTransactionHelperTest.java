@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.transaction.TransactionService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Tests for the {@link GroupCommitTransactionHelper} using a transaction helper that
+ * only counts the transactions it is asked to run.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class GroupCommitTransactionHelperTest
+{
+    private @Mock TransactionService transactionService;
+    private CountingTransactionHelper txnHelper;
+    private GroupCommitTransactionHelper groupCommitHelper;
+
+    @Before
+    public void setUp()
+    {
+        txnHelper = new CountingTransactionHelper();
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(txnHelper);
+
+        groupCommitHelper = new GroupCommitTransactionHelper();
+        groupCommitHelper.setTransactionService(transactionService);
+        groupCommitHelper.setEnabled(true);
+        groupCommitHelper.setMaxWaitMs(200L);
+        groupCommitHelper.setMaxGroupSize(10);
+        groupCommitHelper.init();
+    }
+
+    @After
+    public void tearDown()
+    {
+        groupCommitHelper.destroy();
+    }
+
+    @Test
+    public void testUnitsShareTransactions() throws Exception
+    {
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 30; i++)
+        {
+            final int value = i;
+            futures.add(groupCommitHelper.submit(new RetryingTransactionCallback<Integer>()
+            {
+                @Override
+                public Integer execute() throws Throwable
+                {
+                    return value;
+                }
+            }));
+        }
+        for (int i = 0; i < 30; i++)
+        {
+            assertEquals(Integer.valueOf(i), futures.get(i).get());
+        }
+        assertTrue("Expected fewer transactions than units: " + txnHelper.txnCount.get(), txnHelper.txnCount.get() < 30);
+        assertEquals(30L, groupCommitHelper.getUnitsGroupCommitted());
+        assertEquals(0L, groupCommitHelper.getUnitsIsolated());
+        assertTrue(groupCommitHelper.getAverageGroupSize() > 1.0);
+    }
+
+    @Test
+    public void testFailedUnitIsIsolated() throws Exception
+    {
+        final AtomicInteger goodExecutions = new AtomicInteger();
+        RetryingTransactionCallback<Void> good = new RetryingTransactionCallback<Void>()
+        {
+            @Override
+            public Void execute() throws Throwable
+            {
+                goodExecutions.incrementAndGet();
+                return null;
+            }
+        };
+        RetryingTransactionCallback<Void> bad = new RetryingTransactionCallback<Void>()
+        {
+            @Override
+            public Void execute() throws Throwable
+            {
+                throw new AlfrescoRuntimeException("Bad unit");
+            }
+        };
+        Future<Void> goodFuture1 = groupCommitHelper.submit(good);
+        Future<Void> badFuture = groupCommitHelper.submit(bad);
+        Future<Void> goodFuture2 = groupCommitHelper.submit(good);
+
+        goodFuture1.get();
+        goodFuture2.get();
+        try
+        {
+            badFuture.get();
+            fail("Failing unit should not succeed");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof AlfrescoRuntimeException);
+        }
+        assertEquals(2L, groupCommitHelper.getUnitsGroupCommitted());
+        assertEquals(1L, groupCommitHelper.getUnitsIsolated());
+        assertEquals(1L, groupCommitHelper.getUnitsFailed());
+    }
+
+    @Test
+    public void testDestroyCompletesQueuedUnits() throws Exception
+    {
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 30; i++)
+        {
+            final int value = i;
+            futures.add(groupCommitHelper.submit(new RetryingTransactionCallback<Integer>()
+            {
+                @Override
+                public Integer execute() throws Throwable
+                {
+                    return value;
+                }
+            }));
+        }
+        groupCommitHelper.destroy();
+        for (int i = 0; i < 30; i++)
+        {
+            assertEquals(Integer.valueOf(i), futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception
+    {
+        groupCommitHelper.destroy();
+        groupCommitHelper = new GroupCommitTransactionHelper();
+        groupCommitHelper.setTransactionService(transactionService);
+        groupCommitHelper.init();
+
+        String result = groupCommitHelper.doInTransaction(new RetryingTransactionCallback<String>()
+        {
+            @Override
+            public String execute() throws Throwable
+            {
+                return "done";
+            }
+        });
+        assertEquals("done", result);
+        assertEquals(1, txnHelper.txnCount.get());
+        assertEquals(0L, groupCommitHelper.getGroupCommits());
+    }
+
+    /**
+     * Executes callbacks directly, counting each new transaction
+     */
+    private static class CountingTransactionHelper extends RetryingTransactionHelper
+    {
+        private final AtomicInteger txnCount = new AtomicInteger();
+
+        @Override
+        public <R> R doInTransaction(RetryingTransactionCallback<R> cb, boolean readOnly, boolean requiresNew)
+        {
+            txnCount.incrementAndGet();
+            try
+            {
+                return cb.execute();
+            }
+            catch (Throwable e)
+            {
+                throw AlfrescoRuntimeException.makeRuntimeException(e, "Exception from transactional callback: " + cb);
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Tests for the {@link ReadReplicaRoutingDataSource} using two embedded databases.
+ */
+public class ReadReplicaRoutingDataSourceTest
+{
+    private DriverManagerDataSource primary;
+    private FailingDataSource replica;
+    private ReadReplicaRoutingDataSource routingDataSource;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        primary = new DriverManagerDataSource();
+        createDatabase(primary, "primary");
+        replica = new FailingDataSource();
+        createDatabase(replica, "replica");
+
+        routingDataSource = new ReadReplicaRoutingDataSource();
+        routingDataSource.setPrimaryDataSource(primary);
+        routingDataSource.setReplicaDataSource(replica);
+        routingDataSource.setPrimaryPositionQuery("SELECT pos FROM wal_position");
+        routingDataSource.setReplicaPositionQuery("SELECT pos FROM wal_position");
+        // The checks are run by the tests
+        routingDataSource.setLagCheckIntervalMs(600000L);
+        routingDataSource.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        routingDataSource.shutdown();
+        ReadReplicaRoutingDataSource.clearReadOnlyIntent();
+        replica.failing = false;
+        execute(primary, "DROP ALL OBJECTS");
+        execute(replica, "DROP ALL OBJECTS");
+    }
+
+    private void createDatabase(DriverManagerDataSource dataSource, String name) throws SQLException
+    {
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:" + name + getClass().getSimpleName() + ";DB_CLOSE_DELAY=-1");
+        execute(dataSource, "CREATE TABLE wal_position (pos BIGINT)");
+        execute(dataSource, "INSERT INTO wal_position VALUES (0)");
+        execute(dataSource, "CREATE TABLE db_name (name VARCHAR(20))");
+        execute(dataSource, "INSERT INTO db_name VALUES ('" + name + "')");
+    }
+
+    private void setPosition(DataSource dataSource, long position) throws SQLException
+    {
+        execute(dataSource, "UPDATE wal_position SET pos = " + position);
+    }
+
+    private void execute(DataSource dataSource, String sql) throws SQLException
+    {
+        Connection connection = dataSource.getConnection();
+        try
+        {
+            Statement stmt = connection.createStatement();
+            stmt.execute(sql);
+            stmt.close();
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+    /**
+     * @return          the name of the database that a new connection is taken from
+     */
+    private String getRoutedDatabase(boolean readOnly) throws SQLException
+    {
+        ReadReplicaRoutingDataSource.setReadOnlyIntent(readOnly);
+        Connection connection = null;
+        try
+        {
+            connection = routingDataSource.getConnection();
+        }
+        finally
+        {
+            ReadReplicaRoutingDataSource.clearReadOnlyIntent();
+        }
+        try
+        {
+            Statement stmt = connection.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT name FROM db_name");
+            rs.next();
+            String name = rs.getString(1);
+            stmt.close();
+            return name;
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testRouting() throws Exception
+    {
+        setPosition(primary, 10L);
+        setPosition(replica, 10L);
+        routingDataSource.checkReplica();
+
+        assertEquals("primary", getRoutedDatabase(false));
+        assertEquals("replica", getRoutedDatabase(true));
+        assertTrue(routingDataSource.isReplicaCurrent());
+        assertEquals(0L, routingDataSource.getLastKnownLag());
+        assertEquals(1L, routingDataSource.getReplicaConnections());
+    }
+
+    @Test
+    public void testNotUsedBeforeChecked() throws Exception
+    {
+        assertEquals("primary", getRoutedDatabase(true));
+        assertFalse(routingDataSource.isReplicaCurrent());
+        assertEquals(-1L, routingDataSource.getLastKnownLag());
+    }
+
+    @Test
+    public void testStaleReplica() throws Exception
+    {
+        setPosition(primary, 20L);
+        setPosition(replica, 10L);
+        routingDataSource.checkReplica();
+
+        assertEquals("primary", getRoutedDatabase(true));
+        assertFalse(routingDataSource.isReplicaCurrent());
+        assertEquals(10L, routingDataSource.getLastKnownLag());
+        assertEquals(1L, routingDataSource.getStaleFallbacks());
+
+        // Replication catches up
+        setPosition(replica, 20L);
+        routingDataSource.checkReplica();
+        assertEquals("replica", getRoutedDatabase(true));
+    }
+
+    @Test
+    public void testMaxLag() throws Exception
+    {
+        routingDataSource.checkReplica();
+        assertEquals("replica", getRoutedDatabase(true));
+
+        // Nothing newer is known to have reached the replica
+        Thread.sleep(50L);
+        routingDataSource.setMaxLagMs(10L);
+        assertEquals("primary", getRoutedDatabase(true));
+        assertTrue(routingDataSource.getReplicaLagMs() >= 50L);
+    }
+
+    @Test
+    public void testOwnWritesAreRead() throws Exception
+    {
+        setPosition(primary, 10L);
+        setPosition(replica, 10L);
+        routingDataSource.checkReplica();
+        assertEquals("replica", getRoutedDatabase(true));
+
+        // A write that has not reached the replica yet
+        Thread.sleep(5L);
+        setPosition(primary, 20L);
+        ReadReplicaRoutingDataSource.recordWriteCommitted();
+        assertEquals("primary", getRoutedDatabase(true));
+        routingDataSource.checkReplica();
+        assertEquals("primary", getRoutedDatabase(true));
+
+        // Other threads may still use the replica
+        final String[] otherThreadDatabase = new String[1];
+        Thread otherThread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    otherThreadDatabase[0] = getRoutedDatabase(true);
+                }
+                catch (SQLException e)
+                {
+                    otherThreadDatabase[0] = e.getMessage();
+                }
+            }
+        };
+        otherThread.start();
+        otherThread.join();
+        assertEquals("replica", otherThreadDatabase[0]);
+
+        // Replication catches up
+        Thread.sleep(5L);
+        setPosition(replica, 20L);
+        routingDataSource.checkReplica();
+        assertEquals("replica", getRoutedDatabase(true));
+    }
+
+    @Test
+    public void testReplicaFailure() throws Exception
+    {
+        routingDataSource.checkReplica();
+        assertEquals("replica", getRoutedDatabase(true));
+
+        replica.failing = true;
+        assertEquals("primary", getRoutedDatabase(true));
+        assertFalse(routingDataSource.isReplicaCurrent());
+        assertEquals(1L, routingDataSource.getFailedFallbacks());
+
+        // The replica is used again once a check succeeds
+        routingDataSource.checkReplica();
+        assertEquals("primary", getRoutedDatabase(true));
+        replica.failing = false;
+        routingDataSource.checkReplica();
+        assertEquals("replica", getRoutedDatabase(true));
+    }
+
+    @Test
+    public void testDisabled() throws Exception
+    {
+        routingDataSource.checkReplica();
+        routingDataSource.setEnabled(false);
+
+        assertEquals("primary", getRoutedDatabase(true));
+        assertEquals(0L, routingDataSource.getReplicaConnections());
+    }
+
+    /**
+     * A data source that can be made to fail
+     */
+    private static class FailingDataSource extends DriverManagerDataSource
+    {
+        private volatile boolean failing = false;
+
+        @Override
+        protected Connection getConnectionFromDriver(String username, String password) throws SQLException
+        {
+            if (failing)
+            {
+                throw new SQLException("Connection refused");
+            }
+            return super.getConnectionFromDriver(username, password);
+        }
+    }
+}
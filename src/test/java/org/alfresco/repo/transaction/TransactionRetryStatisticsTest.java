@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+
+/**
+ * Tests for the {@link TransactionRetryStatistics}.
+ */
+public class TransactionRetryStatisticsTest
+{
+    private TransactionRetryStatistics statistics;
+
+    @Before
+    public void setUp()
+    {
+        statistics = new TransactionRetryStatistics();
+        statistics.setMaxContendedKeys(3);
+    }
+
+    @Test
+    public void testRecordRetries()
+    {
+        Object callback = new Object();
+        statistics.recordRetry(callback, new ConcurrencyFailureException("Failed to update node 123"), 150L);
+        statistics.recordRetry(callback, new DeadlockLoserDataAccessException("Deadlock", null), 50L);
+        statistics.recordRetriesExhausted(callback);
+
+        assertEquals(2L, statistics.getTotalRetries());
+        assertEquals(200L, statistics.getTotalRetryWaitMs());
+        assertEquals(1L, statistics.getTotalRetriesExhausted());
+        assertEquals(Long.valueOf(2L), statistics.getRetriesByCallback().get(Object.class.getName()));
+        assertEquals(Long.valueOf(200L), statistics.getRetryWaitMsByCallback().get(Object.class.getName()));
+        assertEquals(Long.valueOf(1L), statistics.getRetriesExhaustedByCallback().get(Object.class.getName()));
+        assertEquals(Long.valueOf(1L), statistics.getRetriesByCause().get(ConcurrencyFailureException.class.getName()));
+        assertEquals(2L, statistics.getRecentRetries());
+
+        Map<String, Long> histogram = statistics.getRecentRetryWaitHistogram();
+        assertEquals(Long.valueOf(1L), histogram.get("0-100ms"));
+        assertEquals(Long.valueOf(1L), histogram.get("100-250ms"));
+
+        statistics.reset();
+        assertEquals(0L, statistics.getTotalRetries());
+        assertEquals(0L, statistics.getRecentRetries());
+        assertTrue(statistics.getRetriesByCallback().isEmpty());
+    }
+
+    @Test
+    public void testExtractContendedKey()
+    {
+        assertEquals("node#123",
+                statistics.extractContendedKey(new ConcurrencyFailureException("Failed to update node 123")));
+        assertEquals("AclEntity#45",
+                statistics.extractContendedKey(new ConcurrencyFailureException("AclEntity with ID (45) no longer exists")));
+        assertEquals("workspace://SpacesStore/abc-123",
+                statistics.extractContendedKey(new ConcurrencyFailureException(
+                        "Translation has been deleted externally: workspace://SpacesStore/abc-123")));
+        assertEquals("node#7",
+                statistics.extractContendedKey(new RuntimeException("Wrapper", new ConcurrencyFailureException("node 7"))));
+        assertNull(statistics.extractContendedKey(new ConcurrencyFailureException("Something went wrong")));
+    }
+
+    @Test
+    public void testContendedKeysAreBounded()
+    {
+        Object callback = new Object();
+        statistics.recordRetry(callback, new ConcurrencyFailureException("node 1"), 100L);
+        statistics.recordRetry(callback, new ConcurrencyFailureException("node 1"), 100L);
+        statistics.recordRetry(callback, new ConcurrencyFailureException("node 2"), 100L);
+        statistics.recordRetry(callback, new ConcurrencyFailureException("node 3"), 100L);
+        statistics.recordRetry(callback, new ConcurrencyFailureException("node 4"), 100L);
+
+        Map<String, Long> keys = statistics.getContendedKeys();
+        assertTrue("Too many keys tracked: " + keys, keys.size() <= 3);
+        // The hottest key survives and is listed first
+        assertEquals("node#1", keys.keySet().iterator().next());
+        assertEquals(Long.valueOf(2L), keys.get("node#1"));
+    }
+}